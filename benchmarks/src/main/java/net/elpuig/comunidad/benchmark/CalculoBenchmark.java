@@ -0,0 +1,74 @@
+package net.elpuig.comunidad.benchmark;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.CuotasPropietarios;
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.Propietario;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.model.Zona;
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.MotorCalculo;
+import org.openjdk.jmh.annotations.*;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fases de cálculo sobre una comunidad ya parseada: reparto de cuotas con cada motor,
+ * resumen de totales y agregación por propietario.
+ *
+ * El reparto escribe en los mapas de cuotas de las propiedades, pero siempre con los
+ * mismos valores, así que se puede repetir sobre la misma comunidad. Cada reparto
+ * construye también su índice de zonas, igual que al procesar una subida.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class CalculoBenchmark {
+
+    private final CalculadoraCuotas calculadora = new CalculadoraCuotas();
+    private SnapshotComunidad snapshot;
+
+    @Setup(Level.Trial)
+    public void calcular(DatosBenchmark datos) {
+        calculadora.calcularCuotas(datos.comunidad, datos.listaGastos, MotorCalculo.BIG_DECIMAL);
+        calculadora.generarResumen(datos.comunidad, datos.listaGastos);
+        DerivadosComunidad derivados = new DerivadosComunidad(datos.comunidad);
+        derivados.setCuotasPropietarios(CuotasPropietarios.calcular(datos.comunidad));
+        snapshot = new SnapshotComunidad(datos.comunidad.getId(), 1, datos.comunidad, derivados, 0, Instant.now());
+    }
+
+    @Benchmark
+    public Comunidad calcularCuotasBigDecimal(DatosBenchmark datos) {
+        calculadora.calcularCuotas(datos.comunidad, datos.listaGastos, MotorCalculo.BIG_DECIMAL);
+        return datos.comunidad;
+    }
+
+    @Benchmark
+    public Comunidad calcularCuotasCentimos(DatosBenchmark datos) {
+        calculadora.calcularCuotas(datos.comunidad, datos.listaGastos, MotorCalculo.CENTIMOS);
+        return datos.comunidad;
+    }
+
+    @Benchmark
+    public Comunidad generarResumen(DatosBenchmark datos) {
+        calculadora.generarResumen(datos.comunidad, datos.listaGastos);
+        return datos.comunidad;
+    }
+
+    /** Suma de las cuotas por propietario, como se hace una vez al publicar la comunidad */
+    @Benchmark
+    public CuotasPropietarios agregarPorPropietario(DatosBenchmark datos) {
+        return CuotasPropietarios.calcular(datos.comunidad);
+    }
+
+    /** Lectura de las cuotas por propietario ya agregadas, como en cada GET /cuotas */
+    @Benchmark
+    public Map<Propietario, Map<Zona, BigDecimal>> calcularCuotasPorPropietario() {
+        return CuotasPropietarios.de(snapshot).getPorPropietario();
+    }
+}
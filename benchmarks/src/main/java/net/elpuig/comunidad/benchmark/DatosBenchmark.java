@@ -0,0 +1,92 @@
+package net.elpuig.comunidad.benchmark;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.Gasto;
+import net.elpuig.comunidad.util.FileParserNio;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import org.openjdk.jmh.annotations.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Datos de entrada de los benchmarks: un archivo de comunidad y uno de gastos generados
+ * con el tamaño indicado por los parámetros, en memoria y en disco (para el parser que
+ * proyecta el fichero), y la comunidad ya parseada para las fases de cálculo.
+ *
+ * Con los valores mínimos de los parámetros el tamaño es el de los archivos de ejemplo
+ * de {@code archivos/}. Los archivos se generan con {@link GeneradorArchivos} y su semilla
+ * por defecto, así que cada combinación de parámetros produce siempre los mismos archivos.
+ */
+@State(Scope.Benchmark)
+public class DatosBenchmark {
+
+    @Param({"20", "10000", "100000", "1000000"})
+    public int propiedades;
+
+    @Param({"3", "50"})
+    public int zonas;
+
+    @Param({"1", "3"})
+    public int zonasPorPropiedad;
+
+    @Param({"14", "1000"})
+    public int gastos;
+
+    public byte[] archivoComunidad;
+    public byte[] archivoGastos;
+    public Path ficheroComunidad;
+    public Path ficheroGastos;
+
+    /** Comunidad parseada, con sus gastos, para los benchmarks de cálculo */
+    public Comunidad comunidad;
+    public List<Gasto> listaGastos;
+
+    @Setup(Level.Trial)
+    public void generar() throws IOException {
+        GeneradorArchivos generador = generador();
+        ByteArrayOutputStream comunidadBytes = new ByteArrayOutputStream(propiedades * 48 + 4096);
+        generador.escribirComunidad(comunidadBytes);
+        archivoComunidad = comunidadBytes.toByteArray();
+        ByteArrayOutputStream gastosBytes = new ByteArrayOutputStream(gastos * 48 + 64);
+        generador.escribirGastos(gastosBytes);
+        archivoGastos = gastosBytes.toByteArray();
+        ficheroComunidad = Files.createTempFile("bench-comunidad", ".txt");
+        ficheroGastos = Files.createTempFile("bench-gastos", ".txt");
+        Files.write(ficheroComunidad, archivoComunidad);
+        Files.write(ficheroGastos, archivoGastos);
+
+        FileParserNio parser = new FileParserNio(StandardCharsets.UTF_8);
+        comunidad = parser.parseComunidad(comunidadInput());
+        listaGastos = parser.parseGastos(gastosInput(), comunidad);
+        comunidad.setGastos(listaGastos);
+    }
+
+    @TearDown(Level.Trial)
+    public void borrar() throws IOException {
+        Files.deleteIfExists(ficheroComunidad);
+        Files.deleteIfExists(ficheroGastos);
+    }
+
+    public ByteArrayInputStream comunidadInput() {
+        return new ByteArrayInputStream(archivoComunidad);
+    }
+
+    public ByteArrayInputStream gastosInput() {
+        return new ByteArrayInputStream(archivoGastos);
+    }
+
+    private GeneradorArchivos generador() {
+        GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+        configuracion.setPropiedades(propiedades);
+        configuracion.setPropietarios(Math.max(1, propiedades * 3 / 4));
+        configuracion.setZonas(zonas);
+        configuracion.setZonasPorPropiedad(zonasPorPropiedad);
+        configuracion.setGastos(gastos);
+        return new GeneradorArchivos(configuracion);
+    }
+}
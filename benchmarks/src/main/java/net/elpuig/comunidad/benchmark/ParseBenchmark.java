@@ -0,0 +1,53 @@
+package net.elpuig.comunidad.benchmark;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.Gasto;
+import net.elpuig.comunidad.util.FileParser;
+import net.elpuig.comunidad.util.FileParserNio;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fase de parseo: archivos de comunidad y de gastos con los dos parsers. El parser NIO
+ * se mide leyendo de un stream (como en una subida) y del canal del fichero
+ * (como en los lotes por directorio).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    private final FileParser fileParser = new FileParser();
+    private final FileParserNio fileParserNio = new FileParserNio(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public Comunidad comunidadClasico(DatosBenchmark datos) throws IOException {
+        return fileParser.parseComunidad(datos.comunidadInput());
+    }
+
+    @Benchmark
+    public Comunidad comunidadNio(DatosBenchmark datos) throws IOException {
+        return fileParserNio.parseComunidad(datos.comunidadInput());
+    }
+
+    @Benchmark
+    public Comunidad comunidadNioFichero(DatosBenchmark datos) throws IOException {
+        return fileParserNio.parseComunidad(datos.ficheroComunidad);
+    }
+
+    @Benchmark
+    public List<Gasto> gastosClasico(DatosBenchmark datos) throws IOException {
+        return fileParser.parseGastos(datos.gastosInput(), datos.comunidad);
+    }
+
+    @Benchmark
+    public List<Gasto> gastosNio(DatosBenchmark datos) throws IOException {
+        return fileParserNio.parseGastos(datos.gastosInput(), datos.comunidad);
+    }
+}
@@ -0,0 +1,64 @@
+package net.elpuig.comunidad.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.service.AlmacenSnapshots;
+import net.elpuig.comunidad.service.ComunidadService;
+import net.elpuig.comunidad.service.ConsultaComunidad;
+import net.elpuig.comunidad.service.HistorialPresupuestos;
+import net.elpuig.comunidad.service.MetricasComunidad;
+import net.elpuig.comunidad.service.RegistroComunidades;
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.FileParser;
+import net.elpuig.comunidad.util.FileParserNio;
+import net.elpuig.comunidad.util.HistorialBinario;
+import net.elpuig.comunidad.util.SnapshotBinario;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.mock.web.MockMultipartFile;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Procesado completo de una subida con {@link ComunidadService#procesarArchivos}: parseo,
+ * cálculo, resumen, agregación por propietario y publicación en el registro. Los
+ * componentes se crean con un contexto de Spring mínimo, sin servidor web, y con la
+ * configuración por defecto: las métricas van a un registro en memoria y no se guardan
+ * snapshots en disco.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    private AnnotationConfigApplicationContext contexto;
+    private ComunidadService comunidadService;
+    private MockMultipartFile comunidadFile;
+    private MockMultipartFile gastosFile;
+
+    @Setup(Level.Trial)
+    public void arrancar(DatosBenchmark datos) {
+        contexto = new AnnotationConfigApplicationContext();
+        contexto.register(FileParser.class, FileParserNio.class, CalculadoraCuotas.class, RegistroComunidades.class,
+            SnapshotBinario.class, AlmacenSnapshots.class, HistorialBinario.class, HistorialPresupuestos.class,
+            MetricasComunidad.class, ConsultaComunidad.class, ComunidadService.class);
+        contexto.registerBean(SimpleMeterRegistry.class);
+        contexto.refresh();
+        comunidadService = contexto.getBean(ComunidadService.class);
+        comunidadFile = new MockMultipartFile("comunidadFile", "Comunidad.txt", "text/plain", datos.archivoComunidad);
+        gastosFile = new MockMultipartFile("gastosFile", "Gastos.txt", "text/plain", datos.archivoGastos);
+    }
+
+    @TearDown(Level.Trial)
+    public void parar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public SnapshotComunidad procesarArchivos() throws IOException {
+        return comunidadService.procesarArchivos(comunidadFile, gastosFile);
+    }
+}
@@ -0,0 +1,462 @@
+package net.elpuig.comunidad.benchmark;
+
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Prueba de carga HTTP contra la aplicación arrancada en local, sin red externa. Genera con
+ * {@link GeneradorArchivos} varias parejas de archivos de comunidad y gastos, las sube una vez
+ * y lanza {@code usuarios} clientes concurrentes que repiten peticiones según una mezcla de
+ * operaciones durante {@code duracion} segundos, después de {@code calentamiento} segundos que
+ * no se cuentan. De cada operación informa de peticiones por segundo y de la latencia p50, p99
+ * y p99,9, calculadas sobre todas las latencias medidas, sin aproximar.
+ *
+ * Las mezclas son {@code subidas} (la mitad de las peticiones son subidas síncronas a
+ * {@code /procesar}) y {@code lecturas} (casi todas son páginas de cuotas y propiedades y
+ * búsquedas de propietarios). Con {@code war} la prueba arranca ella misma la aplicación en un
+ * puerto libre, una vez por cada modo de {@code modos}: {@code plataforma} es el pool de hilos
+ * de Tomcat y {@code virtuales} arranca con {@code spring.threads.virtual.enabled=true}; al
+ * final compara los modos. Sin {@code war} mide la aplicación que ya atiende en {@code url}.
+ *
+ * Los parámetros se indican como {@code clave=valor}:
+ * {@code java -cp benchmarks/target/benchmarks.jar net.elpuig.comunidad.benchmark.PruebaCarga war=target/comunidad-0.0.1-SNAPSHOT.war usuarios=64}
+ */
+public final class PruebaCarga {
+
+    private static final Duration ESPERA_ARRANQUE = Duration.ofMinutes(3);
+    private static final Duration ESPERA_PETICION = Duration.ofMinutes(5);
+    private static final String[] BUSQUEDAS = {"mart", "laura", "sal", "gut", "jorge pa", "sabadell", "0001"};
+
+    /** Operaciones de la prueba, con el nombre con el que se informa de cada una */
+    enum Operacion {
+        PROCESAR("POST /procesar"),
+        CUOTAS("GET /cuotas"),
+        PROPIEDADES("GET /propiedades"),
+        BUSQUEDA("GET /api/propietarios");
+
+        private final String nombre;
+
+        Operacion(String nombre) {
+            this.nombre = nombre;
+        }
+    }
+
+    /** Peso de cada operación, en el orden de {@link Operacion} */
+    enum Mezcla {
+        SUBIDAS(50, 20, 15, 15),
+        LECTURAS(2, 40, 30, 28);
+
+        private final int[] pesos;
+        private final int total;
+
+        Mezcla(int... pesos) {
+            this.pesos = pesos;
+            this.total = Arrays.stream(pesos).sum();
+        }
+
+        Operacion elegir(SplittableRandom aleatorio) {
+            int valor = aleatorio.nextInt(total);
+            for (int i = 0; i < pesos.length; i++) {
+                valor -= pesos[i];
+                if (valor < 0) {
+                    return Operacion.values()[i];
+                }
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    /** Parámetros de la prueba */
+    static final class Configuracion {
+        String url = "http://localhost:4048";
+        Path war;
+        List<String> jvm = List.of("-Xmx2g");
+        List<String> modos = List.of("plataforma", "virtuales");
+        List<Mezcla> mezclas = List.of(Mezcla.SUBIDAS, Mezcla.LECTURAS);
+        int usuarios = 32;
+        int duracion = 30;
+        int calentamiento = 5;
+        int propiedades = 10000;
+        int comunidades = 4;
+        long semilla = 42;
+    }
+
+    /** Resultado de una mezcla con un modo */
+    record Resultado(String modo, Mezcla mezcla, int segundos, Map<Operacion, Medidas> medidas) {
+    }
+
+    private final Configuracion configuracion;
+    private final HttpClient cliente;
+    private final List<String> idsComunidad = new ArrayList<>();
+    /** Cuerpo multipart de la subida de cada comunidad */
+    private final List<byte[]> subidas = new ArrayList<>();
+    private final String separador = "----pruebacarga" + Long.toHexString(System.nanoTime());
+
+    PruebaCarga(Configuracion configuracion) {
+        this.configuracion = configuracion;
+        this.cliente = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        PruebaCarga prueba = new PruebaCarga(configuracion(args));
+        prueba.generarArchivos();
+        List<Resultado> resultados = prueba.ejecutar();
+        if (prueba.configuracion.war != null && prueba.configuracion.modos.size() > 1) {
+            comparar(resultados, prueba.configuracion.modos);
+        }
+    }
+
+    /**
+     * Genera las parejas de archivos, cada una con su código de comunidad y su semilla, y
+     * prepara el cuerpo de su subida.
+     */
+    void generarArchivos() throws IOException {
+        for (int i = 0; i < configuracion.comunidades; i++) {
+            GeneradorArchivos.Configuracion datos = new GeneradorArchivos.Configuracion();
+            datos.setComunidadId(String.format("%02d", i + 1));
+            datos.setNombre("Carga " + (i + 1));
+            datos.setPropiedades(configuracion.propiedades);
+            datos.setPropietarios(Math.max(1, configuracion.propiedades * 3 / 4));
+            datos.setSemilla(configuracion.semilla + i);
+            GeneradorArchivos generador = new GeneradorArchivos(datos);
+            ByteArrayOutputStream comunidad = new ByteArrayOutputStream();
+            generador.escribirComunidad(comunidad);
+            ByteArrayOutputStream gastos = new ByteArrayOutputStream();
+            generador.escribirGastos(gastos);
+            idsComunidad.add(datos.getComunidadId());
+            subidas.add(multipart(comunidad.toByteArray(), gastos.toByteArray()));
+        }
+    }
+
+    /**
+     * Ejecuta cada mezcla con cada modo, arrancando y parando la aplicación si hay {@code war}.
+     */
+    List<Resultado> ejecutar() throws Exception {
+        List<Resultado> resultados = new ArrayList<>();
+        if (configuracion.war == null) {
+            for (Mezcla mezcla : configuracion.mezclas) {
+                resultados.add(medir("externa", configuracion.url, mezcla));
+            }
+            return resultados;
+        }
+        for (String modo : configuracion.modos) {
+            for (Mezcla mezcla : configuracion.mezclas) {
+                // Cada mezcla empieza con la aplicación recién arrancada y sin snapshots
+                Path directorio = Files.createTempDirectory("prueba-carga");
+                int puerto = puertoLibre();
+                Process aplicacion = arrancar(modo, puerto, directorio);
+                try {
+                    String url = "http://localhost:" + puerto;
+                    esperarArranque(aplicacion, url, directorio);
+                    resultados.add(medir(modo, url, mezcla));
+                } finally {
+                    parar(aplicacion);
+                    borrar(directorio);
+                }
+            }
+        }
+        return resultados;
+    }
+
+    private Resultado medir(String modo, String url, Mezcla mezcla) throws Exception {
+        // Las lecturas necesitan las comunidades ya publicadas
+        for (int i = 0; i < subidas.size(); i++) {
+            HttpResponse<Void> respuesta = cliente.send(peticion(url, Operacion.PROCESAR, i, 0), HttpResponse.BodyHandlers.discarding());
+            if (respuesta.statusCode() >= 400) {
+                throw new IllegalStateException("No se ha podido subir la comunidad " + idsComunidad.get(i)
+                    + ": HTTP " + respuesta.statusCode());
+            }
+        }
+
+        long inicio = System.nanoTime() + TimeUnit.SECONDS.toNanos(configuracion.calentamiento);
+        long fin = inicio + TimeUnit.SECONDS.toNanos(configuracion.duracion);
+        List<Future<Map<Operacion, Medidas>>> usuarios = new ArrayList<>();
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int u = 0; u < configuracion.usuarios; u++) {
+                SplittableRandom aleatorio = new SplittableRandom(configuracion.semilla * 31 + u);
+                usuarios.add(ejecutor.submit(() -> usuario(url, mezcla, aleatorio, inicio, fin)));
+            }
+        }
+        Map<Operacion, Medidas> medidas = new EnumMap<>(Operacion.class);
+        for (Future<Map<Operacion, Medidas>> usuario : usuarios) {
+            usuario.get().forEach((operacion, m) -> medidas.computeIfAbsent(operacion, o -> new Medidas()).sumar(m));
+        }
+        Resultado resultado = new Resultado(modo, mezcla, configuracion.duracion, medidas);
+        imprimir(resultado);
+        return resultado;
+    }
+
+    /**
+     * Un cliente: encadena peticiones hasta el final de la prueba y anota la latencia de las
+     * que empiezan después del calentamiento.
+     */
+    private Map<Operacion, Medidas> usuario(String url, Mezcla mezcla, SplittableRandom aleatorio,
+                                            long inicio, long fin) throws InterruptedException {
+        Map<Operacion, Medidas> medidas = new EnumMap<>(Operacion.class);
+        long ahora;
+        while ((ahora = System.nanoTime()) < fin) {
+            Operacion operacion = mezcla.elegir(aleatorio);
+            HttpRequest peticion = peticion(url, operacion, aleatorio.nextInt(subidas.size()), aleatorio.nextInt(BUSQUEDAS.length));
+            boolean correcta;
+            try {
+                correcta = cliente.send(peticion, HttpResponse.BodyHandlers.discarding()).statusCode() < 400;
+            } catch (IOException e) {
+                correcta = false;
+            }
+            long latencia = System.nanoTime() - ahora;
+            if (ahora >= inicio) {
+                medidas.computeIfAbsent(operacion, o -> new Medidas()).anotar(latencia, correcta);
+            }
+        }
+        return medidas;
+    }
+
+    private HttpRequest peticion(String url, Operacion operacion, int comunidad, int busqueda) {
+        String id = idsComunidad.get(comunidad);
+        HttpRequest.Builder peticion = switch (operacion) {
+            case PROCESAR -> HttpRequest.newBuilder(URI.create(url + "/procesar"))
+                .header("Content-Type", "multipart/form-data; boundary=" + separador)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(subidas.get(comunidad)));
+            case CUOTAS -> HttpRequest.newBuilder(URI.create(url + "/cuotas?comunidad=" + id));
+            case PROPIEDADES -> HttpRequest.newBuilder(URI.create(url + "/propiedades?comunidad=" + id));
+            case BUSQUEDA -> HttpRequest.newBuilder(URI.create(url + "/api/propietarios?limite=20&q="
+                + URLEncoder.encode(BUSQUEDAS[busqueda], StandardCharsets.UTF_8)));
+        };
+        // Como un navegador: las páginas cacheadas se sirven comprimidas
+        return peticion.header("Accept-Encoding", "gzip").timeout(ESPERA_PETICION).build();
+    }
+
+    private byte[] multipart(byte[] comunidad, byte[] gastos) {
+        ByteArrayOutputStream cuerpo = new ByteArrayOutputStream(comunidad.length + gastos.length + 512);
+        parte(cuerpo, "comunidadFile", "comunidad.txt", comunidad);
+        parte(cuerpo, "gastosFile", "gastos.txt", gastos);
+        cuerpo.writeBytes(("--" + separador + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return cuerpo.toByteArray();
+    }
+
+    private void parte(ByteArrayOutputStream cuerpo, String campo, String archivo, byte[] contenido) {
+        cuerpo.writeBytes(("--" + separador + "\r\n"
+            + "Content-Disposition: form-data; name=\"" + campo + "\"; filename=\"" + archivo + "\"\r\n"
+            + "Content-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        cuerpo.writeBytes(contenido);
+        cuerpo.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Process arrancar(String modo, int puerto, Path directorio) throws IOException {
+        boolean virtuales = switch (modo) {
+            case "plataforma" -> false;
+            case "virtuales" -> true;
+            default -> throw new IllegalArgumentException("Modo desconocido: " + modo);
+        };
+        List<String> comando = new ArrayList<>();
+        comando.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        comando.addAll(configuracion.jvm);
+        comando.addAll(List.of("-jar", configuracion.war.toString(),
+            "--server.port=" + puerto,
+            "--spring.threads.virtual.enabled=" + virtuales,
+            "--comunidad.snapshots.directorio=" + directorio.resolve("snapshots")));
+        return new ProcessBuilder(comando)
+            .redirectErrorStream(true)
+            .redirectOutput(directorio.resolve("aplicacion.log").toFile())
+            .start();
+    }
+
+    private void esperarArranque(Process aplicacion, String url, Path directorio) throws Exception {
+        long limite = System.nanoTime() + ESPERA_ARRANQUE.toNanos();
+        HttpRequest salud = HttpRequest.newBuilder(URI.create(url + "/actuator/health")).timeout(Duration.ofSeconds(5)).build();
+        while (System.nanoTime() < limite) {
+            if (!aplicacion.isAlive()) {
+                throw new IllegalStateException("La aplicación ha terminado al arrancar:\n"
+                    + Files.readString(directorio.resolve("aplicacion.log")));
+            }
+            try {
+                if (cliente.send(salud, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Todavía no escucha
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("La aplicación no ha arrancado en " + ESPERA_ARRANQUE.toSeconds() + " s");
+    }
+
+    private static void parar(Process aplicacion) throws InterruptedException {
+        aplicacion.destroy();
+        if (!aplicacion.waitFor(30, TimeUnit.SECONDS)) {
+            aplicacion.destroyForcibly().waitFor();
+        }
+    }
+
+    private static void imprimir(Resultado resultado) {
+        System.out.printf("%nModo %s, mezcla %s: %d s%n", resultado.modo(),
+            resultado.mezcla().name().toLowerCase(Locale.ROOT), resultado.segundos());
+        System.out.printf("%-24s %10s %8s %10s %10s %10s %10s %10s%n",
+            "Operación", "Peticiones", "Errores", "Pet./s", "p50 ms", "p99 ms", "p99,9 ms", "máx ms");
+        Medidas total = new Medidas();
+        for (Map.Entry<Operacion, Medidas> entrada : resultado.medidas().entrySet()) {
+            linea(entrada.getKey().nombre, entrada.getValue(), resultado.segundos());
+            total.sumar(entrada.getValue());
+        }
+        linea("Total", total, resultado.segundos());
+    }
+
+    private static void linea(String nombre, Medidas medidas, int segundos) {
+        System.out.printf(Locale.ROOT, "%-24s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+            nombre, medidas.peticiones(), medidas.errores, (double) medidas.peticiones() / segundos,
+            medidas.percentil(0.50), medidas.percentil(0.99), medidas.percentil(0.999), medidas.percentil(1));
+    }
+
+    /**
+     * Tabla con las peticiones por segundo y la p99 de cada operación en cada modo.
+     */
+    private static void comparar(List<Resultado> resultados, List<String> modos) {
+        System.out.printf("%nComparación de modos (pet./s y p99 ms)%n");
+        StringBuilder cabecera = new StringBuilder(String.format("%-10s %-24s", "Mezcla", "Operación"));
+        for (String modo : modos) {
+            cabecera.append(String.format(" %14s %14s", modo + " pet/s", modo + " p99"));
+        }
+        System.out.println(cabecera);
+        for (Mezcla mezcla : Mezcla.values()) {
+            for (Operacion operacion : Operacion.values()) {
+                StringBuilder linea = new StringBuilder(String.format("%-10s %-24s",
+                    mezcla.name().toLowerCase(Locale.ROOT), operacion.nombre));
+                boolean hay = false;
+                for (String modo : modos) {
+                    Resultado resultado = resultados.stream()
+                        .filter(r -> r.modo().equals(modo) && r.mezcla() == mezcla)
+                        .findFirst().orElse(null);
+                    Medidas medidas = resultado != null ? resultado.medidas().get(operacion) : null;
+                    if (medidas == null) {
+                        linea.append(String.format(" %14s %14s", "-", "-"));
+                        continue;
+                    }
+                    hay = true;
+                    linea.append(String.format(Locale.ROOT, " %14.1f %14.2f",
+                        (double) medidas.peticiones() / resultado.segundos(), medidas.percentil(0.99)));
+                }
+                if (hay) {
+                    System.out.println(linea);
+                }
+            }
+        }
+    }
+
+    private static int puertoLibre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void borrar(Path directorio) throws IOException {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            rutas.sorted(Comparator.reverseOrder()).forEach(ruta -> {
+                try {
+                    Files.deleteIfExists(ruta);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private static Configuracion configuracion(String[] args) {
+        Configuracion configuracion = new Configuracion();
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                throw new IllegalArgumentException("Parámetro no válido: " + arg + " (se espera clave=valor)");
+            }
+            String clave = arg.substring(0, igual);
+            String valor = arg.substring(igual + 1);
+            switch (clave) {
+                case "url" -> configuracion.url = valor;
+                case "war" -> configuracion.war = Paths.get(valor);
+                case "jvm" -> configuracion.jvm = List.of(valor.trim().split("\\s+"));
+                case "modos" -> configuracion.modos = List.of(valor.split(","));
+                case "mezclas" -> configuracion.mezclas = Arrays.stream(valor.split(","))
+                    .map(mezcla -> Mezcla.valueOf(mezcla.trim().toUpperCase(Locale.ROOT)))
+                    .toList();
+                case "usuarios" -> configuracion.usuarios = Integer.parseInt(valor);
+                case "duracion" -> configuracion.duracion = Integer.parseInt(valor);
+                case "calentamiento" -> configuracion.calentamiento = Integer.parseInt(valor);
+                case "propiedades" -> configuracion.propiedades = Integer.parseInt(valor);
+                case "comunidades" -> configuracion.comunidades = Integer.parseInt(valor);
+                case "semilla" -> configuracion.semilla = Long.parseLong(valor);
+                default -> throw new IllegalArgumentException("Parámetro desconocido: " + clave);
+            }
+        }
+        if (configuracion.usuarios < 1 || configuracion.duracion < 1 || configuracion.calentamiento < 0
+            || configuracion.comunidades < 1) {
+            throw new IllegalArgumentException("usuarios, duracion y comunidades deben ser positivos");
+        }
+        return configuracion;
+    }
+
+    /** Latencias en nanosegundos y errores de una operación */
+    static final class Medidas {
+        private long[] latencias = new long[1024];
+        private int n;
+        private long errores;
+        private boolean ordenadas;
+
+        void anotar(long latencia, boolean correcta) {
+            if (n == latencias.length) {
+                latencias = Arrays.copyOf(latencias, n * 2);
+            }
+            latencias[n++] = latencia;
+            if (!correcta) {
+                errores++;
+            }
+        }
+
+        void sumar(Medidas otras) {
+            if (n + otras.n > latencias.length) {
+                latencias = Arrays.copyOf(latencias, Math.max(n + otras.n, latencias.length * 2));
+            }
+            System.arraycopy(otras.latencias, 0, latencias, n, otras.n);
+            n += otras.n;
+            errores += otras.errores;
+            ordenadas = false;
+        }
+
+        long peticiones() {
+            return n;
+        }
+
+        /** Percentil exacto en milisegundos: la menor latencia que no superan la fracción {@code p} de peticiones */
+        double percentil(double p) {
+            if (n == 0) {
+                return 0;
+            }
+            if (!ordenadas) {
+                Arrays.sort(latencias, 0, n);
+                ordenadas = true;
+            }
+            int posicion = (int) Math.ceil(p * n) - 1;
+            return latencias[Math.max(0, Math.min(n - 1, posicion))] / 1e6;
+        }
+    }
+}
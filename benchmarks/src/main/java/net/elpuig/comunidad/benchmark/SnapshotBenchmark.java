@@ -0,0 +1,56 @@
+package net.elpuig.comunidad.benchmark;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.MotorCalculo;
+import net.elpuig.comunidad.util.SnapshotBinario;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshots binarios de una comunidad calculada: escritura y recarga desde disco. La
+ * recarga se compara con {@link ParseBenchmark}, que solo parsea y aún tendría que
+ * calcular las cuotas.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    private final SnapshotBinario snapshotBinario = new SnapshotBinario();
+    private Path fichero;
+    private Path ficheroEscritura;
+
+    @Setup(Level.Trial)
+    public void preparar(DatosBenchmark datos) throws IOException {
+        CalculadoraCuotas calculadora = new CalculadoraCuotas();
+        calculadora.calcularCuotas(datos.comunidad, datos.listaGastos, MotorCalculo.BIG_DECIMAL);
+        calculadora.generarResumen(datos.comunidad, datos.listaGastos);
+        fichero = Files.createTempFile("bench-snapshot", SnapshotBinario.EXTENSION);
+        ficheroEscritura = Files.createTempFile("bench-snapshot-escritura", SnapshotBinario.EXTENSION);
+        snapshotBinario.escribir(datos.comunidad, fichero);
+    }
+
+    @TearDown(Level.Trial)
+    public void borrar() throws IOException {
+        Files.deleteIfExists(fichero);
+        Files.deleteIfExists(ficheroEscritura);
+    }
+
+    @Benchmark
+    public Comunidad leer() throws IOException {
+        return snapshotBinario.leer(fichero);
+    }
+
+    @Benchmark
+    public Path escribir(DatosBenchmark datos) throws IOException {
+        snapshotBinario.escribir(datos.comunidad, ficheroEscritura);
+        return ficheroEscritura;
+    }
+}
@@ -0,0 +1,37 @@
+package net.elpuig.comunidad.controller;
+
+import net.elpuig.comunidad.model.PanelCartera;
+import net.elpuig.comunidad.service.AnaliticaCartera;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.Map;
+
+/**
+ * API JSON de paneles de cartera: {@code GET /api/cartera} devuelve el gasto de todas las
+ * comunidades, cargadas o guardadas en disco, por población, por nombre de zona y por categoría de gasto, los
+ * propietarios con mayor cuota sumando todas sus comunidades y las propiedades más caras.
+ */
+@RestController
+@RequestMapping("/api/cartera")
+public class CarteraApiController {
+
+    @Autowired
+    private AnaliticaCartera analiticaCartera;
+
+    /**
+     * Panel de la cartera.
+     *
+     * @param limite Número de propietarios y propiedades (máximo {@value AnaliticaCartera#LIMITE_MAXIMO})
+     */
+    @GetMapping
+    public PanelCartera panel(
+            @RequestParam(value = "limite", defaultValue = "" + AnaliticaCartera.LIMITE_POR_DEFECTO) int limite) {
+        return analiticaCartera.panel(limite);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> peticionNoValida(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+}
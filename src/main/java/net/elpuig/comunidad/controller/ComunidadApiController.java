@@ -0,0 +1,325 @@
+package net.elpuig.comunidad.controller;
+
+import net.elpuig.comunidad.model.*;
+import net.elpuig.comunidad.service.ComparadorPresupuestos;
+import net.elpuig.comunidad.service.ComunidadService;
+import net.elpuig.comunidad.service.ConsultaComunidad;
+import net.elpuig.comunidad.service.HistorialPresupuestos;
+import net.elpuig.comunidad.service.SimuladorEscenarios;
+import net.elpuig.comunidad.service.VersionCambiadaException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * API JSON de consulta de las comunidades cargadas.
+ * Las listas grandes (propiedades, propietarios y gastos) se devuelven por páginas con un
+ * cursor, con filtros y ordenación. Todas las respuestas de una comunidad llevan un ETag
+ * fuerte derivado de la versión de su snapshot: si el cliente envía {@code If-None-Match}
+ * con la versión vigente se responde 304 sin consultar ni serializar nada.
+ *
+ * Los presupuestos de cada año se comparan en {@code /{id}/presupuestos/{desde}/{hasta}}; el
+ * ETag de las comparaciones se deriva de la versión de los dos presupuestos.
+ *
+ * Los escenarios de cambios en los gastos se simulan con {@code POST /{id}/simulaciones}, sin
+ * modificar la comunidad.
+ */
+@RestController
+@RequestMapping("/api/comunidades")
+public class ComunidadApiController {
+
+    @Autowired
+    private ComunidadService comunidadService;
+
+    @Autowired
+    private ConsultaComunidad consultaComunidad;
+
+    @Autowired
+    private HistorialPresupuestos historialPresupuestos;
+
+    @Autowired
+    private ComparadorPresupuestos comparadorPresupuestos;
+
+    @Autowired
+    private SimuladorEscenarios simuladorEscenarios;
+
+    /**
+     * Lista las comunidades cargadas o guardadas en disco, ordenadas por código.
+     */
+    @GetMapping
+    public List<FilaComunidad> listarComunidades() {
+        return comunidadService.getComunidades();
+    }
+
+    /**
+     * Datos generales y totales de una comunidad.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<FilaComunidad> comunidad(@PathVariable("id") String id, WebRequest request) {
+        return responder(id, request, consultaComunidad::comunidad);
+    }
+
+    /**
+     * Zonas de una comunidad.
+     */
+    @GetMapping("/{id}/zonas")
+    public ResponseEntity<List<Zona>> zonas(@PathVariable("id") String id, WebRequest request) {
+        return responder(id, request, consultaComunidad::zonas);
+    }
+
+    /**
+     * Página de propiedades de una comunidad.
+     *
+     * @param zona Solo las propiedades que participan en esta zona (opcional)
+     * @param tipo Solo las propiedades de este tipo: P, L o G (opcional)
+     * @param orden natural, codigo, metros o total
+     * @param desc Si se ordena de forma descendente
+     * @param cursor Cursor devuelto en la página anterior (opcional)
+     * @param limite Elementos por página (máximo {@value ConsultaComunidad#LIMITE_MAXIMO})
+     */
+    @GetMapping("/{id}/propiedades")
+    public ResponseEntity<Pagina<FilaPropiedad>> propiedades(
+            @PathVariable("id") String id,
+            @RequestParam(value = "zona", required = false) String zona,
+            @RequestParam(value = "tipo", required = false) String tipo,
+            @RequestParam(value = "orden", required = false) String orden,
+            @RequestParam(value = "desc", defaultValue = "false") boolean desc,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", defaultValue = "" + ConsultaComunidad.LIMITE_POR_DEFECTO) int limite,
+            WebRequest request) {
+        return responder(id, request,
+            snapshot -> consultaComunidad.propiedades(snapshot, zona, tipo, orden, desc, cursor, limite));
+    }
+
+    /**
+     * Página de propietarios de una comunidad, con sus cuotas sumadas.
+     *
+     * @param zona Solo los propietarios con cuota en esta zona (opcional)
+     * @param orden codigo, nombre o total
+     * @param desc Si se ordena de forma descendente
+     * @param cursor Cursor devuelto en la página anterior (opcional)
+     * @param limite Elementos por página (máximo {@value ConsultaComunidad#LIMITE_MAXIMO})
+     */
+    @GetMapping("/{id}/propietarios")
+    public ResponseEntity<Pagina<FilaPropietario>> propietarios(
+            @PathVariable("id") String id,
+            @RequestParam(value = "zona", required = false) String zona,
+            @RequestParam(value = "orden", required = false) String orden,
+            @RequestParam(value = "desc", defaultValue = "false") boolean desc,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", defaultValue = "" + ConsultaComunidad.LIMITE_POR_DEFECTO) int limite,
+            WebRequest request) {
+        return responder(id, request,
+            snapshot -> consultaComunidad.propietarios(snapshot, zona, orden, desc, cursor, limite));
+    }
+
+    /**
+     * Cuotas de un propietario.
+     */
+    @GetMapping("/{id}/propietarios/{codigo}")
+    public ResponseEntity<FilaPropietario> propietario(
+            @PathVariable("id") String id,
+            @PathVariable("codigo") String codigo,
+            WebRequest request) {
+        return responder(id, request, snapshot -> consultaComunidad.propietario(snapshot, codigo));
+    }
+
+    /**
+     * Página de gastos de una comunidad.
+     *
+     * @param zona Solo los gastos de esta zona (opcional)
+     * @param orden natural, id o importe
+     * @param desc Si se ordena de forma descendente
+     * @param cursor Cursor devuelto en la página anterior (opcional)
+     * @param limite Elementos por página (máximo {@value ConsultaComunidad#LIMITE_MAXIMO})
+     */
+    @GetMapping("/{id}/gastos")
+    public ResponseEntity<Pagina<FilaGasto>> gastos(
+            @PathVariable("id") String id,
+            @RequestParam(value = "zona", required = false) String zona,
+            @RequestParam(value = "orden", required = false) String orden,
+            @RequestParam(value = "desc", defaultValue = "false") boolean desc,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", defaultValue = "" + ConsultaComunidad.LIMITE_POR_DEFECTO) int limite,
+            WebRequest request) {
+        return responder(id, request,
+            snapshot -> consultaComunidad.gastos(snapshot, zona, orden, desc, cursor, limite));
+    }
+
+    /**
+     * Presupuestos registrados de una comunidad, uno por año, ordenados por año.
+     */
+    @GetMapping("/{id}/presupuestos")
+    public ResponseEntity<List<FilaPresupuesto>> presupuestos(@PathVariable("id") String id) {
+        List<PresupuestoAnual> presupuestos = historialPresupuestos.presupuestos(id);
+        if (presupuestos.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(comparadorPresupuestos.presupuestos(presupuestos));
+    }
+
+    /**
+     * Diferencia del total general y de cada zona entre los presupuestos de dos años.
+     */
+    @GetMapping("/{id}/presupuestos/{desde}/{hasta}")
+    public ResponseEntity<ComparacionPresupuestos> compararPresupuestos(
+            @PathVariable("id") String id,
+            @PathVariable("desde") int desde,
+            @PathVariable("hasta") int hasta,
+            WebRequest request) {
+        return responderComparacion(id, desde, hasta, request, comparadorPresupuestos::comparar);
+    }
+
+    /**
+     * Página de diferencias de cuota por propiedad entre dos años, en orden de código.
+     *
+     * @param cambios Si solo se devuelven las propiedades cuya cuota ha cambiado
+     * @param cursor Cursor devuelto en la página anterior (opcional)
+     * @param limite Elementos por página (máximo {@value ConsultaComunidad#LIMITE_MAXIMO})
+     */
+    @GetMapping("/{id}/presupuestos/{desde}/{hasta}/propiedades")
+    public ResponseEntity<Pagina<FilaDiferencia>> compararPropiedades(
+            @PathVariable("id") String id,
+            @PathVariable("desde") int desde,
+            @PathVariable("hasta") int hasta,
+            @RequestParam(value = "cambios", defaultValue = "false") boolean cambios,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", defaultValue = "" + ConsultaComunidad.LIMITE_POR_DEFECTO) int limite,
+            WebRequest request) {
+        return responderComparacion(id, desde, hasta, request,
+            (anterior, actual) -> comparadorPresupuestos.propiedades(anterior, actual, cambios, cursor, limite));
+    }
+
+    /**
+     * Diferencia de cuota de una propiedad entre dos años.
+     */
+    @GetMapping("/{id}/presupuestos/{desde}/{hasta}/propiedades/{codigo}")
+    public ResponseEntity<FilaDiferencia> compararPropiedad(
+            @PathVariable("id") String id,
+            @PathVariable("desde") int desde,
+            @PathVariable("hasta") int hasta,
+            @PathVariable("codigo") String codigo,
+            WebRequest request) {
+        return responderComparacion(id, desde, hasta, request,
+            (anterior, actual) -> comparadorPresupuestos.propiedad(anterior, actual, codigo));
+    }
+
+    /**
+     * Página de diferencias de cuota por propietario entre dos años, en orden de código.
+     *
+     * @param cambios Si solo se devuelven los propietarios cuya cuota ha cambiado
+     * @param cursor Cursor devuelto en la página anterior (opcional)
+     * @param limite Elementos por página (máximo {@value ConsultaComunidad#LIMITE_MAXIMO})
+     */
+    @GetMapping("/{id}/presupuestos/{desde}/{hasta}/propietarios")
+    public ResponseEntity<Pagina<FilaDiferencia>> compararPropietarios(
+            @PathVariable("id") String id,
+            @PathVariable("desde") int desde,
+            @PathVariable("hasta") int hasta,
+            @RequestParam(value = "cambios", defaultValue = "false") boolean cambios,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", defaultValue = "" + ConsultaComunidad.LIMITE_POR_DEFECTO) int limite,
+            WebRequest request) {
+        return responderComparacion(id, desde, hasta, request,
+            (anterior, actual) -> comparadorPresupuestos.propietarios(anterior, actual, cambios, cursor, limite));
+    }
+
+    /**
+     * Diferencia de cuota de un propietario entre dos años.
+     */
+    @GetMapping("/{id}/presupuestos/{desde}/{hasta}/propietarios/{codigo}")
+    public ResponseEntity<FilaDiferencia> compararPropietario(
+            @PathVariable("id") String id,
+            @PathVariable("desde") int desde,
+            @PathVariable("hasta") int hasta,
+            @PathVariable("codigo") String codigo,
+            WebRequest request) {
+        return responderComparacion(id, desde, hasta, request,
+            (anterior, actual) -> comparadorPresupuestos.propietario(anterior, actual, codigo));
+    }
+
+    /**
+     * Simula escenarios de cambios en los gastos sobre la versión vigente de una comunidad y
+     * devuelve, para cada uno, la diferencia del total, de las zonas afectadas y de los
+     * propietarios cuya cuota cambia. La comunidad no se modifica.
+     */
+    @PostMapping("/{id}/simulaciones")
+    public ResponseEntity<SimulacionEscenarios> simular(
+            @PathVariable("id") String id,
+            @RequestBody List<Escenario> escenarios) {
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(id);
+        if (snapshot == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(simuladorEscenarios.simular(snapshot, escenarios));
+    }
+
+    /**
+     * Resuelve el snapshot vigente y comprueba el ETag antes de hacer la consulta.
+     * Devuelve 404 si la comunidad no está cargada o la consulta no encuentra nada,
+     * y null (304, ya escrito por {@link WebRequest#checkNotModified}) si el cliente
+     * ya tiene la versión vigente.
+     */
+    private <T> ResponseEntity<T> responder(String id, WebRequest request, Function<SnapshotComunidad, T> consulta) {
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(id);
+        if (snapshot == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.checkNotModified(etag(snapshot))) {
+            return null;
+        }
+        T cuerpo = consulta.apply(snapshot);
+        if (cuerpo == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .cacheControl(CacheControl.noCache())
+            .body(cuerpo);
+    }
+
+    /**
+     * Como {@link #responder}, pero con los presupuestos de dos años: 404 si alguno no está
+     * registrado y ETag con la versión de ambos.
+     */
+    private <T> ResponseEntity<T> responderComparacion(String id, int desde, int hasta, WebRequest request,
+                                                       BiFunction<PresupuestoAnual, PresupuestoAnual, T> consulta) {
+        PresupuestoAnual anterior = historialPresupuestos.presupuesto(id, desde);
+        PresupuestoAnual actual = historialPresupuestos.presupuesto(id, hasta);
+        if (anterior == null || actual == null) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = "\"" + id + "-" + desde + "-" + anterior.getVersion() + "-" + hasta + "-" + actual.getVersion() + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        T cuerpo = consulta.apply(anterior, actual);
+        if (cuerpo == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .cacheControl(CacheControl.noCache())
+            .body(cuerpo);
+    }
+
+    private static String etag(SnapshotComunidad snapshot) {
+        return "\"" + snapshot.getId() + "-" + snapshot.getVersion() + "\"";
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> peticionNoValida(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+
+    /** Cursor de una versión anterior de la comunidad o de los presupuestos comparados */
+    @ExceptionHandler(VersionCambiadaException.class)
+    public ResponseEntity<Map<String, String>> conflicto(VersionCambiadaException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+    }
+}
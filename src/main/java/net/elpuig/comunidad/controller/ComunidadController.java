@@ -1,35 +1,66 @@
 package net.elpuig.comunidad.controller;
 
 import net.elpuig.comunidad.model.*;
+import net.elpuig.comunidad.service.ColaProcesado;
 import net.elpuig.comunidad.service.ComunidadService;
+import net.elpuig.comunidad.service.ProcesadorLotes;
+import net.elpuig.comunidad.util.ExportadorCuotas;
+import net.elpuig.comunidad.util.FormatoExportacion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 import java.math.BigDecimal;
-import java.util.Comparator;
-import java.util.TreeMap;
 
 /**
  * Controlador principal que maneja las peticiones relacionadas con la comunidad de propietarios.
  * Este controlador gestiona la carga de archivos, visualización de propiedades, propietarios,
  * cuotas y resumen de la comunidad.
+ * Las vistas de consulta reciben el código de comunidad en el parámetro "comunidad"; si no se
+ * indica, se muestra la última comunidad procesada.
  */
 @Controller
 public class ComunidadController {
     
     @Autowired
     private ComunidadService comunidadService;
+    
+    @Autowired
+    private ProcesadorLotes procesadorLotes;
+    
+    @Autowired
+    private ColaProcesado colaProcesado;
+    
+    @Autowired
+    private ExportadorCuotas exportadorCuotas;
+
+    @Autowired
+    private PaginasCacheadas paginasCacheadas;
 
     /**
-     * Muestra el formulario inicial para cargar los archivos de la comunidad.
+     * Muestra el formulario inicial para cargar los archivos de la comunidad,
+     * junto con la lista de comunidades ya cargadas.
      * 
+     * @param model Modelo para añadir atributos a la vista
      * @return Nombre de la vista "upload" que contiene el formulario de carga
      */
     @GetMapping("/")
-    public String mostrarFormulario() {
+    public String mostrarFormulario(Model model) {
+        model.addAttribute("comunidades", comunidadService.getComunidades());
         return "upload";
     }
 
@@ -39,13 +70,16 @@ public class ComunidadController {
      * 
      * @param comunidadFile Archivo con la información de la comunidad
      * @param gastosFile Archivo con la información de los gastos
+     * @param segundoPlano Si se procesan en segundo plano, mostrando el avance del trabajo
      * @param model Modelo para añadir atributos a la vista
-     * @return Nombre de la vista a mostrar ("upload" en caso de error, "resumen" si todo es correcto)
+     * @return Nombre de la vista a mostrar ("upload" en caso de error, "resumen" si todo es correcto
+     *         o redirección al trabajo si se procesa en segundo plano)
      */
     @PostMapping("/procesar")
     public String procesarArchivos(
             @RequestParam("comunidadFile") MultipartFile comunidadFile,
             @RequestParam("gastosFile") MultipartFile gastosFile,
+            @RequestParam(value = "segundoPlano", defaultValue = "false") boolean segundoPlano,
             Model model) {
         
         try {
@@ -73,13 +107,19 @@ public class ComunidadController {
                 return "upload";
             }
             
+            if (segundoPlano) {
+                TrabajoProcesado trabajo = colaProcesado.encolar(comunidadFile, gastosFile);
+                return "redirect:/trabajos/" + trabajo.getId();
+            }
+            
             // Procesar los archivos y generar la información de la comunidad
-            Comunidad comunidad = comunidadService.procesarArchivos(comunidadFile, gastosFile);
-            model.addAttribute("comunidad", comunidad);
+            SnapshotComunidad snapshot = comunidadService.procesarArchivos(comunidadFile, gastosFile);
+            model.addAttribute("comunidad", snapshot.getComunidad());
+            model.addAttribute("tablas", TablasComunidad.de(snapshot));
             return "resumen";
             
-        } catch (IllegalArgumentException e) {
-            // Error de formato de archivo
+        } catch (IllegalArgumentException | RejectedExecutionException e) {
+            // Error de formato de archivo o cola de procesado llena
             model.addAttribute("error", e.getMessage());
             return "upload";
         } catch (Exception e) {
@@ -90,82 +130,259 @@ public class ComunidadController {
     }
 
     /**
-     * Muestra la lista de propiedades de la comunidad.
-     * Si no hay comunidad cargada, redirige al inicio.
+     * Muestra el avance de un trabajo en segundo plano. La página se recarga sola hasta que
+     * el trabajo termina y entonces enlaza con el resumen de la comunidad.
      * 
+     * @param id Identificador del trabajo
      * @param model Modelo para añadir atributos a la vista
-     * @return Nombre de la vista a mostrar ("propiedades" o redirección a "/")
+     * @return Nombre de la vista "trabajo", o "upload" si el trabajo no existe
      */
-    @GetMapping("/propiedades")
-    public String mostrarPropiedades(Model model) {
-        Comunidad comunidad = comunidadService.getComunidadActual();
-        if (comunidad != null) {
-            model.addAttribute("comunidad", comunidad);
-            model.addAttribute("propiedades", comunidad.getPropiedades());
-            return "propiedades";
+    @GetMapping("/trabajos/{id}")
+    public String mostrarTrabajo(@PathVariable("id") String id, Model model) {
+        TrabajoProcesado trabajo = colaProcesado.trabajo(id);
+        if (trabajo == null) {
+            model.addAttribute("error", "El trabajo indicado no existe o ya se ha descartado");
+            model.addAttribute("comunidades", comunidadService.getComunidades());
+            return "upload";
         }
-        return "redirect:/";
+        model.addAttribute("trabajo", trabajo);
+        return "trabajo";
     }
 
     /**
-     * Muestra la lista de propietarios de la comunidad.
-     * Si no hay comunidad cargada, redirige al inicio.
+     * Procesa en lote muchas parejas de archivos de comunidad y gastos, contenidas en un ZIP
+     * subido o en un directorio del servidor. Un archivo erróneo no detiene el lote: su error
+     * aparece en el informe junto a los tiempos de cada comunidad.
      * 
+     * @param archivoZip ZIP con las parejas de archivos (opcional si se indica directorio)
+     * @param directorio Directorio del servidor con las parejas de archivos (opcional)
      * @param model Modelo para añadir atributos a la vista
-     * @return Nombre de la vista a mostrar ("propietarios" o redirección a "/")
+     * @return Nombre de la vista a mostrar ("lote" con el informe o "upload" en caso de error)
+     */
+    @PostMapping("/procesar-lote")
+    public String procesarLote(
+            @RequestParam(value = "archivoZip", required = false) MultipartFile archivoZip,
+            @RequestParam(value = "directorio", required = false) String directorio,
+            Model model) {
+        
+        try {
+            InformeLote informe;
+            if (archivoZip != null && !archivoZip.isEmpty()) {
+                informe = procesadorLotes.procesarZip(archivoZip);
+            } else if (directorio != null && !directorio.isBlank()) {
+                informe = procesadorLotes.procesarDirectorio(directorio);
+            } else {
+                model.addAttribute("error", "Debe indicar un archivo ZIP o un directorio del servidor");
+                return "upload";
+            }
+            model.addAttribute("informe", informe);
+            return "lote";
+            
+        } catch (IllegalArgumentException e) {
+            model.addAttribute("error", e.getMessage());
+            return "upload";
+        } catch (Exception e) {
+            model.addAttribute("error", "Error al procesar el lote: " + e.getMessage());
+            return "upload";
+        }
+    }
+
+    /**
+     * Muestra la lista de propiedades de la comunidad, desde la caché de páginas.
+     * Si la comunidad no está cargada, redirige al inicio.
+     * 
+     * @param comunidadId Código de la comunidad (opcional)
+     * @param peticion Petición en curso
+     * @return La vista "propiedades" o una redirección a "/"
+     */
+    @GetMapping("/propiedades")
+    public ResponseEntity<StreamingResponseBody> mostrarPropiedades(
+            @RequestParam(value = "comunidad", required = false) String comunidadId,
+            ServletWebRequest peticion) {
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(comunidadId);
+        if (snapshot != null) {
+            Comunidad comunidad = snapshot.getComunidad();
+            return paginasCacheadas.servir("propiedades", snapshot, () -> Map.of(
+                "comunidad", comunidad,
+                "propiedades", TablasComunidad.de(snapshot).getPropiedades()), peticion);
+        }
+        return redirigirInicio();
+    }
+
+    /**
+     * Muestra la lista de propietarios de la comunidad, desde la caché de páginas.
+     * Si la comunidad no está cargada, redirige al inicio.
+     * 
+     * @param comunidadId Código de la comunidad (opcional)
+     * @param peticion Petición en curso
+     * @return La vista "propietarios" o una redirección a "/"
      */
     @GetMapping("/propietarios")
-    public String mostrarPropietarios(Model model) {
-        Comunidad comunidad = comunidadService.getComunidadActual();
-        if (comunidad != null) {
-            model.addAttribute("comunidad", comunidad);
-            model.addAttribute("propietarios", comunidadService.getPropietariosOrdenados());
-            return "propietarios";
+    public ResponseEntity<StreamingResponseBody> mostrarPropietarios(
+            @RequestParam(value = "comunidad", required = false) String comunidadId,
+            ServletWebRequest peticion) {
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(comunidadId);
+        if (snapshot != null) {
+            Comunidad comunidad = snapshot.getComunidad();
+            return paginasCacheadas.servir("propietarios", snapshot, () -> Map.of(
+                "comunidad", comunidad,
+                "propietarios", comunidadService.getPropietariosOrdenados(snapshot)), peticion);
         }
-        return "redirect:/";
+        return redirigirInicio();
     }
 
     /**
-     * Muestra las cuotas calculadas para cada propietario y propiedad.
-     * Si no hay comunidad cargada, redirige al inicio.
+     * Muestra las cuotas calculadas para cada propietario y propiedad, desde la caché de páginas.
+     * Si la comunidad no está cargada, redirige al inicio.
      * 
-     * @param model Modelo para añadir atributos a la vista
-     * @return Nombre de la vista a mostrar ("cuotas" o redirección a "/")
+     * @param comunidadId Código de la comunidad (opcional)
+     * @param peticion Petición en curso
+     * @return La vista "cuotas" o una redirección a "/"
      */
     @GetMapping("/cuotas")
-    public String mostrarCuotas(Model model) {
-        Comunidad comunidad = comunidadService.getComunidadActual();
-        if (comunidad != null) {
-            Map<Propietario, Map<Zona, BigDecimal>> cuotasPorPropietario = 
-                comunidadService.calcularCuotasPorPropietario(comunidad);
-            
-            // Ordenar el mapa por código de propietario
-            Map<Propietario, Map<Zona, BigDecimal>> cuotasOrdenadas = new TreeMap<>(
-                Comparator.comparing(Propietario::getCodigo)
-            );
-            cuotasOrdenadas.putAll(cuotasPorPropietario);
-            
-            model.addAttribute("comunidad", comunidad);
-            model.addAttribute("cuotasPorPropietario", cuotasOrdenadas);
-            return "cuotas";
+    public ResponseEntity<StreamingResponseBody> mostrarCuotas(
+            @RequestParam(value = "comunidad", required = false) String comunidadId,
+            ServletWebRequest peticion) {
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(comunidadId);
+        if (snapshot != null) {
+            Comunidad comunidad = snapshot.getComunidad();
+            // Las cuotas por propietario ya están sumadas y ordenadas por código, con un importe por zona
+            return paginasCacheadas.servir("cuotas", snapshot, () -> Map.of(
+                "comunidad", comunidad,
+                "tablas", TablasComunidad.de(snapshot)), peticion);
         }
-        return "redirect:/";
+        return redirigirInicio();
     }
 
     /**
-     * Muestra el resumen general de la comunidad.
-     * Si no hay comunidad cargada, redirige al inicio.
+     * Descarga las cuotas de la comunidad por propiedad o por propietario en CSV o NDJSON.
+     * La respuesta se escribe a medida que se recorre la comunidad, sin generarla entera
+     * en memoria, y opcionalmente comprimida con gzip.
      * 
-     * @param model Modelo para añadir atributos a la vista
-     * @return Nombre de la vista a mostrar ("resumen" o redirección a "/")
+     * @param agrupacion "propiedades" o "propietarios"
+     * @param comunidadId Código de la comunidad (opcional)
+     * @param formato "csv" (por defecto) o "ndjson"
+     * @param gzip Si se descarga comprimido (.gz)
+     * @return El archivo a descargar, 404 si la comunidad no está cargada o 400 si los parámetros no son válidos
+     */
+    @GetMapping("/exportar/cuotas/{agrupacion}")
+    public ResponseEntity<StreamingResponseBody> exportarCuotas(
+            @PathVariable("agrupacion") String agrupacion,
+            @RequestParam(value = "comunidad", required = false) String comunidadId,
+            @RequestParam(value = "formato", defaultValue = "csv") String formato,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        
+        if (!"propiedades".equals(agrupacion) && !"propietarios".equals(agrupacion)) {
+            return ResponseEntity.badRequest().build();
+        }
+        FormatoExportacion formatoExportacion;
+        try {
+            formatoExportacion = FormatoExportacion.de(formato);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Se exporta el snapshot vigente al recibir la petición, aunque se publique otro mientras tanto
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(comunidadId);
+        if (snapshot == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Comunidad comunidad = snapshot.getComunidad();
+        
+        StreamingResponseBody cuerpo = salida -> {
+            GZIPOutputStream comprimido = gzip ? new GZIPOutputStream(salida, 64 * 1024, true) : null;
+            if ("propiedades".equals(agrupacion)) {
+                exportadorCuotas.exportarPropiedades(comunidad, formatoExportacion, gzip ? comprimido : salida);
+            } else {
+                exportadorCuotas.exportarPropietarios(snapshot, formatoExportacion, gzip ? comprimido : salida);
+            }
+            if (comprimido != null) {
+                comprimido.finish();
+            }
+        };
+        String nombre = "cuotas-" + agrupacion + "-" + comunidad.getId() + "." + formatoExportacion.getExtension()
+            + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+            .contentType(gzip ? MediaType.parseMediaType("application/gzip")
+                : MediaType.parseMediaType(formatoExportacion.getTipoContenido() + ";charset=UTF-8"))
+            .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(nombre).build().toString())
+            .body(cuerpo);
+    }
+
+    /**
+     * Muestra el resumen general de la comunidad, desde la caché de páginas.
+     * Si la comunidad no está cargada, redirige al inicio.
+     * 
+     * @param comunidadId Código de la comunidad (opcional)
+     * @param peticion Petición en curso
+     * @return La vista "resumen" o una redirección a "/"
      */
     @GetMapping("/resumen")
-    public String mostrarResumen(Model model) {
-        Comunidad comunidad = comunidadService.getComunidadActual();
-        if (comunidad != null) {
-            model.addAttribute("comunidad", comunidad);
+    public ResponseEntity<StreamingResponseBody> mostrarResumen(
+            @RequestParam(value = "comunidad", required = false) String comunidadId,
+            ServletWebRequest peticion) {
+        SnapshotComunidad snapshot = comunidadService.getSnapshot(comunidadId);
+        if (snapshot != null) {
+            Comunidad comunidad = snapshot.getComunidad();
+            return paginasCacheadas.servir("resumen", snapshot, () -> Map.of(
+                "comunidad", comunidad,
+                "tablas", TablasComunidad.de(snapshot)), peticion);
+        }
+        return redirigirInicio();
+    }
+
+    /**
+     * Añade, modifica o elimina un gasto de una comunidad cargada. Solo se recalculan las
+     * zonas afectadas por el cambio.
+     * 
+     * @param accion Acción a realizar: "anadir", "modificar" o "eliminar"
+     * @param comunidadId Código de la comunidad (opcional)
+     * @param id Código del gasto
+     * @param descripcion Descripción del gasto (no se usa al eliminar)
+     * @param importe Importe del gasto (no se usa al eliminar)
+     * @param zona Código de la zona del gasto (no se usa al eliminar)
+     * @param redirectAttributes Atributos de la redirección
+     * @param model Modelo para añadir atributos a la vista
+     * @return Redirección al resumen de la comunidad, o la vista "resumen" con el error
+     */
+    @PostMapping("/gastos/{accion}")
+    public String cambiarGasto(
+            @PathVariable("accion") String accion,
+            @RequestParam(value = "comunidad", required = false) String comunidadId,
+            @RequestParam("id") String id,
+            @RequestParam(value = "descripcion", required = false) String descripcion,
+            @RequestParam(value = "importe", required = false) BigDecimal importe,
+            @RequestParam(value = "zona", required = false) String zona,
+            RedirectAttributes redirectAttributes,
+            Model model) {
+        
+        try {
+            SnapshotComunidad snapshot = switch (accion) {
+                case "anadir" -> comunidadService.anadirGasto(comunidadId, id, descripcion, importe, zona);
+                case "modificar" -> comunidadService.modificarGasto(comunidadId, id, descripcion, importe, zona);
+                case "eliminar" -> comunidadService.eliminarGasto(comunidadId, id);
+                default -> throw new IllegalArgumentException("Acción no válida: " + accion);
+            };
+            redirectAttributes.addAttribute("comunidad", snapshot.getId());
+            return "redirect:/resumen";
+            
+        } catch (IllegalArgumentException e) {
+            SnapshotComunidad snapshot = comunidadService.getSnapshot(comunidadId);
+            if (snapshot == null) {
+                return "redirect:/";
+            }
+            model.addAttribute("comunidad", snapshot.getComunidad());
+            model.addAttribute("tablas", TablasComunidad.de(snapshot));
+            model.addAttribute("error", e.getMessage());
             return "resumen";
         }
-        return "redirect:/";
+    }
+
+    /**
+     * Redirección al formulario de carga cuando la comunidad pedida no está cargada. Como los
+     * "redirect:/" de las vistas, respeta la ruta de contexto de la aplicación.
+     */
+    private static ResponseEntity<StreamingResponseBody> redirigirInicio() {
+        URI inicio = ServletUriComponentsBuilder.fromCurrentContextPath().path("/").build().toUri();
+        return ResponseEntity.status(HttpStatus.FOUND).location(inicio).build();
     }
 }
@@ -0,0 +1,50 @@
+package net.elpuig.comunidad.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import net.elpuig.comunidad.service.MetricasComunidad;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Mide el tiempo de renderizado de las plantillas, separado del tiempo del controlador.
+ * La latencia total de cada endpoint ya la publica Spring Boot en {@code http.server.requests}.
+ */
+@Configuration
+public class ConfiguracionMetricas implements WebMvcConfigurer {
+
+    private static final String ATRIBUTO_INICIO = ConfiguracionMetricas.class.getName() + ".inicio";
+    private static final String ATRIBUTO_VISTA = ConfiguracionMetricas.class.getName() + ".vista";
+
+    @Autowired
+    private MetricasComunidad metricas;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            // postHandle se llama justo antes de renderizar la vista y afterCompletion después
+            @Override
+            public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                   ModelAndView modelAndView) {
+                if (modelAndView != null && modelAndView.getViewName() != null
+                        && !modelAndView.getViewName().startsWith("redirect:")) {
+                    request.setAttribute(ATRIBUTO_VISTA, modelAndView.getViewName());
+                    request.setAttribute(ATRIBUTO_INICIO, System.nanoTime());
+                }
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                        Exception ex) {
+                if (request.getAttribute(ATRIBUTO_INICIO) instanceof Long inicio) {
+                    metricas.registrarRenderizado((String) request.getAttribute(ATRIBUTO_VISTA),
+                        System.nanoTime() - inicio);
+                }
+            }
+        });
+    }
+}
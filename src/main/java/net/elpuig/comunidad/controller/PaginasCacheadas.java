@@ -0,0 +1,573 @@
+package net.elpuig.comunidad.controller;
+
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import jakarta.servlet.http.HttpSession;
+import net.elpuig.comunidad.model.PaginaRenderizada;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.service.MetricasComunidad;
+import net.elpuig.comunidad.service.RegistroComunidades;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sirve las vistas de consulta de una comunidad desde una caché de páginas ya renderizadas.
+ * Los datos de una versión publicada no cambian, así que cada vista se renderiza una sola vez
+ * por snapshot, se comprime con gzip y se guarda en la propia comunidad; las peticiones
+ * siguientes solo copian esos bytes a la respuesta (o los descomprimen si el cliente no
+ * acepta gzip). Cada página lleva un ETag con el código de la comunidad, su versión y la
+ * vista, con el que el navegador puede revalidarla y recibir un 304 sin cuerpo.
+ *
+ * Como las páginas se comparten entre peticiones, no deben depender de la que las renderiza:
+ * se renderizan con un locale fijo (las plantillas reciben los importes ya formateados) y
+ * sobre una petición neutra, que solo conserva la ruta de la aplicación y no tiene cabeceras,
+ * parámetros, sesión ni atributos de la petición real, ni añade el identificador de sesión a
+ * los enlaces. Una página que comprimida supera
+ * {@code comunidad.paginas.max-bytes} no se guarda y se renderiza directamente sobre la
+ * respuesta en cada petición.
+ *
+ * La petición que encuentra una vista sin renderizar la renderiza sobre su propia respuesta y
+ * a la vez la guarda comprimida, así que no hay que renderizarla dos veces si no cabe en la
+ * caché. El tamaño de cada página guardada se suma a la memoria de su versión en
+ * {@link RegistroComunidades}, que la tiene en cuenta en su límite de bytes.
+ */
+@Component
+public class PaginasCacheadas {
+
+    private static final MediaType TEXTO_HTML = MediaType.parseMediaType("text/html;charset=UTF-8");
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    private final ITemplateEngine motorPlantillas;
+    private final JakartaServletWebApplication aplicacion;
+    private final MetricasComunidad metricas;
+    private final RegistroComunidades registro;
+    private final long maxBytes;
+
+    public PaginasCacheadas(ITemplateEngine motorPlantillas, ServletContext servletContext,
+                            MetricasComunidad metricas, RegistroComunidades registro,
+                            @Value("${comunidad.paginas.max-bytes:33554432}") long maxBytes) {
+        this.motorPlantillas = motorPlantillas;
+        this.aplicacion = JakartaServletWebApplication.buildApplication(servletContext);
+        this.metricas = metricas;
+        this.registro = registro;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Responde con una vista de una versión de una comunidad, renderizándola solo si todavía
+     * no está en la caché. Si dos peticiones piden a la vez una vista sin renderizar, la
+     * segunda espera a la primera en lugar de renderizarla otra vez; el renderizado se hace
+     * fuera del mapa de páginas, así que no bloquea las demás vistas de la comunidad.
+     * La primera recibe la página a medida que se renderiza, sin {@code Content-Length}.
+     *
+     * @param vista Nombre de la plantilla
+     * @param snapshot Versión de la comunidad que se muestra
+     * @param modelo Variables de la plantilla; solo se piden si hay que renderizarla
+     * @param peticion Petición y respuesta en curso
+     * @return La página, o 304 si el cliente ya tiene esta versión
+     */
+    public ResponseEntity<StreamingResponseBody> servir(String vista, SnapshotComunidad snapshot,
+                                                        Supplier<Map<String, Object>> modelo,
+                                                        ServletWebRequest peticion) {
+        String etag = etag(vista, snapshot);
+        if (peticion.checkNotModified(etag)) {
+            metricas.registrarPaginaCacheada(vista, true);
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
+
+        // Quien pone la página en el mapa la renderiza; las demás peticiones esperan a su resultado
+        Map<String, CompletableFuture<PaginaRenderizada>> paginas = snapshot.getDerivados().getPaginas();
+        CompletableFuture<PaginaRenderizada> enCurso = paginas.get(vista);
+        CompletableFuture<PaginaRenderizada> nueva = null;
+        if (enCurso == null) {
+            nueva = new CompletableFuture<>();
+            enCurso = paginas.putIfAbsent(vista, nueva);
+        }
+        // checkNotModified ya ha añadido el ETag a la respuesta
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok()
+            .contentType(TEXTO_HTML)
+            .cacheControl(CacheControl.noCache())
+            .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        PaginaRenderizada pagina;
+        if (enCurso == null && maxBytes > 0) {
+            metricas.registrarPaginaCacheada(vista, false);
+            return renderizarYGuardar(vista, snapshot, modelo, peticion, nueva, respuesta);
+        } else if (enCurso == null) {
+            pagina = PaginaRenderizada.DEMASIADO_GRANDE;
+            nueva.complete(pagina);
+        } else {
+            try {
+                pagina = enCurso.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException causa ? causa : e;
+            }
+        }
+        metricas.registrarPaginaCacheada(vista, enCurso != null && pagina.isCacheable());
+
+        if (!pagina.isCacheable()) {
+            WebContext contexto = contexto(modelo.get(), peticion);
+            return respuesta.body(salida -> {
+                long inicio = System.nanoTime();
+                Writer escritor = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), TAMANO_BUFFER);
+                motorPlantillas.process(vista, contexto, escritor);
+                escritor.flush();
+                metricas.registrarRenderizado(vista, System.nanoTime() - inicio);
+            });
+        }
+        byte[] comprimida = pagina.getComprimida();
+        if (aceptaGzip(peticion)) {
+            return respuesta
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .contentLength(comprimida.length)
+                .body(salida -> salida.write(comprimida));
+        }
+        return respuesta
+            .contentLength(pagina.getLongitud())
+            .body(salida -> {
+                try (InputStream entrada = new GZIPInputStream(new ByteArrayInputStream(comprimida), TAMANO_BUFFER)) {
+                    entrada.transferTo(salida);
+                }
+            });
+    }
+
+    /**
+     * Responde con una vista que nadie ha renderizado todavía: la renderiza sobre la respuesta,
+     * comprimida o no según el cliente, y a la vez la guarda comprimida para las peticiones
+     * siguientes, que esperan en {@code nueva}.
+     */
+    private ResponseEntity<StreamingResponseBody> renderizarYGuardar(String vista, SnapshotComunidad snapshot,
+                                                                     Supplier<Map<String, Object>> modelo,
+                                                                     ServletWebRequest peticion,
+                                                                     CompletableFuture<PaginaRenderizada> nueva,
+                                                                     ResponseEntity.BodyBuilder respuesta) {
+        Map<String, CompletableFuture<PaginaRenderizada>> paginas = snapshot.getDerivados().getPaginas();
+        WebContext contexto;
+        try {
+            contexto = contexto(modelo.get(), peticion);
+        } catch (RuntimeException e) {
+            // Sin guardar el error: la siguiente petición vuelve a intentarlo
+            paginas.remove(vista, nueva);
+            nueva.completeExceptionally(e);
+            throw e;
+        }
+        boolean gzip = aceptaGzip(peticion);
+        if (gzip) {
+            respuesta.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return respuesta.body(salida -> {
+            SalidaCliente cliente = new SalidaCliente(salida);
+            PaginaRenderizada pagina;
+            try {
+                pagina = renderizar(vista, contexto, cliente, gzip);
+            } catch (IOException | RuntimeException e) {
+                paginas.remove(vista, nueva);
+                nueva.completeExceptionally(e);
+                throw e;
+            }
+            if (pagina.isCacheable()) {
+                registro.sumarPagina(snapshot, pagina.getComprimida().length);
+            }
+            nueva.complete(pagina);
+            cliente.comprobar();
+        });
+    }
+
+    /**
+     * Renderiza una vista sobre la respuesta y la comprime a la vez para guardarla, sin tener
+     * nunca la página entera sin comprimir en memoria. Con gzip, la respuesta recibe los mismos
+     * bytes comprimidos que se guardan.
+     *
+     * @param respuesta Salida de la respuesta
+     * @param gzip Si la respuesta se envía comprimida
+     * @return La página, o {@link PaginaRenderizada#DEMASIADO_GRANDE} si comprimida supera el máximo
+     */
+    private PaginaRenderizada renderizar(String vista, WebContext contexto, OutputStream respuesta, boolean gzip)
+            throws IOException {
+        long inicio = System.nanoTime();
+        SalidaLimitada comprimida = new SalidaLimitada(maxBytes);
+        ContadorBytes sinComprimir = gzip
+            ? new ContadorBytes(new GZIPOutputStream(new Bifurcacion(respuesta, comprimida, comprimida), TAMANO_BUFFER))
+            : new ContadorBytes(new Bifurcacion(respuesta, new GZIPOutputStream(comprimida, TAMANO_BUFFER), comprimida));
+        Writer escritor = new BufferedWriter(new OutputStreamWriter(sinComprimir, StandardCharsets.UTF_8), TAMANO_BUFFER);
+        motorPlantillas.process(vista, contexto, escritor);
+        escritor.close();
+        metricas.registrarRenderizado(vista, System.nanoTime() - inicio);
+        if (comprimida.excedida) {
+            return PaginaRenderizada.DEMASIADO_GRANDE;
+        }
+        return new PaginaRenderizada(comprimida.toByteArray(), sinComprimir.bytes);
+    }
+
+    private WebContext contexto(Map<String, Object> modelo, ServletWebRequest peticion) {
+        return new WebContext(aplicacion.buildExchange(new PeticionNeutra(peticion.getRequest()),
+            new RespuestaNeutra(peticion.getResponse())), Locale.ROOT, modelo);
+    }
+
+    /**
+     * ETag débil de una vista de una versión: el mismo para la página comprimida y sin comprimir.
+     */
+    private static String etag(String vista, SnapshotComunidad snapshot) {
+        return "W/\"" + snapshot.getId().replace("\"", "") + "-" + snapshot.getVersion() + "-" + vista + "\"";
+    }
+
+    /**
+     * Indica si el cliente acepta gzip en {@code Accept-Encoding}, sin contar {@code gzip;q=0}.
+     */
+    private static boolean aceptaGzip(ServletWebRequest peticion) {
+        Enumeration<String> cabeceras = peticion.getRequest().getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (cabeceras != null && cabeceras.hasMoreElements()) {
+            for (String codificacion : cabeceras.nextElement().split(",")) {
+                String[] partes = codificacion.split(";");
+                String nombre = partes[0].trim();
+                if (nombre.equalsIgnoreCase("gzip") || nombre.equals("*")) {
+                    return partes.length < 2 || !partes[1].trim().matches("q=0(\\.0*)?");
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Petición con la que se renderizan las páginas: de la petición real solo se usan la
+     * aplicación y las rutas, que son las mismas para cualquier petición de la vista. Los
+     * atributos son propios, porque Thymeleaf guarda en ellos las variables de la plantilla.
+     */
+    private static final class PeticionNeutra extends HttpServletRequestWrapper {
+        private final Map<String, Object> atributos = new HashMap<>();
+
+        PeticionNeutra(HttpServletRequest peticion) {
+            super(peticion);
+        }
+
+        @Override
+        public Object getAttribute(String nombre) {
+            return atributos.get(nombre);
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames() {
+            return Collections.enumeration(atributos.keySet());
+        }
+
+        @Override
+        public void setAttribute(String nombre, Object valor) {
+            if (valor == null) {
+                atributos.remove(nombre);
+            } else {
+                atributos.put(nombre, valor);
+            }
+        }
+
+        @Override
+        public void removeAttribute(String nombre) {
+            atributos.remove(nombre);
+        }
+
+        @Override
+        public String getParameter(String nombre) {
+            return null;
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            return Map.of();
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            return Collections.emptyEnumeration();
+        }
+
+        @Override
+        public String[] getParameterValues(String nombre) {
+            return null;
+        }
+
+        @Override
+        public String getQueryString() {
+            return null;
+        }
+
+        @Override
+        public String getHeader(String nombre) {
+            return null;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String nombre) {
+            return Collections.emptyEnumeration();
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.emptyEnumeration();
+        }
+
+        @Override
+        public long getDateHeader(String nombre) {
+            return -1;
+        }
+
+        @Override
+        public int getIntHeader(String nombre) {
+            return -1;
+        }
+
+        @Override
+        public Cookie[] getCookies() {
+            return null;
+        }
+
+        @Override
+        public HttpSession getSession(boolean crear) {
+            return null;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return null;
+        }
+
+        @Override
+        public String getRequestedSessionId() {
+            return null;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdValid() {
+            return false;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromCookie() {
+            return false;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromURL() {
+            return false;
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return null;
+        }
+
+        @Override
+        public String getRemoteUser() {
+            return null;
+        }
+
+        @Override
+        public boolean isUserInRole(String rol) {
+            return false;
+        }
+
+        @Override
+        public Locale getLocale() {
+            return Locale.ROOT;
+        }
+
+        @Override
+        public Enumeration<Locale> getLocales() {
+            return Collections.enumeration(List.of(Locale.ROOT));
+        }
+    }
+
+    /** Respuesta con la que se renderizan las páginas: los enlaces no llevan el identificador de sesión */
+    private static final class RespuestaNeutra extends HttpServletResponseWrapper {
+
+        RespuestaNeutra(HttpServletResponse respuesta) {
+            super(respuesta);
+        }
+
+        @Override
+        public String encodeURL(String url) {
+            return url;
+        }
+
+        @Override
+        public String encodeRedirectURL(String url) {
+            return url;
+        }
+
+        @Override
+        public Locale getLocale() {
+            return Locale.ROOT;
+        }
+    }
+
+    /**
+     * Buffer de la página comprimida que, al superar el máximo, libera lo que lleva y descarta
+     * el resto. El renderizado termina igualmente: cortarlo con una excepción haría que
+     * Thymeleaf la registrase como un error de la plantilla.
+     */
+    private static final class SalidaLimitada extends ByteArrayOutputStream {
+        private final long maximo;
+        private boolean excedida;
+
+        SalidaLimitada(long maximo) {
+            super(TAMANO_BUFFER);
+            this.maximo = maximo;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int longitud) {
+            if (excedida) {
+                return;
+            }
+            if (size() + (long) longitud > maximo) {
+                excedida = true;
+                buf = new byte[0];
+                count = 0;
+                return;
+            }
+            super.write(b, desde, longitud);
+        }
+    }
+
+    /**
+     * Copia la página a la respuesta y a la salida de la caché; a esta última solo mientras no
+     * se haya superado el máximo. Cerrarla cierra la de la caché, no la respuesta.
+     */
+    private static final class Bifurcacion extends OutputStream {
+        private final OutputStream respuesta;
+        private final OutputStream cache;
+        private final SalidaLimitada limitada;
+
+        Bifurcacion(OutputStream respuesta, OutputStream cache, SalidaLimitada limitada) {
+            this.respuesta = respuesta;
+            this.cache = cache;
+            this.limitada = limitada;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int longitud) throws IOException {
+            respuesta.write(b, desde, longitud);
+            if (!limitada.excedida) {
+                cache.write(b, desde, longitud);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            respuesta.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            respuesta.flush();
+            cache.close();
+        }
+    }
+
+    /**
+     * Salida de la respuesta de quien renderiza una página nueva. Si el cliente se desconecta,
+     * la página se sigue renderizando para las peticiones que la esperan y el error se lanza
+     * al terminar, con {@link #comprobar()}.
+     */
+    private static final class SalidaCliente extends FilterOutputStream {
+        private IOException error;
+
+        SalidaCliente(OutputStream salida) {
+            super(salida);
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int longitud) {
+            if (error == null) {
+                try {
+                    out.write(b, desde, longitud);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (error == null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        void comprobar() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /** Cuenta los bytes de la página sin comprimir */
+    private static final class ContadorBytes extends FilterOutputStream {
+        private long bytes;
+
+        ContadorBytes(OutputStream salida) {
+            super(salida);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int longitud) throws IOException {
+            out.write(b, desde, longitud);
+            bytes += longitud;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.elpuig.comunidad.controller;
+
+import net.elpuig.comunidad.model.FilaBusquedaPropietario;
+import net.elpuig.comunidad.service.BuscadorPropietarios;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * API JSON de búsqueda de propietarios en todas las comunidades, cargadas o guardadas en disco:
+ * {@code GET /api/propietarios?q=mart} devuelve los propietarios con alguna palabra de su
+ * código, nombre, email o dirección que empiece por el texto, con sus propiedades y su cuota
+ * total en cada comunidad.
+ */
+@RestController
+@RequestMapping("/api/propietarios")
+public class PropietarioApiController {
+
+    @Autowired
+    private BuscadorPropietarios buscadorPropietarios;
+
+    /**
+     * Busca propietarios por prefijo.
+     *
+     * @param q Texto a buscar, sin distinguir mayúsculas ni acentos
+     * @param limite Número máximo de resultados (máximo {@value BuscadorPropietarios#LIMITE_MAXIMO})
+     */
+    @GetMapping
+    public List<FilaBusquedaPropietario> buscar(
+            @RequestParam("q") String q,
+            @RequestParam(value = "limite", defaultValue = "" + BuscadorPropietarios.LIMITE_POR_DEFECTO) int limite) {
+        return buscadorPropietarios.buscar(q, limite);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> peticionNoValida(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+}
@@ -0,0 +1,127 @@
+package net.elpuig.comunidad.controller;
+
+import net.elpuig.comunidad.model.TrabajoProcesado;
+import net.elpuig.comunidad.service.ColaProcesado;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * API JSON del procesado en segundo plano. {@code POST /api/trabajos} recibe la misma pareja
+ * de archivos que {@code /procesar} y responde enseguida con 202 y la URL del trabajo; su avance
+ * se consulta en {@code GET /api/trabajos/{id}} o se recibe como eventos (Server-Sent Events)
+ * en {@code /api/trabajos/{id}/eventos}. Con la cola llena la subida se rechaza con 503 y
+ * {@code Retry-After}.
+ */
+@RestController
+@RequestMapping("/api/trabajos")
+public class TrabajoApiController {
+
+    /** Tiempo entre dos eventos de avance */
+    private static final long INTERVALO_EVENTOS_MS = 500;
+
+    /** Tiempo máximo de una conexión de eventos; el cliente puede volver a conectarse */
+    private static final long DURACION_MAXIMA_EVENTOS_MS = 30 * 60 * 1000L;
+
+    /** Segundos que se sugiere esperar antes de reintentar una subida rechazada */
+    private static final int REINTENTAR_SEGUNDOS = 5;
+
+    @Autowired
+    private ColaProcesado colaProcesado;
+
+    /**
+     * Pone en cola el procesado de una pareja de archivos.
+     *
+     * @return 202 con el trabajo y su URL en {@code Location}
+     */
+    @PostMapping
+    public ResponseEntity<TrabajoProcesado> encolar(
+            @RequestParam("comunidadFile") MultipartFile comunidadFile,
+            @RequestParam("gastosFile") MultipartFile gastosFile) throws IOException {
+        TrabajoProcesado trabajo = colaProcesado.encolar(comunidadFile, gastosFile);
+        return ResponseEntity.accepted()
+            .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(trabajo.getId()).toUri())
+            .body(trabajo);
+    }
+
+    /**
+     * Lista los trabajos en cola, en curso y los últimos terminados.
+     */
+    @GetMapping
+    public List<TrabajoProcesado> listar() {
+        return colaProcesado.listar();
+    }
+
+    /**
+     * Estado y avance de un trabajo.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<TrabajoProcesado> trabajo(@PathVariable("id") String id) {
+        TrabajoProcesado trabajo = colaProcesado.trabajo(id);
+        if (trabajo == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(trabajo);
+    }
+
+    /**
+     * Eventos {@code progreso} con el estado del trabajo cada {@value #INTERVALO_EVENTOS_MS} ms
+     * hasta que termina; el último lleva ya el resultado.
+     */
+    @GetMapping(value = "/{id}/eventos", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> eventos(@PathVariable("id") String id) {
+        TrabajoProcesado trabajo = colaProcesado.trabajo(id);
+        if (trabajo == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emisor = new SseEmitter(DURACION_MAXIMA_EVENTOS_MS);
+        // Un hilo virtual por conexión: las esperas entre eventos no ocupan hilos del servidor
+        Thread.ofVirtual().name("eventos-" + id).start(() -> enviarEventos(trabajo, emisor));
+        return ResponseEntity.ok(emisor);
+    }
+
+    private static void enviarEventos(TrabajoProcesado trabajo, SseEmitter emisor) {
+        try {
+            while (true) {
+                // Se comprueba antes de enviar para que el último evento sea ya el estado final
+                boolean terminado = trabajo.haTerminado();
+                emisor.send(SseEmitter.event().name("progreso").data(trabajo, MediaType.APPLICATION_JSON));
+                if (terminado) {
+                    emisor.complete();
+                    return;
+                }
+                Thread.sleep(INTERVALO_EVENTOS_MS);
+            }
+        } catch (IOException | IllegalStateException e) {
+            // El cliente se ha desconectado o la conexión ha caducado
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emisor.complete();
+        }
+    }
+
+    /** Archivos vacíos o que no parecen del tipo esperado */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> peticionNoValida(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+
+    /** Cola llena */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Map<String, String>> colaLlena(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(REINTENTAR_SEGUNDOS))
+            .body(Map.of("error", e.getMessage()));
+    }
+}
@@ -0,0 +1,360 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.RepartoCentimos;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Agregados de gasto de una o varias comunidades ya calculadas para los paneles de cartera:
+ * total por población, por nombre de zona y por categoría de gasto (el prefijo de letras del
+ * código, p. ej. {@code AS} en {@code AS01}), total por propietario en todas sus comunidades y
+ * las propiedades más caras.
+ *
+ * Los agregados de una comunidad se calculan una vez por versión y se guardan en sus
+ * {@link DerivadosComunidad}, como las demás estructuras derivadas; los de varias comunidades se obtienen combinando los de
+ * cada una con {@link #combinar(AgregadosCartera, AgregadosCartera)}, que es asociativa y se
+ * puede usar en una reducción paralela. Así, volver a calcular un panel solo recorre las
+ * comunidades publicadas de nuevo.
+ *
+ * Los propietarios de distintas comunidades se identifican por su email, sin distinguir
+ * mayúsculas, o si no tienen por su nombre normalizado. Se guardan ordenados por esa clave en
+ * arrays paralelos, de modo que combinar es una mezcla lineal.
+ */
+public final class AgregadosCartera {
+
+    /** Número de propiedades más caras que se guardan */
+    public static final int MAX_PROPIEDADES = 100;
+
+    /** Agregados sin ninguna comunidad, elemento neutro de la combinación */
+    public static final AgregadosCartera VACIOS = new AgregadosCartera(0, BigDecimal.ZERO,
+        Map.of(), Map.of(), Map.of(), new String[0], new String[0], new String[0],
+        new int[0], new int[0], new long[0], List.of());
+
+    private static final Comparator<PropiedadCara> MAS_CARAS = Comparator
+        .comparingLong(PropiedadCara::centimos).reversed()
+        .thenComparing(PropiedadCara::comunidad, Comparator.nullsFirst(Comparator.naturalOrder()))
+        .thenComparing(PropiedadCara::codigo, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final int comunidades;
+    private final BigDecimal totalGeneral;
+    private final Map<String, Acumulado> poblaciones;
+    private final Map<String, Acumulado> zonas;
+    private final Map<String, Acumulado> categorias;
+
+    /** Propietarios ordenados por clave, en arrays paralelos */
+    private final String[] claves;
+    private final String[] nombres;
+    private final String[] emails;
+    private final int[] comunidadesPropietario;
+    private final int[] propiedadesPropietario;
+    private final long[] centimosPropietario;
+
+    /** Propiedades más caras, de mayor a menor total */
+    private final List<PropiedadCara> propiedades;
+
+    /**
+     * Total y número de comunidades de un grupo.
+     */
+    public record Acumulado(int comunidades, BigDecimal total) {
+        Acumulado sumar(Acumulado otro) {
+            return new Acumulado(comunidades + otro.comunidades, total.add(otro.total));
+        }
+    }
+
+    /**
+     * Propiedad con su total en céntimos y la comunidad a la que pertenece.
+     */
+    public record PropiedadCara(String comunidad, String nombreComunidad, String codigo, String tipo,
+                                String propietario, long centimos) {
+    }
+
+    private AgregadosCartera(int comunidades, BigDecimal totalGeneral,
+                             Map<String, Acumulado> poblaciones, Map<String, Acumulado> zonas,
+                             Map<String, Acumulado> categorias, String[] claves, String[] nombres,
+                             String[] emails, int[] comunidadesPropietario, int[] propiedadesPropietario,
+                             long[] centimosPropietario, List<PropiedadCara> propiedades) {
+        this.comunidades = comunidades;
+        this.totalGeneral = totalGeneral;
+        this.poblaciones = poblaciones;
+        this.zonas = zonas;
+        this.categorias = categorias;
+        this.claves = claves;
+        this.nombres = nombres;
+        this.emails = emails;
+        this.comunidadesPropietario = comunidadesPropietario;
+        this.propiedadesPropietario = propiedadesPropietario;
+        this.centimosPropietario = centimosPropietario;
+        this.propiedades = propiedades;
+    }
+
+    /**
+     * Devuelve los agregados de una versión publicada, calculándolos la primera vez.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Agregados de la comunidad
+     */
+    public static AgregadosCartera de(SnapshotComunidad snapshot) {
+        DerivadosComunidad derivados = snapshot.getDerivados();
+        AgregadosCartera agregados = derivados.getAgregadosCartera();
+        if (agregados == null) {
+            agregados = calcular(derivados.getComunidad(), CuotasPropietarios.de(derivados));
+            derivados.setAgregadosCartera(agregados);
+        }
+        return agregados;
+    }
+
+    /**
+     * Calcula los agregados de una comunidad.
+     *
+     * @param comunidad Comunidad ya calculada
+     * @param cuotas Cuotas por propietario de la comunidad
+     */
+    public static AgregadosCartera calcular(Comunidad comunidad, CuotasPropietarios cuotas) {
+        BigDecimal totalGeneral = comunidad.getTotalGeneral() != null ? comunidad.getTotalGeneral() : BigDecimal.ZERO;
+        Map<String, Acumulado> poblaciones = Map.of(texto(comunidad.getPoblacion()), new Acumulado(1, totalGeneral));
+
+        Map<String, BigDecimal> totalesZona = new HashMap<>();
+        if (comunidad.getTotalesPorZona() != null) {
+            comunidad.getTotalesPorZona().forEach((zona, total) ->
+                totalesZona.merge(texto(zona.getNombre()), total, BigDecimal::add));
+        }
+        Map<String, BigDecimal> totalesCategoria = new HashMap<>();
+        if (comunidad.getGastos() != null) {
+            for (Gasto gasto : comunidad.getGastos()) {
+                if (gasto.getImporte() != null) {
+                    totalesCategoria.merge(categoria(gasto.getId()), gasto.getImporte(), BigDecimal::add);
+                }
+            }
+        }
+
+        // Propietarios: clave de cada uno, ordenados por clave y sumando los que la comparten
+        List<Propietario> ordenados = cuotas.getOrdenados();
+        String[] clavesOrdenados = new String[ordenados.size()];
+        Integer[] orden = new Integer[ordenados.size()];
+        for (int i = 0; i < ordenados.size(); i++) {
+            clavesOrdenados[i] = clave(comunidad, ordenados.get(i));
+            orden[i] = i;
+        }
+        Arrays.sort(orden, Comparator.comparing(i -> clavesOrdenados[i]));
+        int n = 0;
+        String[] claves = new String[orden.length];
+        String[] nombres = new String[orden.length];
+        String[] emails = new String[orden.length];
+        int[] propiedadesPropietario = new int[orden.length];
+        long[] centimosPropietario = new long[orden.length];
+        for (int i : orden) {
+            Propietario propietario = ordenados.get(i);
+            if (n == 0 || !claves[n - 1].equals(clavesOrdenados[i])) {
+                claves[n] = clavesOrdenados[i];
+                nombres[n] = propietario.getNombre();
+                emails[n] = propietario.getEmail();
+                n++;
+            }
+            propiedadesPropietario[n - 1] += propietario.getPropiedades() != null ? propietario.getPropiedades().size() : 0;
+            Map<Zona, BigDecimal> cuotasPropietario = cuotas.cuotas(propietario.getCodigo());
+            if (cuotasPropietario != null) {
+                for (BigDecimal cuota : cuotasPropietario.values()) {
+                    centimosPropietario[n - 1] += RepartoCentimos.aCentimos(cuota);
+                }
+            }
+        }
+        int[] comunidadesPropietario = new int[n];
+        Arrays.fill(comunidadesPropietario, 1);
+
+        // Propiedades más caras: montículo con las MAX_PROPIEDADES mayores vistas hasta ahora
+        PriorityQueue<PropiedadCara> caras = new PriorityQueue<>(MAS_CARAS.reversed());
+        if (comunidad.getPropiedades() != null) {
+            for (Propiedad propiedad : comunidad.getPropiedades()) {
+                long centimos = 0;
+                if (propiedad.getCuotas() != null) {
+                    for (BigDecimal cuota : propiedad.getCuotas().values()) {
+                        centimos += RepartoCentimos.aCentimos(cuota);
+                    }
+                }
+                if (caras.size() == MAX_PROPIEDADES && centimos < caras.peek().centimos()) {
+                    continue;
+                }
+                caras.add(new PropiedadCara(comunidad.getId(), comunidad.getNombre(), propiedad.getCodigo(),
+                    propiedad.getTipo(), propiedad.getPropietario() != null ? propiedad.getPropietario().getCodigo() : null,
+                    centimos));
+                if (caras.size() > MAX_PROPIEDADES) {
+                    caras.poll();
+                }
+            }
+        }
+        List<PropiedadCara> propiedades = new ArrayList<>(caras);
+        propiedades.sort(MAS_CARAS);
+
+        return new AgregadosCartera(1, totalGeneral, poblaciones,
+            unaComunidad(totalesZona), unaComunidad(totalesCategoria),
+            Arrays.copyOf(claves, n), Arrays.copyOf(nombres, n), Arrays.copyOf(emails, n), comunidadesPropietario,
+            Arrays.copyOf(propiedadesPropietario, n), Arrays.copyOf(centimosPropietario, n),
+            Collections.unmodifiableList(propiedades));
+    }
+
+    /**
+     * Combina los agregados de dos grupos de comunidades distintas.
+     */
+    public static AgregadosCartera combinar(AgregadosCartera a, AgregadosCartera b) {
+        if (a.comunidades == 0) {
+            return b;
+        }
+        if (b.comunidades == 0) {
+            return a;
+        }
+        // Mezcla de los propietarios, los dos ordenados por clave
+        int maximo = a.claves.length + b.claves.length;
+        String[] claves = new String[maximo];
+        String[] nombres = new String[maximo];
+        String[] emails = new String[maximo];
+        int[] comunidadesPropietario = new int[maximo];
+        int[] propiedadesPropietario = new int[maximo];
+        long[] centimosPropietario = new long[maximo];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.claves.length || j < b.claves.length) {
+            int comparacion = i == a.claves.length ? 1 : j == b.claves.length ? -1 : a.claves[i].compareTo(b.claves[j]);
+            AgregadosCartera origen = comparacion <= 0 ? a : b;
+            int k = comparacion <= 0 ? i : j;
+            claves[n] = origen.claves[k];
+            nombres[n] = origen.nombres[k];
+            emails[n] = origen.emails[k];
+            comunidadesPropietario[n] = origen.comunidadesPropietario[k];
+            propiedadesPropietario[n] = origen.propiedadesPropietario[k];
+            centimosPropietario[n] = origen.centimosPropietario[k];
+            if (comparacion == 0) {
+                comunidadesPropietario[n] += b.comunidadesPropietario[j];
+                propiedadesPropietario[n] += b.propiedadesPropietario[j];
+                centimosPropietario[n] += b.centimosPropietario[j];
+                j++;
+            }
+            if (comparacion <= 0) {
+                i++;
+            } else {
+                j++;
+            }
+            n++;
+        }
+
+        // Mezcla de las propiedades más caras, las dos ya ordenadas
+        List<PropiedadCara> propiedades = new ArrayList<>(Math.min(MAX_PROPIEDADES, a.propiedades.size() + b.propiedades.size()));
+        int pa = 0;
+        int pb = 0;
+        while (propiedades.size() < MAX_PROPIEDADES && (pa < a.propiedades.size() || pb < b.propiedades.size())) {
+            if (pb == b.propiedades.size()
+                    || (pa < a.propiedades.size() && MAS_CARAS.compare(a.propiedades.get(pa), b.propiedades.get(pb)) <= 0)) {
+                propiedades.add(a.propiedades.get(pa++));
+            } else {
+                propiedades.add(b.propiedades.get(pb++));
+            }
+        }
+
+        return new AgregadosCartera(a.comunidades + b.comunidades, a.totalGeneral.add(b.totalGeneral),
+            sumar(a.poblaciones, b.poblaciones), sumar(a.zonas, b.zonas), sumar(a.categorias, b.categorias),
+            Arrays.copyOf(claves, n), Arrays.copyOf(nombres, n), Arrays.copyOf(emails, n),
+            Arrays.copyOf(comunidadesPropietario, n), Arrays.copyOf(propiedadesPropietario, n),
+            Arrays.copyOf(centimosPropietario, n), Collections.unmodifiableList(propiedades));
+    }
+
+    /**
+     * Categoría de un gasto: las letras iniciales de su código en mayúsculas, p. ej. {@code AS}
+     * para {@code AS01}; vacía si el código no empieza por una letra.
+     */
+    public static String categoria(String id) {
+        if (id == null) {
+            return "";
+        }
+        int fin = 0;
+        while (fin < id.length() && Character.isLetter(id.charAt(fin))) {
+            fin++;
+        }
+        return id.substring(0, fin).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Clave que identifica a un propietario en todas las comunidades: su email o, si no tiene,
+     * su nombre normalizado; si tampoco tiene nombre, su código en la comunidad.
+     */
+    private static String clave(Comunidad comunidad, Propietario propietario) {
+        if (propietario.getEmail() != null && !propietario.getEmail().isBlank()) {
+            return propietario.getEmail().trim().toLowerCase(Locale.ROOT);
+        }
+        String nombre = IndicePropietarios.normalizar(propietario.getNombre());
+        if (!nombre.isEmpty()) {
+            return nombre;
+        }
+        return comunidad.getId() + "/" + propietario.getCodigo();
+    }
+
+    private static String texto(String texto) {
+        return texto != null ? texto : "";
+    }
+
+    private static Map<String, Acumulado> unaComunidad(Map<String, BigDecimal> totales) {
+        Map<String, Acumulado> acumulados = new HashMap<>();
+        totales.forEach((clave, total) -> acumulados.put(clave, new Acumulado(1, total)));
+        return Collections.unmodifiableMap(acumulados);
+    }
+
+    private static Map<String, Acumulado> sumar(Map<String, Acumulado> a, Map<String, Acumulado> b) {
+        Map<String, Acumulado> suma = new HashMap<>(a);
+        b.forEach((clave, acumulado) -> suma.merge(clave, acumulado, Acumulado::sumar));
+        return Collections.unmodifiableMap(suma);
+    }
+
+    public int getComunidades() {
+        return comunidades;
+    }
+
+    public BigDecimal getTotalGeneral() {
+        return totalGeneral;
+    }
+
+    /** Total por población */
+    public Map<String, Acumulado> getPoblaciones() {
+        return poblaciones;
+    }
+
+    /** Total por nombre de zona */
+    public Map<String, Acumulado> getZonas() {
+        return zonas;
+    }
+
+    /** Total de los gastos por categoría */
+    public Map<String, Acumulado> getCategorias() {
+        return categorias;
+    }
+
+    /** Número de propietarios distintos */
+    public int getNumeroPropietarios() {
+        return claves.length;
+    }
+
+    public String nombre(int propietario) {
+        return nombres[propietario];
+    }
+
+    public String email(int propietario) {
+        return emails[propietario];
+    }
+
+    /** Número de comunidades en que tiene propiedades el propietario */
+    public int comunidades(int propietario) {
+        return comunidadesPropietario[propietario];
+    }
+
+    public int propiedades(int propietario) {
+        return propiedadesPropietario[propietario];
+    }
+
+    /** Cuota total del propietario en todas sus comunidades, en céntimos */
+    public long centimos(int propietario) {
+        return centimosPropietario[propietario];
+    }
+
+    /** Propiedades más caras, de mayor a menor total (como mucho {@value #MAX_PROPIEDADES}) */
+    public List<PropiedadCara> getPropiedades() {
+        return propiedades;
+    }
+}
@@ -0,0 +1,22 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Data;
+import java.math.BigDecimal;
+
+/**
+ * Un cambio de un escenario de simulación. Si indica {@code gasto}, el cambio se aplica a ese
+ * gasto: su importe se ajusta con {@code porcentaje} e {@code importe} y, con
+ * {@code zonaDestino}, pasa a imputarse a otra zona. Si no, se aplica a la zona {@code zona}:
+ * el ajuste de importe es sobre su total de gastos y {@code tipoReparto} y
+ * {@code parametrosReparto} cambian su reparto.
+ */
+@Data
+public class CambioEscenario {
+    private String gasto;
+    private String zona;
+    private BigDecimal porcentaje; // Variación en porcentaje, p. ej. 20 = +20 %
+    private BigDecimal importe; // Importe que se suma (o resta, si es negativo) después del porcentaje
+    private String zonaDestino;
+    private Character tipoReparto; // Letra de un TipoReparto: 'P', 'I', 'M', 'T' o 'F'
+    private String parametrosReparto; // Parámetros del reparto; sin tipoReparto, se mantiene el de la zona
+}
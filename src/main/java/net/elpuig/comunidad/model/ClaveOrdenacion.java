@@ -0,0 +1,26 @@
+package net.elpuig.comunidad.model;
+
+/**
+ * Clave de una ordenación guardada con una versión de la comunidad
+ * ({@link DerivadosComunidad#getOrdenaciones()}). Indica si el orden depende de los gastos o
+ * de las cuotas que salen de ellos: al recalcular la comunidad por un cambio de gastos solo
+ * pasan a la versión nueva las ordenaciones que no dependen de ellos.
+ *
+ * @param nombre Nombre de la ordenación, p. ej. {@code propiedades:codigo}
+ * @param dependeDeGastos Si el orden cambia al cambiar los gastos o las cuotas
+ */
+public record ClaveOrdenacion(String nombre, boolean dependeDeGastos) {
+
+    /** Propiedades por código; la comparten la API JSON y los presupuestos del historial */
+    public static final ClaveOrdenacion PROPIEDADES_CODIGO = fija("propiedades:codigo");
+
+    /** Ordenación que solo depende de propiedades y propietarios */
+    public static ClaveOrdenacion fija(String nombre) {
+        return new ClaveOrdenacion(nombre, false);
+    }
+
+    /** Ordenación por gastos o por cuotas */
+    public static ClaveOrdenacion porGastos(String nombre) {
+        return new ClaveOrdenacion(nombre, true);
+    }
+}
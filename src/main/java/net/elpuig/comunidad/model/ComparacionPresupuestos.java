@@ -0,0 +1,17 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.util.List;
+
+/**
+ * Comparación de los presupuestos de dos años de una comunidad: total general y total de
+ * cada zona. Las propiedades y los propietarios se consultan por páginas.
+ */
+@Value
+public class ComparacionPresupuestos {
+    String comunidad;
+    int desde;
+    int hasta;
+    FilaDiferencia total;
+    List<FilaDiferencia> zonas; // Zonas del año final y después las que solo existían en el inicial
+}
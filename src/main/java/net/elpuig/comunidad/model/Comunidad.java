@@ -14,6 +14,7 @@ public class Comunidad {
     private List<Propiedad> propiedades;
     private List<Propietario> propietarios;
     private List<Gasto> gastos;
+    private Integer anioPresupuesto; // Año de la cabecera del archivo de gastos, null si no lo indica
     private Map<Zona, BigDecimal> totalesPorZona;
     private BigDecimal totalGeneral;
 }
@@ -0,0 +1,199 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.ListaTramos;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Cuotas agregadas por propietario de una comunidad ya calculada: la suma, zona a zona, de
+ * las cuotas de todas sus propiedades, junto con los propietarios ordenados por código.
+ * Se calcula una vez al publicar la comunidad y se guarda en sus {@link DerivadosComunidad},
+ * de modo que las vistas no tienen que volver a sumar ni a ordenar en cada petición.
+ *
+ * Los mapas y listas que devuelve son de solo lectura.
+ */
+public final class CuotasPropietarios {
+
+    private final List<Propietario> ordenados;
+    private final List<Map<Zona, BigDecimal>> cuotas;
+    private final Map<String, Integer> posiciones;
+    private final Map<Propietario, Map<Zona, BigDecimal>> porPropietario;
+
+    private CuotasPropietarios(List<Propietario> ordenados, List<Map<Zona, BigDecimal>> cuotas,
+                               Map<String, Integer> posiciones) {
+        this.ordenados = ordenados;
+        this.cuotas = cuotas;
+        this.posiciones = posiciones;
+        this.porPropietario = new VistaPorPropietario();
+    }
+
+    /**
+     * Devuelve las cuotas por propietario de una versión publicada, calculándolas si no se
+     * calcularon al publicarla.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Cuotas agregadas por propietario
+     */
+    public static CuotasPropietarios de(SnapshotComunidad snapshot) {
+        return de(snapshot.getDerivados());
+    }
+
+    static CuotasPropietarios de(DerivadosComunidad derivados) {
+        CuotasPropietarios agregadas = derivados.getCuotasPropietarios();
+        if (agregadas == null) {
+            agregadas = calcular(derivados.getComunidad());
+            derivados.setCuotasPropietarios(agregadas);
+        }
+        return agregadas;
+    }
+
+    /**
+     * Suma las cuotas de las propiedades de cada propietario y los ordena por código.
+     */
+    public static CuotasPropietarios calcular(Comunidad comunidad) {
+        return calcular(comunidad.getPropietarios() != null
+            ? comunidad.getPropietarios() : Collections.emptyList());
+    }
+
+    private static CuotasPropietarios calcular(List<Propietario> propietarios) {
+        List<Propietario> ordenados = new ArrayList<>(propietarios);
+        ordenados.sort(Comparator.comparing(Propietario::getCodigo));
+
+        List<Map<Zona, BigDecimal>> cuotas = new ArrayList<>(ordenados.size());
+        Map<String, Integer> posiciones = new HashMap<>();
+        for (int i = 0; i < ordenados.size(); i++) {
+            cuotas.add(sumar(ordenados.get(i)));
+            posiciones.put(ordenados.get(i).getCodigo(), i);
+        }
+        return new CuotasPropietarios(Collections.unmodifiableList(ordenados), cuotas, Collections.unmodifiableMap(posiciones));
+    }
+
+    /**
+     * Devuelve las cuotas para una lista de propietarios en la que solo se han sustituido
+     * algunos propietarios por copias con el mismo código. Solo se vuelven a sumar las cuotas
+     * de los sustituidos; las del resto y el índice por código se comparten, y las listas se
+     * guardan en tramos ({@link ListaTramos}) para no copiarlas enteras en cada cambio.
+     *
+     * @param propietarios Nueva lista de propietarios
+     * @param cambiados Propietarios que han sustituido a otros con el mismo código
+     * @return Las cuotas para la nueva lista
+     */
+    public CuotasPropietarios conCambios(List<Propietario> propietarios, Collection<Propietario> cambiados) {
+        Map<Integer, Propietario> nuevosOrdenados = new HashMap<>();
+        Map<Integer, Map<Zona, BigDecimal>> nuevasCuotas = new HashMap<>();
+        for (Propietario propietario : cambiados) {
+            Integer posicion = posiciones.get(propietario.getCodigo());
+            if (posicion == null) {
+                // Un propietario nuevo cambia el orden: se recalcula todo
+                return calcular(propietarios);
+            }
+            nuevosOrdenados.put(posicion, propietario);
+            nuevasCuotas.put(posicion, sumar(propietario));
+        }
+        return new CuotasPropietarios(ListaTramos.<Propietario>de(ordenados).con(nuevosOrdenados),
+            ListaTramos.<Map<Zona, BigDecimal>>de(cuotas).con(nuevasCuotas), posiciones);
+    }
+
+    private static Map<Zona, BigDecimal> sumar(Propietario propietario) {
+        Map<Zona, BigDecimal> cuotasPropietario = new HashMap<>();
+        if (propietario.getPropiedades() != null) {
+            for (Propiedad propiedad : propietario.getPropiedades()) {
+                if (propiedad.getCuotas() != null) {
+                    propiedad.getCuotas().forEach((zona, cuota) -> cuotasPropietario.merge(zona, cuota, BigDecimal::add));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(cuotasPropietario);
+    }
+
+    /** Propietarios ordenados por código */
+    public List<Propietario> getOrdenados() {
+        return ordenados;
+    }
+
+    /** Cuotas por zona de cada propietario, en orden de código */
+    public Map<Propietario, Map<Zona, BigDecimal>> getPorPropietario() {
+        return porPropietario;
+    }
+
+    /**
+     * Cuotas por zona de un propietario, sin recorrer el resto.
+     *
+     * @param codigo Código del propietario
+     * @return Las cuotas por zona o null si no existe ningún propietario con ese código
+     */
+    public Map<Zona, BigDecimal> cuotas(String codigo) {
+        Integer posicion = posiciones.get(codigo);
+        return posicion != null ? cuotas.get(posicion) : null;
+    }
+
+    /**
+     * Propietario con el código indicado, sin recorrer el resto.
+     *
+     * @param codigo Código del propietario
+     * @return El propietario o null si no existe
+     */
+    public Propietario propietario(String codigo) {
+        Integer posicion = posiciones.get(codigo);
+        return posicion != null ? ordenados.get(posicion) : null;
+    }
+
+    /**
+     * Vista de solo lectura propietario → cuotas sobre las listas ordenadas, para no
+     * construir otro mapa en cada versión de la comunidad.
+     */
+    private final class VistaPorPropietario extends AbstractMap<Propietario, Map<Zona, BigDecimal>> {
+
+        private final Set<Entry<Propietario, Map<Zona, BigDecimal>>> entradas = new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Propietario, Map<Zona, BigDecimal>>> iterator() {
+                return new Iterator<>() {
+                    private int siguiente;
+
+                    @Override
+                    public boolean hasNext() {
+                        return siguiente < ordenados.size();
+                    }
+
+                    @Override
+                    public Entry<Propietario, Map<Zona, BigDecimal>> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = siguiente++;
+                        return new SimpleImmutableEntry<>(ordenados.get(i), cuotas.get(i));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ordenados.size();
+            }
+        };
+
+        @Override
+        public Set<Entry<Propietario, Map<Zona, BigDecimal>>> entrySet() {
+            return entradas;
+        }
+
+        @Override
+        public int size() {
+            return ordenados.size();
+        }
+
+        @Override
+        public Map<Zona, BigDecimal> get(Object clave) {
+            if (!(clave instanceof Propietario propietario)) {
+                return null;
+            }
+            Integer posicion = posiciones.get(propietario.getCodigo());
+            return posicion != null && ordenados.get(posicion).equals(propietario) ? cuotas.get(posicion) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object clave) {
+            return get(clave) != null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Datos derivados de una comunidad ya calculada: índice de zonas, cuotas sumadas por
+ * propietario, índice de búsqueda, columnas y tablas de las vistas, ordenaciones de la API,
+ * páginas renderizadas y agregados de cartera. Se crean junto con la comunidad que se va a
+ * publicar y viajan con su {@link SnapshotComunidad}, de modo que {@link Comunidad} sigue
+ * siendo un modelo plano y los datos de una versión se descartan con ella.
+ *
+ * La comunidad de un snapshot no cambia, así que cada dato se calcula como mucho una vez por
+ * versión ({@code IndiceZonas.de(snapshot)}, {@code TablasComunidad.de(snapshot)}...) y nunca
+ * hay que comprobar si sigue valiendo. Los campos son volatile: si dos peticiones piden a la
+ * vez un dato sin calcular puede calcularse dos veces, pero ninguna ve un objeto a medio
+ * construir. Los que ya se conocen al calcular o recalcular la comunidad se asignan antes de
+ * publicarla.
+ */
+@Getter
+@Setter
+public final class DerivadosComunidad {
+    private final Comunidad comunidad;
+    private volatile IndiceZonas indiceZonas; // Zona → propiedades, se construye al calcular cuotas
+    private volatile CuotasPropietarios cuotasPropietarios; // Cuotas sumadas por propietario, se calculan al publicar
+    private volatile IndicePropietarios indicePropietarios; // Búsqueda de propietarios por prefijo, se construye al publicar
+    private volatile PropiedadesColumnares propiedadesColumnares; // Propiedades por columnas para las vistas, se construyen al pedirlas
+    private volatile TablasComunidad tablas; // Filas y columnas ya formateadas para las vistas, se construyen al pedirlas
+    private volatile AgregadosCartera agregadosCartera; // Totales para los paneles de cartera, se calculan al pedirlos
+    private volatile ResumenCartera resumenCartera; // Agregados e índice de búsqueda que se conservan al descartar la versión, se calcula al pedirlo
+    private final Map<ClaveOrdenacion, int[]> ordenaciones = new ConcurrentHashMap<>(); // Órdenes de la API JSON, se calculan al pedirlos
+    private final Map<String, CompletableFuture<PaginaRenderizada>> paginas = new ConcurrentHashMap<>(); // Vistas ya renderizadas y comprimidas, o que se están renderizando
+
+    /**
+     * @param comunidad Comunidad ya calculada de la que se derivan los datos
+     */
+    public DerivadosComunidad(Comunidad comunidad) {
+        this.comunidad = comunidad;
+    }
+}
@@ -0,0 +1,14 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Data;
+import java.util.List;
+
+/**
+ * Escenario de simulación sobre los gastos de una comunidad cargada: una lista de cambios que
+ * se aplican en orden sin modificar la comunidad.
+ */
+@Data
+public class Escenario {
+    private String nombre;
+    private List<CambioEscenario> cambios;
+}
@@ -0,0 +1,22 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Propietario encontrado en una búsqueda, con sus propiedades y su cuota total en la
+ * comunidad en que se ha encontrado, tal como se devuelve en la API JSON.
+ */
+@Value
+public class FilaBusquedaPropietario {
+    String comunidad;
+    String nombreComunidad;
+    long version;
+    String codigo;
+    String nombre;
+    String email;
+    String direccion;
+    List<String> propiedades; // Códigos de sus propiedades en la comunidad
+    BigDecimal total;
+}
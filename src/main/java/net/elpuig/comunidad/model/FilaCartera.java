@@ -0,0 +1,15 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+
+/**
+ * Total de un grupo de un panel de cartera (una población, un nombre de zona o una categoría
+ * de gasto) en todas las comunidades, tal como se devuelve en la API JSON.
+ */
+@Value
+public class FilaCartera {
+    String clave;
+    int comunidades; // Comunidades que aportan al grupo
+    BigDecimal total;
+}
@@ -0,0 +1,22 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Datos generales de una comunidad cargada tal como se devuelven en la API JSON.
+ */
+@Value
+public class FilaComunidad {
+    String id;
+    String nombre;
+    String poblacion;
+    Integer anioPresupuesto;
+    long version;
+    int propiedades;
+    int propietarios;
+    int gastos;
+    Map<String, BigDecimal> totalesPorZona; // Código de zona → total de gastos
+    BigDecimal totalGeneral;
+}
@@ -0,0 +1,33 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Diferencia entre dos años, o entre la comunidad y un escenario simulado, del importe de una
+ * zona, una propiedad o un propietario, tal como se devuelve en la API JSON. El importe de un
+ * lado es null si el elemento no existía o no tenía gastos.
+ */
+@Value
+public class FilaDiferencia {
+    String codigo;
+    String nombre; // Nombre de la zona o del propietario; null para las propiedades
+    BigDecimal anterior;
+    BigDecimal actual;
+    BigDecimal diferencia;
+    BigDecimal variacion; // Porcentaje sobre el año anterior; null si entonces era cero o no existía
+
+    private static final BigDecimal CIEN = BigDecimal.valueOf(100);
+
+    /**
+     * Calcula la diferencia y la variación entre dos importes.
+     */
+    public static FilaDiferencia entre(String codigo, String nombre, BigDecimal anterior, BigDecimal actual) {
+        BigDecimal diferencia = (actual != null ? actual : BigDecimal.ZERO)
+            .subtract(anterior != null ? anterior : BigDecimal.ZERO);
+        BigDecimal variacion = anterior != null && anterior.signum() != 0
+            ? diferencia.multiply(CIEN).divide(anterior, 2, RoundingMode.HALF_UP) : null;
+        return new FilaDiferencia(codigo, nombre, anterior, actual, diferencia, variacion);
+    }
+}
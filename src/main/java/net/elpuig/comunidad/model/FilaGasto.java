@@ -0,0 +1,15 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+
+/**
+ * Gasto tal como se devuelve en la API JSON.
+ */
+@Value
+public class FilaGasto {
+    String id;
+    String descripcion;
+    BigDecimal importe;
+    String zona; // Código de la zona
+}
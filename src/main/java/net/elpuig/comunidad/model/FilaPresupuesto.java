@@ -0,0 +1,19 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Presupuesto de un año de una comunidad tal como se devuelve en la API JSON.
+ */
+@Value
+public class FilaPresupuesto {
+    int anio;
+    long version; // Versión de la comunidad de la que se obtuvo
+    Instant registrado;
+    int gastos;
+    int propiedades;
+    int propietarios;
+    BigDecimal totalGeneral;
+}
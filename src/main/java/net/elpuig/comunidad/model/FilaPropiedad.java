@@ -0,0 +1,21 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Propiedad tal como se devuelve en la API JSON: las zonas y el propietario se indican
+ * por su código para no serializar el grafo de objetos.
+ */
+@Value
+public class FilaPropiedad {
+    String codigo;
+    String tipo;
+    int metrosCuadrados;
+    String propietario;
+    String infoAdicional;
+    Map<String, Integer> porcentajes; // Código de zona → porcentaje
+    Map<String, BigDecimal> cuotas; // Código de zona → cuota
+    BigDecimal total;
+}
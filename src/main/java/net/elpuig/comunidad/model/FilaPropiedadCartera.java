@@ -0,0 +1,17 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+
+/**
+ * Una de las propiedades más caras de la cartera, tal como se devuelve en la API JSON.
+ */
+@Value
+public class FilaPropiedadCartera {
+    String comunidad;
+    String nombreComunidad;
+    String codigo;
+    String tipo;
+    String propietario;
+    BigDecimal total; // Suma de sus cuotas en todas las zonas
+}
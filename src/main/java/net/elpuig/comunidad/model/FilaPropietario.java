@@ -0,0 +1,20 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Propietario tal como se devuelve en la API JSON, con las cuotas sumadas de todas sus propiedades.
+ */
+@Value
+public class FilaPropietario {
+    String codigo;
+    String nombre;
+    String direccion;
+    String email;
+    List<String> propiedades; // Códigos de sus propiedades
+    Map<String, BigDecimal> cuotas; // Código de zona → cuota
+    BigDecimal total;
+}
@@ -0,0 +1,17 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+
+/**
+ * Propietario de un panel de cartera con su cuota total en todas las comunidades,
+ * tal como se devuelve en la API JSON.
+ */
+@Value
+public class FilaPropietarioCartera {
+    String nombre;
+    String email;
+    int comunidades; // Comunidades en que tiene propiedades
+    int propiedades;
+    BigDecimal total;
+}
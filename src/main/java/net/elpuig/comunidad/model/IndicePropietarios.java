@@ -0,0 +1,325 @@
+package net.elpuig.comunidad.model;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Índice de búsqueda por prefijo de los propietarios de una comunidad: código, nombre, email y
+ * dirección. Los textos se normalizan (minúsculas, sin acentos y con los espacios reducidos a
+ * uno) y se indexa cada posición en la que empieza una palabra, de modo que "mart" encuentra
+ * a "Laura Martínez" y "laura mart" también.
+ *
+ * Las entradas no guardan subcadenas: cada una es un long con el texto y la posición de la
+ * palabra, ordenadas por el texto que empieza en esa posición. Una búsqueda es una bisección
+ * hasta la primera entrada no menor que el prefijo y un recorrido de las que empiezan por él.
+ *
+ * Los propietarios se identifican por su posición en {@link CuotasPropietarios#getOrdenados()}.
+ * Como el índice de zonas, se guarda en los {@link DerivadosComunidad} de cada versión; al
+ * recalcular cuotas los propietarios conservan código, datos y posición, así que la versión
+ * nueva hereda el índice de la anterior.
+ */
+public final class IndicePropietarios {
+
+    /** Campos indexados de cada propietario: código, nombre, email y dirección */
+    private static final int CAMPOS = 4;
+    private static final int BITS_POSICION = 16;
+    private static final int LONGITUD_MAXIMA = (1 << BITS_POSICION) - 1;
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+    /** Cada carácter de U+0080 a U+00FF ya normalizado: sin acento y en minúsculas */
+    private static final char[] LATIN1 = new char[0x80];
+
+    static {
+        for (char c = 0x80; c <= 0xFF; c++) {
+            String base = normalizarUnicode(String.valueOf(c));
+            LATIN1[c - 0x80] = base.length() == 1 ? base.charAt(0) : Character.toLowerCase(c);
+        }
+    }
+
+    private final int numeroPropietarios;
+    /** Texto normalizado de cada campo de cada propietario, en {@code propietario * CAMPOS + campo} */
+    private final String[] textos;
+    /** (texto << BITS_POSICION) | posición de la palabra, ordenadas por el texto desde esa posición */
+    private final long[] entradas;
+
+    private IndicePropietarios(int numeroPropietarios, String[] textos, long[] entradas) {
+        this.numeroPropietarios = numeroPropietarios;
+        this.textos = textos;
+        this.entradas = entradas;
+    }
+
+    /**
+     * Devuelve el índice de una versión publicada, construyéndolo si no se construyó al
+     * publicarla.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Índice de búsqueda de sus propietarios
+     */
+    public static IndicePropietarios de(SnapshotComunidad snapshot) {
+        DerivadosComunidad derivados = snapshot.getDerivados();
+        IndicePropietarios indice = derivados.getIndicePropietarios();
+        if (indice == null) {
+            indice = construir(CuotasPropietarios.de(derivados));
+            derivados.setIndicePropietarios(indice);
+        }
+        return indice;
+    }
+
+    /**
+     * Construye el índice sobre los propietarios ordenados por código de la comunidad.
+     *
+     * @param cuotas Cuotas por propietario de la comunidad, con sus propietarios ordenados
+     */
+    public static IndicePropietarios construir(CuotasPropietarios cuotas) {
+        List<Propietario> propietarios = cuotas.getOrdenados();
+        String[] textos = new String[propietarios.size() * CAMPOS];
+        int numeroEntradas = 0;
+        for (int i = 0; i < propietarios.size(); i++) {
+            Propietario propietario = propietarios.get(i);
+            textos[i * CAMPOS] = normalizar(propietario.getCodigo());
+            textos[i * CAMPOS + 1] = normalizar(propietario.getNombre());
+            textos[i * CAMPOS + 2] = normalizar(propietario.getEmail());
+            textos[i * CAMPOS + 3] = normalizar(propietario.getDireccion());
+            for (int campo = 0; campo < CAMPOS; campo++) {
+                numeroEntradas += contarPalabras(textos[i * CAMPOS + campo]);
+            }
+        }
+
+        long[] entradas = new long[numeroEntradas];
+        int n = 0;
+        for (int t = 0; t < textos.length; t++) {
+            String texto = textos[t];
+            for (int p = 0; p < texto.length(); p++) {
+                if (empiezaPalabra(texto, p)) {
+                    entradas[n++] = ((long) t << BITS_POSICION) | p;
+                }
+            }
+        }
+        ordenar(textos, entradas);
+        return new IndicePropietarios(propietarios.size(), textos, entradas);
+    }
+
+    /**
+     * Normaliza un texto para indexarlo o buscarlo: minúsculas, sin acentos ni diéresis y con
+     * los espacios recortados y reducidos a uno.
+     *
+     * @return El texto normalizado; vacío si es null
+     */
+    public static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        // Los textos en Latin-1 se normalizan carácter a carácter, sin descomponer ni usar expresiones
+        StringBuilder normalizado = new StringBuilder(texto.length());
+        boolean espacio = false;
+        for (int i = 0; i < texto.length() && normalizado.length() < LONGITUD_MAXIMA; i++) {
+            char c = texto.charAt(i);
+            if (c > 0xFF) {
+                return normalizarUnicode(texto);
+            }
+            if (c == ' ' || (c >= '\t' && c <= '\r')) {
+                espacio = normalizado.length() > 0;
+                continue;
+            }
+            if (c >= 0x80) {
+                c = LATIN1[c - 0x80];
+            } else if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (espacio) {
+                normalizado.append(' ');
+                espacio = false;
+            }
+            normalizado.append(c);
+        }
+        return normalizado.toString();
+    }
+
+    private static String normalizarUnicode(String texto) {
+        String sinMarcas = MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        String normalizado = ESPACIOS.matcher(sinMarcas.toLowerCase(Locale.ROOT).trim()).replaceAll(" ");
+        return normalizado.length() > LONGITUD_MAXIMA ? normalizado.substring(0, LONGITUD_MAXIMA) : normalizado;
+    }
+
+    /**
+     * Busca los propietarios con alguna palabra que empiece por el prefijo.
+     *
+     * @param prefijo Prefijo ya normalizado con {@link #normalizar(String)}
+     * @param limite Número máximo de propietarios
+     * @return Posición de cada propietario en {@link CuotasPropietarios#getOrdenados()}, sin
+     *         repetir, en el orden del texto que coincide
+     */
+    public int[] buscar(String prefijo, int limite) {
+        int[] encontrados = new int[Math.min(limite, numeroPropietarios)];
+        int n = 0;
+        for (int i = primeraNoMenor(prefijo); i < entradas.length && n < encontrados.length; i++) {
+            if (!textos[texto(entradas[i])].startsWith(prefijo, posicion(entradas[i]))) {
+                break;
+            }
+            int propietario = texto(entradas[i]) / CAMPOS;
+            if (!contiene(encontrados, n, propietario)) {
+                encontrados[n++] = propietario;
+            }
+        }
+        return Arrays.copyOf(encontrados, n);
+    }
+
+    /**
+     * Texto normalizado a partir de la palabra con la que ha coincidido un propietario, para
+     * ordenar los resultados de varias comunidades igual que los de una.
+     *
+     * @param propietario Posición devuelta por {@link #buscar(String, int)}
+     * @param prefijo El mismo prefijo de la búsqueda
+     * @return El menor texto desde una palabra que empieza por el prefijo, en cualquiera de los
+     *         campos, o null si no hay
+     */
+    public String coincidencia(int propietario, String prefijo) {
+        String mejor = null;
+        for (int campo = 0; campo < CAMPOS; campo++) {
+            String texto = textos[propietario * CAMPOS + campo];
+            for (int p = texto.indexOf(prefijo); p >= 0; p = texto.indexOf(prefijo, p + 1)) {
+                if (empiezaPalabra(texto, p)) {
+                    String candidato = texto.substring(p);
+                    if (mejor == null || candidato.compareTo(mejor) < 0) {
+                        mejor = candidato;
+                    }
+                }
+            }
+        }
+        return mejor;
+    }
+
+    public int size() {
+        return entradas.length;
+    }
+
+    private int primeraNoMenor(String prefijo) {
+        int desde = 0;
+        int hasta = entradas.length;
+        while (desde < hasta) {
+            int medio = (desde + hasta) >>> 1;
+            long entrada = entradas[medio];
+            if (comparar(textos[texto(entrada)], posicion(entrada), prefijo, 0) < 0) {
+                desde = medio + 1;
+            } else {
+                hasta = medio;
+            }
+        }
+        return desde;
+    }
+
+    private static int texto(long entrada) {
+        return (int) (entrada >>> BITS_POSICION);
+    }
+
+    private static int posicion(long entrada) {
+        return (int) (entrada & LONGITUD_MAXIMA);
+    }
+
+    private static boolean contiene(int[] valores, int n, int valor) {
+        for (int i = 0; i < n; i++) {
+            if (valores[i] == valor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean empiezaPalabra(String texto, int p) {
+        return Character.isLetterOrDigit(texto.charAt(p))
+            && (p == 0 || !Character.isLetterOrDigit(texto.charAt(p - 1)));
+    }
+
+    private static int contarPalabras(String texto) {
+        int palabras = 0;
+        for (int p = 0; p < texto.length(); p++) {
+            if (empiezaPalabra(texto, p)) {
+                palabras++;
+            }
+        }
+        return palabras;
+    }
+
+    /**
+     * Compara el texto {@code a} desde {@code desdeA} con el texto {@code b} desde {@code desdeB}.
+     */
+    private static int comparar(String a, int desdeA, String b, int desdeB) {
+        int longitudA = a.length() - desdeA;
+        int longitudB = b.length() - desdeB;
+        int minimo = Math.min(longitudA, longitudB);
+        for (int i = 0; i < minimo; i++) {
+            int diferencia = a.charAt(desdeA + i) - b.charAt(desdeB + i);
+            if (diferencia != 0) {
+                return diferencia;
+            }
+        }
+        return longitudA - longitudB;
+    }
+
+    /**
+     * Primeros cuatro caracteres del texto desde una posición, uno en cada 16 bits: comparados
+     * sin signo ordenan igual que el texto, y solo si coinciden hace falta compararlo entero.
+     */
+    private static long clave(String texto, int desde) {
+        long clave = 0;
+        for (int i = 0; i < 4; i++) {
+            clave = (clave << 16) | (desde + i < texto.length() ? texto.charAt(desde + i) : 0);
+        }
+        return clave;
+    }
+
+    /**
+     * Ordena las entradas por su texto con una mezcla ascendente: Arrays.sort no admite
+     * comparador sobre un long[] y encajonarlas duplicaría la memoria del índice. Cada entrada
+     * se mueve junto a su {@link #clave(String, int)}, que resuelve casi todas las comparaciones.
+     */
+    private static void ordenar(String[] textos, long[] entradas) {
+        long[] claves = new long[entradas.length];
+        for (int i = 0; i < entradas.length; i++) {
+            claves[i] = clave(textos[texto(entradas[i])], posicion(entradas[i]));
+        }
+        long[] origen = entradas;
+        long[] destino = new long[entradas.length];
+        long[] clavesOrigen = claves;
+        long[] clavesDestino = new long[entradas.length];
+        for (int ancho = 1; ancho < entradas.length; ancho *= 2) {
+            for (int desde = 0; desde < entradas.length; desde += 2 * ancho) {
+                int medio = Math.min(desde + ancho, entradas.length);
+                int hasta = Math.min(desde + 2 * ancho, entradas.length);
+                int i = desde;
+                int j = medio;
+                for (int k = desde; k < hasta; k++) {
+                    boolean izquierda = i < medio;
+                    if (izquierda && j < hasta) {
+                        int diferencia = Long.compareUnsigned(clavesOrigen[i], clavesOrigen[j]);
+                        if (diferencia == 0) {
+                            long x = origen[i];
+                            long y = origen[j];
+                            diferencia = comparar(textos[texto(x)], posicion(x), textos[texto(y)], posicion(y));
+                        }
+                        izquierda = diferencia <= 0;
+                    }
+                    if (izquierda) {
+                        clavesDestino[k] = clavesOrigen[i];
+                        destino[k] = origen[i++];
+                    } else {
+                        clavesDestino[k] = clavesOrigen[j];
+                        destino[k] = origen[j++];
+                    }
+                }
+            }
+            long[] intercambio = origen;
+            origen = destino;
+            destino = intercambio;
+            intercambio = clavesOrigen;
+            clavesOrigen = clavesDestino;
+            clavesDestino = intercambio;
+        }
+        if (origen != entradas) {
+            System.arraycopy(origen, 0, entradas, 0, entradas.length);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package net.elpuig.comunidad.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice de pertenencia zona → propiedades de una comunidad.
+ * Se construye en una sola pasada sobre las propiedades y guarda, para cada zona,
+ * un array denso con las propiedades que participan en ella, sus porcentajes y la
+ * suma de porcentajes ya calculada. Así el reparto de cada zona recorre solo sus
+ * miembros en lugar de filtrar todas las propiedades de la comunidad.
+ *
+ * En la misma pasada se guardan las posiciones de las propiedades de cada propietario, para
+ * que un recálculo encuentre las de los propietarios afectados sin recorrer toda la lista.
+ *
+ * El índice de una versión publicada se guarda en sus {@link DerivadosComunidad}, ya que sus
+ * propiedades y porcentajes no cambian. Cada zona guarda también los pesos de su
+ * estrategia de reparto publicada ({@link MiembrosZona#pesos(Zona)}).
+ */
+public final class IndiceZonas {
+
+    /**
+     * Propiedades que participan en una zona, en el mismo orden que en la comunidad.
+     */
+    public static final class MiembrosZona {
+        private final Zona zona;
+        private final Propiedad[] propiedades;
+        private final int[] posiciones;
+        private final int[] pesos;
+        private final long totalPesos;
+        /** Pesos compilados de la estrategia publicada de la zona, por letra y parámetros */
+        private final Map<String, PesosReparto> compilados;
+
+        MiembrosZona(Zona zona, Propiedad[] propiedades, int[] posiciones, int[] pesos,
+                     Map<String, PesosReparto> compilados) {
+            this.zona = zona;
+            this.propiedades = propiedades;
+            this.posiciones = posiciones;
+            this.pesos = pesos;
+            this.compilados = compilados;
+            long total = 0;
+            for (int peso : pesos) {
+                total += peso;
+            }
+            this.totalPesos = total;
+        }
+
+        public Zona getZona() {
+            return zona;
+        }
+
+        public int size() {
+            return propiedades.length;
+        }
+
+        public Propiedad propiedad(int i) {
+            return propiedades[i];
+        }
+
+        /** Posición de la propiedad i dentro de {@link Comunidad#getPropiedades()} */
+        public int posicion(int i) {
+            return posiciones[i];
+        }
+
+        /**
+         * Índice del primer miembro cuya posición en la comunidad es igual o mayor que la
+         * indicada, o {@link #size()} si no hay ninguno. Los miembros están ordenados por posición.
+         */
+        public int primeroDesde(int posicion) {
+            int indice = Arrays.binarySearch(posiciones, posicion);
+            return indice >= 0 ? indice : -indice - 1;
+        }
+
+        /** Porcentaje de la propiedad i en la zona */
+        public int peso(int i) {
+            return pesos[i];
+        }
+
+        /**
+         * Porcentajes de todas las propiedades de la zona. Se devuelve el array interno,
+         * sin copiar, para los bucles de cálculo: no debe modificarse.
+         */
+        public int[] getPesos() {
+            return pesos;
+        }
+
+        /** Suma de los porcentajes de todas las propiedades de la zona */
+        public long getTotalPesos() {
+            return totalPesos;
+        }
+
+        /**
+         * Pesos de reparto de la zona según su estrategia ({@link TipoReparto}) y parámetros.
+         * Los de la estrategia publicada de la zona se compilan la primera vez que se piden y se
+         * reutilizan en los repartos siguientes; los de otra estrategia (la copia de la zona en
+         * una simulación) se compilan cada vez y no se guardan, porque la versión publicada
+         * vive más que la petición y sus parámetros los elige el cliente.
+         *
+         * @param zona La zona de estos miembros o una copia con otra estrategia
+         */
+        public PesosReparto pesos(Zona zona) {
+            if (zona.getTipoReparto() != this.zona.getTipoReparto()
+                    || !Objects.equals(zona.getParametrosReparto(), this.zona.getParametrosReparto())) {
+                return compilar(zona);
+            }
+            TipoReparto tipo = TipoReparto.de(zona.getTipoReparto());
+            String parametros = zona.getParametrosReparto();
+            String clave = parametros != null ? tipo.getCodigo() + ";" + parametros : String.valueOf(tipo.getCodigo());
+            PesosReparto compilado = compilados.get(clave);
+            if (compilado == null) {
+                compilado = compilados.computeIfAbsent(clave, c -> tipo.compilar(this, parametros));
+            }
+            return compilado;
+        }
+
+        /**
+         * Compila los pesos de reparto de una estrategia sin guardarlos en los miembros.
+         *
+         * @param zona La zona de estos miembros o una copia con otra estrategia
+         */
+        public PesosReparto compilar(Zona zona) {
+            return TipoReparto.de(zona.getTipoReparto()).compilar(this, zona.getParametrosReparto());
+        }
+
+        /** Número de pesos guardados de todas las estrategias compiladas */
+        long pesosCompilados() {
+            long total = 0;
+            for (PesosReparto compilado : compilados.values()) {
+                total += compilado.esUniforme() ? 0 : compilado.size();
+            }
+            return total;
+        }
+    }
+
+    private final int numeroPropiedades;
+    private final Map<Zona, MiembrosZona> miembros;
+    /** Posiciones de las propiedades de cada propietario, por su código */
+    private final Map<String, int[]> propiedadesPropietario;
+
+    private IndiceZonas(List<Propiedad> propiedades, Map<Zona, MiembrosZona> miembros,
+                        Map<String, int[]> propiedadesPropietario) {
+        this.numeroPropiedades = propiedades.size();
+        this.miembros = miembros;
+        this.propiedadesPropietario = propiedadesPropietario;
+    }
+
+    /**
+     * Devuelve el índice de una versión publicada, construyéndolo la primera vez.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Índice zona → propiedades
+     */
+    public static IndiceZonas de(SnapshotComunidad snapshot) {
+        return de(snapshot.getDerivados());
+    }
+
+    static IndiceZonas de(DerivadosComunidad derivados) {
+        IndiceZonas indice = derivados.getIndiceZonas();
+        if (indice == null) {
+            indice = construir(derivados.getComunidad());
+            derivados.setIndiceZonas(indice);
+        }
+        return indice;
+    }
+
+    /**
+     * Construye el índice recorriendo una sola vez las propiedades de la comunidad.
+     */
+    public static IndiceZonas construir(Comunidad comunidad) {
+        List<Propiedad> propiedades = comunidad.getPropiedades() != null
+            ? comunidad.getPropiedades() : Collections.emptyList();
+
+        // Primera pasada: contar miembros por zona y propiedades por propietario para reservar arrays exactos
+        Map<Zona, Acumulador> acumuladores = new HashMap<>();
+        Map<String, int[]> cuentasPropietario = new HashMap<>();
+        for (Propiedad propiedad : propiedades) {
+            if (propiedad.getPropietario() != null) {
+                cuentasPropietario.computeIfAbsent(propiedad.getPropietario().getCodigo(), c -> new int[1])[0]++;
+            }
+            if (propiedad.getPorcentajesZona() != null) {
+                for (Zona zona : propiedad.getPorcentajesZona().keySet()) {
+                    acumuladores.computeIfAbsent(zona, z -> new Acumulador()).tamano++;
+                }
+            }
+        }
+        acumuladores.values().forEach(Acumulador::reservar);
+        Map<String, int[]> propiedadesPropietario = new HashMap<>();
+        cuentasPropietario.forEach((codigo, cuenta) -> propiedadesPropietario.put(codigo, new int[cuenta[0]]));
+
+        // Segunda pasada: rellenar en el orden de la comunidad
+        for (int posicion = 0; posicion < propiedades.size(); posicion++) {
+            Propiedad propiedad = propiedades.get(posicion);
+            if (propiedad.getPropietario() != null) {
+                String codigo = propiedad.getPropietario().getCodigo();
+                // La cuenta ya no hace falta: se reutiliza para llevar el siguiente hueco libre
+                int[] suyas = propiedadesPropietario.get(codigo);
+                suyas[suyas.length - cuentasPropietario.get(codigo)[0]--] = posicion;
+            }
+            if (propiedad.getPorcentajesZona() == null) {
+                continue;
+            }
+            for (Map.Entry<Zona, Integer> entrada : propiedad.getPorcentajesZona().entrySet()) {
+                acumuladores.get(entrada.getKey()).anadir(propiedad, posicion, entrada.getValue());
+            }
+        }
+
+        Map<Zona, MiembrosZona> miembros = new HashMap<>();
+        acumuladores.forEach((zona, acumulador) -> miembros.put(zona,
+            new MiembrosZona(zona, acumulador.propiedades, acumulador.posiciones, acumulador.pesos,
+                new ConcurrentHashMap<>())));
+        return new IndiceZonas(propiedades, miembros, propiedadesPropietario);
+    }
+
+    /**
+     * Devuelve un índice para una lista de propiedades que solo se diferencia de la indexada
+     * en que algunas propiedades se han sustituido por copias, en la misma posición y con los
+     * mismos porcentajes. Solo se copian los arrays de propiedades de las zonas en que
+     * participan las sustituidas; posiciones, porcentajes, pesos compilados (las copias tienen
+     * los mismos metros y tipo), el resto de zonas y las posiciones por propietario (las copias
+     * tienen un propietario con el mismo código) se comparten.
+     *
+     * @param propiedades Nueva lista de propiedades
+     * @param reemplazos Propiedades nuevas indexadas por su posición en la lista
+     * @return El índice para la nueva lista
+     */
+    public IndiceZonas conReemplazos(List<Propiedad> propiedades, Map<Integer, Propiedad> reemplazos) {
+        Map<Zona, Propiedad[]> copias = new HashMap<>();
+        reemplazos.forEach((posicion, propiedad) -> {
+            if (propiedad.getPorcentajesZona() == null) {
+                return;
+            }
+            for (Zona zona : propiedad.getPorcentajesZona().keySet()) {
+                MiembrosZona actuales = miembros.get(zona);
+                Propiedad[] copia = copias.computeIfAbsent(zona, z -> actuales.propiedades.clone());
+                // Las posiciones de cada zona están en orden creciente
+                copia[Arrays.binarySearch(actuales.posiciones, posicion)] = propiedad;
+            }
+        });
+
+        Map<Zona, MiembrosZona> nuevos = new HashMap<>(miembros);
+        copias.forEach((zona, copia) -> {
+            MiembrosZona actuales = miembros.get(zona);
+            nuevos.put(zona, new MiembrosZona(zona, copia, actuales.posiciones, actuales.pesos, actuales.compilados));
+        });
+        return new IndiceZonas(propiedades, nuevos, propiedadesPropietario);
+    }
+
+    /**
+     * Devuelve los miembros de una zona.
+     *
+     * @return Los miembros o null si ninguna propiedad participa en la zona
+     */
+    public MiembrosZona miembros(Zona zona) {
+        return miembros.get(zona);
+    }
+
+    /** Todas las zonas con al menos una propiedad */
+    public Collection<MiembrosZona> todas() {
+        return Collections.unmodifiableCollection(miembros.values());
+    }
+
+    /**
+     * Posiciones en {@link Comunidad#getPropiedades()} de las propiedades de un propietario,
+     * en orden creciente. Se devuelve el array interno, sin copiar: no debe modificarse.
+     *
+     * @param codigo Código del propietario
+     * @return Las posiciones, vacío si el propietario no tiene propiedades
+     */
+    public int[] posicionesPropietario(String codigo) {
+        int[] posiciones = propiedadesPropietario.get(codigo);
+        return posiciones != null ? posiciones : new int[0];
+    }
+
+    public int getNumeroPropiedades() {
+        return numeroPropiedades;
+    }
+
+    /** Número de propietarios con alguna propiedad */
+    public int getNumeroPropietarios() {
+        return propiedadesPropietario.size();
+    }
+
+    /** Número de pesos guardados en todas las zonas, para estimar la memoria del índice */
+    public long getPesosCompilados() {
+        long total = 0;
+        for (MiembrosZona zona : miembros.values()) {
+            total += zona.pesosCompilados();
+        }
+        return total;
+    }
+
+    private static final class Acumulador {
+        int tamano;
+        int siguiente;
+        Propiedad[] propiedades;
+        int[] posiciones;
+        int[] pesos;
+
+        void reservar() {
+            propiedades = new Propiedad[tamano];
+            posiciones = new int[tamano];
+            pesos = new int[tamano];
+        }
+
+        void anadir(Propiedad propiedad, int posicion, int peso) {
+            propiedades[siguiente] = propiedad;
+            posiciones[siguiente] = posicion;
+            pesos[siguiente] = peso;
+            siguiente++;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class InformeLote {
+    private String origen; // Nombre del ZIP o directorio procesado
+    private List<ResultadoLote> resultados;
+    private int correctos;
+    private int fallidos;
+    private long msTotal;
+}
@@ -0,0 +1,17 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.util.List;
+
+/**
+ * Página de resultados de la API JSON. Para pedir la siguiente página se envía
+ * {@code siguienteCursor} en el parámetro {@code cursor}; es null en la última página.
+ * El cursor solo es válido para la misma consulta y la misma versión de la comunidad.
+ */
+@Value
+public class Pagina<T> {
+    String comunidad;
+    long version;
+    List<T> elementos;
+    String siguienteCursor;
+}
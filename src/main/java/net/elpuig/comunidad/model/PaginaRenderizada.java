@@ -0,0 +1,37 @@
+package net.elpuig.comunidad.model;
+
+/**
+ * Una vista HTML ya renderizada para una versión de una comunidad, guardada comprimida con
+ * gzip. Se guarda en los {@link DerivadosComunidad} de la versión, que no cambia una vez
+ * publicada, de modo que cada snapshot tiene sus páginas y se descartan junto con él.
+ *
+ * Las páginas que superan el tamaño máximo de la caché se registran con
+ * {@link #DEMASIADO_GRANDE} para no volver a intentar guardarlas en cada petición.
+ */
+public final class PaginaRenderizada {
+
+    /** Marca de una página que no cabe en la caché y se renderiza en cada petición */
+    public static final PaginaRenderizada DEMASIADO_GRANDE = new PaginaRenderizada(new byte[0], 0);
+
+    private final byte[] comprimida;
+    private final long longitud;
+
+    public PaginaRenderizada(byte[] comprimida, long longitud) {
+        this.comprimida = comprimida;
+        this.longitud = longitud;
+    }
+
+    /** Contenido comprimido con gzip; no se debe modificar */
+    public byte[] getComprimida() {
+        return comprimida;
+    }
+
+    /** Longitud en bytes de la página sin comprimir */
+    public long getLongitud() {
+        return longitud;
+    }
+
+    public boolean isCacheable() {
+        return this != DEMASIADO_GRANDE;
+    }
+}
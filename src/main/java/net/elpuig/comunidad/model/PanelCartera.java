@@ -0,0 +1,22 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Panel de gasto de todas las comunidades, cargadas o guardadas en disco, tal como se devuelve
+ * en la API JSON. Los grupos y los propietarios van de mayor a menor total.
+ */
+@Value
+public class PanelCartera {
+    int comunidades;
+    BigDecimal totalGeneral;
+    List<FilaCartera> poblaciones;
+    List<FilaCartera> zonas; // Por nombre de zona
+    List<FilaCartera> categorias; // Por prefijo del código de gasto
+    int numeroPropietarios; // Propietarios distintos en todas las comunidades
+    List<FilaPropietarioCartera> propietarios; // Los de mayor cuota total
+    List<FilaPropiedadCartera> propiedades; // Las más caras
+    List<String> omitidas; // Comunidades guardadas que no se han podido leer y no se han sumado
+}
@@ -0,0 +1,98 @@
+package net.elpuig.comunidad.model;
+
+/**
+ * Vector de pesos de una estrategia de reparto compilada para los miembros de una zona
+ * ({@link TipoReparto}): la cuota del miembro i es el total de la zona por
+ * {@code peso(i) / getTotal()}. Los pesos son enteros y están reducidos por su máximo común
+ * divisor, así que el reparto es exacto y con los números más pequeños posibles; si todos
+ * son iguales el vector es uniforme y no se guarda, porque basta con dividir el total.
+ */
+public final class PesosReparto {
+
+    private final int size;
+    /** Peso de cada miembro, o null si el vector es uniforme */
+    private final long[] pesos;
+    private final long total;
+
+    private PesosReparto(int size, long[] pesos, long total) {
+        this.size = size;
+        this.pesos = pesos;
+        this.total = total;
+    }
+
+    /**
+     * Vector en que todos los miembros pesan lo mismo.
+     *
+     * @param size Número de miembros
+     */
+    public static PesosReparto uniforme(int size) {
+        return new PesosReparto(size, null, size);
+    }
+
+    /**
+     * Normaliza unos pesos: los divide por su máximo común divisor y, si todos son iguales
+     * y mayores que cero, devuelve el vector uniforme.
+     *
+     * @param pesos Peso de cada miembro, no negativo; el array pasa a ser del vector
+     * @throws IllegalArgumentException Si algún peso es negativo
+     * @throws ArithmeticException Si la suma de pesos no cabe en un long
+     */
+    public static PesosReparto de(long[] pesos) {
+        long divisor = 0;
+        boolean iguales = true;
+        for (long peso : pesos) {
+            if (peso < 0) {
+                throw new IllegalArgumentException("Los pesos de reparto no pueden ser negativos");
+            }
+            iguales &= peso == pesos[0];
+            divisor = mcd(divisor, peso);
+        }
+        if (iguales && pesos.length > 0 && pesos[0] > 0) {
+            return uniforme(pesos.length);
+        }
+        long total = 0;
+        for (int i = 0; i < pesos.length; i++) {
+            if (divisor > 1) {
+                pesos[i] /= divisor;
+            }
+            total = Math.addExact(total, pesos[i]);
+        }
+        return new PesosReparto(pesos.length, pesos, total);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Peso del miembro i */
+    public long peso(int i) {
+        return pesos != null ? pesos[i] : 1;
+    }
+
+    /** Suma de los pesos; 0 si la zona no reparte nada */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Indica si todos los miembros pagan lo mismo */
+    public boolean esUniforme() {
+        return pesos == null;
+    }
+
+    /**
+     * Pesos de todos los miembros. Se devuelve el array interno, sin copiar, para los bucles
+     * de cálculo: no debe modificarse. Es null si el vector es uniforme.
+     */
+    public long[] getPesos() {
+        return pesos;
+    }
+
+    private static long mcd(long a, long b) {
+        while (b != 0) {
+            long resto = a % b;
+            a = b;
+            b = resto;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,236 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.RepartoCentimos;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Resultado ya calculado del presupuesto de un año de una comunidad, reducido a lo que hace
+ * falta para compararlo con otros años: el total de cada zona y la cuota total de cada
+ * propiedad y de cada propietario. Las cuotas se guardan en céntimos en arrays primitivos,
+ * con las propiedades y los propietarios ordenados por código, de modo que dos años se
+ * comparan recorriendo ambos a la vez sin mapas ni recálculos.
+ *
+ * Se obtiene de los datos ya calculados de cada versión publicada (las cuotas de las
+ * propiedades y las sumadas por propietario al publicarla), sin construir otras estructuras,
+ * y no se modifica. Los arrays que recibe el constructor pasan a ser suyos y no deben
+ * modificarse después.
+ */
+public final class PresupuestoAnual {
+
+    private final String comunidad;
+    private final int anio;
+    private final long version;
+    private final Instant registrado;
+    private final int numeroGastos;
+    private final BigDecimal totalGeneral;
+
+    private final String[] zonas;
+    private final String[] nombresZona;
+    private final BigDecimal[] totalesZona;
+
+    private final String[] codigosPropiedad;
+    private final long[] centimosPropiedad;
+
+    private final String[] codigosPropietario;
+    private final String[] nombresPropietario;
+    private final long[] centimosPropietario;
+
+    public PresupuestoAnual(String comunidad, int anio, long version, Instant registrado, int numeroGastos,
+                            BigDecimal totalGeneral, String[] zonas, String[] nombresZona, BigDecimal[] totalesZona,
+                            String[] codigosPropiedad, long[] centimosPropiedad,
+                            String[] codigosPropietario, String[] nombresPropietario, long[] centimosPropietario) {
+        this.comunidad = comunidad;
+        this.anio = anio;
+        this.version = version;
+        this.registrado = registrado;
+        this.numeroGastos = numeroGastos;
+        this.totalGeneral = totalGeneral;
+        this.zonas = zonas;
+        this.nombresZona = nombresZona;
+        this.totalesZona = totalesZona;
+        this.codigosPropiedad = codigosPropiedad;
+        this.centimosPropiedad = centimosPropiedad;
+        this.codigosPropietario = codigosPropietario;
+        this.nombresPropietario = nombresPropietario;
+        this.centimosPropietario = centimosPropietario;
+    }
+
+    /**
+     * Obtiene el presupuesto de un snapshot publicado.
+     *
+     * @param snapshot Versión publicada de una comunidad ya calculada
+     * @return El presupuesto o null si la comunidad no indica el año de su presupuesto
+     */
+    public static PresupuestoAnual de(SnapshotComunidad snapshot) {
+        Comunidad comunidad = snapshot.getComunidad();
+        if (comunidad.getAnioPresupuesto() == null) {
+            return null;
+        }
+
+        List<Zona> listaZonas = comunidad.getZonas() != null ? comunidad.getZonas() : List.of();
+        String[] zonas = new String[listaZonas.size()];
+        String[] nombresZona = new String[zonas.length];
+        BigDecimal[] totalesZona = new BigDecimal[zonas.length];
+        for (int z = 0; z < zonas.length; z++) {
+            Zona zona = listaZonas.get(z);
+            BigDecimal total = comunidad.getTotalesPorZona() != null ? comunidad.getTotalesPorZona().get(zona) : null;
+            zonas[z] = zona.getId();
+            nombresZona[z] = zona.getNombre();
+            totalesZona[z] = total != null ? total : BigDecimal.ZERO;
+        }
+
+        // Propiedades: suma de las cuotas ya repartidas, en orden de código. La ordenación es
+        // la misma que la de la API JSON y un recálculo de gastos la hereda, así que se comparte
+        List<Propiedad> propiedades = comunidad.getPropiedades() != null ? comunidad.getPropiedades() : List.of();
+        int[] orden = snapshot.getDerivados().getOrdenaciones().computeIfAbsent(ClaveOrdenacion.PROPIEDADES_CODIGO, clave ->
+            ordenadas(propiedades) ? IntStream.range(0, propiedades.size()).toArray()
+                : IntStream.range(0, propiedades.size())
+                    .boxed()
+                    .sorted(Comparator.comparing(posicion -> propiedades.get(posicion).getCodigo()))
+                    .mapToInt(Integer::intValue)
+                    .toArray());
+        String[] codigosPropiedad = new String[orden.length];
+        long[] centimosPropiedad = new long[orden.length];
+        for (int i = 0; i < orden.length; i++) {
+            Propiedad propiedad = propiedades.get(orden[i]);
+            codigosPropiedad[i] = propiedad.getCodigo();
+            centimosPropiedad[i] = centimos(propiedad.getCuotas());
+        }
+
+        // Propietarios: sus cuotas ya están sumadas y ordenadas por código desde la publicación
+        CuotasPropietarios cuotas = CuotasPropietarios.de(snapshot);
+        List<Propietario> propietarios = cuotas.getOrdenados();
+        String[] codigosPropietario = new String[propietarios.size()];
+        String[] nombresPropietario = new String[propietarios.size()];
+        long[] centimosPropietario = new long[propietarios.size()];
+        for (int i = 0; i < propietarios.size(); i++) {
+            Propietario propietario = propietarios.get(i);
+            codigosPropietario[i] = propietario.getCodigo();
+            nombresPropietario[i] = propietario.getNombre();
+            centimosPropietario[i] = centimos(cuotas.cuotas(propietario.getCodigo()));
+        }
+
+        return new PresupuestoAnual(comunidad.getId(), comunidad.getAnioPresupuesto(), snapshot.getVersion(),
+            snapshot.getCreado(), comunidad.getGastos() != null ? comunidad.getGastos().size() : 0,
+            comunidad.getTotalGeneral() != null ? comunidad.getTotalGeneral() : BigDecimal.ZERO,
+            zonas, nombresZona, totalesZona, codigosPropiedad, centimosPropiedad,
+            codigosPropietario, nombresPropietario, centimosPropietario);
+    }
+
+    /** Los archivos suelen traer las propiedades ya ordenadas por código: entonces no hace falta ordenar */
+    private static boolean ordenadas(List<Propiedad> propiedades) {
+        for (int i = 1; i < propiedades.size(); i++) {
+            if (propiedades.get(i - 1).getCodigo().compareTo(propiedades.get(i).getCodigo()) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Suma en céntimos de unas cuotas por zona, cada una redondeada como en el reparto */
+    private static long centimos(Map<Zona, BigDecimal> cuotas) {
+        long total = 0;
+        if (cuotas != null) {
+            for (BigDecimal cuota : cuotas.values()) {
+                total += RepartoCentimos.aCentimos(cuota);
+            }
+        }
+        return total;
+    }
+
+    public String getComunidad() {
+        return comunidad;
+    }
+
+    public int getAnio() {
+        return anio;
+    }
+
+    /** Versión del snapshot de la comunidad del que se obtuvo */
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getRegistrado() {
+        return registrado;
+    }
+
+    public int getNumeroGastos() {
+        return numeroGastos;
+    }
+
+    public BigDecimal getTotalGeneral() {
+        return totalGeneral;
+    }
+
+    public int numeroZonas() {
+        return zonas.length;
+    }
+
+    public String zona(int i) {
+        return zonas[i];
+    }
+
+    public String nombreZona(int i) {
+        return nombresZona[i];
+    }
+
+    public BigDecimal totalZona(int i) {
+        return totalesZona[i];
+    }
+
+    /** Posición de una zona por su código, o -1 si no es de este año; hay pocas zonas */
+    public int buscarZona(String codigo) {
+        for (int i = 0; i < zonas.length; i++) {
+            if (zonas[i].equals(codigo)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int numeroPropiedades() {
+        return codigosPropiedad.length;
+    }
+
+    /** Código de la propiedad i, en orden de código */
+    public String codigoPropiedad(int i) {
+        return codigosPropiedad[i];
+    }
+
+    /** Cuota total de la propiedad i, en céntimos */
+    public long centimosPropiedad(int i) {
+        return centimosPropiedad[i];
+    }
+
+    /** Posición de una propiedad por su código, o un valor negativo si no existe */
+    public int buscarPropiedad(String codigo) {
+        return Arrays.binarySearch(codigosPropiedad, codigo);
+    }
+
+    public int numeroPropietarios() {
+        return codigosPropietario.length;
+    }
+
+    /** Código del propietario i, en orden de código */
+    public String codigoPropietario(int i) {
+        return codigosPropietario[i];
+    }
+
+    public String nombrePropietario(int i) {
+        return nombresPropietario[i];
+    }
+
+    /** Cuota total del propietario i, en céntimos */
+    public long centimosPropietario(int i) {
+        return centimosPropietario[i];
+    }
+
+    /** Posición de un propietario por su código, o un valor negativo si no existe */
+    public int buscarPropietario(String codigo) {
+        return Arrays.binarySearch(codigosPropietario, codigo);
+    }
+}
@@ -0,0 +1,460 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.RepartoCentimos;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Copia por columnas de las propiedades de una comunidad ya calculada. Cada zona tiene un
+ * ordinal denso (su posición en {@link Comunidad#getZonas()}) y los datos de las propiedades
+ * se guardan en arrays primitivos, uno por campo:
+ * <ul>
+ *   <li>metros en un {@code int[]} y código, tipo, propietario e información adicional en
+ *       arrays paralelos;</li>
+ *   <li>porcentajes como filas dispersas (CSR): las entradas de la fila {@code i} van de
+ *       {@code inicioFila[i]} a {@code inicioFila[i + 1]}, con el ordinal de la zona y el
+ *       porcentaje, en el mismo orden que {@link Propiedad#getPorcentajesZona()};</li>
+ *   <li>cuotas en céntimos en una columna {@code long[]} por zona, con una posición por
+ *       cada propiedad que participa en ella.</li>
+ * </ul>
+ * Así las consultas no calculan el hash de ninguna {@link Zona} ni recorren mapas.
+ *
+ * {@link #getPropiedades()} da una vista de solo lectura con los mismos getters que
+ * {@link Propiedad} para las plantillas. Como el índice de zonas, se guarda en los
+ * {@link DerivadosComunidad} de la versión; un recálculo que no cambia ninguna cuota las
+ * hereda de la versión anterior.
+ */
+public final class PropiedadesColumnares {
+
+    /** Céntimos de una propiedad que participa en la zona pero no tiene cuota en ella */
+    private static final long SIN_CUOTA = Long.MIN_VALUE;
+
+    private final int numeroPropiedades;
+    private final Zona[] zonas;
+
+    private final String[] codigos;
+    private final String[] tipos;
+    private final String[] infoAdicional;
+    private final Propietario[] propietarios;
+    private final int[] metros;
+
+    private final int[] inicioFila;
+    private final int[] zonaEntrada;
+    private final int[] porcentajeEntrada;
+    private final int[] posicionEnZona;
+    /** Filas con mapa de porcentajes o de cuotas (las demás lo tienen a null) */
+    private final BitSet conPorcentajes;
+    private final BitSet conCuotas;
+
+    private final int[][] filasZona;
+    private final long[][] centimosZona;
+
+    private final List<Fila> vista;
+
+    private PropiedadesColumnares(List<Propiedad> propiedades, Zona[] zonas, int entradas) {
+        int n = propiedades.size();
+        this.numeroPropiedades = n;
+        this.zonas = zonas;
+        this.codigos = new String[n];
+        this.tipos = new String[n];
+        this.infoAdicional = new String[n];
+        this.propietarios = new Propietario[n];
+        this.metros = new int[n];
+        this.inicioFila = new int[n + 1];
+        this.zonaEntrada = new int[entradas];
+        this.porcentajeEntrada = new int[entradas];
+        this.posicionEnZona = new int[entradas];
+        this.conPorcentajes = new BitSet(n);
+        this.conCuotas = new BitSet(n);
+        this.filasZona = new int[zonas.length][];
+        this.centimosZona = new long[zonas.length][];
+        this.vista = new VistaPropiedades();
+    }
+
+    /**
+     * Devuelve las columnas de una versión publicada, construyéndolas la primera vez.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Propiedades por columnas
+     */
+    public static PropiedadesColumnares de(SnapshotComunidad snapshot) {
+        return de(snapshot.getDerivados());
+    }
+
+    static PropiedadesColumnares de(DerivadosComunidad derivados) {
+        PropiedadesColumnares columnas = derivados.getPropiedadesColumnares();
+        if (columnas == null) {
+            columnas = construir(derivados.getComunidad());
+            derivados.setPropiedadesColumnares(columnas);
+        }
+        return columnas;
+    }
+
+    /**
+     * Construye las columnas en dos pasadas sobre las propiedades: la primera cuenta las
+     * entradas de cada zona para reservar arrays exactos y la segunda los rellena.
+     *
+     * Las cuotas se redondean al céntimo como en {@link RepartoCentimos#aCentimos}.
+     *
+     * @throws IllegalArgumentException Si una propiedad tiene porcentaje en una zona que no es
+     *         de la comunidad o cuota en una zona en que no participa
+     */
+    public static PropiedadesColumnares construir(Comunidad comunidad) {
+        List<Propiedad> propiedades = comunidad.getPropiedades() != null
+            ? comunidad.getPropiedades() : Collections.emptyList();
+        List<Zona> listaZonas = comunidad.getZonas() != null ? comunidad.getZonas() : Collections.emptyList();
+        Zona[] zonas = listaZonas.toArray(new Zona[0]);
+        Ordinales ordinales = new Ordinales(zonas);
+
+        int[] miembros = new int[zonas.length];
+        int entradas = 0;
+        for (Propiedad propiedad : propiedades) {
+            if (propiedad.getPorcentajesZona() != null) {
+                for (Zona zona : propiedad.getPorcentajesZona().keySet()) {
+                    miembros[ordinales.de(zona, propiedad)]++;
+                    entradas++;
+                }
+            }
+        }
+
+        PropiedadesColumnares columnas = new PropiedadesColumnares(propiedades, zonas, entradas);
+        for (int z = 0; z < zonas.length; z++) {
+            columnas.filasZona[z] = new int[miembros[z]];
+            columnas.centimosZona[z] = new long[miembros[z]];
+        }
+        int[] siguiente = new int[zonas.length];
+        int entrada = 0;
+        for (int i = 0; i < propiedades.size(); i++) {
+            Propiedad propiedad = propiedades.get(i);
+            columnas.codigos[i] = propiedad.getCodigo();
+            columnas.tipos[i] = propiedad.getTipo();
+            columnas.infoAdicional[i] = propiedad.getInfoAdicional();
+            columnas.propietarios[i] = propiedad.getPropietario();
+            columnas.metros[i] = propiedad.getMetrosCuadrados();
+            columnas.inicioFila[i] = entrada;
+
+            Map<Zona, BigDecimal> cuotas = propiedad.getCuotas();
+            if (cuotas != null) {
+                columnas.conCuotas.set(i);
+            }
+            if (propiedad.getPorcentajesZona() != null) {
+                columnas.conPorcentajes.set(i);
+                for (Map.Entry<Zona, Integer> porcentaje : propiedad.getPorcentajesZona().entrySet()) {
+                    int z = ordinales.de(porcentaje.getKey(), propiedad);
+                    int posicion = siguiente[z]++;
+                    columnas.zonaEntrada[entrada] = z;
+                    columnas.porcentajeEntrada[entrada] = porcentaje.getValue();
+                    columnas.posicionEnZona[entrada] = posicion;
+                    columnas.filasZona[z][posicion] = i;
+                    columnas.centimosZona[z][posicion] = SIN_CUOTA;
+                    entrada++;
+                }
+            }
+            columnas.inicioFila[i + 1] = entrada;
+            if (cuotas != null) {
+                // Cada cuota se lleva a la entrada de su zona buscándola en la fila, sin calcular hashes
+                for (Map.Entry<Zona, BigDecimal> cuota : cuotas.entrySet()) {
+                    int e = columnas.entrada(i, cuota.getKey());
+                    if (e < 0) {
+                        throw new IllegalArgumentException(
+                            "La propiedad " + propiedad.getCodigo() + " tiene cuota en una zona en la que no participa");
+                    }
+                    columnas.centimosZona[columnas.zonaEntrada[e]][columnas.posicionEnZona[e]] =
+                        RepartoCentimos.aCentimos(cuota.getValue());
+                }
+            }
+        }
+        return columnas;
+    }
+
+    /**
+     * Vista de solo lectura de todas las propiedades, en el orden de la comunidad. Cada
+     * elemento se crea al pedirlo y lee directamente de las columnas.
+     */
+    public List<Fila> getPropiedades() {
+        return vista;
+    }
+
+    public int size() {
+        return numeroPropiedades;
+    }
+
+    /** Número de zonas de la comunidad; los ordinales van de 0 a {@code numeroZonas() - 1} */
+    public int numeroZonas() {
+        return zonas.length;
+    }
+
+    public Zona zona(int ordinal) {
+        return zonas[ordinal];
+    }
+
+    public int metros(int fila) {
+        return metros[fila];
+    }
+
+    /** Número de zonas en que participa la propiedad de la fila */
+    public int numeroEntradas(int fila) {
+        return inicioFila[fila + 1] - inicioFila[fila];
+    }
+
+    /** Número de propiedades que participan en la zona */
+    public int numeroMiembros(int ordinal) {
+        return filasZona[ordinal].length;
+    }
+
+    public String codigo(int fila) {
+        return codigos[fila];
+    }
+
+    public String tipo(int fila) {
+        return tipos[fila];
+    }
+
+    public String infoAdicional(int fila) {
+        return infoAdicional[fila];
+    }
+
+    public Propietario propietario(int fila) {
+        return propietarios[fila];
+    }
+
+    /**
+     * Ordinal de la zona de la entrada {@code k} de una fila, con las entradas en el orden
+     * de los porcentajes de la propiedad ({@code 0 <= k < numeroEntradas(fila)}).
+     */
+    public int zonaEntrada(int fila, int k) {
+        return zonaEntrada[inicioFila[fila] + k];
+    }
+
+    /** Porcentaje de la entrada {@code k} de una fila */
+    public int porcentajeEntrada(int fila, int k) {
+        return porcentajeEntrada[inicioFila[fila] + k];
+    }
+
+    /** Céntimos de la cuota de la entrada {@code k} de una fila, 0 si no tiene cuota en esa zona */
+    public long centimosEntrada(int fila, int k) {
+        long centimos = centimosEntrada(inicioFila[fila] + k);
+        return centimos != SIN_CUOTA ? centimos : 0;
+    }
+
+    /**
+     * Suma en céntimos de las cuotas de la propiedad de una fila.
+     */
+    public long totalCentimosFila(int fila) {
+        long total = 0;
+        for (int e = inicioFila[fila]; e < inicioFila[fila + 1]; e++) {
+            long centimos = centimosEntrada(e);
+            if (centimos != SIN_CUOTA) {
+                total += centimos;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Suma en céntimos de las cuotas de una zona, recorriendo solo su columna.
+     */
+    public long totalCentimos(int ordinal) {
+        long total = 0;
+        for (long centimos : centimosZona[ordinal]) {
+            if (centimos != SIN_CUOTA) {
+                total += centimos;
+            }
+        }
+        return total;
+    }
+
+    /** Busca la entrada de una zona en una fila; las filas tienen muy pocas entradas */
+    private int entrada(int fila, Object zona) {
+        for (int e = inicioFila[fila]; e < inicioFila[fila + 1]; e++) {
+            if (zonas[zonaEntrada[e]] == zona) {
+                return e;
+            }
+        }
+        for (int e = inicioFila[fila]; e < inicioFila[fila + 1]; e++) {
+            if (zonas[zonaEntrada[e]].equals(zona)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    private long centimosEntrada(int e) {
+        return centimosZona[zonaEntrada[e]][posicionEnZona[e]];
+    }
+
+    /**
+     * Ordinal de cada zona. Las zonas de los porcentajes son las mismas instancias que las
+     * de la comunidad, así que se buscan por identidad y solo si no se encuentran por igualdad.
+     */
+    private static final class Ordinales {
+        private final Map<Zona, Integer> porIdentidad = new IdentityHashMap<>();
+        private final Map<Zona, Integer> porIgualdad = new HashMap<>();
+
+        Ordinales(Zona[] zonas) {
+            for (int z = 0; z < zonas.length; z++) {
+                porIdentidad.put(zonas[z], z);
+                porIgualdad.putIfAbsent(zonas[z], z);
+            }
+        }
+
+        int de(Zona zona, Propiedad propiedad) {
+            Integer ordinal = porIdentidad.get(zona);
+            if (ordinal == null) {
+                ordinal = porIgualdad.get(zona);
+            }
+            if (ordinal == null) {
+                throw new IllegalArgumentException("La propiedad " + propiedad.getCodigo()
+                    + " tiene porcentaje en la zona " + (zona != null ? zona.getId() : null)
+                    + ", que no es de la comunidad");
+            }
+            return ordinal;
+        }
+    }
+
+    private final class VistaPropiedades extends AbstractList<Fila> implements RandomAccess {
+        @Override
+        public Fila get(int fila) {
+            Objects.checkIndex(fila, numeroPropiedades);
+            return new Fila(fila);
+        }
+
+        @Override
+        public int size() {
+            return numeroPropiedades;
+        }
+    }
+
+    /**
+     * Una propiedad leída de las columnas, con los mismos getters que {@link Propiedad}.
+     * Los mapas de porcentajes y cuotas son vistas de solo lectura de su fila, en el orden
+     * de la propiedad original; null si en la propiedad original eran null.
+     */
+    public final class Fila {
+        private final int fila;
+
+        private Fila(int fila) {
+            this.fila = fila;
+        }
+
+        public String getCodigo() {
+            return codigos[fila];
+        }
+
+        public String getTipo() {
+            return tipos[fila];
+        }
+
+        public int getMetrosCuadrados() {
+            return metros[fila];
+        }
+
+        public Propietario getPropietario() {
+            return propietarios[fila];
+        }
+
+        public String getInfoAdicional() {
+            return infoAdicional[fila];
+        }
+
+        public Map<Zona, Integer> getPorcentajesZona() {
+            return conPorcentajes.get(fila) ? new MapaFila<>(fila, false) : null;
+        }
+
+        public Map<Zona, BigDecimal> getCuotas() {
+            return conCuotas.get(fila) ? new MapaFila<>(fila, true) : null;
+        }
+
+        @Override
+        public String toString() {
+            return "Propiedad(" + getCodigo() + ")";
+        }
+    }
+
+    /**
+     * Porcentajes o cuotas de una fila como mapa de solo lectura. Las cuotas omiten las
+     * entradas sin cuota, igual que el mapa de la propiedad original.
+     */
+    private final class MapaFila<V> extends AbstractMap<Zona, V> {
+        private final int fila;
+        private final boolean cuotas;
+
+        MapaFila(int fila, boolean cuotas) {
+            this.fila = fila;
+            this.cuotas = cuotas;
+        }
+
+        private boolean presente(int e) {
+            return !cuotas || centimosEntrada(e) != SIN_CUOTA;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V valor(int e) {
+            return (V) (cuotas
+                ? BigDecimal.valueOf(centimosEntrada(e), 2)
+                : Integer.valueOf(porcentajeEntrada[e]));
+        }
+
+        @Override
+        public boolean containsKey(Object zona) {
+            int e = entrada(fila, zona);
+            return e >= 0 && presente(e);
+        }
+
+        @Override
+        public V get(Object zona) {
+            int e = entrada(fila, zona);
+            return e >= 0 && presente(e) ? valor(e) : null;
+        }
+
+        @Override
+        public int size() {
+            int tamano = 0;
+            for (int e = inicioFila[fila]; e < inicioFila[fila + 1]; e++) {
+                if (presente(e)) {
+                    tamano++;
+                }
+            }
+            return tamano;
+        }
+
+        @Override
+        public Set<Entry<Zona, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Zona, V>> iterator() {
+                    return new Iterator<>() {
+                        private int e = avanzar(inicioFila[fila]);
+
+                        private int avanzar(int desde) {
+                            while (desde < inicioFila[fila + 1] && !presente(desde)) {
+                                desde++;
+                            }
+                            return desde;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return e < inicioFila[fila + 1];
+                        }
+
+                        @Override
+                        public Entry<Zona, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<Zona, V> entrada = new SimpleImmutableEntry<>(zonas[zonaEntrada[e]], valor(e));
+                            e = avanzar(e + 1);
+                            return entrada;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return MapaFila.this.size();
+                }
+            };
+        }
+    }
+}
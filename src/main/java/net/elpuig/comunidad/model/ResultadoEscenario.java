@@ -0,0 +1,16 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.util.List;
+
+/**
+ * Resultado de un escenario de simulación: diferencia del total general, de las zonas cuyo
+ * total o reparto cambia y de los propietarios cuya cuota cambia, en orden de código.
+ */
+@Value
+public class ResultadoEscenario {
+    String nombre;
+    FilaDiferencia total;
+    List<FilaDiferencia> zonas;
+    List<FilaDiferencia> propietarios;
+}
@@ -0,0 +1,18 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Data;
+
+@Data
+public class ResultadoLote {
+    private String clave; // Directorio o nombre común de la pareja de archivos
+    private String archivoComunidad;
+    private String archivoGastos;
+    private String comunidadId;
+    private String comunidadNombre;
+    private int propiedades;
+    private int gastos;
+    private long msParseo;
+    private long msCalculo;
+    private boolean correcto;
+    private String error;
+}
@@ -0,0 +1,136 @@
+package net.elpuig.comunidad.model;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lo que necesitan de una versión de una comunidad los paneles de cartera y la búsqueda de
+ * propietarios: sus {@link AgregadosCartera}, su {@link IndicePropietarios} y los datos de cada
+ * propietario que se devuelven al encontrarlo. No guarda propiedades, cuotas ni gastos, solo
+ * textos y totales, así que se puede conservar cuando la comunidad se descarta de memoria y
+ * los paneles y búsquedas siguen cubriendo todas las comunidades que sirve la aplicación.
+ *
+ * Los propietarios están en el orden de {@link CuotasPropietarios#getOrdenados()}, el mismo
+ * por el que los identifica el índice de búsqueda.
+ */
+public final class ResumenCartera {
+
+    private final String id;
+    private final String nombre;
+    private final long version;
+    private final AgregadosCartera agregados;
+    private final IndicePropietarios indice;
+
+    /** Datos de cada propietario, en arrays paralelos */
+    private final String[] codigos;
+    private final String[] nombres;
+    private final String[] emails;
+    private final String[] direcciones;
+    private final BigDecimal[] totales;
+    /** Códigos de las propiedades de todos los propietarios; las del i van de inicio[i] a inicio[i + 1] */
+    private final String[] propiedades;
+    private final int[] inicio;
+
+    private ResumenCartera(String id, String nombre, long version, AgregadosCartera agregados,
+                           IndicePropietarios indice, CuotasPropietarios cuotas) {
+        this.id = id;
+        this.nombre = nombre;
+        this.version = version;
+        this.agregados = agregados;
+        this.indice = indice;
+
+        List<Propietario> ordenados = cuotas.getOrdenados();
+        int n = ordenados.size();
+        codigos = new String[n];
+        nombres = new String[n];
+        emails = new String[n];
+        direcciones = new String[n];
+        totales = new BigDecimal[n];
+        inicio = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            Propietario propietario = ordenados.get(i);
+            inicio[i + 1] = inicio[i] + (propietario.getPropiedades() != null ? propietario.getPropiedades().size() : 0);
+        }
+        propiedades = new String[inicio[n]];
+        for (int i = 0; i < n; i++) {
+            Propietario propietario = ordenados.get(i);
+            codigos[i] = propietario.getCodigo();
+            nombres[i] = propietario.getNombre();
+            emails[i] = propietario.getEmail();
+            direcciones[i] = propietario.getDireccion();
+            if (propietario.getPropiedades() != null) {
+                for (int p = 0; p < propietario.getPropiedades().size(); p++) {
+                    propiedades[inicio[i] + p] = propietario.getPropiedades().get(p).getCodigo();
+                }
+            }
+            BigDecimal total = BigDecimal.ZERO;
+            Map<Zona, BigDecimal> cuotasPropietario = cuotas.cuotas(propietario.getCodigo());
+            if (cuotasPropietario != null) {
+                for (BigDecimal cuota : cuotasPropietario.values()) {
+                    total = total.add(cuota);
+                }
+            }
+            totales[i] = total;
+        }
+    }
+
+    /**
+     * Devuelve el resumen de una versión publicada, calculándolo la primera vez.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Resumen de la comunidad
+     */
+    public static ResumenCartera de(SnapshotComunidad snapshot) {
+        DerivadosComunidad derivados = snapshot.getDerivados();
+        ResumenCartera resumen = derivados.getResumenCartera();
+        if (resumen == null) {
+            resumen = new ResumenCartera(snapshot.getId(), snapshot.getComunidad().getNombre(), snapshot.getVersion(),
+                AgregadosCartera.de(snapshot), IndicePropietarios.de(snapshot), CuotasPropietarios.de(derivados));
+            derivados.setResumenCartera(resumen);
+        }
+        return resumen;
+    }
+
+    /**
+     * Calcula el resumen de una comunidad ya calculada que no está publicada, p. ej. la leída
+     * de disco de una comunidad descartada de memoria.
+     *
+     * @param comunidad Comunidad ya calculada
+     * @param version Versión de la comunidad
+     */
+    public static ResumenCartera calcular(Comunidad comunidad, long version) {
+        CuotasPropietarios cuotas = CuotasPropietarios.calcular(comunidad);
+        return new ResumenCartera(comunidad.getId(), comunidad.getNombre(), version,
+            AgregadosCartera.calcular(comunidad, cuotas), IndicePropietarios.construir(cuotas), cuotas);
+    }
+
+    /**
+     * Fila de resultado de búsqueda de un propietario.
+     *
+     * @param propietario Posición del propietario, la que devuelve el índice de búsqueda
+     */
+    public FilaBusquedaPropietario fila(int propietario) {
+        return new FilaBusquedaPropietario(id, nombre, version, codigos[propietario], nombres[propietario],
+            emails[propietario], direcciones[propietario],
+            Arrays.asList(Arrays.copyOfRange(propiedades, inicio[propietario], inicio[propietario + 1])),
+            totales[propietario]);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public AgregadosCartera getAgregados() {
+        return agregados;
+    }
+
+    public IndicePropietarios getIndice() {
+        return indice;
+    }
+}
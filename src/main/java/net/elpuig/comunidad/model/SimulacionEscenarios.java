@@ -0,0 +1,15 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Value;
+import java.util.List;
+
+/**
+ * Resultados de los escenarios simulados sobre una versión de una comunidad, en el orden en
+ * que se pidieron.
+ */
+@Value
+public class SimulacionEscenarios {
+    String comunidad;
+    long version;
+    List<ResultadoEscenario> escenarios;
+}
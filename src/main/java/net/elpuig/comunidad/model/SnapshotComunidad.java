@@ -0,0 +1,24 @@
+package net.elpuig.comunidad.model;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.Value;
+import java.time.Instant;
+
+/**
+ * Versión publicada de una comunidad ya calculada.
+ * Una vez creado, ni el snapshot ni la comunidad que contiene se modifican: cualquier
+ * cambio se publica como un snapshot nuevo con una versión mayor. Los datos derivados de la
+ * comunidad ({@link DerivadosComunidad}) viajan con el snapshot y se calculan al pedirlos.
+ */
+@Value
+public class SnapshotComunidad {
+    String id;
+    long version;
+    Comunidad comunidad;
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    DerivadosComunidad derivados; // Índices, cuotas por propietario, tablas y páginas de esta versión
+    long bytesEstimados; // Estimación del espacio que ocupa en el heap
+    Instant creado;
+}
@@ -0,0 +1,330 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.RepartoCentimos;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Tablas de propiedades, propietarios y cuotas de una comunidad ya calculada, listas para
+ * las plantillas. Las columnas de zona tienen el orden de {@link Comunidad#getZonas()} y cada
+ * fila lleva ya un importe por columna, así que las vistas solo recorren listas, sin buscar
+ * zonas en mapas dentro de cada fila.
+ *
+ * Las cabeceras, los totales y las cuotas por propietario se preparan al construir las tablas;
+ * las filas se crean al pedirlas a partir de arrays planos (las propiedades, de
+ * {@link PropiedadesColumnares}). Como las demás estructuras derivadas, se guardan en los
+ * {@link DerivadosComunidad} de la versión.
+ *
+ * Los importes se formatean con dos decimales y punto decimal, sin separador de miles.
+ */
+public final class TablasComunidad {
+
+    private static final String SIN_IMPORTE = importe(0);
+
+    private final PropiedadesColumnares columnas;
+    private final List<String> zonas;
+    private final List<String> totalesZona;
+    private final String total;
+    private final List<String> importesGastos;
+
+    /** Cuotas de cada propietario en filas dispersas, en el orden de su mapa de cuotas */
+    private final List<Propietario> propietarios;
+    private final int[] inicioPropietario;
+    private final int[] zonaPropietario;
+    private final long[] centimosPropietario;
+
+    private final List<Fila> filasPropiedades;
+    private final List<Fila> filasPropietarios;
+
+    private TablasComunidad(DerivadosComunidad derivados) {
+        Comunidad comunidad = derivados.getComunidad();
+        Map<Zona, BigDecimal> totalesPorZona = comunidad.getTotalesPorZona();
+        this.columnas = PropiedadesColumnares.de(derivados);
+
+        int numeroZonas = columnas.numeroZonas();
+        List<String> nombres = new ArrayList<>(numeroZonas);
+        List<String> totales = new ArrayList<>(numeroZonas);
+        Map<Zona, Integer> porIdentidad = new IdentityHashMap<>();
+        Map<Zona, Integer> porIgualdad = new HashMap<>();
+        for (int z = 0; z < numeroZonas; z++) {
+            Zona zona = columnas.zona(z);
+            nombres.add(zona.getNombre());
+            BigDecimal totalZona = totalesPorZona != null ? totalesPorZona.get(zona) : null;
+            totales.add(totalZona != null ? importe(totalZona) : SIN_IMPORTE);
+            porIdentidad.put(zona, z);
+            porIgualdad.putIfAbsent(zona, z);
+        }
+        this.zonas = Collections.unmodifiableList(nombres);
+        this.totalesZona = Collections.unmodifiableList(totales);
+        this.total = comunidad.getTotalGeneral() != null ? importe(comunidad.getTotalGeneral()) : SIN_IMPORTE;
+
+        List<String> importes = new ArrayList<>();
+        if (comunidad.getGastos() != null) {
+            for (Gasto gasto : comunidad.getGastos()) {
+                importes.add(importe(gasto.getImporte()));
+            }
+        }
+        this.importesGastos = Collections.unmodifiableList(importes);
+
+        CuotasPropietarios cuotas = CuotasPropietarios.de(derivados);
+        this.propietarios = cuotas.getOrdenados();
+        int entradas = 0;
+        for (Map<Zona, BigDecimal> cuotasPropietario : cuotas.getPorPropietario().values()) {
+            entradas += cuotasPropietario.size();
+        }
+        this.inicioPropietario = new int[propietarios.size() + 1];
+        this.zonaPropietario = new int[entradas];
+        this.centimosPropietario = new long[entradas];
+        int entrada = 0;
+        int fila = 0;
+        for (Map<Zona, BigDecimal> cuotasPropietario : cuotas.getPorPropietario().values()) {
+            inicioPropietario[fila] = entrada;
+            for (Map.Entry<Zona, BigDecimal> cuota : cuotasPropietario.entrySet()) {
+                Integer z = porIdentidad.get(cuota.getKey());
+                if (z == null) {
+                    z = porIgualdad.get(cuota.getKey());
+                }
+                if (z == null) {
+                    throw new IllegalArgumentException("El propietario " + propietarios.get(fila).getCodigo()
+                        + " tiene cuota en una zona que no es de la comunidad");
+                }
+                zonaPropietario[entrada] = z;
+                centimosPropietario[entrada] = RepartoCentimos.aCentimos(cuota.getValue());
+                entrada++;
+            }
+            inicioPropietario[++fila] = entrada;
+        }
+
+        this.filasPropiedades = new Filas(columnas.size(), true);
+        this.filasPropietarios = new Filas(propietarios.size(), false);
+    }
+
+    /**
+     * Devuelve las tablas de una versión publicada, construyéndolas la primera vez.
+     *
+     * @param snapshot Versión de la comunidad
+     * @return Tablas de la comunidad
+     */
+    public static TablasComunidad de(SnapshotComunidad snapshot) {
+        DerivadosComunidad derivados = snapshot.getDerivados();
+        TablasComunidad tablas = derivados.getTablas();
+        if (tablas == null) {
+            tablas = new TablasComunidad(derivados);
+            derivados.setTablas(tablas);
+        }
+        return tablas;
+    }
+
+    /** Nombres de las zonas, uno por columna */
+    public List<String> getZonas() {
+        return zonas;
+    }
+
+    /** Total de gastos de cada zona, uno por columna */
+    public List<String> getTotalesZona() {
+        return totalesZona;
+    }
+
+    /** Total de gastos de la comunidad */
+    public String getTotal() {
+        return total;
+    }
+
+    /** Importe de cada gasto, en el orden de {@link Comunidad#getGastos()} */
+    public List<String> getImportesGastos() {
+        return importesGastos;
+    }
+
+    /** Filas de las propiedades, en el orden de la comunidad */
+    public List<Fila> getPropiedades() {
+        return filasPropiedades;
+    }
+
+    /** Filas de los propietarios, ordenados por código */
+    public List<Fila> getPropietarios() {
+        return filasPropietarios;
+    }
+
+    /**
+     * Formatea un importe en céntimos con dos decimales.
+     */
+    public static String importe(long centimos) {
+        return BigDecimal.valueOf(centimos, 2).toPlainString() + " €";
+    }
+
+    /**
+     * Formatea un importe con dos decimales, redondeando al par como las plantillas.
+     */
+    public static String importe(BigDecimal importe) {
+        return importe.setScale(2, RoundingMode.HALF_EVEN).toPlainString() + " €";
+    }
+
+    private Fila filaPropiedad(int fila) {
+        int entradas = columnas.numeroEntradas(fila);
+        List<Map.Entry<String, String>> porcentajes = new ArrayList<>(entradas);
+        long[] centimos = new long[zonas.size()];
+        long totalFila = 0;
+        for (int k = 0; k < entradas; k++) {
+            int z = columnas.zonaEntrada(fila, k);
+            porcentajes.add(Map.entry(zonas.get(z), Integer.toString(columnas.porcentajeEntrada(fila, k))));
+            centimos[z] = columnas.centimosEntrada(fila, k);
+            totalFila += centimos[z];
+        }
+        Propietario propietario = columnas.propietario(fila);
+        return new Fila(columnas.codigo(fila), nombreTipo(columnas.tipo(fila)), columnas.metros(fila),
+            propietario != null ? propietario.getCodigo() : null, propietario != null ? propietario.getNombre() : null,
+            porcentajes, importes(centimos), importe(totalFila),
+            informacion(columnas.tipo(fila), columnas.infoAdicional(fila)));
+    }
+
+    private Fila filaPropietario(int fila) {
+        int inicio = inicioPropietario[fila];
+        int fin = inicioPropietario[fila + 1];
+        List<Map.Entry<String, String>> porcentajes = new ArrayList<>(fin - inicio);
+        long[] centimos = new long[zonas.size()];
+        long totalFila = 0;
+        for (int e = inicio; e < fin; e++) {
+            int z = zonaPropietario[e];
+            porcentajes.add(Map.entry(zonas.get(z), BigDecimal.valueOf(centimosPropietario[e], 2).toString()));
+            centimos[z] += centimosPropietario[e];
+            totalFila += centimosPropietario[e];
+        }
+        Propietario propietario = propietarios.get(fila);
+        return new Fila(propietario.getCodigo(), null, 0, propietario.getCodigo(), propietario.getNombre(),
+            porcentajes, importes(centimos), importe(totalFila), null);
+    }
+
+    private static List<String> importes(long[] centimos) {
+        String[] importes = new String[centimos.length];
+        for (int z = 0; z < centimos.length; z++) {
+            importes[z] = centimos[z] != 0 ? importe(centimos[z]) : SIN_IMPORTE;
+        }
+        return Arrays.asList(importes);
+    }
+
+    private static String nombreTipo(String tipo) {
+        if (tipo == null) {
+            return null;
+        }
+        return switch (tipo) {
+            case "P" -> "Piso";
+            case "L" -> "Local";
+            case "G" -> "Garaje";
+            default -> null;
+        };
+    }
+
+    /**
+     * Texto de la información adicional: el primer campo y, si lo hay, el segundo según el
+     * tipo (habitaciones del piso, trastero del garaje o actividad del local).
+     */
+    private static String informacion(String tipo, String infoAdicional) {
+        if (infoAdicional == null) {
+            return null;
+        }
+        String[] info = infoAdicional.split(";");
+        if (info.length < 2 || tipo == null) {
+            return info[0];
+        }
+        return switch (tipo) {
+            case "P" -> info[0] + " - " + info[1] + " habitaciones";
+            case "G" -> info[0] + " - " + ("S".equals(info[1]) ? "Con trastero" : "N".equals(info[1]) ? "Sin trastero" : "");
+            case "L" -> info[0] + " - " + info[1];
+            default -> info[0];
+        };
+    }
+
+    private final class Filas extends AbstractList<Fila> implements RandomAccess {
+        private final int tamano;
+        private final boolean propiedades;
+
+        Filas(int tamano, boolean propiedades) {
+            this.tamano = tamano;
+            this.propiedades = propiedades;
+        }
+
+        @Override
+        public Fila get(int fila) {
+            Objects.checkIndex(fila, tamano);
+            return propiedades ? filaPropiedad(fila) : filaPropietario(fila);
+        }
+
+        @Override
+        public int size() {
+            return tamano;
+        }
+    }
+
+    /**
+     * Una fila de propiedad o de propietario con sus textos ya formateados. Los porcentajes
+     * son pares nombre de zona → valor en el orden de la fila; en los propietarios el valor es
+     * la cuota sumada de la zona. Los importes van en el orden de las columnas de zona, con
+     * 0.00 € en las zonas sin cuota.
+     */
+    public static final class Fila {
+        private final String codigo;
+        private final String tipo;
+        private final int metrosCuadrados;
+        private final String propietario;
+        private final String nombre;
+        private final List<Map.Entry<String, String>> porcentajes;
+        private final List<String> importes;
+        private final String total;
+        private final String informacion;
+
+        private Fila(String codigo, String tipo, int metrosCuadrados, String propietario, String nombre,
+                     List<Map.Entry<String, String>> porcentajes, List<String> importes, String total,
+                     String informacion) {
+            this.codigo = codigo;
+            this.tipo = tipo;
+            this.metrosCuadrados = metrosCuadrados;
+            this.propietario = propietario;
+            this.nombre = nombre;
+            this.porcentajes = porcentajes;
+            this.importes = importes;
+            this.total = total;
+            this.informacion = informacion;
+        }
+
+        public String getCodigo() {
+            return codigo;
+        }
+
+        /** Piso, Local o Garaje; null en los propietarios o si el tipo no es conocido */
+        public String getTipo() {
+            return tipo;
+        }
+
+        public int getMetrosCuadrados() {
+            return metrosCuadrados;
+        }
+
+        /** Código del propietario, null si la propiedad no tiene */
+        public String getPropietario() {
+            return propietario;
+        }
+
+        /** Nombre del propietario, null si la propiedad no tiene */
+        public String getNombre() {
+            return nombre;
+        }
+
+        public List<Map.Entry<String, String>> getPorcentajes() {
+            return porcentajes;
+        }
+
+        public List<String> getImportes() {
+            return importes;
+        }
+
+        public String getTotal() {
+            return total;
+        }
+
+        /** Información adicional de la propiedad ya descrita, null si no tiene */
+        public String getInformacion() {
+            return informacion;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package net.elpuig.comunidad.model;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Estrategias de reparto de los gastos de una zona entre sus propiedades. Cada zona indica
+ * la suya con una letra en el archivo de comunidad y, si la estrategia los necesita, sus
+ * parámetros en un cuarto campo: {@code id;nombre;tipo[;parámetros]}.
+ *
+ * Una estrategia se compila una sola vez por zona y comunidad en un {@link PesosReparto}, que
+ * se guarda con los miembros de la zona en el {@link IndiceZonas}: todos los repartos
+ * siguientes de la zona, también los recálculos y simulaciones con otros importes, solo
+ * multiplican el total por ese vector. Para añadir una estrategia basta con otra constante
+ * que calcule los pesos de los miembros.
+ */
+public enum TipoReparto {
+
+    /** Por los porcentajes de cada propiedad en la zona */
+    PROPORCIONAL('P') {
+        @Override
+        PesosReparto compilar(IndiceZonas.MiembrosZona miembros, String parametros) {
+            long[] pesos = new long[miembros.size()];
+            for (int i = 0; i < pesos.length; i++) {
+                pesos[i] = porcentaje(miembros, i);
+            }
+            return PesosReparto.de(pesos);
+        }
+    },
+
+    /** A partes iguales; también se reparte así con cualquier letra desconocida */
+    IGUALITARIO('I') {
+        @Override
+        PesosReparto compilar(IndiceZonas.MiembrosZona miembros, String parametros) {
+            return PesosReparto.uniforme(miembros.size());
+        }
+    },
+
+    /** Por los metros cuadrados de cada propiedad */
+    METROS('M') {
+        @Override
+        PesosReparto compilar(IndiceZonas.MiembrosZona miembros, String parametros) {
+            long[] pesos = new long[miembros.size()];
+            for (int i = 0; i < pesos.length; i++) {
+                Propiedad propiedad = miembros.propiedad(i);
+                if (propiedad.getMetrosCuadrados() < 0) {
+                    throw new IllegalArgumentException("La propiedad " + propiedad.getCodigo() + " tiene metros negativos");
+                }
+                pesos[i] = propiedad.getMetrosCuadrados();
+            }
+            return PesosReparto.de(pesos);
+        }
+    },
+
+    /**
+     * Por un coeficiente según el tipo de propiedad, p. ej. {@code L=2,P=1,G=0.5} para que los
+     * locales paguen el doble que los pisos. Los tipos que no aparecen tienen coeficiente 1.
+     */
+    COEFICIENTES('T') {
+        @Override
+        void validar(String parametros) {
+            coeficientes(parametros);
+        }
+
+        @Override
+        PesosReparto compilar(IndiceZonas.MiembrosZona miembros, String parametros) {
+            Map<String, BigDecimal> coeficientes = coeficientes(parametros);
+            // Todos los coeficientes como enteros con la misma escala
+            int escala = 0;
+            for (BigDecimal coeficiente : coeficientes.values()) {
+                escala = Math.max(escala, coeficiente.scale());
+            }
+            Map<String, Long> enteros = new HashMap<>();
+            for (Map.Entry<String, BigDecimal> entrada : coeficientes.entrySet()) {
+                enteros.put(entrada.getKey(), entrada.getValue().movePointRight(escala).longValueExact());
+            }
+            long porDefecto = BigDecimal.ONE.movePointRight(escala).longValueExact();
+            long[] pesos = new long[miembros.size()];
+            for (int i = 0; i < pesos.length; i++) {
+                pesos[i] = enteros.getOrDefault(miembros.propiedad(i).getTipo(), porDefecto);
+            }
+            return PesosReparto.de(pesos);
+        }
+    },
+
+    /**
+     * Un porcentaje fijo del total a partes iguales (el mínimo que paga cada propiedad) y el
+     * resto por los porcentajes de la zona, p. ej. {@code 30}. Si los porcentajes suman cero,
+     * todo se reparte a partes iguales.
+     */
+    FIJO_PROPORCIONAL('F') {
+        @Override
+        void validar(String parametros) {
+            fijo(parametros);
+        }
+
+        @Override
+        PesosReparto compilar(IndiceZonas.MiembrosZona miembros, String parametros) {
+            int n = miembros.size();
+            long totalPorcentajes = miembros.getTotalPesos();
+            if (totalPorcentajes == 0) {
+                return PesosReparto.uniforme(n);
+            }
+            // Parte del miembro i: fijo / n + (1 - fijo) * porcentaje(i) / totalPorcentajes, en centésimas de punto.
+            // Los pesos crecen con n * totalPorcentajes; en zonas muy grandes el reparto en céntimos
+            // no puede empaquetar sus claves y reparte el sobrante por umbral (RepartoCentimos)
+            long fijo = fijo(parametros);
+            long proporcional = 100_00 - fijo;
+            long[] pesos = new long[n];
+            for (int i = 0; i < n; i++) {
+                pesos[i] = Math.addExact(Math.multiplyExact(fijo, totalPorcentajes),
+                    Math.multiplyExact(proporcional, Math.multiplyExact((long) n, porcentaje(miembros, i))));
+            }
+            return PesosReparto.de(pesos);
+        }
+    };
+
+    private final char codigo;
+
+    TipoReparto(char codigo) {
+        this.codigo = codigo;
+    }
+
+    public char getCodigo() {
+        return codigo;
+    }
+
+    /**
+     * Calcula los pesos de los miembros de una zona.
+     *
+     * @param miembros Propiedades de la zona con sus porcentajes
+     * @param parametros Parámetros de la zona, ya validados; null si no tiene
+     */
+    abstract PesosReparto compilar(IndiceZonas.MiembrosZona miembros, String parametros);
+
+    /**
+     * Comprueba los parámetros de una zona con esta estrategia.
+     *
+     * @throws IllegalArgumentException Si no son válidos o la estrategia no admite parámetros
+     */
+    void validar(String parametros) {
+        if (parametros != null && !parametros.isBlank()) {
+            throw new IllegalArgumentException("no admite parámetros: " + parametros);
+        }
+    }
+
+    /**
+     * Obtiene la estrategia de una zona. Como antes de haber estrategias, cualquier letra
+     * desconocida reparte a partes iguales.
+     */
+    public static TipoReparto de(char codigo) {
+        for (TipoReparto tipo : values()) {
+            if (tipo.codigo == codigo) {
+                return tipo;
+            }
+        }
+        return IGUALITARIO;
+    }
+
+    /**
+     * Indica si la letra corresponde a una estrategia.
+     */
+    public static boolean existe(char codigo) {
+        for (TipoReparto tipo : values()) {
+            if (tipo.codigo == codigo) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Comprueba los parámetros de reparto de una zona. El error indica la letra de la zona,
+     * también cuando es desconocida y se valida como igualitaria.
+     *
+     * @throws IllegalArgumentException Si no son válidos para su estrategia
+     */
+    public static void validar(Zona zona) {
+        char letra = zona.getTipoReparto();
+        try {
+            de(letra).validar(zona.getParametrosReparto());
+        } catch (IllegalArgumentException e) {
+            String reparto = existe(letra) ? String.valueOf(letra) : letra + " (desconocido, se reparte a partes iguales)";
+            throw new IllegalArgumentException("Parámetros no válidos para el reparto " + reparto + " de la zona "
+                + zona.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Porcentaje de un miembro en la zona. Los pesos no pueden ser negativos, así que un
+     * porcentaje negativo se rechaza indicando la propiedad.
+     */
+    private static long porcentaje(IndiceZonas.MiembrosZona miembros, int i) {
+        int porcentaje = miembros.peso(i);
+        if (porcentaje < 0) {
+            throw new IllegalArgumentException("La propiedad " + miembros.propiedad(i).getCodigo()
+                + " tiene un porcentaje negativo en la zona " + miembros.getZona().getId());
+        }
+        return porcentaje;
+    }
+
+    private static Map<String, BigDecimal> coeficientes(String parametros) {
+        if (parametros == null || parametros.isBlank()) {
+            throw new IllegalArgumentException("faltan los coeficientes por tipo de propiedad (p. ej. L=2,P=1,G=0.5)");
+        }
+        Map<String, BigDecimal> coeficientes = new HashMap<>();
+        for (String parte : parametros.split(",")) {
+            int igual = parte.indexOf('=');
+            if (igual <= 0) {
+                throw new IllegalArgumentException("se espera tipo=coeficiente: " + parte);
+            }
+            BigDecimal coeficiente = numero(parte.substring(igual + 1)).stripTrailingZeros();
+            if (coeficiente.signum() < 0 || coeficiente.scale() > 4) {
+                throw new IllegalArgumentException("coeficiente no válido, debe ser positivo y con cuatro decimales como mucho: " + parte);
+            }
+            coeficientes.put(parte.substring(0, igual).trim(), coeficiente);
+        }
+        return coeficientes;
+    }
+
+    /** Porcentaje fijo en centésimas de punto, de 0 a 10000 */
+    private static long fijo(String parametros) {
+        BigDecimal fijo = numero(parametros);
+        if (fijo.signum() < 0 || fijo.compareTo(BigDecimal.valueOf(100)) > 0 || fijo.stripTrailingZeros().scale() > 2) {
+            throw new IllegalArgumentException("el porcentaje fijo debe estar entre 0 y 100, con dos decimales como mucho: " + parametros);
+        }
+        return fijo.movePointRight(2).longValueExact();
+    }
+
+    private static BigDecimal numero(String texto) {
+        try {
+            return new BigDecimal(texto == null ? "" : texto.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("número no válido: " + texto);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.elpuig.comunidad.model;
+
+import lombok.Data;
+import java.time.Instant;
+
+/**
+ * Procesado en segundo plano de una pareja de archivos de comunidad y gastos. Lo actualiza el
+ * hilo que lo ejecuta mientras otras peticiones consultan su avance, así que los campos que
+ * cambian son volátiles.
+ */
+@Data
+public class TrabajoProcesado {
+
+    public enum Estado {
+        EN_COLA, PROCESANDO, TERMINADO, FALLIDO
+    }
+
+    private final String id;
+    private final String archivoComunidad;
+    private final String archivoGastos;
+    private final long bytesComunidad;
+    private final long bytesGastos;
+    private final Instant creado;
+
+    private volatile Estado estado = Estado.EN_COLA;
+    private volatile String fase; // Fase actual del procesado, con los nombres de las métricas
+    private volatile long lineasComunidad;
+    private volatile long lineasGastos;
+    private volatile int zonasRepartidas;
+    private volatile int zonasConGastos;
+    private volatile Instant iniciado;
+    private volatile Instant terminado;
+    private volatile String comunidadId; // Comunidad publicada al terminar
+    private volatile Long version;
+    private volatile String error;
+
+    /** Indica si el trabajo ya no va a cambiar */
+    public boolean haTerminado() {
+        return estado == Estado.TERMINADO || estado == Estado.FALLIDO;
+    }
+}
@@ -6,5 +6,6 @@ import lombok.Data;
 public class Zona {
     private String id;
     private String nombre;
-    private char tipoReparto; // 'P' (Proporcional) o 'I' (Igualitario)
+    private char tipoReparto; // 'P' (Proporcional), 'I' (Igualitario), 'M' (Metros), 'T' (Coeficientes por tipo) o 'F' (Fijo + proporcional)
+    private String parametrosReparto; // Parámetros del tipo de reparto, si los necesita (ver TipoReparto)
 }
@@ -0,0 +1,305 @@
+package net.elpuig.comunidad.service;
+
+import jakarta.annotation.PreDestroy;
+import net.elpuig.comunidad.model.FilaComunidad;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.SnapshotBinario;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Guarda en disco, en el formato de {@link SnapshotBinario}, la última versión de cada
+ * comunidad publicada, para recuperarlas al reiniciar la aplicación sin volver a subir
+ * ni calcular los archivos. Hay un fichero por código de comunidad en el directorio
+ * configurado; si no se configura ninguno, no se guarda nada.
+ *
+ * El almacén mantiene en memoria solo la ficha de cada comunidad guardada (datos generales,
+ * versión y totales), leída de la cabecera de su fichero. Así se pueden listar miles de
+ * comunidades sin tenerlas cargadas, y {@link RegistroComunidades} puede descartar las menos
+ * usadas sabiendo que se volverán a leer de disco con {@link #cargar(String)} cuando se pidan.
+ *
+ * Las versiones publicadas se guardan en segundo plano con {@link #guardarEnSegundoPlano},
+ * fuera de la petición que las publica. Mientras una comunidad espera a guardarse, las
+ * versiones nuevas sustituyen a la pendiente, de modo que una ráfaga de cambios en sus gastos
+ * escribe el fichero una sola vez con la última. Al parar la aplicación se terminan de
+ * escribir las pendientes.
+ */
+@Component
+public class AlmacenSnapshots {
+
+    private static final Logger log = LoggerFactory.getLogger(AlmacenSnapshots.class);
+
+    private static final int CERROJOS = 64;
+
+    @Autowired
+    private SnapshotBinario snapshotBinario;
+
+    /** Directorio donde se guardan los snapshots; vacío = deshabilitado */
+    @Value("${comunidad.snapshots.directorio:}")
+    private String directorio;
+
+    /**
+     * Ficha de cada comunidad guardada. Su versión es la última escrita, para no pisar una
+     * versión con otra anterior.
+     */
+    private final ConcurrentHashMap<String, FilaComunidad> guardadas = new ConcurrentHashMap<>();
+
+    /** Cerrojos de escritura repartidos por código de comunidad */
+    private final Lock[] cerrojos = crearCerrojos();
+
+    /** Última versión de cada comunidad que espera a guardarse; hay una tarea en cola por cada una */
+    private final ConcurrentHashMap<String, Pendiente> pendientes = new ConcurrentHashMap<>();
+    private final ExecutorService escritor =
+        Executors.newSingleThreadExecutor(Thread.ofPlatform().name("snapshots-", 1).daemon(true).factory());
+
+    public boolean isHabilitado() {
+        return directorio != null && !directorio.isBlank();
+    }
+
+    /**
+     * Guarda en segundo plano la comunidad de un snapshot. Si ya espera a guardarse otra
+     * versión de la misma comunidad, se guarda solo la posterior de las dos. Un error al
+     * guardar se anota en el log: la comunidad sigue publicada y solo se perdería al reiniciar.
+     *
+     * @param snapshot Snapshot publicado
+     * @param alGuardar Recibe los nanosegundos que ha tardado la escritura, una vez guardada
+     */
+    public void guardarEnSegundoPlano(SnapshotComunidad snapshot, LongConsumer alGuardar) {
+        if (!isHabilitado()) {
+            return;
+        }
+        Pendiente nueva = new Pendiente(snapshot, alGuardar);
+        boolean[] programar = new boolean[1];
+        pendientes.compute(snapshot.getId(), (id, pendiente) -> {
+            if (pendiente == null) {
+                programar[0] = true;
+                return nueva;
+            }
+            return snapshot.getVersion() > pendiente.snapshot().getVersion() ? nueva : pendiente;
+        });
+        if (programar[0]) {
+            try {
+                escritor.execute(() -> escribirPendiente(snapshot.getId()));
+            } catch (RejectedExecutionException e) {
+                // La aplicación se está parando: se guarda sin esperar al escritor
+                escribirPendiente(snapshot.getId());
+            }
+        }
+    }
+
+    private void escribirPendiente(String id) {
+        Pendiente pendiente = pendientes.remove(id);
+        if (pendiente == null) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            guardar(pendiente.snapshot());
+            pendiente.alGuardar().accept(System.nanoTime() - inicio);
+        } catch (IOException | RuntimeException e) {
+            log.warn("No se ha podido guardar el snapshot de la comunidad {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Termina de escribir las versiones pendientes antes de parar la aplicación.
+     */
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        escritor.shutdown();
+        if (!escritor.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("No se han terminado de guardar {} snapshots pendientes", pendientes.size());
+        }
+    }
+
+    /**
+     * Guarda la comunidad de un snapshot, sustituyendo la versión guardada de su código.
+     * Si ya se ha guardado una versión posterior, no hace nada.
+     *
+     * @param snapshot Snapshot publicado
+     * @throws IOException Si hay un error al escribir
+     */
+    public void guardar(SnapshotComunidad snapshot) throws IOException {
+        if (!isHabilitado()) {
+            return;
+        }
+        Path fichero = fichero(snapshot.getId());
+        // El cerrojo serializa las escrituras de un mismo código; la escritura queda fuera del
+        // mapa para no bloquear a quien consulte las fichas mientras tanto
+        Lock cerrojo = cerrojo(snapshot.getId());
+        cerrojo.lock();
+        try {
+            if (estaGuardada(snapshot.getId(), snapshot.getVersion())) {
+                return;
+            }
+            Files.createDirectories(fichero.getParent());
+            snapshotBinario.escribir(snapshot.getComunidad(), snapshot.getVersion(), fichero);
+            FilaComunidad ficha = snapshotBinario.leerFicha(fichero);
+            guardadas.merge(snapshot.getId(), ficha,
+                (guardada, nueva) -> nueva.getVersion() > guardada.getVersion() ? nueva : guardada);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Lee la ficha de todas las comunidades guardadas, sin cargarlas, de la guardada hace más
+     * tiempo a la más reciente. Los ficheros que no se pueden leer se devuelven en
+     * {@code errores} y no impiden indexar el resto.
+     *
+     * @param errores Lista donde añadir un mensaje por cada fichero no válido
+     * @return Las fichas de las comunidades guardadas
+     * @throws IOException Si no se puede listar el directorio
+     */
+    public List<FilaComunidad> indexar(List<String> errores) throws IOException {
+        List<FilaComunidad> fichas = new ArrayList<>();
+        if (!isHabilitado() || !Files.isDirectory(base())) {
+            return fichas;
+        }
+        List<Path> ficheros;
+        try (Stream<Path> contenido = Files.list(base())) {
+            ficheros = contenido
+                .filter(f -> f.getFileName().toString().endsWith(SnapshotBinario.EXTENSION))
+                .sorted(Comparator.comparing(AlmacenSnapshots::modificado))
+                .toList();
+        }
+        for (Path fichero : ficheros) {
+            try {
+                FilaComunidad ficha = snapshotBinario.leerFicha(fichero);
+                if (ficha.getId() == null || !fichero.equals(fichero(ficha.getId()))) {
+                    throw new IllegalArgumentException("el código de la comunidad no corresponde al fichero");
+                }
+                guardadas.put(ficha.getId(), ficha);
+                fichas.add(ficha);
+            } catch (IOException | IllegalArgumentException e) {
+                errores.add(fichero.getFileName() + ": " + e.getMessage());
+            }
+        }
+        return fichas;
+    }
+
+    /**
+     * Lee de disco la comunidad guardada con un código.
+     *
+     * @param id Código de la comunidad
+     * @return La comunidad, sin datos derivados, y su ficha; null si no está guardada
+     * @throws IOException Si hay un error al leer
+     * @throws IllegalArgumentException Si el fichero está dañado
+     */
+    public SnapshotBinario.Contenido cargar(String id) throws IOException {
+        if (!contiene(id)) {
+            return null;
+        }
+        return snapshotBinario.leerContenido(fichero(id));
+    }
+
+    /**
+     * Indica si hay una comunidad guardada con el código indicado.
+     */
+    public boolean contiene(String id) {
+        return id != null && guardadas.containsKey(id);
+    }
+
+    /**
+     * Indica si la versión indicada de una comunidad (o una posterior) ya está en disco, de
+     * modo que se puede descartar de memoria sin perderla. Si el almacén está deshabilitado
+     * nunca lo está.
+     */
+    public boolean estaGuardada(String id, long version) {
+        FilaComunidad ficha = guardadas.get(id);
+        return ficha != null && ficha.getVersion() >= version;
+    }
+
+    /**
+     * Ficha de la comunidad guardada con un código, o null si no está guardada.
+     */
+    public FilaComunidad ficha(String id) {
+        return id != null ? guardadas.get(id) : null;
+    }
+
+    /**
+     * Fichas de todas las comunidades guardadas, ordenadas por código.
+     */
+    public List<FilaComunidad> listar() {
+        List<FilaComunidad> fichas = new ArrayList<>(guardadas.values());
+        fichas.sort(Comparator.comparing(FilaComunidad::getId));
+        return fichas;
+    }
+
+    public int size() {
+        return guardadas.size();
+    }
+
+    /**
+     * Elimina el snapshot guardado de una comunidad.
+     *
+     * @param id Código de la comunidad
+     * @throws IOException Si hay un error al borrar
+     */
+    public void eliminar(String id) throws IOException {
+        if (!isHabilitado()) {
+            return;
+        }
+        Lock cerrojo = cerrojo(id);
+        cerrojo.lock();
+        try {
+            pendientes.remove(id);
+            guardadas.remove(id);
+            Files.deleteIfExists(fichero(id));
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    private static Lock[] crearCerrojos() {
+        Lock[] cerrojos = new Lock[CERROJOS];
+        Arrays.setAll(cerrojos, i -> new ReentrantLock());
+        return cerrojos;
+    }
+
+    private Lock cerrojo(String id) {
+        return cerrojos[Math.floorMod(id.hashCode(), CERROJOS)];
+    }
+
+    private Path base() {
+        return Paths.get(directorio);
+    }
+
+    /** El código se codifica para que cualquier carácter sea válido en un nombre de fichero */
+    private Path fichero(String id) {
+        return base().resolve(URLEncoder.encode(id, StandardCharsets.UTF_8) + SnapshotBinario.EXTENSION);
+    }
+
+    private record Pendiente(SnapshotComunidad snapshot, LongConsumer alGuardar) {
+    }
+
+    private static long modificado(Path fichero) {
+        try {
+            return Files.getLastModifiedTime(fichero).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
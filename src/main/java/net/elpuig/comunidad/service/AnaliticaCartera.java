@@ -0,0 +1,123 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Paneles de gasto de toda la cartera de comunidades: total por población, por nombre de zona
+ * y por categoría de gasto, propietarios con mayor cuota sumando todas sus comunidades y
+ * propiedades más caras. Se incluyen las comunidades descartadas de memoria y guardadas en
+ * disco ({@link ResumenesCartera}), así que el panel no cambia con las que estén cargadas.
+ *
+ * El panel es una reducción paralela sobre las versiones vigentes: cada comunidad aporta sus
+ * {@link AgregadosCartera}, que se calculan una vez por versión y se conservan aunque la
+ * comunidad se descarte, y se combinan en el pool fork/join común. El resultado combinado se guarda junto con las
+ * versiones de las que sale; mientras no se publique ni se descarte ninguna comunidad, los
+ * paneles siguientes no vuelven a combinar nada, y después solo se calculan los agregados de
+ * las comunidades nuevas.
+ */
+@Service
+public class AnaliticaCartera {
+
+    public static final int LIMITE_POR_DEFECTO = 20;
+    public static final int LIMITE_MAXIMO = AgregadosCartera.MAX_PROPIEDADES;
+
+    @Autowired
+    private ResumenesCartera resumenesCartera;
+
+    /** Última combinación y las versiones de las que sale */
+    private volatile Combinacion ultima = new Combinacion(List.of(), AgregadosCartera.VACIOS);
+
+    /**
+     * Calcula el panel de todas las comunidades.
+     *
+     * @param limite Número de propietarios y propiedades a devolver (como mucho {@value #LIMITE_MAXIMO})
+     * @return El panel de la cartera
+     * @throws IllegalArgumentException Si el límite no es positivo
+     */
+    public PanelCartera panel(int limite) {
+        if (limite < 1) {
+            throw new IllegalArgumentException("El límite debe ser positivo");
+        }
+        int maximo = Math.min(limite, LIMITE_MAXIMO);
+        List<String> omitidas = new ArrayList<>();
+        AgregadosCartera agregados = agregados(omitidas);
+        return new PanelCartera(agregados.getComunidades(), agregados.getTotalGeneral(),
+            filas(agregados.getPoblaciones()), filas(agregados.getZonas()), filas(agregados.getCategorias()),
+            agregados.getNumeroPropietarios(), propietarios(agregados, maximo), propiedades(agregados, maximo),
+            omitidas);
+    }
+
+    /**
+     * Agregados de todas las comunidades, reutilizando la última combinación si ninguna ha
+     * cambiado.
+     *
+     * @param omitidas Lista donde añadir las comunidades guardadas que no se han podido leer
+     */
+    private AgregadosCartera agregados(List<String> omitidas) {
+        List<ResumenCartera> resumenes = resumenesCartera.listar(omitidas);
+        List<String> versiones = new ArrayList<>(resumenes.size());
+        resumenes.forEach(resumen -> versiones.add(resumen.getId() + ":" + resumen.getVersion()));
+        Combinacion combinacion = ultima;
+        if (!combinacion.versiones().equals(versiones)) {
+            AgregadosCartera agregados = resumenes.parallelStream()
+                .map(ResumenCartera::getAgregados)
+                .reduce(AgregadosCartera.VACIOS, AgregadosCartera::combinar);
+            combinacion = new Combinacion(versiones, agregados);
+            ultima = combinacion;
+        }
+        return combinacion.agregados();
+    }
+
+    private static List<FilaCartera> filas(Map<String, AgregadosCartera.Acumulado> grupos) {
+        List<FilaCartera> filas = new ArrayList<>(grupos.size());
+        grupos.forEach((clave, acumulado) -> filas.add(new FilaCartera(clave, acumulado.comunidades(), acumulado.total())));
+        filas.sort(Comparator.comparing(FilaCartera::getTotal).reversed().thenComparing(FilaCartera::getClave));
+        return filas;
+    }
+
+    /**
+     * Los propietarios con mayor cuota total, con un montículo de tamaño {@code maximo} en
+     * lugar de ordenar todos.
+     */
+    private static List<FilaPropietarioCartera> propietarios(AgregadosCartera agregados, int maximo) {
+        // Los propietarios se guardan ordenados por clave: a igual total, queda antes la menor
+        Comparator<Integer> mayores = Comparator.<Integer>comparingLong(agregados::centimos).reversed()
+            .thenComparing(Comparator.naturalOrder());
+        PriorityQueue<Integer> monticulo = new PriorityQueue<>(mayores.reversed());
+        for (int i = 0; i < agregados.getNumeroPropietarios(); i++) {
+            if (monticulo.size() == maximo && agregados.centimos(i) <= agregados.centimos(monticulo.peek())) {
+                continue;
+            }
+            monticulo.add(i);
+            if (monticulo.size() > maximo) {
+                monticulo.poll();
+            }
+        }
+        List<Integer> posiciones = new ArrayList<>(monticulo);
+        posiciones.sort(mayores);
+        List<FilaPropietarioCartera> filas = new ArrayList<>(posiciones.size());
+        for (int i : posiciones) {
+            filas.add(new FilaPropietarioCartera(agregados.nombre(i), agregados.email(i), agregados.comunidades(i),
+                agregados.propiedades(i), BigDecimal.valueOf(agregados.centimos(i), 2)));
+        }
+        return filas;
+    }
+
+    private static List<FilaPropiedadCartera> propiedades(AgregadosCartera agregados, int maximo) {
+        List<AgregadosCartera.PropiedadCara> caras = agregados.getPropiedades();
+        List<FilaPropiedadCartera> filas = new ArrayList<>();
+        for (AgregadosCartera.PropiedadCara cara : caras.subList(0, Math.min(maximo, caras.size()))) {
+            filas.add(new FilaPropiedadCartera(cara.comunidad(), cara.nombreComunidad(), cara.codigo(), cara.tipo(),
+                cara.propietario(), BigDecimal.valueOf(cara.centimos(), 2)));
+        }
+        return filas;
+    }
+
+    /** Agregados combinados de las versiones indicadas ({@code id:versión}, por código) */
+    private record Combinacion(List<String> versiones, AgregadosCartera agregados) {
+    }
+}
@@ -0,0 +1,68 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import java.util.*;
+
+/**
+ * Búsqueda de propietarios por prefijo de código, nombre, email o dirección en todas las
+ * comunidades, pensada para autocompletar.
+ *
+ * Cada comunidad lleva su {@link IndicePropietarios}, que se construye al publicarla y se
+ * conserva con su {@link ResumenCartera} aunque el registro la descarte de memoria: publicar
+ * una versión nueva sustituye su índice y eliminar la comunidad lo retira, sin mantener aparte
+ * ningún índice global. Una búsqueda hace una bisección en el índice de cada comunidad y
+ * mezcla los resultados; los datos y la cuota total de cada propietario se toman del resumen.
+ * Las comunidades guardadas que no se pueden leer se omiten ({@link ResumenesCartera}).
+ */
+@Service
+public class BuscadorPropietarios {
+
+    public static final int LIMITE_POR_DEFECTO = 20;
+    public static final int LIMITE_MAXIMO = 100;
+
+    @Autowired
+    private ResumenesCartera resumenesCartera;
+
+    /**
+     * Busca propietarios con alguna palabra de su código, nombre, email o dirección que
+     * empiece por el texto indicado, sin distinguir mayúsculas ni acentos.
+     *
+     * @param texto Prefijo a buscar; puede tener varias palabras
+     * @param limite Número máximo de resultados (como mucho {@value #LIMITE_MAXIMO})
+     * @return Los propietarios encontrados, ordenados por el texto que coincide y por comunidad
+     * @throws IllegalArgumentException Si el texto está vacío o el límite no es positivo
+     */
+    public List<FilaBusquedaPropietario> buscar(String texto, int limite) {
+        String prefijo = IndicePropietarios.normalizar(texto);
+        if (prefijo.isEmpty()) {
+            throw new IllegalArgumentException("Debe indicar el texto a buscar");
+        }
+        if (limite < 1) {
+            throw new IllegalArgumentException("El límite debe ser positivo");
+        }
+        int maximo = Math.min(limite, LIMITE_MAXIMO);
+
+        // Los primeros de cada comunidad bastan para obtener los primeros de todas
+        List<Coincidencia> coincidencias = new ArrayList<>();
+        for (ResumenCartera resumen : resumenesCartera.listar(new ArrayList<>())) {
+            IndicePropietarios indice = resumen.getIndice();
+            for (int propietario : indice.buscar(prefijo, maximo)) {
+                coincidencias.add(new Coincidencia(resumen, propietario, indice.coincidencia(propietario, prefijo)));
+            }
+        }
+        coincidencias.sort(Comparator.comparing(Coincidencia::texto)
+            .thenComparing(coincidencia -> coincidencia.resumen().getId()));
+
+        List<FilaBusquedaPropietario> filas = new ArrayList<>();
+        for (Coincidencia coincidencia : coincidencias.subList(0, Math.min(maximo, coincidencias.size()))) {
+            filas.add(coincidencia.resumen().fila(coincidencia.propietario()));
+        }
+        return filas;
+    }
+
+    /** Propietario encontrado en una comunidad y el texto por el que se ordena */
+    private record Coincidencia(ResumenCartera resumen, int propietario, String texto) {
+    }
+}
@@ -0,0 +1,262 @@
+package net.elpuig.comunidad.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.model.TrabajoProcesado;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Cola de procesado en segundo plano de las parejas de archivos subidas. Cada subida se copia
+ * a archivos temporales en disco y se procesa en un pool de {@code comunidad.trabajos.hilos}
+ * hilos; la petición vuelve enseguida con su {@link TrabajoProcesado}, cuyo avance (fase,
+ * líneas leídas y zonas repartidas) se puede consultar mientras tanto. Al terminar, cada
+ * trabajo publica su comunidad como la actual, igual que una subida normal.
+ *
+ * Como mucho esperan {@code comunidad.trabajos.cola} trabajos: con la cola llena la subida se
+ * rechaza con {@link RejectedExecutionException} antes de copiar nada, en lugar de acumular
+ * trabajos pendientes. Se conservan los últimos {@code comunidad.trabajos.conservar} trabajos
+ * terminados para consultar su resultado.
+ *
+ * Con {@code spring.threads.virtual.enabled=true} los hilos del pool son virtuales, como los
+ * de Tomcat en ese modo. Su número sigue siendo {@code comunidad.trabajos.hilos}: el procesado
+ * usa sobre todo CPU, así que más hilos no lo acelerarían.
+ */
+@Service
+public class ColaProcesado {
+
+    private static final Logger log = LoggerFactory.getLogger(ColaProcesado.class);
+
+    private final ComunidadService comunidadService;
+    private final MetricasComunidad metricas;
+    private final int hilos;
+    private final int conservar;
+    private final boolean hilosVirtuales;
+
+    /** Una plaza por hilo y por posición de la cola: se reserva al aceptar la subida y se libera al terminar */
+    private final Semaphore plazas;
+    /** Se crea al iniciar el bean, no en el constructor, para no publicar la cola a medio construir */
+    private ThreadPoolExecutor ejecutor;
+    private final Map<String, TrabajoProcesado> trabajos = new ConcurrentHashMap<>();
+    /** Trabajos terminados, del más antiguo al más reciente */
+    private final Deque<String> terminados = new ArrayDeque<>();
+
+    public ColaProcesado(ComunidadService comunidadService, MetricasComunidad metricas,
+                         @Value("${comunidad.trabajos.hilos:1}") int hilos,
+                         @Value("${comunidad.trabajos.cola:4}") int cola,
+                         @Value("${comunidad.trabajos.conservar:100}") int conservar,
+                         @Value("${spring.threads.virtual.enabled:false}") boolean hilosVirtuales) {
+        if (hilos < 1 || cola < 0 || conservar < 0) {
+            throw new IllegalArgumentException("Configuración de la cola de procesado no válida");
+        }
+        this.comunidadService = comunidadService;
+        this.metricas = metricas;
+        this.hilos = hilos;
+        this.conservar = conservar;
+        this.hilosVirtuales = hilosVirtuales;
+        this.plazas = new Semaphore(hilos + cola);
+    }
+
+    /**
+     * Crea el pool de hilos y publica sus métricas, ya con la cola completamente construida.
+     */
+    @PostConstruct
+    public void iniciar() {
+        // Las plazas ya limitan los trabajos pendientes, así que la cola del pool nunca crece más
+        ThreadFactory fabrica = hilosVirtuales
+            ? Thread.ofVirtual().name("procesado-", 1).factory()
+            : Thread.ofPlatform().name("procesado-", 1).daemon(true).factory();
+        ejecutor = new ThreadPoolExecutor(hilos, hilos, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), fabrica);
+        metricas.registrarColaProcesado(this);
+    }
+
+    /**
+     * Deja de aceptar trabajos al parar la aplicación. Los hilos no la retienen: los de
+     * plataforma son daemon y los virtuales lo son siempre.
+     */
+    @PreDestroy
+    public void detener() {
+        ejecutor.shutdown();
+    }
+
+    /**
+     * Pone en cola el procesado de una pareja de archivos.
+     *
+     * @param comunidadFile Archivo con la información de la comunidad
+     * @param gastosFile Archivo con la información de los gastos
+     * @return El trabajo, todavía en cola
+     * @throws IllegalArgumentException Si algún archivo está vacío o no parece del tipo esperado
+     * @throws RejectedExecutionException Si la cola está llena
+     * @throws IOException Si no se pueden copiar los archivos a disco
+     */
+    public TrabajoProcesado encolar(MultipartFile comunidadFile, MultipartFile gastosFile) throws IOException {
+        if (comunidadFile.isEmpty()) {
+            throw new IllegalArgumentException("El archivo de comunidad está vacío");
+        }
+        if (gastosFile.isEmpty()) {
+            throw new IllegalArgumentException("El archivo de gastos está vacío");
+        }
+        if (!ProcesadorLotes.esArchivoComunidad(comunidadFile.getOriginalFilename())) {
+            throw new IllegalArgumentException("El archivo seleccionado no parece ser un archivo de comunidad válido");
+        }
+        if (!ProcesadorLotes.esArchivoGastos(gastosFile.getOriginalFilename())) {
+            throw new IllegalArgumentException("El archivo seleccionado no parece ser un archivo de gastos válido");
+        }
+        if (!plazas.tryAcquire()) {
+            metricas.registrarTrabajoRechazado();
+            throw new RejectedExecutionException("Hay demasiados archivos pendientes de procesar; vuelva a intentarlo más tarde");
+        }
+
+        Path comunidadArchivo = null;
+        Path gastosArchivo = null;
+        TrabajoProcesado trabajo = null;
+        try {
+            comunidadArchivo = Files.createTempFile("trabajo-comunidad", ".txt");
+            comunidadFile.transferTo(comunidadArchivo);
+            gastosArchivo = Files.createTempFile("trabajo-gastos", ".txt");
+            gastosFile.transferTo(gastosArchivo);
+
+            trabajo = new TrabajoProcesado(UUID.randomUUID().toString(), comunidadFile.getOriginalFilename(),
+                gastosFile.getOriginalFilename(), comunidadFile.getSize(), gastosFile.getSize(), Instant.now());
+            trabajos.put(trabajo.getId(), trabajo);
+            TrabajoProcesado encolado = trabajo;
+            Path comunidad = comunidadArchivo;
+            Path gastos = gastosArchivo;
+            ejecutor.execute(() -> ejecutar(encolado, comunidad, gastos));
+            return trabajo;
+        } catch (IOException | RuntimeException e) {
+            if (trabajo != null) {
+                trabajos.remove(trabajo.getId());
+            }
+            borrar(comunidadArchivo);
+            borrar(gastosArchivo);
+            plazas.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Obtiene un trabajo en cola, en curso o de los últimos terminados.
+     *
+     * @return El trabajo o null si no existe o ya se ha descartado
+     */
+    public TrabajoProcesado trabajo(String id) {
+        return id != null ? trabajos.get(id) : null;
+    }
+
+    /**
+     * Devuelve los trabajos conocidos, del más antiguo al más reciente.
+     */
+    public List<TrabajoProcesado> listar() {
+        return trabajos.values().stream()
+            .sorted(Comparator.comparing(TrabajoProcesado::getCreado))
+            .toList();
+    }
+
+    /** Trabajos esperando un hilo */
+    public int enCola() {
+        return ejecutor.getQueue().size();
+    }
+
+    /** Trabajos procesándose */
+    public int enCurso() {
+        return ejecutor.getActiveCount();
+    }
+
+    private void ejecutar(TrabajoProcesado trabajo, Path comunidadArchivo, Path gastosArchivo) {
+        trabajo.setIniciado(Instant.now());
+        trabajo.setEstado(TrabajoProcesado.Estado.PROCESANDO);
+        String error = "Error interno al procesar los archivos";
+        boolean correcto = false;
+        try {
+            SnapshotComunidad snapshot = comunidadService.procesarArchivos(comunidadArchivo, gastosArchivo, new Avance(trabajo));
+            trabajo.setComunidadId(snapshot.getId());
+            trabajo.setVersion(snapshot.getVersion());
+            correcto = true;
+        } catch (IllegalArgumentException e) {
+            // Error de formato de los archivos
+            error = e.getMessage();
+        } catch (Exception e) {
+            log.warn("Error al procesar los archivos del trabajo {}", trabajo.getId(), e);
+            error = "Error al procesar archivos: " + e.getMessage();
+        } catch (OutOfMemoryError e) {
+            error = "No hay memoria suficiente para procesar los archivos";
+        } finally {
+            borrar(comunidadArchivo);
+            borrar(gastosArchivo);
+            trabajo.setError(correcto ? null : error);
+            trabajo.setTerminado(Instant.now());
+            // El estado se escribe el último: quien lo ve terminado ve también el resultado
+            trabajo.setEstado(correcto ? TrabajoProcesado.Estado.TERMINADO : TrabajoProcesado.Estado.FALLIDO);
+            plazas.release();
+            retirar(trabajo);
+        }
+    }
+
+    /** Descarta los trabajos terminados más antiguos que sobran */
+    private void retirar(TrabajoProcesado trabajo) {
+        synchronized (terminados) {
+            terminados.addLast(trabajo.getId());
+            while (terminados.size() > conservar) {
+                trabajos.remove(terminados.removeFirst());
+            }
+        }
+    }
+
+    private static void borrar(Path archivo) {
+        if (archivo == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(archivo);
+        } catch (IOException e) {
+            log.warn("No se ha podido borrar el archivo temporal {}: {}", archivo, e.getMessage());
+        }
+    }
+
+    /**
+     * Copia los avisos del procesado en el trabajo. Las zonas del cálculo paralelo pueden
+     * avisar desordenadas, así que solo se guarda el máximo.
+     */
+    private static final class Avance implements ProgresoProcesado {
+
+        private final TrabajoProcesado trabajo;
+
+        Avance(TrabajoProcesado trabajo) {
+            this.trabajo = trabajo;
+        }
+
+        @Override
+        public void fase(String fase) {
+            trabajo.setFase(fase);
+        }
+
+        @Override
+        public void lineasLeidas(long lineas) {
+            if (MetricasComunidad.FASE_PARSEO_GASTOS.equals(trabajo.getFase())) {
+                trabajo.setLineasGastos(lineas);
+            } else {
+                trabajo.setLineasComunidad(lineas);
+            }
+        }
+
+        @Override
+        public synchronized void zonasRepartidas(int repartidas, int total) {
+            trabajo.setZonasConGastos(total);
+            if (repartidas > trabajo.getZonasRepartidas()) {
+                trabajo.setZonasRepartidas(repartidas);
+            }
+        }
+    }
+}
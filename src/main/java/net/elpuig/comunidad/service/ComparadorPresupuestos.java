@@ -0,0 +1,248 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.stereotype.Service;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Comparaciones entre los presupuestos de dos años de una comunidad para la API JSON.
+ *
+ * Trabaja solo con los resultados ya calculados de cada año ({@link PresupuestoAnual}), así
+ * que ninguna consulta recalcula cuotas. Como las propiedades y los propietarios de cada año
+ * están ordenados por código, las páginas se obtienen recorriendo los dos años a la vez,
+ * como en una mezcla de listas ordenadas: el cursor guarda la posición en cada año y cada
+ * página solo recorre sus propios elementos.
+ */
+@Service
+public class ComparadorPresupuestos {
+
+    /**
+     * Datos de cada presupuesto registrado, ordenados por año.
+     */
+    public List<FilaPresupuesto> presupuestos(List<PresupuestoAnual> presupuestos) {
+        return presupuestos.stream()
+            .map(presupuesto -> new FilaPresupuesto(presupuesto.getAnio(), presupuesto.getVersion(),
+                presupuesto.getRegistrado(), presupuesto.getNumeroGastos(), presupuesto.numeroPropiedades(),
+                presupuesto.numeroPropietarios(), presupuesto.getTotalGeneral()))
+            .toList();
+    }
+
+    /**
+     * Diferencia del total general y del total de cada zona entre dos años.
+     */
+    public ComparacionPresupuestos comparar(PresupuestoAnual anterior, PresupuestoAnual actual) {
+        List<FilaDiferencia> zonas = new ArrayList<>();
+        for (int i = 0; i < actual.numeroZonas(); i++) {
+            int previa = anterior.buscarZona(actual.zona(i));
+            zonas.add(diferencia(actual.zona(i), actual.nombreZona(i),
+                previa >= 0 ? anterior.totalZona(previa) : null, actual.totalZona(i)));
+        }
+        for (int i = 0; i < anterior.numeroZonas(); i++) {
+            if (actual.buscarZona(anterior.zona(i)) < 0) {
+                zonas.add(diferencia(anterior.zona(i), anterior.nombreZona(i), anterior.totalZona(i), null));
+            }
+        }
+        return new ComparacionPresupuestos(actual.getComunidad(), anterior.getAnio(), actual.getAnio(),
+            diferencia(null, null, anterior.getTotalGeneral(), actual.getTotalGeneral()), zonas);
+    }
+
+    /**
+     * Página de diferencias de cuota por propiedad, en orden de código.
+     *
+     * @param soloCambios Si se omiten las propiedades cuya cuota no ha cambiado
+     * @param cursor Cursor de la página anterior, o null para la primera
+     * @param limite Número máximo de elementos de la página
+     */
+    public Pagina<FilaDiferencia> propiedades(PresupuestoAnual anterior, PresupuestoAnual actual,
+                                              boolean soloCambios, String cursor, int limite) {
+        return paginar(anterior, actual, propiedades(anterior), propiedades(actual), soloCambios, cursor, limite);
+    }
+
+    /**
+     * Página de diferencias de cuota por propietario, en orden de código.
+     *
+     * @param soloCambios Si se omiten los propietarios cuya cuota no ha cambiado
+     * @param cursor Cursor de la página anterior, o null para la primera
+     * @param limite Número máximo de elementos de la página
+     */
+    public Pagina<FilaDiferencia> propietarios(PresupuestoAnual anterior, PresupuestoAnual actual,
+                                               boolean soloCambios, String cursor, int limite) {
+        return paginar(anterior, actual, propietarios(anterior), propietarios(actual), soloCambios, cursor, limite);
+    }
+
+    /**
+     * Diferencia de cuota de una propiedad, buscándola por código en cada año.
+     *
+     * @return La diferencia o null si la propiedad no existe en ninguno de los dos años
+     */
+    public FilaDiferencia propiedad(PresupuestoAnual anterior, PresupuestoAnual actual, String codigo) {
+        return buscar(propiedades(anterior), propiedades(actual), anterior.buscarPropiedad(codigo),
+            actual.buscarPropiedad(codigo));
+    }
+
+    /**
+     * Diferencia de cuota de un propietario, buscándolo por código en cada año.
+     *
+     * @return La diferencia o null si el propietario no existe en ninguno de los dos años
+     */
+    public FilaDiferencia propietario(PresupuestoAnual anterior, PresupuestoAnual actual, String codigo) {
+        return buscar(propietarios(anterior), propietarios(actual), anterior.buscarPropietario(codigo),
+            actual.buscarPropietario(codigo));
+    }
+
+    /**
+     * Elementos de un año ordenados por código, con su cuota en céntimos.
+     */
+    private interface Columna {
+        int size();
+
+        String codigo(int i);
+
+        String nombre(int i);
+
+        long centimos(int i);
+    }
+
+    private static Columna propiedades(PresupuestoAnual presupuesto) {
+        return new Columna() {
+            @Override
+            public int size() {
+                return presupuesto.numeroPropiedades();
+            }
+
+            @Override
+            public String codigo(int i) {
+                return presupuesto.codigoPropiedad(i);
+            }
+
+            @Override
+            public String nombre(int i) {
+                return null;
+            }
+
+            @Override
+            public long centimos(int i) {
+                return presupuesto.centimosPropiedad(i);
+            }
+        };
+    }
+
+    private static Columna propietarios(PresupuestoAnual presupuesto) {
+        return new Columna() {
+            @Override
+            public int size() {
+                return presupuesto.numeroPropietarios();
+            }
+
+            @Override
+            public String codigo(int i) {
+                return presupuesto.codigoPropietario(i);
+            }
+
+            @Override
+            public String nombre(int i) {
+                return presupuesto.nombrePropietario(i);
+            }
+
+            @Override
+            public long centimos(int i) {
+                return presupuesto.centimosPropietario(i);
+            }
+        };
+    }
+
+    private static FilaDiferencia buscar(Columna anterior, Columna actual, int i, int j) {
+        if (i < 0 && j < 0) {
+            return null;
+        }
+        return fila(anterior, actual, i >= 0 ? i : -1, j >= 0 ? j : -1);
+    }
+
+    /**
+     * Recorre los dos años a la vez desde las posiciones del cursor. Un código que solo
+     * existe en uno de los años da una fila con el importe del otro a null.
+     */
+    private static Pagina<FilaDiferencia> paginar(PresupuestoAnual presupuestoAnterior,
+                                                  PresupuestoAnual presupuestoActual, Columna anterior,
+                                                  Columna actual, boolean soloCambios, String cursor, int limite) {
+        if (limite < 1) {
+            throw new IllegalArgumentException("El límite debe ser al menos 1");
+        }
+        int maximo = Math.min(limite, ConsultaComunidad.LIMITE_MAXIMO);
+        int[] posiciones = inicio(presupuestoAnterior, presupuestoActual, cursor, anterior.size(), actual.size());
+        int i = posiciones[0];
+        int j = posiciones[1];
+
+        List<FilaDiferencia> elementos = new ArrayList<>(Math.min(maximo, 64));
+        while (i < anterior.size() || j < actual.size()) {
+            int comparacion = i >= anterior.size() ? 1
+                : j >= actual.size() ? -1
+                : anterior.codigo(i).compareTo(actual.codigo(j));
+            int a = comparacion <= 0 ? i : -1;
+            int b = comparacion >= 0 ? j : -1;
+            if (!soloCambios || a < 0 || b < 0 || anterior.centimos(a) != actual.centimos(b)) {
+                if (elementos.size() == maximo) {
+                    break;
+                }
+                elementos.add(fila(anterior, actual, a, b));
+            }
+            if (a >= 0) {
+                i++;
+            }
+            if (b >= 0) {
+                j++;
+            }
+        }
+        String siguiente = i < anterior.size() || j < actual.size()
+            ? codificarCursor(presupuestoAnterior.getVersion(), presupuestoActual.getVersion(), i, j) : null;
+        return new Pagina<>(presupuestoActual.getComunidad(), presupuestoActual.getVersion(), elementos, siguiente);
+    }
+
+    private static int[] inicio(PresupuestoAnual anterior, PresupuestoAnual actual, String cursor,
+                                int tamanoAnterior, int tamanoActual) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new int[] {0, 0};
+        }
+        long[] campos = new long[4];
+        try {
+            String[] partes = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII).split(":");
+            if (partes.length != campos.length) {
+                throw new IllegalArgumentException();
+            }
+            for (int k = 0; k < campos.length; k++) {
+                campos[k] = Long.parseLong(partes[k]);
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor no válido");
+        }
+        if (campos[0] != anterior.getVersion() || campos[1] != actual.getVersion()) {
+            throw new VersionCambiadaException("Los presupuestos han cambiado desde la página anterior; vuelva a empezar sin cursor");
+        }
+        if (campos[2] < 0 || campos[2] > tamanoAnterior || campos[3] < 0 || campos[3] > tamanoActual) {
+            throw new IllegalArgumentException("Cursor no válido");
+        }
+        return new int[] {(int) campos[2], (int) campos[3]};
+    }
+
+    private static String codificarCursor(long versionAnterior, long versionActual, int i, int j) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((versionAnterior + ":" + versionActual + ":" + i + ":" + j).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Fila con la posición del elemento en cada año, o -1 si no existe en ese año.
+     */
+    private static FilaDiferencia fila(Columna anterior, Columna actual, int i, int j) {
+        String codigo = j >= 0 ? actual.codigo(j) : anterior.codigo(i);
+        String nombre = j >= 0 ? actual.nombre(j) : anterior.nombre(i);
+        return diferencia(codigo, nombre,
+            i >= 0 ? BigDecimal.valueOf(anterior.centimos(i), 2) : null,
+            j >= 0 ? BigDecimal.valueOf(actual.centimos(j), 2) : null);
+    }
+
+    private static FilaDiferencia diferencia(String codigo, String nombre, BigDecimal anterior, BigDecimal actual) {
+        return FilaDiferencia.entre(codigo, nombre, anterior, actual);
+    }
+}
@@ -2,33 +2,84 @@ package net.elpuig.comunidad.service;
 
 import net.elpuig.comunidad.model.*;
 import net.elpuig.comunidad.util.FileParser;
+import net.elpuig.comunidad.util.FileParserNio;
 import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import net.elpuig.comunidad.util.SnapshotBinario;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * Servicio principal que gestiona la lógica de negocio relacionada con la comunidad de propietarios.
- * Este servicio se encarga de procesar los archivos de entrada, calcular las cuotas y mantener
- * el estado actual de la comunidad.
+ * Este servicio se encarga de procesar los archivos de entrada, calcular las cuotas y publicar
+ * cada comunidad calculada en el {@link RegistroComunidades}, donde varias comunidades pueden
+ * estar cargadas a la vez. Si está configurado, cada versión publicada se guarda también en
+ * disco con {@link AlmacenSnapshots}: entonces el registro solo conserva en memoria las
+ * comunidades más usadas, y las demás se leen de disco la primera vez que se piden, también
+ * después de reiniciar. Cuando el archivo de
+ * gastos indica el año, el resultado de cada versión se registra también en el
+ * {@link HistorialPresupuestos} de la comunidad para poder comparar años.
  */
 @Service
 public class ComunidadService {
     
+    private static final Logger log = LoggerFactory.getLogger(ComunidadService.class);
+    
     @Autowired
     private FileParser fileParser;
     
+    @Autowired
+    private FileParserNio fileParserNio;
+    
     @Autowired
     private CalculadoraCuotas calculadoraCuotas;
     
-    /** Instancia actual de la comunidad siendo procesada */
-    private Comunidad comunidadActual;
+    /** Parser a utilizar: "nio" (por bytes, por defecto) o "clasico" (BufferedReader + split) */
+    @Value("${comunidad.parser:nio}")
+    private String parser;
+    
+    @Autowired
+    private RegistroComunidades registro;
+    
+    @Autowired
+    private AlmacenSnapshots almacenSnapshots;
+    
+    @Autowired
+    private HistorialPresupuestos historialPresupuestos;
+    
+    @Autowired
+    private MetricasComunidad metricas;
+    
+    @Autowired
+    private ConsultaComunidad consultaComunidad;
+    
+    /** Código de la última comunidad procesada, usada cuando no se indica ninguna */
+    private volatile String idComunidadActual;
+    
+    /** Lecturas de disco en curso, para que peticiones simultáneas no lean dos veces la misma comunidad */
+    private final ConcurrentHashMap<String, CompletableFuture<SnapshotComunidad>> cargas = new ConcurrentHashMap<>();
     
     /**
      * Procesa los archivos de comunidad y gastos para generar la información completa de la comunidad.
@@ -37,58 +88,550 @@ public class ComunidadService {
      * 2. Parsea el archivo de gastos
      * 3. Calcula las cuotas
      * 4. Genera el resumen
-     * 5. Almacena la comunidad actual
+     * 5. Publica la comunidad en el registro como nueva versión de su código
      *
      * @param comunidadFile Archivo con la información de la comunidad
      * @param gastosFile Archivo con la información de los gastos
-     * @return La comunidad procesada con toda su información
+     * @return La versión publicada de la comunidad procesada
      * @throws IOException Si ocurre algún error al leer los archivos
      */
-    public Comunidad procesarArchivos(MultipartFile comunidadFile, MultipartFile gastosFile) throws IOException {
+    public SnapshotComunidad procesarArchivos(MultipartFile comunidadFile, MultipartFile gastosFile) throws IOException {
+        metricas.registrarArchivo(MetricasComunidad.ARCHIVO_COMUNIDAD, comunidadFile.getSize());
+        metricas.registrarArchivo(MetricasComunidad.ARCHIVO_GASTOS, gastosFile.getSize());
+        try (InputStream comunidadInput = comunidadFile.getInputStream();
+             InputStream gastosInput = gastosFile.getInputStream()) {
+            return calcularYPublicar(parsearArchivos(comunidadInput, gastosInput));
+        }
+    }
+    
+    /**
+     * Procesa los archivos de comunidad y gastos guardados en disco, avisando del avance. Es
+     * el mismo procesado que {@link #procesarArchivos(MultipartFile, MultipartFile)}, pero el
+     * parser nio lee los archivos desde el canal de cada fichero en lugar de un stream genérico.
+     *
+     * @param comunidadArchivo Archivo con la información de la comunidad
+     * @param gastosArchivo Archivo con la información de los gastos
+     * @param progreso Destino de los avisos de avance
+     * @return La versión publicada de la comunidad procesada
+     * @throws IOException Si ocurre algún error al leer los archivos
+     */
+    public SnapshotComunidad procesarArchivos(Path comunidadArchivo, Path gastosArchivo,
+                                              ProgresoProcesado progreso) throws IOException {
+        metricas.registrarArchivo(MetricasComunidad.ARCHIVO_COMUNIDAD, Files.size(comunidadArchivo));
+        metricas.registrarArchivo(MetricasComunidad.ARCHIVO_GASTOS, Files.size(gastosArchivo));
+        // Con un FileInputStream el parser lee directamente del canal del fichero
+        try (InputStream comunidadInput = new FileInputStream(comunidadArchivo.toFile());
+             InputStream gastosInput = new FileInputStream(gastosArchivo.toFile())) {
+            return calcularYPublicar(parsearArchivos(comunidadInput, gastosInput, progreso), progreso);
+        }
+    }
+    
+    /**
+     * Parsea los archivos de comunidad y gastos con el parser configurado.
+     * La comunidad devuelta tiene ya asignados sus gastos, pero no está calculada.
+     *
+     * @param comunidadInput Contenido del archivo de comunidad
+     * @param gastosInput Contenido del archivo de gastos
+     * @return La comunidad parseada
+     * @throws IOException Si ocurre algún error al leer los archivos
+     */
+    public Comunidad parsearArchivos(InputStream comunidadInput, InputStream gastosInput) throws IOException {
+        return parsearArchivos(comunidadInput, gastosInput, ProgresoProcesado.NINGUNO);
+    }
+    
+    /**
+     * Parsea los archivos de comunidad y gastos avisando de cada fase y de las líneas leídas.
+     *
+     * @param comunidadInput Contenido del archivo de comunidad
+     * @param gastosInput Contenido del archivo de gastos
+     * @param progreso Destino de los avisos de avance
+     * @return La comunidad parseada
+     * @throws IOException Si ocurre algún error al leer los archivos
+     */
+    public Comunidad parsearArchivos(InputStream comunidadInput, InputStream gastosInput,
+                                     ProgresoProcesado progreso) throws IOException {
+        Comunidad comunidad;
+        List<Gasto> gastos;
+        boolean clasico = "clasico".equals(parser);
+        
         // Procesar archivo de comunidad
-        Comunidad comunidad = fileParser.parseComunidad(comunidadFile.getInputStream());
+        progreso.fase(MetricasComunidad.FASE_PARSEO_COMUNIDAD);
+        long inicio = System.nanoTime();
+        comunidad = clasico ? fileParser.parseComunidad(comunidadInput, progreso)
+            : fileParserNio.parseComunidad(comunidadInput, progreso);
+        long fin = System.nanoTime();
+        metricas.registrarFase(MetricasComunidad.FASE_PARSEO_COMUNIDAD, fin - inicio);
+        metricas.registrarLineas(MetricasComunidad.ARCHIVO_COMUNIDAD, 1L + comunidad.getZonas().size()
+            + comunidad.getPropietarios().size() + comunidad.getPropiedades().size());
         
         // Procesar archivo de gastos
-        List<Gasto> gastos = fileParser.parseGastos(gastosFile.getInputStream(), comunidad);
+        progreso.fase(MetricasComunidad.FASE_PARSEO_GASTOS);
+        FileParser.Presupuesto presupuesto = clasico ? fileParser.parsePresupuesto(gastosInput, comunidad, progreso)
+            : fileParserNio.parsePresupuesto(gastosInput, comunidad, progreso);
+        gastos = presupuesto.gastos();
+        metricas.registrarFase(MetricasComunidad.FASE_PARSEO_GASTOS, System.nanoTime() - fin);
+        metricas.registrarLineas(MetricasComunidad.ARCHIVO_GASTOS, gastos.size());
         
-        // Guardar gastos en la comunidad
+        // Guardar gastos y año del presupuesto en la comunidad
         comunidad.setGastos(gastos);
+        comunidad.setAnioPresupuesto(presupuesto.anio());
+        return comunidad;
+    }
+    
+    /**
+     * Calcula las cuotas y el resumen de una comunidad ya parseada y la publica en el
+     * registro como nueva versión de su código.
+     *
+     * @param comunidad Comunidad parseada, con sus gastos
+     * @return La versión publicada de la comunidad, ya calculada
+     */
+    public SnapshotComunidad calcularYPublicar(Comunidad comunidad) {
+        return calcularYPublicar(comunidad, ProgresoProcesado.NINGUNO);
+    }
+    
+    /**
+     * Calcula y publica una comunidad ya parseada avisando de cada fase y de las zonas repartidas.
+     *
+     * @param comunidad Comunidad parseada, con sus gastos
+     * @param progreso Destino de los avisos de avance
+     * @return La versión publicada de la comunidad, ya calculada
+     */
+    public SnapshotComunidad calcularYPublicar(Comunidad comunidad, ProgresoProcesado progreso) {
+        List<Gasto> gastos = comunidad.getGastos();
+        
+        // A partir de aquí las listas no cambian
+        congelar(comunidad);
         
         // Calcular cuotas
-        calculadoraCuotas.calcularCuotas(comunidad, gastos);
+        progreso.fase(MetricasComunidad.FASE_CALCULO_CUOTAS);
+        long inicio = System.nanoTime();
+        DerivadosComunidad derivados = new DerivadosComunidad(comunidad);
+        derivados.setIndiceZonas(calculadoraCuotas.calcularCuotas(comunidad, gastos, progreso));
+        long calculado = System.nanoTime();
+        metricas.registrarFase(MetricasComunidad.FASE_CALCULO_CUOTAS, calculado - inicio);
         
         // Generar resumen
+        progreso.fase(MetricasComunidad.FASE_RESUMEN);
         calculadoraCuotas.generarResumen(comunidad, gastos);
+        long resumido = System.nanoTime();
+        metricas.registrarFase(MetricasComunidad.FASE_RESUMEN, resumido - calculado);
         
-        // Guardar comunidad actual
-        this.comunidadActual = comunidad;
+        // Publicar la comunidad ya calculada
+        progreso.fase(MetricasComunidad.FASE_PUBLICACION);
+        SnapshotComunidad snapshot = publicarCalculada(derivados);
+        metricas.registrarFase(MetricasComunidad.FASE_PUBLICACION, System.nanoTime() - resumido);
+        metricas.registrarComunidad(comunidad);
+        progreso.fase(MetricasComunidad.FASE_HISTORIAL);
+        registrarPresupuesto(snapshot);
+        progreso.fase(MetricasComunidad.FASE_SNAPSHOT);
+        guardar(snapshot);
         
-        return comunidad;
+        return snapshot;
+    }
+    
+    /**
+     * Indexa las comunidades guardadas en disco por {@link AlmacenSnapshots} sin cargarlas:
+     * cada una se lee entera la primera vez que se pide. La última guardada pasa a ser la
+     * comunidad actual. Antes se cargan los historiales de presupuestos.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restaurarSnapshots() {
+        if (!almacenSnapshots.isHabilitado()) {
+            return;
+        }
+        List<String> errores = new ArrayList<>();
+        try {
+            historialPresupuestos.cargar(errores);
+            List<FilaComunidad> fichas = almacenSnapshots.indexar(errores);
+            if (!fichas.isEmpty() && idComunidadActual == null) {
+                idComunidadActual = fichas.get(fichas.size() - 1).getId();
+            }
+        } catch (IOException e) {
+            errores.add(e.getMessage());
+        }
+        errores.forEach(error -> log.warn("No se ha podido restaurar un snapshot o historial: {}", error));
+    }
+    
+    /**
+     * Lee de disco una comunidad guardada y la vuelve a poner en el registro. Si otra petición
+     * ya la está leyendo, espera a esa lectura. Las comunidades ya están calculadas, así que
+     * solo se reconstruyen los datos derivados; el año de la comunidad se registra en el
+     * historial solo si no estaba.
+     *
+     * @return El snapshot, o null si la comunidad no está guardada o no se puede leer
+     */
+    private SnapshotComunidad cargarGuardada(String id) {
+        CompletableFuture<SnapshotComunidad> nueva = new CompletableFuture<>();
+        CompletableFuture<SnapshotComunidad> enCurso = cargas.putIfAbsent(id, nueva);
+        if (enCurso != null) {
+            try {
+                return enCurso.join();
+            } catch (CompletionException e) {
+                return null;
+            }
+        }
+        try {
+            SnapshotComunidad snapshot = registro.obtener(id);
+            if (snapshot == null) {
+                snapshot = leerGuardada(id);
+            }
+            nueva.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            nueva.completeExceptionally(e);
+            throw e;
+        } finally {
+            cargas.remove(id, nueva);
+        }
+    }
+    
+    private SnapshotComunidad leerGuardada(String id) {
+        long inicio = System.nanoTime();
+        SnapshotBinario.Contenido contenido;
+        try {
+            contenido = almacenSnapshots.cargar(id);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("No se ha podido cargar el snapshot de la comunidad {}: {}", id, e.getMessage());
+            return null;
+        }
+        if (contenido == null) {
+            return null;
+        }
+        long version = contenido.ficha().getVersion();
+        FilaComunidad guardada = almacenSnapshots.ficha(id);
+        if (guardada != null && guardada.getVersion() > version) {
+            // Se ha guardado una versión posterior mientras se leía esta
+            return leerGuardada(id);
+        }
+        Comunidad comunidad = contenido.comunidad();
+        congelar(comunidad);
+        DerivadosComunidad derivados = new DerivadosComunidad(comunidad);
+        derivados.setIndiceZonas(IndiceZonas.construir(comunidad));
+        prepararCalculada(derivados);
+        SnapshotComunidad snapshot = registro.publicarGuardada(derivados, version);
+        metricas.registrarFase(MetricasComunidad.FASE_CARGA, System.nanoTime() - inicio);
+        if (snapshot.getComunidad() == comunidad && comunidad.getAnioPresupuesto() != null
+                && !historialPresupuestos.contiene(comunidad.getId(), comunidad.getAnioPresupuesto())) {
+            registrarPresupuesto(snapshot);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Prepara los datos derivados de una comunidad ya calculada y la publica en el registro
+     * como comunidad actual.
+     */
+    private SnapshotComunidad publicarCalculada(DerivadosComunidad derivados) {
+        prepararCalculada(derivados);
+        SnapshotComunidad snapshot = registro.publicar(derivados);
+        this.idComunidadActual = snapshot.getId();
+        return snapshot;
+    }
+    
+    /**
+     * Prepara los datos derivados de una comunidad ya calculada antes de publicarla.
+     */
+    private static void prepararCalculada(DerivadosComunidad derivados) {
+        Comunidad comunidad = derivados.getComunidad();
+        comunidad.setTotalesPorZona(Collections.unmodifiableMap(comunidad.getTotalesPorZona()));
+        
+        // Sumar una sola vez las cuotas por propietario
+        CuotasPropietarios cuotas = CuotasPropietarios.calcular(comunidad);
+        derivados.setCuotasPropietarios(cuotas);
+        
+        // Indexar los propietarios para la búsqueda antes de que sean visibles
+        derivados.setIndicePropietarios(IndicePropietarios.construir(cuotas));
     }
     
     /**
-     * Obtiene la instancia actual de la comunidad.
+     * Registra el presupuesto anual de una versión publicada; el historial lo guarda en disco
+     * en segundo plano. Como al guardar el snapshot, un error no anula la publicación.
+     */
+    private void registrarPresupuesto(SnapshotComunidad snapshot) {
+        long inicio = System.nanoTime();
+        try {
+            if (historialPresupuestos.registrar(snapshot) != null) {
+                metricas.registrarFase(MetricasComunidad.FASE_HISTORIAL, System.nanoTime() - inicio);
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            log.warn("No se ha podido guardar el presupuesto de la comunidad {}: {}", snapshot.getId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Guarda en disco una versión publicada, en segundo plano: la petición no espera a la
+     * escritura, y las versiones que se publiquen mientras tanto se guardan juntas.
+     */
+    private void guardar(SnapshotComunidad snapshot) {
+        almacenSnapshots.guardarEnSegundoPlano(snapshot, duracion -> {
+            metricas.registrarFase(MetricasComunidad.FASE_SNAPSHOT, duracion);
+            // Ya guardada, la versión puede descartarse de memoria si el registro está lleno
+            registro.desalojar();
+        });
+    }
+    
+    /**
+     * Añade un gasto a una comunidad cargada y publica la nueva versión. Solo se recalcula
+     * la zona del gasto.
+     *
+     * @param comunidadId Código de la comunidad; si es null o vacío se usa la última procesada
+     * @param gastoId Código del nuevo gasto; no debe existir en la comunidad
+     * @param descripcion Descripción del gasto
+     * @param importe Importe del gasto
+     * @param zonaId Código de la zona a la que se imputa
+     * @return La nueva versión de la comunidad
+     */
+    public SnapshotComunidad anadirGasto(String comunidadId, String gastoId, String descripcion,
+                                 BigDecimal importe, String zonaId) {
+        return cambiarGasto(comunidadId, gastoId, false,
+            comunidad -> crearGasto(comunidad, gastoId, descripcion, importe, zonaId));
+    }
+
+    /**
+     * Modifica un gasto de una comunidad cargada y publica la nueva versión. Solo se
+     * recalculan la zona anterior y la nueva del gasto.
+     *
+     * @param comunidadId Código de la comunidad; si es null o vacío se usa la última procesada
+     * @param gastoId Código del gasto a modificar
+     * @param descripcion Nueva descripción
+     * @param importe Nuevo importe
+     * @param zonaId Código de la nueva zona
+     * @return La nueva versión de la comunidad
+     */
+    public SnapshotComunidad modificarGasto(String comunidadId, String gastoId, String descripcion,
+                                    BigDecimal importe, String zonaId) {
+        return cambiarGasto(comunidadId, gastoId, true,
+            comunidad -> crearGasto(comunidad, gastoId, descripcion, importe, zonaId));
+    }
+
+    /**
+     * Elimina un gasto de una comunidad cargada y publica la nueva versión. Solo se
+     * recalcula la zona del gasto.
+     *
+     * @param comunidadId Código de la comunidad; si es null o vacío se usa la última procesada
+     * @param gastoId Código del gasto a eliminar
+     * @return La nueva versión de la comunidad
+     */
+    public SnapshotComunidad eliminarGasto(String comunidadId, String gastoId) {
+        return cambiarGasto(comunidadId, gastoId, true, comunidad -> null);
+    }
+
+    /**
+     * Aplica un cambio sobre un gasto partiendo del snapshot vigente y publica el resultado
+     * solo si nadie ha publicado otra versión entre medias; si no, repite el cambio sobre
+     * la versión nueva.
+     *
+     * @param existente Si el gasto debe existir (modificar o eliminar) o no (añadir)
+     * @param nuevoGasto Construye el gasto resultante a partir de la comunidad, o null para eliminarlo
+     */
+    private SnapshotComunidad cambiarGasto(String comunidadId, String gastoId, boolean existente,
+                                           Function<Comunidad, Gasto> nuevoGasto) {
+        if (gastoId == null || gastoId.isBlank()) {
+            throw new IllegalArgumentException("Debe indicar el código del gasto");
+        }
+        while (true) {
+            SnapshotComunidad snapshot = getSnapshot(comunidadId);
+            if (snapshot == null) {
+                throw new IllegalArgumentException("La comunidad indicada no está cargada");
+            }
+            Comunidad anterior = snapshot.getComunidad();
+            List<Gasto> gastos = anterior.getGastos() != null
+                ? new ArrayList<>(anterior.getGastos()) : new ArrayList<>();
+
+            int posicion = -1;
+            for (int i = 0; i < gastos.size() && posicion < 0; i++) {
+                if (gastoId.equals(gastos.get(i).getId())) {
+                    posicion = i;
+                }
+            }
+            if (existente && posicion < 0) {
+                throw new IllegalArgumentException("No existe el gasto " + gastoId);
+            }
+            if (!existente && posicion >= 0) {
+                throw new IllegalArgumentException("Ya existe un gasto con el código " + gastoId);
+            }
+
+            // Zonas cuyo total cambia: la del gasto anterior y la del nuevo
+            Gasto gasto = nuevoGasto.apply(anterior);
+            List<Zona> zonas = new ArrayList<>();
+            if (posicion >= 0) {
+                zonas.add(gastos.get(posicion).getZona());
+                if (gasto != null) {
+                    gastos.set(posicion, gasto);
+                } else {
+                    gastos.remove(posicion);
+                }
+            } else {
+                gastos.add(gasto);
+            }
+            if (gasto != null) {
+                zonas.add(gasto.getZona());
+            }
+
+            DerivadosComunidad nueva = calculadoraCuotas.recalcularZonas(snapshot, Collections.unmodifiableList(gastos), zonas);
+            SnapshotComunidad publicado = registro.publicarSi(nueva, snapshot.getVersion());
+            if (publicado != null) {
+                // Como el snapshot, el presupuesto del año se obtiene fuera de la petición: una
+                // ráfaga de cambios lo obtiene una sola vez, con la última versión
+                historialPresupuestos.registrarEnSegundoPlano(publicado,
+                    duracion -> metricas.registrarFase(MetricasComunidad.FASE_HISTORIAL, duracion));
+                guardar(publicado);
+                return publicado;
+            }
+        }
+    }
+
+    /**
+     * Crea un gasto validando sus datos contra las zonas de la comunidad.
+     */
+    private Gasto crearGasto(Comunidad comunidad, String gastoId, String descripcion,
+                             BigDecimal importe, String zonaId) {
+        if (importe == null) {
+            throw new IllegalArgumentException("Debe indicar el importe del gasto");
+        }
+        Zona zona = comunidad.getZonas().stream()
+            .filter(z -> z.getId().equals(zonaId))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("La zona " + zonaId + " no existe en la comunidad"));
+
+        Gasto gasto = new Gasto();
+        gasto.setId(gastoId);
+        gasto.setDescripcion(descripcion);
+        gasto.setImporte(importe);
+        gasto.setZona(zona);
+        return gasto;
+    }
+
+    /**
+     * Sustituye las listas de la comunidad por vistas de solo lectura antes de calcularla,
+     * ya que una vez publicada se comparte entre peticiones concurrentes. Los propietarios
+     * quedan ordenados por código, que es como los dejan los parsers: los recálculos buscan
+     * en la lista por bisección.
+     *
+     * @throws IllegalArgumentException Si hay dos propietarios con el mismo código
+     */
+    private void congelar(Comunidad comunidad) {
+        Comparator<Propietario> porCodigo = Comparator.comparing(Propietario::getCodigo);
+        List<Propietario> propietarios = comunidad.getPropietarios();
+        for (int i = 1; i < propietarios.size(); i++) {
+            if (porCodigo.compare(propietarios.get(i - 1), propietarios.get(i)) > 0) {
+                propietarios = new ArrayList<>(propietarios);
+                propietarios.sort(porCodigo);
+                comunidad.setPropietarios(propietarios);
+                break;
+            }
+        }
+        for (int i = 1; i < propietarios.size(); i++) {
+            if (porCodigo.compare(propietarios.get(i - 1), propietarios.get(i)) == 0) {
+                throw new IllegalArgumentException("El propietario " + propietarios.get(i).getCodigo() + " está repetido");
+            }
+        }
+        comunidad.setZonas(Collections.unmodifiableList(comunidad.getZonas()));
+        comunidad.setPropiedades(Collections.unmodifiableList(comunidad.getPropiedades()));
+        comunidad.setPropietarios(Collections.unmodifiableList(comunidad.getPropietarios()));
+        comunidad.setGastos(Collections.unmodifiableList(comunidad.getGastos()));
+        for (Propietario propietario : comunidad.getPropietarios()) {
+            if (propietario.getPropiedades() != null) {
+                propietario.setPropiedades(Collections.unmodifiableList(propietario.getPropiedades()));
+            }
+        }
+    }
+    
+    /**
+     * Obtiene la última comunidad procesada.
      * 
      * @return La comunidad actual o null si no hay ninguna comunidad cargada
      */
     public Comunidad getComunidadActual() {
-        return comunidadActual;
+        return getComunidad(null);
     }
     
     /**
-     * Devuelve una lista ordenada de propietarios por su código.
+     * Obtiene una comunidad cargada por su código.
+     * 
+     * @param id Código de la comunidad; si es null o vacío se usa la última procesada
+     * @return La comunidad o null si no está cargada
+     */
+    public Comunidad getComunidad(String id) {
+        SnapshotComunidad snapshot = getSnapshot(id);
+        return snapshot != null ? snapshot.getComunidad() : null;
+    }
+    
+    /**
+     * Obtiene el snapshot vigente de una comunidad cargada. Si no está en memoria pero sí
+     * guardada en disco, se lee de disco.
+     * 
+     * @param id Código de la comunidad; si es null o vacío se usa la última procesada
+     * @return El snapshot o null si la comunidad no está cargada
+     */
+    public SnapshotComunidad getSnapshot(String id) {
+        String codigo = id == null || id.isEmpty() ? idComunidadActual : id;
+        SnapshotComunidad snapshot = registro.obtener(codigo);
+        if (snapshot == null && almacenSnapshots.contiene(codigo)) {
+            snapshot = cargarGuardada(codigo);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Devuelve las comunidades cargadas en memoria ordenadas por código.
+     * 
+     * @return Lista de snapshots cargados
+     */
+    public List<SnapshotComunidad> getComunidadesCargadas() {
+        return registro.listar();
+    }
+    
+    /**
+     * Devuelve los datos generales de todas las comunidades, en memoria o guardadas en disco,
+     * ordenadas por código. Las guardadas no se cargan: se usa la ficha leída de su fichero.
+     * 
+     * @return Ficha de cada comunidad
+     */
+    public List<FilaComunidad> getComunidades() {
+        Map<String, FilaComunidad> fichas = new LinkedHashMap<>();
+        almacenSnapshots.listar().forEach(ficha -> fichas.put(ficha.getId(), ficha));
+        registro.listar().forEach(snapshot -> fichas.put(snapshot.getId(), consultaComunidad.comunidad(snapshot)));
+        List<FilaComunidad> comunidades = new ArrayList<>(fichas.values());
+        comunidades.sort(Comparator.comparing(FilaComunidad::getId));
+        return comunidades;
+    }
+    
+    /**
+     * Devuelve una lista ordenada de propietarios por su código de la última comunidad procesada.
      * Si no hay comunidad cargada o no hay propietarios, devuelve una lista vacía.
      * 
      * @return Lista ordenada de propietarios
      */
     public List<Propietario> getPropietariosOrdenados() {
-        if (comunidadActual == null || comunidadActual.getPropietarios() == null) {
+        return getPropietariosOrdenados(getSnapshot(null));
+    }
+    
+    /**
+     * Devuelve una lista ordenada de propietarios por su código.
+     * La ordenación se hace una sola vez por versión y la lista devuelta es de solo lectura.
+     * Si el snapshot es null o no hay propietarios, devuelve una lista vacía.
+     * 
+     * @param snapshot Versión de la comunidad de la que obtener los propietarios
+     * @return Lista ordenada de propietarios
+     */
+    public List<Propietario> getPropietariosOrdenados(SnapshotComunidad snapshot) {
+        if (snapshot == null || snapshot.getComunidad().getPropietarios() == null) {
             return new ArrayList<>();
         }
-        
-        List<Propietario> propietariosOrdenados = new ArrayList<>(comunidadActual.getPropietarios());
-        propietariosOrdenados.sort(Comparator.comparing(Propietario::getCodigo));
-        return propietariosOrdenados;
+        return CuotasPropietarios.de(snapshot).getOrdenados();
+    }
+    
+    /**
+     * Obtiene las cuotas por zona de un único propietario sin construir las del resto.
+     * 
+     * @param comunidadId Código de la comunidad; si es null o vacío se usa la última procesada
+     * @param codigoPropietario Código del propietario
+     * @return Las cuotas por zona o null si la comunidad no está cargada o no tiene ese propietario
+     */
+    public Map<Zona, BigDecimal> getCuotasPropietario(String comunidadId, String codigoPropietario) {
+        SnapshotComunidad snapshot = getSnapshot(comunidadId);
+        return snapshot != null ? CuotasPropietarios.de(snapshot).cuotas(codigoPropietario) : null;
     }
     
     /**
@@ -0,0 +1,311 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.stereotype.Service;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Consultas paginadas sobre un snapshot de comunidad para la API JSON.
+ *
+ * Cada consulta recorre una secuencia de posiciones de la lista original (propiedades,
+ * propietarios o gastos) en el orden pedido, aplica los filtros y se detiene en cuanto
+ * tiene la página completa: nunca se construye la lista entera de resultados. Las
+ * ordenaciones distintas de la natural se calculan una sola vez por versión de la comunidad
+ * y se guardan con ella ({@link DerivadosComunidad#getOrdenaciones()}), igual que el índice de zonas.
+ *
+ * El cursor indica la versión de la comunidad y la siguiente posición de la secuencia; si
+ * entre dos páginas se publica otra versión, el cursor deja de ser válido.
+ */
+@Service
+public class ConsultaComunidad {
+
+    public static final int LIMITE_POR_DEFECTO = 100;
+    public static final int LIMITE_MAXIMO = 1000;
+
+    /**
+     * Datos generales de la comunidad del snapshot.
+     */
+    public FilaComunidad comunidad(SnapshotComunidad snapshot) {
+        Comunidad comunidad = snapshot.getComunidad();
+        return new FilaComunidad(comunidad.getId(), comunidad.getNombre(), comunidad.getPoblacion(),
+            comunidad.getAnioPresupuesto(), snapshot.getVersion(), tamano(comunidad.getPropiedades()), tamano(comunidad.getPropietarios()),
+            tamano(comunidad.getGastos()), porCodigo(comunidad.getTotalesPorZona()), comunidad.getTotalGeneral());
+    }
+
+    /**
+     * Zonas de la comunidad, en el orden de la comunidad. Son pocas, así que no se paginan.
+     */
+    public List<Zona> zonas(SnapshotComunidad snapshot) {
+        List<Zona> zonas = snapshot.getComunidad().getZonas();
+        return zonas != null ? zonas : List.of();
+    }
+
+    /**
+     * Página de propiedades.
+     *
+     * @param zonaId Solo las propiedades que participan en esta zona (opcional)
+     * @param tipo Solo las propiedades de este tipo: P, L o G (opcional)
+     * @param orden "natural" (orden del archivo, por defecto), "codigo", "metros" o "total"
+     * @param descendente Si se recorre el orden al revés
+     * @param cursor Cursor de la página anterior, o null para la primera
+     * @param limite Número máximo de elementos de la página
+     */
+    public Pagina<FilaPropiedad> propiedades(SnapshotComunidad snapshot, String zonaId, String tipo, String orden,
+                                             boolean descendente, String cursor, int limite) {
+        Comunidad comunidad = snapshot.getComunidad();
+        List<Propiedad> propiedades = comunidad.getPropiedades() != null ? comunidad.getPropiedades() : List.of();
+        Zona zona = zona(comunidad, zonaId);
+        String criterio = orden == null || orden.isEmpty() ? "natural" : orden;
+
+        int[] secuencia;
+        IntPredicate filtroZona;
+        if (zona != null && "natural".equals(criterio)) {
+            // Las posiciones de los miembros de la zona ya están en el orden de la comunidad
+            secuencia = snapshot.getDerivados().getOrdenaciones().computeIfAbsent(
+                ClaveOrdenacion.fija("propiedades:zona:" + zona.getId()), clave -> miembros(snapshot, zona));
+            filtroZona = posicion -> true;
+        } else {
+            secuencia = switch (criterio) {
+                case "natural" -> null;
+                case "codigo" -> ordenar(snapshot, ClaveOrdenacion.PROPIEDADES_CODIGO, propiedades.size(),
+                    Comparator.comparing(posicion -> propiedades.get(posicion).getCodigo()));
+                case "metros" -> ordenar(snapshot, ClaveOrdenacion.fija("propiedades:metros"), propiedades.size(),
+                    Comparator.comparingInt(posicion -> propiedades.get(posicion).getMetrosCuadrados()));
+                case "total" -> {
+                    BigDecimal[] totales = new BigDecimal[propiedades.size()];
+                    yield ordenar(snapshot, ClaveOrdenacion.porGastos("propiedades:total"), propiedades.size(), Comparator.comparing(posicion -> {
+                        if (totales[posicion] == null) {
+                            totales[posicion] = total(propiedades.get(posicion).getCuotas());
+                        }
+                        return totales[posicion];
+                    }));
+                }
+                default -> throw new IllegalArgumentException("Orden de propiedades no válido: " + orden);
+            };
+            filtroZona = zona == null ? posicion -> true : posicion -> {
+                Map<Zona, Integer> porcentajes = propiedades.get(posicion).getPorcentajesZona();
+                return porcentajes != null && porcentajes.containsKey(zona);
+            };
+        }
+        IntPredicate filtro = tipo == null || tipo.isEmpty() ? filtroZona
+            : filtroZona.and(posicion -> tipo.equals(propiedades.get(posicion).getTipo()));
+
+        return paginar(snapshot, propiedades.size(), secuencia, descendente, filtro,
+            posicion -> fila(propiedades.get(posicion)), cursor, limite);
+    }
+
+    /**
+     * Página de propietarios con sus cuotas sumadas.
+     *
+     * @param zonaId Solo los propietarios con cuota en esta zona (opcional)
+     * @param orden "codigo" (por defecto), "nombre" o "total"
+     * @param descendente Si se recorre el orden al revés
+     * @param cursor Cursor de la página anterior, o null para la primera
+     * @param limite Número máximo de elementos de la página
+     */
+    public Pagina<FilaPropietario> propietarios(SnapshotComunidad snapshot, String zonaId, String orden,
+                                                boolean descendente, String cursor, int limite) {
+        Comunidad comunidad = snapshot.getComunidad();
+        CuotasPropietarios cuotas = CuotasPropietarios.de(snapshot);
+        List<Propietario> propietarios = cuotas.getOrdenados();
+        Zona zona = zona(comunidad, zonaId);
+
+        int[] secuencia = switch (orden == null || orden.isEmpty() ? "codigo" : orden) {
+            case "codigo" -> null;
+            case "nombre" -> ordenar(snapshot, ClaveOrdenacion.fija("propietarios:nombre"), propietarios.size(),
+                Comparator.comparing(posicion -> propietarios.get(posicion).getNombre()));
+            case "total" -> ordenar(snapshot, ClaveOrdenacion.porGastos("propietarios:total"), propietarios.size(),
+                Comparator.comparing(posicion -> total(cuotas.cuotas(propietarios.get(posicion).getCodigo()))));
+            default -> throw new IllegalArgumentException("Orden de propietarios no válido: " + orden);
+        };
+        IntPredicate filtro = zona == null ? posicion -> true
+            : posicion -> cuotas.cuotas(propietarios.get(posicion).getCodigo()).containsKey(zona);
+
+        return paginar(snapshot, propietarios.size(), secuencia, descendente, filtro,
+            posicion -> fila(propietarios.get(posicion), cuotas.cuotas(propietarios.get(posicion).getCodigo())),
+            cursor, limite);
+    }
+
+    /**
+     * Cuotas de un único propietario, sin recorrer el resto.
+     *
+     * @return El propietario o null si no existe en la comunidad
+     */
+    public FilaPropietario propietario(SnapshotComunidad snapshot, String codigo) {
+        CuotasPropietarios cuotas = CuotasPropietarios.de(snapshot);
+        Propietario propietario = cuotas.propietario(codigo);
+        return propietario != null ? fila(propietario, cuotas.cuotas(codigo)) : null;
+    }
+
+    /**
+     * Página de gastos.
+     *
+     * @param zonaId Solo los gastos de esta zona (opcional)
+     * @param orden "natural" (orden del archivo, por defecto), "id" o "importe"
+     * @param descendente Si se recorre el orden al revés
+     * @param cursor Cursor de la página anterior, o null para la primera
+     * @param limite Número máximo de elementos de la página
+     */
+    public Pagina<FilaGasto> gastos(SnapshotComunidad snapshot, String zonaId, String orden,
+                                    boolean descendente, String cursor, int limite) {
+        Comunidad comunidad = snapshot.getComunidad();
+        List<Gasto> gastos = comunidad.getGastos() != null ? comunidad.getGastos() : List.of();
+        Zona zona = zona(comunidad, zonaId);
+
+        int[] secuencia = switch (orden == null || orden.isEmpty() ? "natural" : orden) {
+            case "natural" -> null;
+            case "id" -> ordenar(snapshot, ClaveOrdenacion.porGastos("gastos:id"), gastos.size(),
+                Comparator.comparing(posicion -> gastos.get(posicion).getId()));
+            case "importe" -> ordenar(snapshot, ClaveOrdenacion.porGastos("gastos:importe"), gastos.size(),
+                Comparator.comparing(posicion -> gastos.get(posicion).getImporte()));
+            default -> throw new IllegalArgumentException("Orden de gastos no válido: " + orden);
+        };
+        IntPredicate filtro = zona == null ? posicion -> true : posicion -> zona.equals(gastos.get(posicion).getZona());
+
+        return paginar(snapshot, gastos.size(), secuencia, descendente, filtro, posicion -> {
+            Gasto gasto = gastos.get(posicion);
+            return new FilaGasto(gasto.getId(), gasto.getDescripcion(), gasto.getImporte(),
+                gasto.getZona() != null ? gasto.getZona().getId() : null);
+        }, cursor, limite);
+    }
+
+    /**
+     * Recorre la secuencia desde el cursor y devuelve los primeros elementos que cumplen el
+     * filtro. Después de llenar la página se busca el siguiente elemento que lo cumple, para
+     * no devolver un cursor que lleve a una página vacía.
+     *
+     * @param tamano Número de elementos de la lista original
+     * @param secuencia Posiciones en el orden pedido, o null para el orden natural
+     */
+    private <T> Pagina<T> paginar(SnapshotComunidad snapshot, int tamano, int[] secuencia, boolean descendente,
+                                  IntPredicate filtro, IntFunction<T> fila, String cursor, int limite) {
+        if (limite < 1) {
+            throw new IllegalArgumentException("El límite debe ser al menos 1");
+        }
+        int maximo = Math.min(limite, LIMITE_MAXIMO);
+        int longitud = secuencia != null ? secuencia.length : tamano;
+        int indice = inicio(snapshot, cursor, longitud);
+
+        List<T> elementos = new ArrayList<>(Math.min(maximo, longitud - indice));
+        for (; indice < longitud; indice++) {
+            int paso = descendente ? longitud - 1 - indice : indice;
+            int posicion = secuencia != null ? secuencia[paso] : paso;
+            if (filtro.test(posicion)) {
+                if (elementos.size() == maximo) {
+                    break;
+                }
+                elementos.add(fila.apply(posicion));
+            }
+        }
+        String siguiente = indice < longitud ? codificarCursor(snapshot.getVersion(), indice) : null;
+        return new Pagina<>(snapshot.getId(), snapshot.getVersion(), elementos, siguiente);
+    }
+
+    private static int inicio(SnapshotComunidad snapshot, String cursor, int longitud) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        long version;
+        int indice;
+        try {
+            String texto = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int separador = texto.indexOf(':');
+            version = Long.parseLong(texto.substring(0, separador));
+            indice = Integer.parseInt(texto.substring(separador + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor no válido");
+        }
+        if (version != snapshot.getVersion()) {
+            throw new VersionCambiadaException("La comunidad ha cambiado desde la página anterior; vuelva a empezar sin cursor");
+        }
+        if (indice < 0 || indice > longitud) {
+            throw new IllegalArgumentException("Cursor no válido");
+        }
+        return indice;
+    }
+
+    private static String codificarCursor(long version, int indice) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((version + ":" + indice).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Devuelve las posiciones ordenadas según el comparador, calculándolas la primera vez.
+     * La ordenación es estable: a igualdad, se mantiene el orden natural.
+     */
+    private static int[] ordenar(SnapshotComunidad snapshot, ClaveOrdenacion clave, int tamano, Comparator<Integer> comparador) {
+        return snapshot.getDerivados().getOrdenaciones().computeIfAbsent(clave, c -> IntStream.range(0, tamano)
+            .boxed()
+            .sorted(comparador)
+            .mapToInt(Integer::intValue)
+            .toArray());
+    }
+
+    private static int[] miembros(SnapshotComunidad snapshot, Zona zona) {
+        IndiceZonas.MiembrosZona miembros = IndiceZonas.de(snapshot).miembros(zona);
+        if (miembros == null) {
+            return new int[0];
+        }
+        int[] posiciones = new int[miembros.size()];
+        for (int i = 0; i < posiciones.length; i++) {
+            posiciones[i] = miembros.posicion(i);
+        }
+        return posiciones;
+    }
+
+    private static Zona zona(Comunidad comunidad, String zonaId) {
+        if (zonaId == null || zonaId.isEmpty()) {
+            return null;
+        }
+        return comunidad.getZonas().stream()
+            .filter(zona -> zona.getId().equals(zonaId))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("La zona " + zonaId + " no existe en la comunidad"));
+    }
+
+    private static FilaPropiedad fila(Propiedad propiedad) {
+        Map<String, Integer> porcentajes = new LinkedHashMap<>();
+        if (propiedad.getPorcentajesZona() != null) {
+            propiedad.getPorcentajesZona().forEach((zona, porcentaje) -> porcentajes.put(zona.getId(), porcentaje));
+        }
+        return new FilaPropiedad(propiedad.getCodigo(), propiedad.getTipo(), propiedad.getMetrosCuadrados(),
+            propiedad.getPropietario() != null ? propiedad.getPropietario().getCodigo() : null,
+            propiedad.getInfoAdicional(), porcentajes, porCodigo(propiedad.getCuotas()), total(propiedad.getCuotas()));
+    }
+
+    private static FilaPropietario fila(Propietario propietario, Map<Zona, BigDecimal> cuotas) {
+        List<String> propiedades = new ArrayList<>();
+        if (propietario.getPropiedades() != null) {
+            propietario.getPropiedades().forEach(propiedad -> propiedades.add(propiedad.getCodigo()));
+        }
+        return new FilaPropietario(propietario.getCodigo(), propietario.getNombre(), propietario.getDireccion(),
+            propietario.getEmail(), propiedades, porCodigo(cuotas), total(cuotas));
+    }
+
+    private static Map<String, BigDecimal> porCodigo(Map<Zona, BigDecimal> importes) {
+        Map<String, BigDecimal> porCodigo = new LinkedHashMap<>();
+        if (importes != null) {
+            importes.forEach((zona, importe) -> porCodigo.put(zona.getId(), importe));
+        }
+        return porCodigo;
+    }
+
+    private static BigDecimal total(Map<Zona, BigDecimal> cuotas) {
+        BigDecimal total = BigDecimal.ZERO;
+        if (cuotas != null) {
+            for (BigDecimal cuota : cuotas.values()) {
+                total = total.add(cuota);
+            }
+        }
+        return total;
+    }
+
+    private static int tamano(List<?> lista) {
+        return lista != null ? lista.size() : 0;
+    }
+}
@@ -0,0 +1,354 @@
+package net.elpuig.comunidad.service;
+
+import jakarta.annotation.PreDestroy;
+import net.elpuig.comunidad.model.PresupuestoAnual;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.HistorialBinario;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Presupuestos de todos los años de cada comunidad. Cada vez que se publica una versión de
+ * una comunidad cuyo archivo de gastos indica el año, su resultado ya calculado
+ * ({@link PresupuestoAnual}) sustituye al de ese año; el resto de años se conservan. Las
+ * comparaciones entre años se hacen sobre estos resultados, sin volver a calcular nada.
+ *
+ * Las versiones que salen de cambiar un gasto se registran en segundo plano con
+ * {@link #registrarEnSegundoPlano}: mientras una comunidad espera, cada versión nueva sustituye
+ * a la pendiente, de modo que una ráfaga de cambios obtiene el presupuesto del año una sola
+ * vez, con la última.
+ *
+ * Si hay directorio de snapshots configurado, cada presupuesto se añade también al final del
+ * historial en disco de su comunidad ({@link HistorialBinario}), siempre en segundo plano, y
+ * los historiales se vuelven a cargar al arrancar. Los historiales se conservan aunque la
+ * comunidad deje de estar cargada.
+ */
+@Component
+public class HistorialPresupuestos {
+
+    private static final Logger log = LoggerFactory.getLogger(HistorialPresupuestos.class);
+
+    private static final int CERROJOS = 64;
+
+    @Autowired
+    private HistorialBinario historialBinario;
+
+    /** Directorio donde se guardan los historiales; vacío = solo en memoria */
+    @Value("${comunidad.snapshots.directorio:}")
+    private String directorio;
+
+    /** Registros sustituidos que se toleran en disco antes de reescribir el historial */
+    private static final int MARGEN_COMPACTACION = 4;
+
+    /**
+     * Último presupuesto de cada año de cada comunidad. Cada mapa es de solo lectura y se
+     * sustituye entero en cada cambio, así que las consultas lo leen sin bloqueos.
+     */
+    private final ConcurrentHashMap<String, NavigableMap<Integer, PresupuestoAnual>> historiales = new ConcurrentHashMap<>();
+
+    /** Estado del archivo en disco de cada comunidad; solo se modifica con su cerrojo */
+    private final ConcurrentHashMap<String, Disco> discos = new ConcurrentHashMap<>();
+
+    /** Cerrojos de escritura repartidos por código de comunidad */
+    private final Lock[] cerrojos = crearCerrojos();
+
+    /** Trabajo pendiente de cada comunidad; hay una tarea en cola por cada una */
+    private final ConcurrentHashMap<String, Pendiente> pendientes = new ConcurrentHashMap<>();
+    private final ExecutorService escritor =
+        Executors.newSingleThreadExecutor(Thread.ofPlatform().name("historial-", 1).daemon(true).factory());
+
+    /**
+     * Archivo de historial de una comunidad tal como está en disco.
+     *
+     * @param versiones Versión guardada de cada año
+     * @param registros Registros del archivo, incluidos los sustituidos
+     * @param longitud Longitud válida del archivo, o -1 si no se ha leído
+     */
+    private record Disco(Map<Integer, Long> versiones, int registros, long longitud) {
+        static final Disco NINGUNO = new Disco(Map.of(), 0, -1);
+    }
+
+    /**
+     * @param snapshot Versión cuyo presupuesto falta por obtener, o null si solo hay que guardar
+     * @param alRegistrar Recibe los nanosegundos que ha tardado el registro
+     */
+    private record Pendiente(SnapshotComunidad snapshot, LongConsumer alRegistrar) {
+    }
+
+    public boolean isPersistente() {
+        return directorio != null && !directorio.isBlank();
+    }
+
+    /**
+     * Registra el presupuesto de una versión publicada, sustituyendo el de su año si es de
+     * una versión anterior. El presupuesto queda registrado en memoria al volver; en disco
+     * se guarda en segundo plano.
+     *
+     * @param snapshot Versión publicada de una comunidad ya calculada
+     * @return El presupuesto registrado, o null si la comunidad no indica el año
+     */
+    public PresupuestoAnual registrar(SnapshotComunidad snapshot) {
+        PresupuestoAnual presupuesto = PresupuestoAnual.de(snapshot);
+        if (presupuesto == null) {
+            return null;
+        }
+        if (anotar(presupuesto) && isPersistente()) {
+            programar(snapshot.getId(), new Pendiente(null, duracion -> { }));
+        }
+        return presupuesto;
+    }
+
+    /**
+     * Registra en segundo plano el presupuesto de una versión publicada. Si la comunidad ya
+     * espera a registrar otra versión, se registra solo la posterior de las dos. Un error se
+     * anota en el log: la versión sigue publicada y solo falta su año en las comparaciones.
+     *
+     * @param snapshot Versión publicada de una comunidad ya calculada
+     * @param alRegistrar Recibe los nanosegundos que ha tardado el registro, una vez hecho
+     */
+    public void registrarEnSegundoPlano(SnapshotComunidad snapshot, LongConsumer alRegistrar) {
+        if (snapshot.getComunidad().getAnioPresupuesto() == null) {
+            return;
+        }
+        programar(snapshot.getId(), new Pendiente(snapshot, alRegistrar));
+    }
+
+    private void programar(String id, Pendiente nueva) {
+        boolean[] programar = new boolean[1];
+        pendientes.compute(id, (clave, pendiente) -> {
+            if (pendiente == null) {
+                programar[0] = true;
+                return nueva;
+            }
+            // La que lleva snapshot también guarda en disco, así que gana a la que solo guarda
+            if (nueva.snapshot() == null) {
+                return pendiente;
+            }
+            return pendiente.snapshot() == null || nueva.snapshot().getVersion() > pendiente.snapshot().getVersion()
+                ? nueva : pendiente;
+        });
+        if (programar[0]) {
+            try {
+                escritor.execute(() -> procesarPendiente(id));
+            } catch (RejectedExecutionException e) {
+                // La aplicación se está parando: se procesa sin esperar al escritor
+                procesarPendiente(id);
+            }
+        }
+    }
+
+    private void procesarPendiente(String id) {
+        Pendiente pendiente = pendientes.remove(id);
+        if (pendiente == null) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            if (pendiente.snapshot() != null) {
+                PresupuestoAnual presupuesto = PresupuestoAnual.de(pendiente.snapshot());
+                if (presupuesto == null || !anotar(presupuesto)) {
+                    return;
+                }
+            }
+            guardar(id);
+            pendiente.alRegistrar().accept(System.nanoTime() - inicio);
+        } catch (IOException | RuntimeException e) {
+            log.warn("No se ha podido registrar el presupuesto de la comunidad {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Termina de registrar y guardar los presupuestos pendientes antes de parar la aplicación.
+     */
+    @PreDestroy
+    public void cerrar() throws InterruptedException {
+        escritor.shutdown();
+        if (!escritor.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("No se han terminado de registrar {} presupuestos pendientes", pendientes.size());
+        }
+    }
+
+    /**
+     * Pone el presupuesto en memoria si su año no tiene ya uno de la misma versión o posterior.
+     *
+     * @return Si se ha puesto
+     */
+    private boolean anotar(PresupuestoAnual presupuesto) {
+        boolean[] anotado = new boolean[1];
+        historiales.compute(presupuesto.getComunidad(), (id, actual) -> {
+            NavigableMap<Integer, PresupuestoAnual> porAnio = actual != null ? actual : Collections.emptyNavigableMap();
+            PresupuestoAnual anterior = porAnio.get(presupuesto.getAnio());
+            if (anterior != null && anterior.getVersion() >= presupuesto.getVersion()) {
+                return actual;
+            }
+            TreeMap<Integer, PresupuestoAnual> nuevo = new TreeMap<>(porAnio);
+            nuevo.put(presupuesto.getAnio(), presupuesto);
+            anotado[0] = true;
+            return Collections.unmodifiableNavigableMap(nuevo);
+        });
+        return anotado[0];
+    }
+
+    /**
+     * Añade al archivo de una comunidad los años que tienen en memoria una versión posterior
+     * a la guardada, y lo compacta cuando los registros sustituidos superan a los vigentes.
+     */
+    private void guardar(String id) throws IOException {
+        if (!isPersistente()) {
+            return;
+        }
+        Lock cerrojo = cerrojo(id);
+        cerrojo.lock();
+        try {
+            NavigableMap<Integer, PresupuestoAnual> porAnio = historiales.get(id);
+            if (porAnio == null) {
+                return;
+            }
+            Disco disco = discos.getOrDefault(id, Disco.NINGUNO);
+            Map<Integer, Long> versiones = new HashMap<>(disco.versiones());
+            int registros = disco.registros();
+            long longitud = disco.longitud();
+            Path fichero = fichero(id);
+            Files.createDirectories(base());
+            for (PresupuestoAnual presupuesto : porAnio.values()) {
+                Long guardada = versiones.get(presupuesto.getAnio());
+                if (guardada == null || guardada < presupuesto.getVersion()) {
+                    longitud = historialBinario.anadir(presupuesto, fichero, longitud);
+                    registros++;
+                    versiones.put(presupuesto.getAnio(), presupuesto.getVersion());
+                }
+            }
+            if (registros > 2 * porAnio.size() + MARGEN_COMPACTACION) {
+                longitud = historialBinario.reescribir(porAnio.values(), fichero);
+                registros = porAnio.size();
+            }
+            discos.put(id, new Disco(Map.copyOf(versiones), registros, longitud));
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Indica si ya hay un presupuesto registrado para el año de la comunidad.
+     */
+    public boolean contiene(String id, int anio) {
+        NavigableMap<Integer, PresupuestoAnual> porAnio = historiales.get(id);
+        return porAnio != null && porAnio.containsKey(anio);
+    }
+
+    /**
+     * Presupuestos de una comunidad, ordenados por año.
+     *
+     * @param id Código de la comunidad
+     * @return Los presupuestos, o una lista vacía si no hay ninguno
+     */
+    public List<PresupuestoAnual> presupuestos(String id) {
+        NavigableMap<Integer, PresupuestoAnual> porAnio = id != null ? historiales.get(id) : null;
+        return porAnio != null ? List.copyOf(porAnio.values()) : List.of();
+    }
+
+    /**
+     * Presupuesto de un año de una comunidad.
+     *
+     * @return El presupuesto o null si no está registrado
+     */
+    public PresupuestoAnual presupuesto(String id, int anio) {
+        NavigableMap<Integer, PresupuestoAnual> porAnio = id != null ? historiales.get(id) : null;
+        return porAnio != null ? porAnio.get(anio) : null;
+    }
+
+    /**
+     * Carga los historiales guardados en disco. Si un archivo termina en un registro
+     * incompleto o contiene años sustituidos, se reescribe solo con el último presupuesto
+     * de cada año.
+     *
+     * @param errores Lista donde añadir un mensaje por cada archivo dañado o no válido
+     * @throws IOException Si no se puede listar el directorio
+     */
+    public void cargar(List<String> errores) throws IOException {
+        if (!isPersistente() || !Files.isDirectory(base())) {
+            return;
+        }
+        List<Path> ficheros;
+        try (Stream<Path> contenido = Files.list(base())) {
+            ficheros = contenido
+                .filter(f -> f.getFileName().toString().endsWith(HistorialBinario.EXTENSION))
+                .toList();
+        }
+        for (Path fichero : ficheros) {
+            String nombre = fichero.getFileName().toString();
+            String id = URLDecoder.decode(nombre.substring(0, nombre.length() - HistorialBinario.EXTENSION.length()),
+                StandardCharsets.UTF_8);
+            Lock cerrojo = cerrojo(id);
+            cerrojo.lock();
+            try {
+                HistorialBinario.Contenido contenido = historialBinario.leer(fichero, id);
+                if (contenido.danado()) {
+                    errores.add(nombre + ": se descartan los datos que siguen al último registro completo");
+                }
+                TreeMap<Integer, PresupuestoAnual> leidos = new TreeMap<>();
+                contenido.presupuestos().forEach(presupuesto -> leidos.put(presupuesto.getAnio(), presupuesto));
+                boolean[] registradosAntes = new boolean[1];
+                NavigableMap<Integer, PresupuestoAnual> porAnio = historiales.compute(id, (clave, actual) -> {
+                    TreeMap<Integer, PresupuestoAnual> nuevo = new TreeMap<>(leidos);
+                    if (actual != null) {
+                        // Lo registrado desde el arranque es más reciente que lo guardado
+                        nuevo.putAll(actual);
+                        registradosAntes[0] = true;
+                    }
+                    return Collections.unmodifiableNavigableMap(nuevo);
+                });
+                boolean reescribir = registradosAntes[0] || contenido.danado()
+                    || contenido.registros() > porAnio.size();
+                long longitud = reescribir
+                    ? historialBinario.reescribir(porAnio.values(), fichero) : contenido.longitudValida();
+                Map<Integer, Long> versiones = new HashMap<>();
+                porAnio.values().forEach(presupuesto -> versiones.put(presupuesto.getAnio(), presupuesto.getVersion()));
+                discos.put(id, new Disco(Map.copyOf(versiones), reescribir ? porAnio.size() : contenido.registros(), longitud));
+            } catch (IOException | IllegalArgumentException e) {
+                errores.add(nombre + ": " + e.getMessage());
+            } finally {
+                cerrojo.unlock();
+            }
+        }
+    }
+
+    private static Lock[] crearCerrojos() {
+        Lock[] cerrojos = new Lock[CERROJOS];
+        Arrays.setAll(cerrojos, i -> new ReentrantLock());
+        return cerrojos;
+    }
+
+    private Lock cerrojo(String id) {
+        return cerrojos[Math.floorMod(id.hashCode(), CERROJOS)];
+    }
+
+    private Path base() {
+        return Paths.get(directorio);
+    }
+
+    /** El código se codifica para que cualquier carácter sea válido en un nombre de fichero */
+    private Path fichero(String id) {
+        return base().resolve(URLEncoder.encode(id, StandardCharsets.UTF_8) + HistorialBinario.EXTENSION);
+    }
+}
@@ -0,0 +1,223 @@
+package net.elpuig.comunidad.service;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import net.elpuig.comunidad.model.Comunidad;
+import org.springframework.stereotype.Component;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Métricas de dominio de la aplicación, publicadas en el {@link MeterRegistry} de Spring Boot
+ * y expuestas por los endpoints {@code /actuator/metrics} y {@code /actuator/prometheus}:
+ * <ul>
+ *   <li>{@code comunidad.procesado.fase}: duración de cada fase del procesado (etiqueta {@code fase}),
+ *       incluida la lectura de disco de una comunidad guardada que no estaba en memoria
+ *       ({@code carga_snapshot}).</li>
+ *   <li>{@code comunidad.archivo.bytes} y {@code comunidad.archivo.lineas}: tamaño de los archivos
+ *       subidos y líneas de datos leídas (etiqueta {@code archivo}).</li>
+ *   <li>{@code comunidad.procesado.elementos}: propiedades, propietarios, zonas y gastos de
+ *       cada comunidad procesada, como distribución y como contador acumulado
+ *       ({@code comunidad.procesado.acumulado}).</li>
+ *   <li>{@code comunidad.vista.renderizado}: duración del renderizado de cada plantilla, y
+ *       {@code comunidad.vista.cache}: peticiones de las vistas de consulta servidas desde la
+ *       caché de páginas o renderizadas (etiquetas {@code vista} y {@code resultado}).</li>
+ *   <li>{@code comunidad.registro.comunidades} y {@code comunidad.registro.bytes}: comunidades
+ *       cargadas y su memoria estimada, y {@code comunidad.almacen.comunidades}: comunidades
+ *       guardadas en disco.</li>
+ *   <li>{@code comunidad.simulacion}: duración de cada petición de simulación de escenarios,
+ *       y {@code comunidad.simulacion.escenarios}: escenarios simulados.</li>
+ *   <li>{@code comunidad.trabajos.pendientes}: trabajos en segundo plano en cola y en curso
+ *       (etiqueta {@code estado}), y {@code comunidad.trabajos.rechazados}: subidas rechazadas
+ *       por tener la cola llena.</li>
+ * </ul>
+ * Los temporizadores publican histograma para poder calcular percentiles en Prometheus.
+ */
+@Component
+public class MetricasComunidad {
+
+    public static final String FASE_PARSEO_COMUNIDAD = "parseo_comunidad";
+    public static final String FASE_PARSEO_GASTOS = "parseo_gastos";
+    public static final String FASE_CALCULO_CUOTAS = "calculo_cuotas";
+    public static final String FASE_RESUMEN = "resumen";
+    public static final String FASE_PUBLICACION = "publicacion";
+    public static final String FASE_SNAPSHOT = "snapshot";
+    public static final String FASE_HISTORIAL = "historial";
+    public static final String FASE_CARGA = "carga_snapshot";
+
+    public static final String ARCHIVO_COMUNIDAD = "comunidad";
+    public static final String ARCHIVO_GASTOS = "gastos";
+
+    private static final List<String> FASES = List.of(FASE_PARSEO_COMUNIDAD, FASE_PARSEO_GASTOS,
+        FASE_CALCULO_CUOTAS, FASE_RESUMEN, FASE_PUBLICACION, FASE_SNAPSHOT, FASE_HISTORIAL, FASE_CARGA);
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> fases = new ConcurrentHashMap<>();
+    private final Map<String, Timer> vistas = new ConcurrentHashMap<>();
+
+    public MetricasComunidad(MeterRegistry registry, RegistroComunidades registroComunidades,
+                             AlmacenSnapshots almacenSnapshots) {
+        this.registry = registry;
+        // Las fases se registran desde el arranque para que aparezcan aunque no se haya procesado nada
+        FASES.forEach(this::fase);
+        Gauge.builder("comunidad.registro.comunidades", registroComunidades, RegistroComunidades::size)
+            .description("Comunidades cargadas en el registro")
+            .register(registry);
+        Gauge.builder("comunidad.registro.bytes", registroComunidades, RegistroComunidades::getBytesEstimados)
+            .description("Memoria estimada de las comunidades cargadas")
+            .baseUnit(BaseUnits.BYTES)
+            .register(registry);
+        Gauge.builder("comunidad.almacen.comunidades", almacenSnapshots, AlmacenSnapshots::size)
+            .description("Comunidades guardadas en disco")
+            .register(registry);
+    }
+
+    /**
+     * Registra la duración de una fase del procesado.
+     *
+     * @param fase Una de las constantes FASE_*
+     * @param nanos Duración en nanosegundos
+     */
+    public void registrarFase(String fase, long nanos) {
+        fase(fase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registra el tamaño de un archivo subido.
+     *
+     * @param archivo {@link #ARCHIVO_COMUNIDAD} o {@link #ARCHIVO_GASTOS}
+     * @param bytes Tamaño en bytes
+     */
+    public void registrarArchivo(String archivo, long bytes) {
+        DistributionSummary.builder("comunidad.archivo.bytes")
+            .description("Tamaño de los archivos procesados")
+            .baseUnit(BaseUnits.BYTES)
+            .tag("archivo", archivo)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(bytes);
+    }
+
+    /**
+     * Suma las líneas de datos leídas de un archivo: en el de comunidad, la de la comunidad
+     * y una por zona, propietario y propiedad; en el de gastos, una por gasto.
+     */
+    public void registrarLineas(String archivo, long lineas) {
+        Counter.builder("comunidad.archivo.lineas")
+            .description("Líneas de datos leídas de los archivos")
+            .tag("archivo", archivo)
+            .register(registry)
+            .increment(lineas);
+    }
+
+    /**
+     * Registra el tamaño de una comunidad procesada.
+     */
+    public void registrarComunidad(Comunidad comunidad) {
+        elementos("propiedades", tamano(comunidad.getPropiedades()));
+        elementos("propietarios", tamano(comunidad.getPropietarios()));
+        elementos("zonas", tamano(comunidad.getZonas()));
+        elementos("gastos", tamano(comunidad.getGastos()));
+    }
+
+    /**
+     * Registra la duración del renderizado de una vista.
+     *
+     * @param vista Nombre de la plantilla
+     * @param nanos Duración en nanosegundos
+     */
+    public void registrarRenderizado(String vista, long nanos) {
+        vistas.computeIfAbsent(vista, v -> Timer.builder("comunidad.vista.renderizado")
+                .description("Renderizado de las plantillas")
+                .tag("vista", v)
+                .publishPercentileHistogram()
+                .register(registry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cuenta una petición de una vista de consulta según se haya servido desde la caché de
+     * páginas (incluidas las revalidaciones con 304) o haya habido que renderizarla.
+     *
+     * @param vista Nombre de la plantilla
+     * @param acierto Si la página ya estaba en la caché
+     */
+    public void registrarPaginaCacheada(String vista, boolean acierto) {
+        Counter.builder("comunidad.vista.cache")
+            .description("Peticiones de las vistas de consulta según la caché de páginas")
+            .tag("vista", vista)
+            .tag("resultado", acierto ? "acierto" : "fallo")
+            .register(registry)
+            .increment();
+    }
+
+    /**
+     * Registra una petición de simulación de escenarios.
+     *
+     * @param escenarios Número de escenarios simulados
+     * @param nanos Duración en nanosegundos
+     */
+    public void registrarSimulacion(int escenarios, long nanos) {
+        Timer.builder("comunidad.simulacion")
+            .description("Simulación de escenarios de gastos")
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+        Counter.builder("comunidad.simulacion.escenarios")
+            .description("Escenarios de gastos simulados")
+            .register(registry)
+            .increment(escenarios);
+    }
+
+    /**
+     * Publica el número de trabajos en cola y en curso de la cola de procesado.
+     */
+    public void registrarColaProcesado(ColaProcesado cola) {
+        Gauge.builder("comunidad.trabajos.pendientes", cola, ColaProcesado::enCola)
+            .description("Trabajos de procesado en segundo plano pendientes")
+            .tag("estado", "en_cola")
+            .register(registry);
+        Gauge.builder("comunidad.trabajos.pendientes", cola, ColaProcesado::enCurso)
+            .description("Trabajos de procesado en segundo plano pendientes")
+            .tag("estado", "procesando")
+            .register(registry);
+    }
+
+    /**
+     * Cuenta una subida rechazada por tener la cola de procesado llena.
+     */
+    public void registrarTrabajoRechazado() {
+        Counter.builder("comunidad.trabajos.rechazados")
+            .description("Subidas rechazadas por tener la cola de procesado llena")
+            .register(registry)
+            .increment();
+    }
+
+    private Timer fase(String fase) {
+        return fases.computeIfAbsent(fase, f -> Timer.builder("comunidad.procesado.fase")
+            .description("Duración de cada fase del procesado de una comunidad")
+            .tag("fase", f)
+            .publishPercentileHistogram()
+            .register(registry));
+    }
+
+    private void elementos(String tipo, int numero) {
+        DistributionSummary.builder("comunidad.procesado.elementos")
+            .description("Elementos de cada comunidad procesada")
+            .tag("tipo", tipo)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(numero);
+        Counter.builder("comunidad.procesado.acumulado")
+            .description("Elementos procesados en total")
+            .tag("tipo", tipo)
+            .register(registry)
+            .increment(numero);
+    }
+
+    private static int tamano(List<?> lista) {
+        return lista != null ? lista.size() : 0;
+    }
+}
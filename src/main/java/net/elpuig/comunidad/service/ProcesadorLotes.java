@@ -0,0 +1,439 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Servicio que procesa en lote muchas parejas de archivos comunidad/gastos.
+ * Las parejas se leen de un ZIP (sin descomprimirlo a disco: cada archivo se lee
+ * directamente de su entrada) o de un directorio del servidor, y se parsean y calculan
+ * en paralelo en hilos virtuales, con un máximo de parejas simultáneas. Cada comunidad
+ * correcta se publica en el registro; un archivo erróneo solo afecta a su pareja.
+ *
+ * El tipo de cada archivo se decide por su primera línea ({@code #Comunidad}/{@code #Comunitat}
+ * o {@code #Presupuesto}/{@code #Pressupost}), no por su nombre; el nombre solo sirve para
+ * emparejarlos. Los archivos que no son de ningún tipo o que se quedan sin pareja aparecen en
+ * el informe como fallidos. Las entradas de un ZIP se leen con un límite de tamaño
+ * descomprimido por entrada y otro para todo el ZIP.
+ */
+@Service
+public class ProcesadorLotes {
+
+    /** Bytes del principio de cada archivo en los que se busca su cabecera */
+    private static final int MAX_CABECERA = 1024;
+
+    /** Partes del nombre que indican el tipo de archivo; se eliminan para emparejar */
+    private static final Pattern TIPO_EN_NOMBRE =
+        Pattern.compile("comunidad|comunitat|comundad|comun|gastos|gasto|despeses|despesa|despes|gast");
+
+    @Autowired
+    private ComunidadService comunidadService;
+
+    /** Máximo de parejas procesadas a la vez (0 = número de procesadores) */
+    @Value("${comunidad.lotes.paralelismo:0}")
+    private int paralelismo;
+
+    /** Directorio del servidor bajo el que se permiten lotes; vacío = deshabilitado */
+    @Value("${comunidad.lotes.directorio-base:}")
+    private String directorioBase;
+
+    /** Tamaño descomprimido máximo de cada entrada de un ZIP, en bytes */
+    @Value("${comunidad.lotes.max-bytes-entrada:268435456}")
+    private long maxBytesEntrada = 268_435_456L;
+
+    /** Tamaño descomprimido máximo de todas las entradas de un ZIP juntas, en bytes */
+    @Value("${comunidad.lotes.max-bytes-total:2147483648}")
+    private long maxBytesTotal = 2_147_483_648L;
+
+    /** Tipo de archivo según su cabecera */
+    private enum Tipo {
+        COMUNIDAD, GASTOS
+    }
+
+    /** Archivo de un lote: ruta relativa y forma de abrir su contenido */
+    private record Archivo(String ruta, Abridor abridor) {
+    }
+
+    @FunctionalInterface
+    private interface Abridor {
+        InputStream abrir() throws IOException;
+    }
+
+    private record Pareja(String clave, Archivo comunidad, Archivo gastos) {
+    }
+
+    /**
+     * Indica si un nombre de archivo corresponde a un archivo de comunidad. Sirve para
+     * comprobar los archivos subidos por separado; en los lotes manda la cabecera.
+     */
+    public static boolean esArchivoComunidad(String nombre) {
+        return nombre != null && nombre.toLowerCase().contains("comun");
+    }
+
+    /**
+     * Indica si un nombre de archivo corresponde a un archivo de gastos.
+     */
+    public static boolean esArchivoGastos(String nombre) {
+        return nombre != null && (nombre.toLowerCase().contains("gast") || nombre.toLowerCase().contains("despes"));
+    }
+
+    /**
+     * Procesa un ZIP subido con parejas de archivos de comunidad y gastos.
+     * El ZIP se guarda comprimido en un archivo temporal para poder leer sus entradas
+     * en paralelo, y se borra al terminar.
+     *
+     * @param zip Archivo ZIP subido
+     * @return Informe con el resultado de cada pareja
+     * @throws IOException Si el ZIP no se puede leer
+     */
+    public InformeLote procesarZip(MultipartFile zip) throws IOException {
+        Path temporal = Files.createTempFile("lote-comunidades", ".zip");
+        try {
+            zip.transferTo(temporal);
+            return procesarZip(temporal, zip.getOriginalFilename());
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Procesa un ZIP del sistema de archivos.
+     *
+     * @param zip Ruta del ZIP
+     * @param origen Nombre a mostrar en el informe
+     * @return Informe con el resultado de cada pareja
+     * @throws IOException Si el ZIP no se puede leer
+     * @throws IllegalArgumentException Si los tamaños que declaran sus entradas superan el máximo total
+     */
+    public InformeLote procesarZip(Path zip, String origen) throws IOException {
+        try (ZipFile archivoZip = new ZipFile(zip.toFile())) {
+            List<Archivo> archivos = new ArrayList<>();
+            List<ResultadoLote> rechazados = new ArrayList<>();
+            // Los tamaños declarados permiten rechazar pronto; los bytes leídos se cuentan
+            // igualmente, ya que una entrada puede declarar un tamaño falso
+            AtomicLong leidos = new AtomicLong();
+            long declarados = 0;
+            Enumeration<? extends ZipEntry> entradas = archivoZip.entries();
+            while (entradas.hasMoreElements()) {
+                ZipEntry entrada = entradas.nextElement();
+                if (entrada.isDirectory() || entrada.getName().startsWith("__MACOSX/")) {
+                    continue;
+                }
+                if (entrada.getSize() > maxBytesEntrada) {
+                    rechazados.add(fallo(entrada.getName(), null, null, excedida(entrada.getName())));
+                    continue;
+                }
+                declarados += Math.max(entrada.getSize(), 0);
+                if (declarados > maxBytesTotal) {
+                    throw new IllegalArgumentException("El ZIP supera el tamaño descomprimido máximo de "
+                        + maxBytesTotal + " bytes");
+                }
+                archivos.add(new Archivo(entrada.getName(), () -> new EntradaLimitada(
+                    archivoZip.getInputStream(entrada), entrada.getName(), leidos)));
+            }
+            return procesar(origen, archivos, rechazados);
+        }
+    }
+
+    /**
+     * Procesa todas las parejas de archivos de un directorio del servidor.
+     * El directorio debe estar dentro de {@code comunidad.lotes.directorio-base}.
+     *
+     * @param directorio Ruta del directorio, relativa al directorio base o absoluta dentro de él
+     * @return Informe con el resultado de cada pareja
+     * @throws IOException Si el directorio no se puede recorrer
+     * @throws IllegalArgumentException Si los lotes por directorio están deshabilitados o la ruta no es válida
+     */
+    public InformeLote procesarDirectorio(String directorio) throws IOException {
+        if (directorioBase == null || directorioBase.isBlank()) {
+            throw new IllegalArgumentException("El procesado de directorios del servidor no está habilitado");
+        }
+        Path base = Paths.get(directorioBase).toAbsolutePath().normalize();
+        Path raiz = base.resolve(directorio).toAbsolutePath().normalize();
+        if (!raiz.startsWith(base) || !Files.isDirectory(raiz)) {
+            throw new IllegalArgumentException("El directorio " + directorio + " no es válido");
+        }
+        List<Archivo> archivos = new ArrayList<>();
+        try (Stream<Path> rutas = Files.walk(raiz)) {
+            rutas.filter(Files::isRegularFile).sorted().forEach(ruta -> archivos.add(new Archivo(
+                raiz.relativize(ruta).toString().replace('\\', '/'),
+                // Con un FileInputStream el parser lee directamente del canal del fichero
+                () -> new FileInputStream(ruta.toFile()))));
+        }
+        return procesar(directorio, archivos, List.of());
+    }
+
+    private InformeLote procesar(String origen, List<Archivo> archivos, List<ResultadoLote> rechazados) {
+        long inicio = System.nanoTime();
+        List<ResultadoLote> resultados = new ArrayList<>(rechazados);
+        List<Pareja> parejas = emparejar(archivos, resultados);
+
+        int maximo = paralelismo > 0 ? paralelismo : Runtime.getRuntime().availableProcessors();
+        Semaphore permisos = new Semaphore(maximo);
+        List<Future<ResultadoLote>> pendientes = new ArrayList<>();
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Pareja pareja : parejas) {
+                pendientes.add(ejecutor.submit(() -> {
+                    permisos.acquire();
+                    try {
+                        return procesarPareja(pareja);
+                    } finally {
+                        permisos.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < pendientes.size(); i++) {
+                resultados.add(esperar(pendientes.get(i), parejas.get(i)));
+            }
+        }
+
+        resultados.sort(Comparator.comparing(ResultadoLote::getClave));
+        InformeLote informe = new InformeLote();
+        informe.setOrigen(origen);
+        informe.setResultados(resultados);
+        informe.setCorrectos((int) resultados.stream().filter(ResultadoLote::isCorrecto).count());
+        informe.setFallidos(resultados.size() - informe.getCorrectos());
+        informe.setMsTotal((System.nanoTime() - inicio) / 1_000_000);
+        return informe;
+    }
+
+    private ResultadoLote esperar(Future<ResultadoLote> futuro, Pareja pareja) {
+        try {
+            return futuro.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallo(pareja.clave(), pareja.comunidad(), pareja.gastos(), "Procesado interrumpido");
+        } catch (ExecutionException e) {
+            return fallo(pareja.clave(), pareja.comunidad(), pareja.gastos(), mensaje(e.getCause()));
+        }
+    }
+
+    /**
+     * Parsea, calcula y publica una pareja. Cualquier error queda recogido en el resultado.
+     */
+    private ResultadoLote procesarPareja(Pareja pareja) {
+        ResultadoLote resultado = nuevoResultado(pareja.clave(), pareja.comunidad(), pareja.gastos());
+        try {
+            long inicio = System.nanoTime();
+            Comunidad comunidad;
+            try (InputStream comunidadInput = pareja.comunidad().abridor().abrir();
+                 InputStream gastosInput = pareja.gastos().abridor().abrir()) {
+                comunidad = comunidadService.parsearArchivos(comunidadInput, gastosInput);
+            }
+            long parseado = System.nanoTime();
+            comunidadService.calcularYPublicar(comunidad);
+            long calculado = System.nanoTime();
+
+            resultado.setComunidadId(comunidad.getId());
+            resultado.setComunidadNombre(comunidad.getNombre());
+            resultado.setPropiedades(comunidad.getPropiedades().size());
+            resultado.setGastos(comunidad.getGastos().size());
+            resultado.setMsParseo((parseado - inicio) / 1_000_000);
+            resultado.setMsCalculo((calculado - parseado) / 1_000_000);
+            resultado.setCorrecto(true);
+        } catch (Exception e) {
+            resultado.setError(mensaje(e));
+        }
+        return resultado;
+    }
+
+    /**
+     * Agrupa los archivos en parejas comunidad/gastos según su cabecera. Si un directorio
+     * tiene un solo archivo de cada tipo forman pareja; si no, se emparejan por el nombre sin
+     * la parte que indica el tipo (p. ej. "edificio7_comunidad.txt" con "edificio7_gastos.txt").
+     * Los archivos que no se pueden clasificar y los que quedan sin pareja se añaden como
+     * resultados fallidos.
+     */
+    private List<Pareja> emparejar(List<Archivo> archivos, List<ResultadoLote> fallidos) {
+        Map<String, List<Archivo>> comunidadesPorDirectorio = new TreeMap<>();
+        Map<String, List<Archivo>> gastosPorDirectorio = new TreeMap<>();
+        for (Archivo archivo : archivos) {
+            Tipo tipo;
+            try {
+                tipo = tipo(archivo);
+            } catch (IOException e) {
+                fallidos.add(fallo(archivo.ruta(), null, null, mensaje(e)));
+                continue;
+            }
+            if (tipo == Tipo.GASTOS) {
+                gastosPorDirectorio.computeIfAbsent(directorio(archivo.ruta()), d -> new ArrayList<>()).add(archivo);
+            } else if (tipo == Tipo.COMUNIDAD) {
+                comunidadesPorDirectorio.computeIfAbsent(directorio(archivo.ruta()), d -> new ArrayList<>()).add(archivo);
+            } else {
+                fallidos.add(fallo(archivo.ruta(), null, null,
+                    "No empieza por #Comunidad, #Comunitat, #Presupuesto ni #Pressupost"));
+            }
+        }
+
+        List<Pareja> parejas = new ArrayList<>();
+        Set<String> directorios = new TreeSet<>(comunidadesPorDirectorio.keySet());
+        directorios.addAll(gastosPorDirectorio.keySet());
+        for (String directorio : directorios) {
+            List<Archivo> comunidades = comunidadesPorDirectorio.getOrDefault(directorio, List.of());
+            List<Archivo> gastos = gastosPorDirectorio.getOrDefault(directorio, List.of());
+            if (comunidades.size() == 1 && gastos.size() == 1) {
+                parejas.add(new Pareja(directorio.isEmpty() ? nombre(comunidades.get(0).ruta()) : directorio,
+                    comunidades.get(0), gastos.get(0)));
+                continue;
+            }
+            Map<String, Archivo> gastosPorClave = new HashMap<>();
+            for (Archivo archivo : gastos) {
+                gastosPorClave.put(clave(archivo.ruta()), archivo);
+            }
+            for (Archivo comunidad : comunidades) {
+                Archivo gasto = gastosPorClave.remove(clave(comunidad.ruta()));
+                if (gasto != null) {
+                    parejas.add(new Pareja(comunidad.ruta(), comunidad, gasto));
+                } else {
+                    fallidos.add(fallo(comunidad.ruta(), comunidad, null, "No se ha encontrado su archivo de gastos"));
+                }
+            }
+            for (Archivo gasto : gastosPorClave.values()) {
+                fallidos.add(fallo(gasto.ruta(), null, gasto, "No se ha encontrado su archivo de comunidad"));
+            }
+        }
+        return parejas;
+    }
+
+    /**
+     * Lee la primera línea no vacía del archivo, dentro de sus primeros {@value #MAX_CABECERA}
+     * bytes, para saber de qué tipo es.
+     *
+     * @return El tipo o null si la línea no es ninguna de las cabeceras
+     */
+    private static Tipo tipo(Archivo archivo) throws IOException {
+        byte[] inicio;
+        try (InputStream entrada = archivo.abridor().abrir()) {
+            inicio = entrada.readNBytes(MAX_CABECERA);
+        }
+        // Las cabeceras son ASCII: basta con leer los bytes tal cual, quitando la marca UTF-8
+        String texto = new String(inicio, StandardCharsets.ISO_8859_1);
+        if (texto.startsWith("\u00EF\u00BB\u00BF")) {
+            texto = texto.substring(3);
+        }
+        for (String linea : texto.split("[\r\n]")) {
+            linea = linea.strip();
+            if (linea.isEmpty()) {
+                continue;
+            }
+            if (linea.startsWith("#Comunidad") || linea.startsWith("#Comunitat")) {
+                return Tipo.COMUNIDAD;
+            }
+            if (linea.startsWith("#Presupuesto") || linea.startsWith("#Pressupost")) {
+                return Tipo.GASTOS;
+            }
+            return null;
+        }
+        return null;
+    }
+
+    private String excedida(String ruta) {
+        return "El archivo " + ruta + " supera el tamaño descomprimido máximo de " + maxBytesEntrada + " bytes";
+    }
+
+    private static String nombre(String ruta) {
+        return ruta.substring(ruta.lastIndexOf('/') + 1);
+    }
+
+    private static String directorio(String ruta) {
+        int barra = ruta.lastIndexOf('/');
+        return barra < 0 ? "" : ruta.substring(0, barra);
+    }
+
+    private static String clave(String ruta) {
+        String nombre = nombre(ruta).toLowerCase();
+        int punto = nombre.lastIndexOf('.');
+        if (punto > 0) {
+            nombre = nombre.substring(0, punto);
+        }
+        nombre = TIPO_EN_NOMBRE.matcher(nombre).replaceFirst("");
+        return directorio(ruta) + "/" + nombre.replaceAll("[^\\p{Alnum}]", "");
+    }
+
+    private static ResultadoLote nuevoResultado(String clave, Archivo comunidad, Archivo gastos) {
+        ResultadoLote resultado = new ResultadoLote();
+        resultado.setClave(clave);
+        resultado.setArchivoComunidad(comunidad != null ? comunidad.ruta() : null);
+        resultado.setArchivoGastos(gastos != null ? gastos.ruta() : null);
+        return resultado;
+    }
+
+    private static ResultadoLote fallo(String clave, Archivo comunidad, Archivo gastos, String error) {
+        ResultadoLote resultado = nuevoResultado(clave, comunidad, gastos);
+        resultado.setError(error);
+        return resultado;
+    }
+
+    private static String mensaje(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    /**
+     * Entrada de un ZIP que deja de leerse al pasar del máximo por entrada o del máximo del
+     * ZIP, sumando lo leído de todas sus entradas.
+     */
+    private final class EntradaLimitada extends FilterInputStream {
+        private final String ruta;
+        private final AtomicLong leidosZip;
+        private long leidos;
+
+        EntradaLimitada(InputStream entrada, String ruta, AtomicLong leidosZip) {
+            super(entrada);
+            this.ruta = ruta;
+            this.leidosZip = leidosZip;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                contar(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int desde, int longitud) throws IOException {
+            int n = super.read(b, desde, longitud);
+            if (n > 0) {
+                contar(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long saltados = super.skip(n);
+            contar(saltados);
+            return saltados;
+        }
+
+        private void contar(long n) throws IOException {
+            leidos += n;
+            if (leidos > maxBytesEntrada) {
+                throw new IOException(excedida(ruta));
+            }
+            if (leidosZip.addAndGet(n) > maxBytesTotal) {
+                throw new IOException("El ZIP supera el tamaño descomprimido máximo de " + maxBytesTotal + " bytes");
+            }
+        }
+    }
+}
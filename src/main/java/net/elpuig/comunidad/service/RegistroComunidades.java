@@ -0,0 +1,286 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.EstimadorMemoria;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registro concurrente de comunidades cargadas, indexado por el código de comunidad.
+ * Cada entrada guarda un {@link SnapshotComunidad} inmutable que se sustituye de forma
+ * atómica al publicar una nueva versión: los lectores nunca se bloquean ni ven una
+ * comunidad a medio calcular.
+ *
+ * El registro está limitado en número de comunidades y en memoria estimada; al superar
+ * cualquiera de los dos límites se descartan las comunidades usadas hace más tiempo (LRU).
+ * La memoria de cada comunidad incluye las páginas renderizadas que se guardan con su versión.
+ * Con el {@link AlmacenSnapshots} habilitado, solo se descartan las que ya están guardadas en
+ * disco: el registro es entonces la parte en memoria de un repositorio mayor, y una comunidad
+ * descartada se vuelve a cargar con {@link #publicarGuardada(DerivadosComunidad, long)} al pedirla.
+ */
+@Component
+public class RegistroComunidades {
+
+    /** Entrada del registro: snapshot publicado, momento del último acceso y páginas guardadas */
+    private static final class Entrada {
+        final SnapshotComunidad snapshot;
+        volatile long ultimoAcceso;
+        /** Bytes de las páginas renderizadas del snapshot; solo cambia dentro de compute sobre su código */
+        long bytesPaginas;
+
+        Entrada(SnapshotComunidad snapshot, long ultimoAcceso) {
+            this.snapshot = snapshot;
+            this.ultimoAcceso = ultimoAcceso;
+        }
+
+        long bytes() {
+            return snapshot.getBytesEstimados() + bytesPaginas;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entrada> entradas = new ConcurrentHashMap<>();
+    /**
+     * Empieza en la hora de arranque para que una comunidad restaurada de disco no reciba una
+     * versión ya usada antes de reiniciar: los ETags y cursores de la API dependen de ella.
+     */
+    private final AtomicLong versiones = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong reloj = new AtomicLong();
+    private final AtomicLong bytesTotales = new AtomicLong();
+    private final Object desalojo = new Object();
+
+    private final int maxComunidades;
+    private final long maxBytes;
+    private final AlmacenSnapshots almacenSnapshots;
+
+    public RegistroComunidades(
+            @Value("${comunidad.registro.max-comunidades:100}") int maxComunidades,
+            @Value("${comunidad.registro.max-bytes:0}") long maxBytes,
+            AlmacenSnapshots almacenSnapshots) {
+        if (maxComunidades < 1) {
+            throw new IllegalArgumentException("comunidad.registro.max-comunidades debe ser al menos 1");
+        }
+        this.maxComunidades = maxComunidades;
+        this.maxBytes = maxBytes;
+        this.almacenSnapshots = almacenSnapshots;
+    }
+
+    /**
+     * Publica una comunidad ya calculada como nueva versión de su código.
+     * La comunidad no debe modificarse después de publicarla.
+     *
+     * @param derivados Comunidad completamente calculada, con los datos derivados que ya tenga
+     * @return El snapshot publicado
+     */
+    public SnapshotComunidad publicar(DerivadosComunidad derivados) {
+        Comunidad comunidad = derivados.getComunidad();
+        String id = comunidad.getId();
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("El archivo de comunidad no indica el código de la comunidad");
+        }
+        long bytes = EstimadorMemoria.estimar(derivados);
+        // La versión se asigna dentro de compute para que el orden de versiones de un
+        // mismo código coincida con el orden en que se publican
+        Entrada nueva = entradas.compute(id, (clave, anterior) -> {
+            SnapshotComunidad snapshot = new SnapshotComunidad(id, versiones.incrementAndGet(), comunidad,
+                derivados, bytes, Instant.now());
+            bytesTotales.addAndGet(bytes - (anterior != null ? anterior.bytes() : 0));
+            return new Entrada(snapshot, reloj.incrementAndGet());
+        });
+        desalojarSiNecesario(id);
+        return nueva.snapshot;
+    }
+
+    /**
+     * Vuelve a poner en el registro una comunidad leída de disco, con la versión con la que se
+     * guardó para que los ETags y cursores emitidos antes sigan valiendo. Si mientras se leía
+     * se ha publicado o cargado otra versión del mismo código, se conserva esa.
+     *
+     * @param derivados Comunidad guardada, con sus datos derivados ya preparados
+     * @param version Versión guardada; 0 si se escribió sin versión y hay que asignar una nueva
+     * @return El snapshot vigente del código
+     */
+    public SnapshotComunidad publicarGuardada(DerivadosComunidad derivados, long version) {
+        Comunidad comunidad = derivados.getComunidad();
+        String id = comunidad.getId();
+        long bytes = EstimadorMemoria.estimar(derivados);
+        boolean[] insertada = new boolean[1];
+        Entrada entrada = entradas.computeIfAbsent(id, clave -> {
+            insertada[0] = true;
+            SnapshotComunidad snapshot = new SnapshotComunidad(id, version > 0 ? version : versiones.incrementAndGet(),
+                comunidad, derivados, bytes, Instant.now());
+            bytesTotales.addAndGet(bytes);
+            return new Entrada(snapshot, reloj.incrementAndGet());
+        });
+        if (!insertada[0]) {
+            entrada.ultimoAcceso = reloj.incrementAndGet();
+            return entrada.snapshot;
+        }
+        desalojarSiNecesario(id);
+        return entrada.snapshot;
+    }
+
+    /**
+     * Publica una nueva versión de una comunidad solo si la vigente sigue siendo la indicada.
+     * Sirve para las modificaciones que parten de un snapshot: si otra publicación se ha
+     * adelantado, no se pisa y quien llama debe repetir el cambio sobre la versión nueva.
+     * La memoria estimada se hereda de la versión anterior, ya que solo cambian unos pocos
+     * objetos y recorrer toda la comunidad costaría más que el propio cambio.
+     *
+     * @param derivados Comunidad completamente calculada, con los datos derivados que ya tenga
+     * @param versionEsperada Versión de la que parte la modificación
+     * @return El snapshot publicado o null si la versión vigente ya no es la esperada
+     */
+    public SnapshotComunidad publicarSi(DerivadosComunidad derivados, long versionEsperada) {
+        Comunidad comunidad = derivados.getComunidad();
+        String id = comunidad.getId();
+        Entrada nueva = entradas.computeIfPresent(id, (clave, anterior) -> {
+            if (anterior.snapshot.getVersion() != versionEsperada) {
+                return anterior;
+            }
+            long bytes = anterior.snapshot.getBytesEstimados();
+            // Las páginas de la versión anterior dejan de servirse
+            bytesTotales.addAndGet(-anterior.bytesPaginas);
+            SnapshotComunidad snapshot = new SnapshotComunidad(id, versiones.incrementAndGet(), comunidad,
+                derivados, bytes, Instant.now());
+            return new Entrada(snapshot, reloj.incrementAndGet());
+        });
+        if (nueva == null || nueva.snapshot.getComunidad() != comunidad) {
+            return null;
+        }
+        return nueva.snapshot;
+    }
+
+    /**
+     * Obtiene el snapshot vigente de una comunidad y lo marca como usado.
+     *
+     * @param id Código de la comunidad
+     * @return El snapshot o null si la comunidad no está cargada
+     */
+    public SnapshotComunidad obtener(String id) {
+        if (id == null) {
+            return null;
+        }
+        Entrada entrada = entradas.get(id);
+        if (entrada == null) {
+            return null;
+        }
+        entrada.ultimoAcceso = reloj.incrementAndGet();
+        return entrada.snapshot;
+    }
+
+    /**
+     * Suma a la memoria de una versión publicada una página que se ha guardado en sus
+     * {@code DerivadosComunidad.getPaginas()}, y descarta otras comunidades si con ella se pasa
+     * del límite. Si la versión ya no es la vigente no se suma nada: se descarta con sus páginas
+     * en cuanto terminen las peticiones que la usan.
+     *
+     * @param snapshot Versión a la que pertenece la página
+     * @param bytes Tamaño de la página
+     */
+    public void sumarPagina(SnapshotComunidad snapshot, long bytes) {
+        boolean[] sumada = new boolean[1];
+        entradas.computeIfPresent(snapshot.getId(), (clave, entrada) -> {
+            if (entrada.snapshot == snapshot) {
+                entrada.bytesPaginas += bytes;
+                bytesTotales.addAndGet(bytes);
+                sumada[0] = true;
+            }
+            return entrada;
+        });
+        if (sumada[0]) {
+            desalojarSiNecesario(snapshot.getId());
+        }
+    }
+
+    /**
+     * Elimina una comunidad del registro.
+     *
+     * @return El snapshot eliminado o null si no estaba cargada
+     */
+    public SnapshotComunidad eliminar(String id) {
+        Entrada entrada = entradas.remove(id);
+        if (entrada == null) {
+            return null;
+        }
+        bytesTotales.addAndGet(-entrada.bytes());
+        return entrada.snapshot;
+    }
+
+    /**
+     * Elimina la entrada solo si sigue siendo la indicada, para no descartar una
+     * versión publicada mientras se elegía la víctima.
+     */
+    private void eliminar(String id, Entrada esperada) {
+        if (entradas.remove(id, esperada)) {
+            bytesTotales.addAndGet(-esperada.bytes());
+        }
+    }
+
+    /**
+     * Devuelve los snapshots cargados ordenados por código, sin actualizar su último acceso.
+     */
+    public List<SnapshotComunidad> listar() {
+        List<SnapshotComunidad> snapshots = new ArrayList<>();
+        entradas.values().forEach(entrada -> snapshots.add(entrada.snapshot));
+        snapshots.sort(Comparator.comparing(SnapshotComunidad::getId));
+        return snapshots;
+    }
+
+    public int size() {
+        return entradas.size();
+    }
+
+    public long getBytesEstimados() {
+        return bytesTotales.get();
+    }
+
+    /**
+     * Descarta las comunidades menos usadas si se superan los límites. Se llama después de
+     * guardar una versión en disco, cuando puede haber pasado a ser descartable.
+     */
+    public void desalojar() {
+        desalojarSiNecesario(null);
+    }
+
+    /**
+     * Descarta las comunidades menos usadas mientras se superen los límites.
+     * La comunidad recién publicada nunca se descarta, ni, con el almacén habilitado, las que
+     * todavía no se han guardado en disco. Solo las publicaciones compiten por este bloqueo;
+     * las lecturas no lo usan.
+     */
+    private void desalojarSiNecesario(String idPublicado) {
+        if (!excedeLimites()) {
+            return;
+        }
+        synchronized (desalojo) {
+            while (excedeLimites()) {
+                Map.Entry<String, Entrada> victima = null;
+                for (Map.Entry<String, Entrada> entrada : entradas.entrySet()) {
+                    if (!entrada.getKey().equals(idPublicado) && descartable(entrada.getValue())
+                        && (victima == null || entrada.getValue().ultimoAcceso < victima.getValue().ultimoAcceso)) {
+                        victima = entrada;
+                    }
+                }
+                if (victima == null) {
+                    return;
+                }
+                eliminar(victima.getKey(), victima.getValue());
+            }
+        }
+    }
+
+    private boolean descartable(Entrada entrada) {
+        SnapshotComunidad snapshot = entrada.snapshot;
+        return !almacenSnapshots.isHabilitado() || almacenSnapshots.estaGuardada(snapshot.getId(), snapshot.getVersion());
+    }
+
+    private boolean excedeLimites() {
+        return entradas.size() > maxComunidades || (maxBytes > 0 && bytesTotales.get() > maxBytes);
+    }
+}
@@ -0,0 +1,91 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.FilaComunidad;
+import net.elpuig.comunidad.model.ResumenCartera;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.SnapshotBinario;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resúmenes de cartera ({@link ResumenCartera}) de todas las comunidades que sirve la
+ * aplicación, tanto las cargadas en memoria como las que {@link RegistroComunidades} ha
+ * descartado y siguen guardadas en disco. Los paneles de cartera y la búsqueda de propietarios
+ * los recorren, de modo que sus resultados dependen de los datos y no de qué comunidades
+ * estén cargadas en cada momento.
+ *
+ * El resumen de una comunidad cargada viaja con su snapshot; aquí se guarda además el último
+ * de cada comunidad, que es lo único que queda en memoria cuando el registro la descarta. Las
+ * comunidades guardadas que nunca se han resumido (las indexadas al arrancar) se leen de disco
+ * una vez, sin ponerlas en el registro.
+ */
+@Service
+public class ResumenesCartera {
+
+    private static final Logger log = LoggerFactory.getLogger(ResumenesCartera.class);
+
+    @Autowired
+    private RegistroComunidades registro;
+
+    @Autowired
+    private AlmacenSnapshots almacenSnapshots;
+
+    /** Último resumen de cada comunidad, cargada o no */
+    private final ConcurrentHashMap<String, ResumenCartera> resumenes = new ConcurrentHashMap<>();
+
+    /**
+     * Devuelve el resumen de cada comunidad, ordenados por código. Las guardadas en disco que
+     * no se pueden leer se devuelven en {@code omitidas} y no impiden resumir el resto.
+     *
+     * @param omitidas Lista donde añadir el código de cada comunidad que no se ha podido resumir
+     * @return Los resúmenes de las comunidades
+     */
+    public List<ResumenCartera> listar(List<String> omitidas) {
+        Map<String, ResumenCartera> vigentes = new TreeMap<>();
+        for (SnapshotComunidad snapshot : registro.listar()) {
+            vigentes.put(snapshot.getId(), ResumenCartera.de(snapshot));
+        }
+        List<FilaComunidad> pendientes = new ArrayList<>();
+        for (FilaComunidad ficha : almacenSnapshots.listar()) {
+            if (vigentes.containsKey(ficha.getId())) {
+                continue;
+            }
+            ResumenCartera resumen = resumenes.get(ficha.getId());
+            if (resumen != null && resumen.getVersion() >= ficha.getVersion()) {
+                vigentes.put(ficha.getId(), resumen);
+            } else {
+                pendientes.add(ficha);
+            }
+        }
+        // Las que no se han resumido nunca se leen de disco, en paralelo
+        List<String> errores = Collections.synchronizedList(new ArrayList<>());
+        pendientes.parallelStream()
+            .map(ficha -> leer(ficha.getId(), errores))
+            .filter(Objects::nonNull)
+            .toList()
+            .forEach(resumen -> vigentes.put(resumen.getId(), resumen));
+        errores.stream().sorted().forEach(omitidas::add);
+
+        // Se olvidan las comunidades eliminadas
+        resumenes.keySet().retainAll(vigentes.keySet());
+        resumenes.putAll(vigentes);
+        return new ArrayList<>(vigentes.values());
+    }
+
+    private ResumenCartera leer(String id, List<String> errores) {
+        try {
+            SnapshotBinario.Contenido contenido = almacenSnapshots.cargar(id);
+            // Si se ha eliminado mientras tanto, ya no hay nada que resumir
+            return contenido != null ? ResumenCartera.calcular(contenido.comunidad(), contenido.ficha().getVersion()) : null;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("No se ha podido resumir la comunidad guardada {}: {}", id, e.getMessage());
+            errores.add(id);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Simula escenarios de cambios en los gastos de una comunidad cargada ("¿y si el seguro del
+ * garaje sube un 20 % y el jardín pasa a la zona J?") sin modificarla ni publicar nada.
+ *
+ * Cada escenario se evalúa sobre una capa propia encima de la comunidad: solo se copian los
+ * gastos que cambia y solo se guardan los totales y repartos de las zonas afectadas;
+ * propiedades, propietarios, índice de zonas y cuotas se leen de la comunidad publicada, que
+ * no cambia. Después se reparten de nuevo solo las zonas afectadas y se acumula, por
+ * propietario, la diferencia con sus cuotas actuales. Como los escenarios no comparten nada
+ * modificable, se evalúan en paralelo.
+ */
+@Service
+public class SimuladorEscenarios {
+
+    @Autowired
+    private CalculadoraCuotas calculadoraCuotas;
+
+    @Autowired
+    private MetricasComunidad metricas;
+
+    /** Número máximo de escenarios por petición */
+    @Value("${comunidad.simulacion.max-escenarios:1000}")
+    private int maxEscenarios;
+
+    /**
+     * Evalúa escenarios sobre una versión de una comunidad.
+     *
+     * @param snapshot Versión de la comunidad sobre la que se simula
+     * @param escenarios Escenarios a evaluar
+     * @return El resultado de cada escenario, en el mismo orden
+     * @throws IllegalArgumentException Si no hay escenarios, hay demasiados o algún cambio no es válido
+     */
+    public SimulacionEscenarios simular(SnapshotComunidad snapshot, List<Escenario> escenarios) {
+        if (escenarios == null || escenarios.isEmpty()) {
+            throw new IllegalArgumentException("Debe indicar al menos un escenario");
+        }
+        if (escenarios.size() > maxEscenarios) {
+            throw new IllegalArgumentException("No se pueden simular más de " + maxEscenarios + " escenarios a la vez");
+        }
+        long inicio = System.nanoTime();
+        Base base = new Base(snapshot);
+        Stream<Escenario> flujo = escenarios.size() > 1 ? escenarios.parallelStream() : escenarios.stream();
+        List<ResultadoEscenario> resultados = flujo.map(escenario -> simular(base, escenario)).toList();
+        metricas.registrarSimulacion(escenarios.size(), System.nanoTime() - inicio);
+        return new SimulacionEscenarios(snapshot.getId(), snapshot.getVersion(), resultados);
+    }
+
+    private ResultadoEscenario simular(Base base, Escenario escenario) {
+        if (escenario == null || escenario.getCambios() == null || escenario.getCambios().isEmpty()) {
+            throw new IllegalArgumentException("Cada escenario debe indicar al menos un cambio");
+        }
+        Capa capa = new Capa(base);
+        for (CambioEscenario cambio : escenario.getCambios()) {
+            capa.aplicar(cambio);
+        }
+
+        // Zonas afectadas en el orden de la comunidad
+        Set<Zona> afectadas = new HashSet<>(capa.totales.keySet());
+        afectadas.addAll(capa.repartos.keySet());
+        List<Zona> zonas = new ArrayList<>(afectadas);
+        zonas.sort(Comparator.comparing(base::posicion));
+
+        Map<String, BigDecimal> diferencias = new HashMap<>();
+        List<FilaDiferencia> filasZonas = new ArrayList<>();
+        BigDecimal totalGeneral = base.totalGeneral;
+        for (Zona zona : zonas) {
+            BigDecimal anterior = base.totales.get(zona);
+            BigDecimal actual = capa.totales.getOrDefault(zona, anterior);
+            Zona reparto = capa.repartos.getOrDefault(zona, zona);
+            if (cero(anterior).compareTo(cero(actual)) == 0 && mismoReparto(reparto, zona)) {
+                continue;
+            }
+            totalGeneral = totalGeneral.add(cero(actual)).subtract(cero(anterior));
+            filasZonas.add(FilaDiferencia.entre(zona.getId(), zona.getNombre(), anterior, actual));
+            acumular(base, zona, reparto, actual, diferencias);
+        }
+
+        List<String> codigos = new ArrayList<>(diferencias.keySet());
+        Collections.sort(codigos);
+        List<FilaDiferencia> propietarios = new ArrayList<>();
+        for (String codigo : codigos) {
+            BigDecimal diferencia = diferencias.get(codigo);
+            if (diferencia.signum() == 0) {
+                continue;
+            }
+            BigDecimal anterior = suma(base.cuotas.cuotas(codigo));
+            Propietario propietario = base.cuotas.propietario(codigo);
+            propietarios.add(FilaDiferencia.entre(codigo, propietario != null ? propietario.getNombre() : null,
+                anterior, anterior.add(diferencia)));
+        }
+        return new ResultadoEscenario(escenario.getNombre(),
+            FilaDiferencia.entre(null, null, base.totalGeneral, totalGeneral), filasZonas, propietarios);
+    }
+
+    /**
+     * Reparte de nuevo una zona con su total y reparto simulados y suma a cada
+     * propietario la diferencia con las cuotas actuales de sus propiedades en la zona.
+     */
+    private void acumular(Base base, Zona zona, Zona reparto, BigDecimal total, Map<String, BigDecimal> diferencias) {
+        IndiceZonas.MiembrosZona miembros = base.indice.miembros(zona);
+        if (miembros == null) {
+            return;
+        }
+        BigDecimal[] cuotas = null;
+        if (total != null && total.signum() != 0) {
+            // Los pesos de una estrategia simulada se guardan solo durante la petición
+            PesosReparto pesos = mismoReparto(reparto, zona)
+                ? miembros.pesos(zona) : base.pesos.computeIfAbsent(reparto, miembros::compilar);
+            cuotas = calculadoraCuotas.repartir(pesos, total);
+        }
+        for (int i = 0; i < miembros.size(); i++) {
+            Propiedad propiedad = miembros.propiedad(i);
+            BigDecimal antes = propiedad.getCuotas() != null ? propiedad.getCuotas().get(zona) : null;
+            BigDecimal diferencia = cero(cuotas != null ? cuotas[i] : null).subtract(cero(antes));
+            if (diferencia.signum() != 0 && propiedad.getPropietario() != null) {
+                diferencias.merge(propiedad.getPropietario().getCodigo(), diferencia, BigDecimal::add);
+            }
+        }
+    }
+
+    private static BigDecimal cero(BigDecimal importe) {
+        return importe != null ? importe : BigDecimal.ZERO;
+    }
+
+    private static boolean mismoReparto(Zona reparto, Zona zona) {
+        return reparto.getTipoReparto() == zona.getTipoReparto()
+            && Objects.equals(reparto.getParametrosReparto(), zona.getParametrosReparto());
+    }
+
+    private static BigDecimal suma(Map<Zona, BigDecimal> cuotas) {
+        BigDecimal suma = BigDecimal.ZERO;
+        if (cuotas != null) {
+            for (BigDecimal cuota : cuotas.values()) {
+                suma = suma.add(cuota);
+            }
+        }
+        return suma;
+    }
+
+    /**
+     * Datos de la comunidad que comparten todos los escenarios de una petición. Solo se leen,
+     * salvo los pesos de las estrategias simuladas, que se compilan una vez por petición.
+     */
+    private static final class Base {
+        final Map<String, Gasto> gastos = new HashMap<>();
+        final Map<String, Zona> zonas = new HashMap<>();
+        final Map<Zona, Integer> posiciones = new HashMap<>();
+        /** Pesos compilados de las estrategias simuladas, por copia de la zona; se comparten entre escenarios */
+        final Map<Zona, PesosReparto> pesos = new ConcurrentHashMap<>();
+        final Map<Zona, BigDecimal> totales;
+        final BigDecimal totalGeneral;
+        final IndiceZonas indice;
+        final CuotasPropietarios cuotas;
+
+        Base(SnapshotComunidad snapshot) {
+            Comunidad comunidad = snapshot.getComunidad();
+            if (comunidad.getGastos() != null) {
+                comunidad.getGastos().forEach(gasto -> gastos.put(gasto.getId(), gasto));
+            }
+            if (comunidad.getZonas() != null) {
+                for (Zona zona : comunidad.getZonas()) {
+                    zonas.put(zona.getId(), zona);
+                    posiciones.put(zona, posiciones.size());
+                }
+            }
+            totales = comunidad.getTotalesPorZona() != null ? comunidad.getTotalesPorZona() : Map.of();
+            totalGeneral = cero(comunidad.getTotalGeneral());
+            indice = IndiceZonas.de(snapshot);
+            cuotas = CuotasPropietarios.de(snapshot);
+        }
+
+        Gasto gasto(String id) {
+            Gasto gasto = gastos.get(id);
+            if (gasto == null) {
+                throw new IllegalArgumentException("No existe el gasto " + id);
+            }
+            return gasto;
+        }
+
+        Zona zona(String id) {
+            Zona zona = zonas.get(id);
+            if (zona == null) {
+                throw new IllegalArgumentException("La zona " + id + " no existe en la comunidad");
+            }
+            return zona;
+        }
+
+        int posicion(Zona zona) {
+            return posiciones.getOrDefault(zona, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Cambios de un escenario sobre la base: gastos copiados al cambiarlos, totales simulados
+     * de las zonas afectadas y copias de las zonas con otro tipo de reparto.
+     */
+    private static final class Capa {
+        final Base base;
+        final Map<String, Gasto> gastos = new HashMap<>();
+        final Map<Zona, BigDecimal> totales = new HashMap<>();
+        final Map<Zona, Zona> repartos = new HashMap<>();
+
+        Capa(Base base) {
+            this.base = base;
+        }
+
+        void aplicar(CambioEscenario cambio) {
+            if (cambio == null || (cambio.getGasto() == null) == (cambio.getZona() == null)) {
+                throw new IllegalArgumentException("Cada cambio debe indicar un gasto o una zona");
+            }
+            if (cambio.getGasto() != null) {
+                aplicarGasto(cambio);
+            } else {
+                aplicarZona(cambio);
+            }
+        }
+
+        private void aplicarGasto(CambioEscenario cambio) {
+            if (cambio.getTipoReparto() != null || cambio.getParametrosReparto() != null) {
+                throw new IllegalArgumentException("El tipo de reparto se cambia en la zona, no en el gasto " + cambio.getGasto());
+            }
+            if (cambio.getPorcentaje() == null && cambio.getImporte() == null && cambio.getZonaDestino() == null) {
+                throw new IllegalArgumentException("El cambio del gasto " + cambio.getGasto() + " no cambia nada");
+            }
+            Gasto anterior = gastos.get(cambio.getGasto());
+            if (anterior == null) {
+                anterior = base.gasto(cambio.getGasto());
+            }
+            Gasto nuevo = new Gasto();
+            nuevo.setId(anterior.getId());
+            nuevo.setDescripcion(anterior.getDescripcion());
+            nuevo.setImporte(ajustar(anterior.getImporte(), cambio));
+            nuevo.setZona(cambio.getZonaDestino() != null ? base.zona(cambio.getZonaDestino()) : anterior.getZona());
+            sumar(anterior.getZona(), anterior.getImporte().negate());
+            sumar(nuevo.getZona(), nuevo.getImporte());
+            gastos.put(nuevo.getId(), nuevo);
+        }
+
+        private void aplicarZona(CambioEscenario cambio) {
+            if (cambio.getZonaDestino() != null) {
+                throw new IllegalArgumentException("Solo se puede cambiar de zona un gasto, no la zona " + cambio.getZona());
+            }
+            if (cambio.getPorcentaje() == null && cambio.getImporte() == null && cambio.getTipoReparto() == null
+                    && cambio.getParametrosReparto() == null) {
+                throw new IllegalArgumentException("El cambio de la zona " + cambio.getZona() + " no cambia nada");
+            }
+            Zona zona = base.zona(cambio.getZona());
+            if (cambio.getPorcentaje() != null || cambio.getImporte() != null) {
+                totales.put(zona, ajustar(total(zona), cambio));
+            }
+            if (cambio.getTipoReparto() != null || cambio.getParametrosReparto() != null) {
+                Zona actual = repartos.getOrDefault(zona, zona);
+                char tipo = actual.getTipoReparto();
+                String parametros = actual.getParametrosReparto();
+                if (cambio.getTipoReparto() != null) {
+                    tipo = Character.toUpperCase(cambio.getTipoReparto());
+                    if (!TipoReparto.existe(tipo)) {
+                        throw new IllegalArgumentException("Tipo de reparto no válido: " + cambio.getTipoReparto());
+                    }
+                    parametros = null;
+                }
+                if (cambio.getParametrosReparto() != null && !cambio.getParametrosReparto().isBlank()) {
+                    parametros = cambio.getParametrosReparto().trim();
+                }
+                Zona copia = new Zona();
+                copia.setId(zona.getId());
+                copia.setNombre(zona.getNombre());
+                copia.setTipoReparto(tipo);
+                copia.setParametrosReparto(parametros);
+                TipoReparto.validar(copia);
+                repartos.put(zona, copia);
+            }
+        }
+
+        private BigDecimal total(Zona zona) {
+            BigDecimal total = totales.get(zona);
+            return total != null ? total : cero(base.totales.get(zona));
+        }
+
+        private void sumar(Zona zona, BigDecimal importe) {
+            if (zona != null) {
+                totales.put(zona, total(zona).add(importe));
+            }
+        }
+
+        /** Aplica primero el porcentaje, redondeado a céntimos, y después el importe */
+        private static BigDecimal ajustar(BigDecimal importe, CambioEscenario cambio) {
+            BigDecimal ajustado = importe;
+            if (cambio.getPorcentaje() != null) {
+                ajustado = ajustado.add(ajustado.multiply(cambio.getPorcentaje()).movePointLeft(2))
+                    .setScale(2, RoundingMode.HALF_UP);
+            }
+            if (cambio.getImporte() != null) {
+                ajustado = ajustado.add(cambio.getImporte());
+            }
+            return ajustado;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.elpuig.comunidad.service;
+
+/**
+ * Se lanza cuando una petición parte de una versión de los datos que ya no es la vigente,
+ * como un cursor de paginación emitido para una versión anterior de la comunidad. La API la
+ * responde con 409 para que el cliente vuelva a empezar.
+ */
+public class VersionCambiadaException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public VersionCambiadaException(String mensaje) {
+        super(mensaje);
+    }
+}
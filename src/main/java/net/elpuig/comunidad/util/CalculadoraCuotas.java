@@ -1,98 +1,288 @@
 package net.elpuig.comunidad.util;
 
 import net.elpuig.comunidad.model.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Componente encargado de calcular las cuotas de la comunidad de propietarios.
  * Esta clase implementa la lógica para:
- * - Calcular cuotas por zona según el tipo de reparto (proporcional o igualitario)
+ * - Calcular cuotas por zona según su estrategia de reparto ({@link TipoReparto})
  * - Calcular cuotas por propietario
  * - Generar resúmenes de gastos por zona y totales
+ *
+ * El cálculo de cuotas por zona dispone de dos motores ({@link MotorCalculo}): el original
+ * con BigDecimal y uno en céntimos enteros que reparte el redondeo por mayor resto. Los dos
+ * multiplican el total de la zona por los pesos de su estrategia, que se compilan una vez por
+ * zona y comunidad ({@link IndiceZonas.MiembrosZona#pesos(Zona)}).
+ *
+ * Las comunidades grandes (más cuotas a calcular que {@code comunidad.calculo.umbral-paralelo})
+ * se calculan en paralelo en el pool fork/join común; el resultado es idéntico al secuencial.
  */
 @Component
 public class CalculadoraCuotas {
     
+    /** Motor utilizado cuando no se indica uno explícitamente */
+    @Value("${comunidad.calculo.motor:BIG_DECIMAL}")
+    private MotorCalculo motor = MotorCalculo.BIG_DECIMAL;
+    
+    /**
+     * Número de cuotas (suma de los miembros de las zonas con gastos) a partir del cual el
+     * cálculo se hace en paralelo; 0 = siempre secuencial
+     */
+    @Value("${comunidad.calculo.umbral-paralelo:200000}")
+    private int umbralParalelo = 200_000;
+    
+    /** Tamaño de los tramos en que se dividen las zonas y las propiedades en el cálculo paralelo */
+    private static final int TAMANO_TRAMO = 32_768;
+    
     /**
      * Calcula las cuotas para todas las zonas de la comunidad.
-     * El cálculo se realiza agrupando los gastos por zona y aplicando el tipo de reparto
-     * correspondiente (proporcional o igualitario).
+     * El cálculo se realiza agrupando los gastos por zona y aplicando la estrategia de reparto
+     * de cada una ({@link TipoReparto}). Las propiedades de cada zona se
+     * obtienen de un {@link IndiceZonas} que se construye una sola vez y se devuelve para
+     * publicarlo junto con la comunidad ({@link DerivadosComunidad#setIndiceZonas}).
      *
      * @param comunidad La comunidad para la cual calcular las cuotas
      * @param gastos Lista de gastos a repartir
+     * @return El índice de zonas de la comunidad o null si no tiene propiedades
      */
-    public void calcularCuotas(Comunidad comunidad, List<Gasto> gastos) {
-        // 1. Agrupar gastos por zona
-        Map<Zona, List<Gasto>> gastosPorZona = gastos.stream()
-            .collect(Collectors.groupingBy(Gasto::getZona));
-        
-        // 2. Para cada zona, calcular reparto según su tipo
-        gastosPorZona.forEach((zona, gastosZona) -> {
-            // System.out.println("Procesando zona: " + zona.getNombre() + 
-            //           " - Tipo reparto: " + zona.getTipoReparto());
-            // Calcular el total de gastos para esta zona
-            BigDecimal totalZona = gastosZona.stream()
-                .map(Gasto::getImporte)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-                
-            // Aplicar el tipo de reparto correspondiente
-            if (zona.getTipoReparto() == 'P') {
-                calcularRepartoProporcional(zona, totalZona, comunidad);
-            } else {
-                calcularRepartoIgualitario(zona, totalZona, comunidad);
-            }
-        });
+    public IndiceZonas calcularCuotas(Comunidad comunidad, List<Gasto> gastos) {
+        return calcularCuotas(comunidad, gastos, motor);
     }
     
     /**
-     * Calcula el reparto proporcional de los gastos de una zona entre las propiedades.
-     * El reparto se realiza según los porcentajes asignados a cada propiedad en la zona.
+     * Calcula las cuotas para todas las zonas de la comunidad con el motor indicado.
      *
-     * @param zona Zona para la cual calcular el reparto
-     * @param total Importe total a repartir
-     * @param comunidad Comunidad a la que pertenece la zona
+     * @param comunidad La comunidad para la cual calcular las cuotas
+     * @param gastos Lista de gastos a repartir
+     * @param motor Motor de cálculo a utilizar
+     * @return El índice de zonas de la comunidad o null si no tiene propiedades
      */
-    private void calcularRepartoProporcional(Zona zona, BigDecimal total, Comunidad comunidad) {
+    public IndiceZonas calcularCuotas(Comunidad comunidad, List<Gasto> gastos, MotorCalculo motor) {
+        return calcularCuotas(comunidad, gastos, motor, ProgresoProcesado.NINGUNO);
+    }
+    
+    /**
+     * Calcula las cuotas con el motor configurado, avisando de cada zona repartida.
+     *
+     * @param comunidad La comunidad para la cual calcular las cuotas
+     * @param gastos Lista de gastos a repartir
+     * @param progreso Destino de los avisos de avance
+     * @return El índice de zonas de la comunidad o null si no tiene propiedades
+     */
+    public IndiceZonas calcularCuotas(Comunidad comunidad, List<Gasto> gastos, ProgresoProcesado progreso) {
+        return calcularCuotas(comunidad, gastos, motor, progreso);
+    }
+    
+    private IndiceZonas calcularCuotas(Comunidad comunidad, List<Gasto> gastos, MotorCalculo motor,
+                                       ProgresoProcesado progreso) {
+        // 1. Agrupar gastos por zona y calcular el total de cada una
+        Map<Zona, BigDecimal> totalesZona = gastos.stream()
+            .collect(Collectors.groupingBy(
+                Gasto::getZona,
+                Collectors.mapping(Gasto::getImporte, Collectors.reducing(BigDecimal.ZERO, BigDecimal::add))
+            ));
+        
         // Verificar que haya propiedades
         if (comunidad.getPropiedades() == null || comunidad.getPropiedades().isEmpty()) {
-            return;
+            return null;
+        }
+        IndiceZonas indice = IndiceZonas.construir(comunidad);
+        if (umbralParalelo > 0 && numeroCuotas(totalesZona, indice) >= umbralParalelo) {
+            calcularCuotasParalelo(comunidad, totalesZona, indice, motor, progreso);
+            return indice;
         }
+        RepartoCentimos reparto = new RepartoCentimos();
         
-        // Obtener todas las propiedades que tienen porcentaje en esta zona
-        List<Propiedad> propiedadesConPorcentaje = comunidad.getPropiedades().stream()
-            .filter(p -> p.getPorcentajesZona() != null && p.getPorcentajesZona().containsKey(zona))
-            .collect(Collectors.toList());
-            
-        // Si no hay propiedades con porcentaje, no hay nada que hacer
-        if (propiedadesConPorcentaje.isEmpty()) {
-            return;
+        // 2. Para cada zona, calcular reparto según su tipo (en el mismo orden que forEach)
+        int repartidas = 0;
+        for (Map.Entry<Zona, BigDecimal> totalZona : totalesZona.entrySet()) {
+            Zona zona = totalZona.getKey();
+            // Si no hay propiedades en la zona, no hay nada que hacer
+            IndiceZonas.MiembrosZona miembros = indice.miembros(zona);
+            BigDecimal[] cuotas = miembros != null
+                ? repartirZona(zona, totalZona.getValue(), miembros, motor, reparto) : null;
+            if (cuotas != null) {
+                for (int i = 0; i < miembros.size(); i++) {
+                    asignarCuota(miembros.propiedad(i), zona, cuotas[i]);
+                }
+            }
+            progreso.zonasRepartidas(++repartidas, totalesZona.size());
         }
+        return indice;
+    }
+    
+    private static long numeroCuotas(Map<Zona, BigDecimal> totalesZona, IndiceZonas indice) {
+        long numero = 0;
+        for (Zona zona : totalesZona.keySet()) {
+            IndiceZonas.MiembrosZona miembros = indice.miembros(zona);
+            numero += miembros != null ? miembros.size() : 0;
+        }
+        return numero;
+    }
+    
+    /**
+     * Cálculo paralelo de {@link #calcularCuotas(Comunidad, List, MotorCalculo)}, en dos fases
+     * sin bloqueos:
+     * 1. Cada zona calcula su columna de cuotas (una por miembro) sin tocar las propiedades.
+     *    El reparto proporcional con BigDecimal es independiente por propiedad, así que las
+     *    zonas grandes se dividen en tramos; el de céntimos reparte el redondeo sobre toda la
+     *    zona y se calcula entero. Los pesos de cada zona ya están compilados.
+     * 2. Las columnas se copian a las propiedades por tramos de posiciones de la comunidad:
+     *    cada propiedad la escribe un único hilo, y lo hace recorriendo las zonas en el mismo
+     *    orden que el cálculo secuencial, así que sus mapas de cuotas quedan idénticos.
+     */
+    private void calcularCuotasParalelo(Comunidad comunidad, Map<Zona, BigDecimal> totalesZona,
+                                        IndiceZonas indice, MotorCalculo motor, ProgresoProcesado progreso) {
+        List<Zona> zonas = new ArrayList<>();
+        List<BigDecimal> totales = new ArrayList<>();
+        List<IndiceZonas.MiembrosZona> miembros = new ArrayList<>();
+        totalesZona.forEach((zona, totalZona) -> {
+            IndiceZonas.MiembrosZona miembrosZona = indice.miembros(zona);
+            // Igual que en el secuencial: sin miembros o con pesos que suman cero no se reparte nada
+            if (miembrosZona != null && miembrosZona.pesos(zona).getTotal() != 0) {
+                zonas.add(zona);
+                totales.add(totalZona);
+                miembros.add(miembrosZona);
+            }
+        });
         
-        // Calcular el total de porcentajes para esta zona
-        int totalPorcentajes = propiedadesConPorcentaje.stream()
-            .mapToInt(p -> p.getPorcentajesZona().get(zona))
-            .sum();
-            
-        // Verificar que el total no sea cero
-        if (totalPorcentajes == 0) {
-            return;
+        // 1. Columnas de cuotas por zona, divididas en tramos (zona, desde, hasta)
+        BigDecimal[][] columnas = new BigDecimal[zonas.size()][];
+        List<int[]> tramos = new ArrayList<>();
+        for (int z = 0; z < zonas.size(); z++) {
+            int tamano = miembros.get(z).size();
+            if (motor == MotorCalculo.BIG_DECIMAL && !miembros.get(z).pesos(zonas.get(z)).esUniforme()) {
+                columnas[z] = new BigDecimal[tamano];
+                for (int desde = 0; desde < tamano; desde += TAMANO_TRAMO) {
+                    tramos.add(new int[] {z, desde, Math.min(tamano, desde + TAMANO_TRAMO)});
+                }
+            } else {
+                tramos.add(new int[] {z, 0, tamano});
+            }
         }
+        // Una zona está repartida cuando termina su último tramo; las que no reparten ya lo están
+        AtomicIntegerArray tramosPendientes = new AtomicIntegerArray(zonas.size());
+        tramos.forEach(tramo -> tramosPendientes.incrementAndGet(tramo[0]));
+        AtomicInteger repartidas = new AtomicInteger(totalesZona.size() - zonas.size());
+        tramos.parallelStream().forEach(tramo -> {
+            int z = tramo[0];
+            Zona zona = zonas.get(z);
+            PesosReparto pesos = miembros.get(z).pesos(zona);
+            if (motor == MotorCalculo.BIG_DECIMAL && !pesos.esUniforme()) {
+                repartoProporcional(totales.get(z), pesos, columnas[z], tramo[1], tramo[2]);
+            } else {
+                columnas[z] = repartirZona(zona, totales.get(z), miembros.get(z), motor, new RepartoCentimos());
+            }
+            if (tramosPendientes.decrementAndGet(z) == 0) {
+                progreso.zonasRepartidas(repartidas.incrementAndGet(), totalesZona.size());
+            }
+        });
         
-        // Calcular cuota por cada propiedad según su porcentaje
-        for (Propiedad propiedad : propiedadesConPorcentaje) {
-            int porcentaje = propiedad.getPorcentajesZona().get(zona);
-            BigDecimal cuota = total.multiply(new BigDecimal(porcentaje))
-                                  .divide(new BigDecimal(totalPorcentajes), 2, RoundingMode.UP);
-            
-            // Actualizar la cuota en la propiedad
-            if (propiedad.getCuotas() == null) {
-                propiedad.setCuotas(new HashMap<>());
+        // 2. Copiar las columnas a las propiedades, por tramos de posiciones
+        int numeroPropiedades = comunidad.getPropiedades().size();
+        IntStream.range(0, (numeroPropiedades + TAMANO_TRAMO - 1) / TAMANO_TRAMO).parallel().forEach(t -> {
+            int desde = t * TAMANO_TRAMO;
+            int hasta = Math.min(numeroPropiedades, desde + TAMANO_TRAMO);
+            for (int z = 0; z < zonas.size(); z++) {
+                IndiceZonas.MiembrosZona miembrosZona = miembros.get(z);
+                BigDecimal[] cuotas = columnas[z];
+                for (int i = miembrosZona.primeroDesde(desde); i < miembrosZona.size() && miembrosZona.posicion(i) < hasta; i++) {
+                    asignarCuota(miembrosZona.propiedad(i), zonas.get(z), cuotas[i]);
+                }
             }
-            propiedad.getCuotas().put(zona, cuota);
+        });
+    }
+    
+    /**
+     * Calcula el reparto de una zona sin modificar las propiedades, con el motor configurado.
+     *
+     * @see #repartirZona(Zona, BigDecimal, IndiceZonas.MiembrosZona, MotorCalculo)
+     */
+    public BigDecimal[] repartirZona(Zona zona, BigDecimal total, IndiceZonas.MiembrosZona miembros) {
+        return repartirZona(zona, total, miembros, motor);
+    }
+    
+    /**
+     * Calcula el reparto de una zona sin modificar las propiedades.
+     *
+     * @param zona Zona a repartir
+     * @param total Importe total de la zona
+     * @param miembros Propiedades de la zona
+     * @param motor Motor de cálculo a utilizar
+     * @return La cuota de cada miembro, en el orden de {@code miembros}, o null si la zona
+     *         no reparte nada (sus pesos suman cero, p. ej. porcentajes a cero)
+     */
+    public BigDecimal[] repartirZona(Zona zona, BigDecimal total, IndiceZonas.MiembrosZona miembros, MotorCalculo motor) {
+        return repartirZona(zona, total, miembros, motor, new RepartoCentimos());
+    }
+    
+    /**
+     * Calcula el reparto de un total con unos pesos ya compilados, con el motor configurado.
+     * Sirve para repartir una zona con una estrategia que no es la suya sin guardar sus pesos
+     * en la versión publicada ({@link IndiceZonas.MiembrosZona#compilar(Zona)}).
+     *
+     * @param pesos Pesos de los miembros de la zona
+     * @param total Importe total de la zona
+     * @return La cuota de cada miembro, en el orden de los pesos, o null si los pesos suman cero
+     */
+    public BigDecimal[] repartir(PesosReparto pesos, BigDecimal total) {
+        return repartir(pesos, total, motor, new RepartoCentimos());
+    }
+    
+    private BigDecimal[] repartirZona(Zona zona, BigDecimal total, IndiceZonas.MiembrosZona miembros,
+                                      MotorCalculo motor, RepartoCentimos reparto) {
+        // Pesos de la estrategia de la zona, compilados la primera vez
+        return repartir(miembros.pesos(zona), total, motor, reparto);
+    }
+    
+    private BigDecimal[] repartir(PesosReparto pesos, BigDecimal total, MotorCalculo motor, RepartoCentimos reparto) {
+        if (pesos.getTotal() == 0) {
+            return null;
+        }
+        if (motor == MotorCalculo.CENTIMOS) {
+            return calcularRepartoCentimos(total, pesos, reparto);
+        }
+        if (pesos.esUniforme()) {
+            return calcularRepartoIgualitario(total, pesos.size());
+        }
+        return calcularRepartoProporcional(total, pesos);
+    }
+    
+    /**
+     * Calcula el reparto proporcional de los gastos de una zona entre las propiedades.
+     * El reparto se realiza según los pesos de la estrategia de la zona (porcentajes,
+     * metros, coeficientes...).
+     *
+     * @param total Importe total a repartir
+     * @param pesos Pesos compilados de la zona, que no suman cero
+     * @return Cuota de cada propiedad
+     */
+    private BigDecimal[] calcularRepartoProporcional(BigDecimal total, PesosReparto pesos) {
+        BigDecimal[] cuotas = new BigDecimal[pesos.size()];
+        repartoProporcional(total, pesos, cuotas, 0, pesos.size());
+        return cuotas;
+    }
+    
+    /**
+     * Reparto proporcional de los miembros {@code desde} (incluido) a {@code hasta} (excluido).
+     * Cada cuota depende solo del peso de su propiedad, así que los tramos se pueden
+     * calcular por separado.
+     */
+    private static void repartoProporcional(BigDecimal total, PesosReparto pesos,
+                                            BigDecimal[] cuotas, int desde, int hasta) {
+        BigDecimal totalPesos = BigDecimal.valueOf(pesos.getTotal());
+        for (int i = desde; i < hasta; i++) {
+            cuotas[i] = total.multiply(BigDecimal.valueOf(pesos.peso(i)))
+                             .divide(totalPesos, 2, RoundingMode.UP);
         }
     }
     
@@ -100,72 +290,281 @@ public class CalculadoraCuotas {
      * Calcula el reparto igualitario de los gastos de una zona entre las propiedades.
      * El importe total se divide equitativamente entre todas las propiedades de la zona.
      *
-     * @param zona Zona para la cual calcular el reparto
      * @param total Importe total a repartir
-     * @param comunidad Comunidad a la que pertenece la zona
+     * @param n Número de propiedades de la zona
+     * @return Cuota de cada propiedad
      */
-    private void calcularRepartoIgualitario(Zona zona, BigDecimal total, Comunidad comunidad) {
-        // Verificar que haya propiedades
-        if (comunidad.getPropiedades() == null || comunidad.getPropiedades().isEmpty()) {
-            return;
-        }
-        
-        // Obtener todas las propiedades que tienen porcentaje en esta zona
-        List<Propiedad> propiedadesConPorcentaje = comunidad.getPropiedades().stream()
-            .filter(p -> p.getPorcentajesZona() != null && p.getPorcentajesZona().containsKey(zona))
-            .collect(Collectors.toList());
-            
-        // Si no hay propiedades con porcentaje, no hay nada que hacer
-        if (propiedadesConPorcentaje.isEmpty()) {
-            return;
-        }
-        
+    private BigDecimal[] calcularRepartoIgualitario(BigDecimal total, int n) {
         // Calcular cuota igual para cada propiedad
         BigDecimal cuotaPorPropiedad = total.divide(
-            new BigDecimal(propiedadesConPorcentaje.size()), 
+            BigDecimal.valueOf(n), 
             2, 
             RoundingMode.UP
         );
         
-        // Asignar cuota a cada propiedad
-        for (Propiedad propiedad : propiedadesConPorcentaje) {
-            if (propiedad.getCuotas() == null) {
-                propiedad.setCuotas(new HashMap<>());
+        BigDecimal[] cuotas = new BigDecimal[n];
+        Arrays.fill(cuotas, cuotaPorPropiedad);
+        return cuotas;
+    }
+    
+    /**
+     * Calcula el reparto de una zona trabajando en céntimos. Se hace una única conversión
+     * del total a céntimos; el bucle por propiedad solo usa aritmética entera sobre arrays
+     * reutilizados, y el sobrante de redondeo se reparte por mayor resto para que la suma
+     * de las cuotas de la zona sea exactamente su total.
+     *
+     * @param total Importe total a repartir
+     * @param pesos Pesos compilados de la zona, que no suman cero
+     * @param reparto Arrays de trabajo reutilizados entre zonas
+     * @return Cuota de cada propiedad
+     */
+    private BigDecimal[] calcularRepartoCentimos(BigDecimal total, PesosReparto pesos, RepartoCentimos reparto) {
+        long totalCentimos = RepartoCentimos.totalACentimos(total);
+        long[] centimos = pesos.esUniforme()
+            ? reparto.repartirIgualitario(totalCentimos, pesos.size())
+            : reparto.repartirProporcional(totalCentimos, pesos.getPesos(), pesos.size(), pesos.getTotal());
+        BigDecimal[] cuotas = new BigDecimal[pesos.size()];
+        for (int i = 0; i < pesos.size(); i++) {
+            cuotas[i] = RepartoCentimos.deCentimos(centimos[i]);
+        }
+        return cuotas;
+    }
+    
+    /**
+     * Recalcula una comunidad ya calculada cuando solo han cambiado los gastos de algunas zonas.
+     * Usa el motor configurado por defecto.
+     *
+     * @see #recalcularZonas(SnapshotComunidad, List, Collection, MotorCalculo)
+     */
+    public DerivadosComunidad recalcularZonas(SnapshotComunidad snapshot, List<Gasto> gastos, Collection<Zona> zonas) {
+        return recalcularZonas(snapshot, gastos, zonas, motor);
+    }
+
+    /**
+     * Recalcula una comunidad ya calculada cuando solo han cambiado los gastos de algunas zonas.
+     * La comunidad anterior no se modifica, ya que puede estar publicada: se devuelve una
+     * comunidad nueva que comparte con ella todo lo que no cambia. Solo se repiten los repartos
+     * de las zonas afectadas y solo se copian sus propiedades, los propietarios de estas (con el
+     * resto de sus propiedades, que se localizan con el índice de zonas, para que todas apunten
+     * al propietario vigente) y los arrays del índice de las zonas en que participan. Las listas
+     * de propiedades y propietarios se guardan en tramos ({@link ListaTramos}) y solo se copian
+     * los tramos con cambios, así que el coste es proporcional a las zonas afectadas y no a la
+     * comunidad (salvo la primera vez, en que se pasan a tramos). El resultado es el mismo que calcular
+     * desde cero con {@link #calcularCuotas} y {@link #generarResumen}. Los datos derivados de
+     * la versión anterior que siguen valiendo (índices, cuotas por propietario actualizadas,
+     * ordenaciones que no dependen de las cuotas) se pasan a la nueva.
+     *
+     * @param snapshot Versión calculada con los gastos anteriores
+     * @param gastos Lista completa de gastos nueva, que se asigna tal cual a la comunidad
+     * @param zonas Zonas cuyos gastos han cambiado
+     * @param motor Motor de cálculo a utilizar
+     * @return La comunidad recalculada con sus datos derivados, lista para publicar
+     */
+    public DerivadosComunidad recalcularZonas(SnapshotComunidad snapshot, List<Gasto> gastos, Collection<Zona> zonas,
+                                              MotorCalculo motor) {
+        Comunidad anterior = snapshot.getComunidad();
+        DerivadosComunidad derivadosAnteriores = snapshot.getDerivados();
+        // 1. Totales de las zonas afectadas
+        Set<Zona> afectadas = new HashSet<>(zonas);
+        afectadas.remove(null);
+        Map<Zona, BigDecimal> totalesAfectadas = new HashMap<>();
+        for (Gasto gasto : gastos) {
+            if (gasto.getZona() != null && afectadas.contains(gasto.getZona())) {
+                totalesAfectadas.merge(gasto.getZona(), gasto.getImporte(), BigDecimal::add);
+            }
+        }
+
+        // 2. Resumen: solo cambian los totales de las zonas afectadas
+        Map<Zona, BigDecimal> totalesPorZona = anterior.getTotalesPorZona() != null
+            ? new HashMap<>(anterior.getTotalesPorZona()) : new HashMap<>();
+        for (Zona zona : afectadas) {
+            BigDecimal total = totalesAfectadas.get(zona);
+            if (total != null) {
+                totalesPorZona.put(zona, total);
+            } else {
+                totalesPorZona.remove(zona);
+            }
+        }
+        BigDecimal totalGeneral = totalesPorZona.values().stream()
+            .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        Comunidad nueva = new Comunidad();
+        nueva.setId(anterior.getId());
+        nueva.setNombre(anterior.getNombre());
+        nueva.setPoblacion(anterior.getPoblacion());
+        nueva.setZonas(anterior.getZonas());
+        nueva.setPropiedades(anterior.getPropiedades());
+        nueva.setPropietarios(anterior.getPropietarios());
+        nueva.setGastos(gastos);
+        nueva.setAnioPresupuesto(anterior.getAnioPresupuesto());
+        nueva.setTotalesPorZona(Collections.unmodifiableMap(totalesPorZona));
+        nueva.setTotalGeneral(totalGeneral);
+        DerivadosComunidad derivados = new DerivadosComunidad(nueva);
+        // Los propietarios conservan sus datos y su posición: el índice de búsqueda sigue valiendo
+        derivados.setIndicePropietarios(derivadosAnteriores.getIndicePropietarios());
+        // Propiedades y propietarios siguen en las mismas posiciones: solo dejan de valer las
+        // ordenaciones que dependen de los gastos o de las cuotas
+        derivadosAnteriores.getOrdenaciones().forEach((clave, orden) -> {
+            if (!clave.dependeDeGastos()) {
+                derivados.getOrdenaciones().put(clave, orden);
+            }
+        });
+
+        if (anterior.getPropiedades() == null || anterior.getPropiedades().isEmpty()) {
+            derivados.setCuotasPropietarios(CuotasPropietarios.de(snapshot));
+            return derivados;
+        }
+
+        // 3. Repartir de nuevo las zonas afectadas sobre copias de sus propiedades
+        IndiceZonas indice = IndiceZonas.de(snapshot);
+        RepartoCentimos reparto = new RepartoCentimos();
+        Map<Integer, Propiedad> copias = new HashMap<>();
+        for (Zona zona : afectadas) {
+            IndiceZonas.MiembrosZona miembros = indice.miembros(zona);
+            if (miembros == null) {
+                continue;
+            }
+            BigDecimal total = totalesAfectadas.get(zona);
+            BigDecimal[] cuotas = total != null ? repartirZona(zona, total, miembros, motor, reparto) : null;
+            for (int i = 0; i < miembros.size(); i++) {
+                Propiedad copia = copias.get(miembros.posicion(i));
+                if (copia == null) {
+                    copia = copiarPropiedad(miembros.propiedad(i));
+                    copias.put(miembros.posicion(i), copia);
+                }
+                if (cuotas != null) {
+                    copia.getCuotas().put(zona, cuotas[i]);
+                } else {
+                    copia.getCuotas().remove(zona);
+                }
             }
-            propiedad.getCuotas().put(zona, cuotaPorPropiedad);
         }
+        if (copias.isEmpty()) {
+            derivados.setIndiceZonas(indice);
+            derivados.setCuotasPropietarios(CuotasPropietarios.de(snapshot));
+            derivados.setPropiedadesColumnares(derivadosAnteriores.getPropiedadesColumnares());
+            return derivados;
+        }
+
+        // 4. Copiar los propietarios de las propiedades copiadas y, con ellos, el resto de sus
+        // propiedades: toda propiedad debe apuntar a la versión vigente de su propietario
+        List<Propiedad> propiedadesAnteriores = anterior.getPropiedades();
+        List<Propietario> propietariosAnteriores = anterior.getPropietarios() != null
+            ? anterior.getPropietarios() : List.of();
+        Set<Integer> posicionesPropietarios = new TreeSet<>();
+        for (Propiedad copia : new ArrayList<>(copias.values())) {
+            if (copia.getPropietario() != null
+                    && posicionesPropietarios.add(posicionPropietario(propietariosAnteriores, copia.getPropietario()))) {
+                for (int posicion : indice.posicionesPropietario(copia.getPropietario().getCodigo())) {
+                    copias.computeIfAbsent(posicion, p -> copiarPropiedad(propiedadesAnteriores.get(p)));
+                }
+            }
+        }
+
+        // 5. Sustituir las copias en la lista de propiedades, en sus propietarios y en el índice
+        Map<Propiedad, Propiedad> reemplazos = new IdentityHashMap<>();
+        copias.forEach((posicion, copia) -> {
+            // Igual que en un cálculo completo, una propiedad sin cuotas no tiene mapa
+            if (copia.getCuotas().isEmpty()) {
+                copia.setCuotas(null);
+            }
+            reemplazos.put(propiedadesAnteriores.get(posicion), copia);
+        });
+        nueva.setPropiedades(ListaTramos.<Propiedad>de(propiedadesAnteriores).con(copias));
+        derivados.setIndiceZonas(indice.conReemplazos(nueva.getPropiedades(), copias));
+
+        Map<Integer, Propietario> propietariosCopiados = new HashMap<>();
+        for (int posicion : posicionesPropietarios) {
+            Propietario original = propietariosAnteriores.get(posicion);
+            Propietario copia = copiarPropietario(original, reemplazos);
+            if (original.getPropiedades() != null) {
+                for (Propiedad propiedad : original.getPropiedades()) {
+                    Propiedad sustituta = reemplazos.get(propiedad);
+                    if (sustituta != null) {
+                        sustituta.setPropietario(copia);
+                    }
+                }
+            }
+            propietariosCopiados.put(posicion, copia);
+        }
+        // 6. Volver a sumar las cuotas solo de los propietarios copiados
+        CuotasPropietarios cuotasPropietarios = CuotasPropietarios.de(snapshot);
+        if (!propietariosCopiados.isEmpty()) {
+            nueva.setPropietarios(ListaTramos.<Propietario>de(propietariosAnteriores).con(propietariosCopiados));
+            cuotasPropietarios = cuotasPropietarios.conCambios(nueva.getPropietarios(), propietariosCopiados.values());
+        }
+        derivados.setCuotasPropietarios(cuotasPropietarios);
+        return derivados;
+    }
+
+    /**
+     * Busca la posición del propietario en la lista por su código. Las comunidades se
+     * publican con los propietarios ordenados por código y sin repetir (se comprueba una vez,
+     * antes de calcularlas), así que basta con una bisección.
+     *
+     * @throws IllegalStateException Si el propietario no está en la lista
+     */
+    private int posicionPropietario(List<Propietario> propietarios, Propietario propietario) {
+        int posicion = Collections.binarySearch(propietarios, propietario,
+            Comparator.comparing(Propietario::getCodigo));
+        if (posicion < 0) {
+            throw new IllegalStateException("El propietario " + propietario.getCodigo()
+                + " no está en la lista de propietarios de la comunidad");
+        }
+        return posicion;
+    }
+
+    /**
+     * Copia una propiedad con un mapa de cuotas propio; el resto de campos se comparten.
+     */
+    private Propiedad copiarPropiedad(Propiedad original) {
+        Propiedad copia = new Propiedad();
+        copia.setCodigo(original.getCodigo());
+        copia.setMetrosCuadrados(original.getMetrosCuadrados());
+        copia.setPropietario(original.getPropietario());
+        copia.setPorcentajesZona(original.getPorcentajesZona());
+        copia.setTipo(original.getTipo());
+        copia.setInfoAdicional(original.getInfoAdicional());
+        copia.setCuotas(original.getCuotas() != null ? new HashMap<>(original.getCuotas()) : new HashMap<>());
+        return copia;
+    }
+
+    /**
+     * Copia un propietario sustituyendo en su lista las propiedades reemplazadas.
+     */
+    private Propietario copiarPropietario(Propietario original, Map<Propiedad, Propiedad> reemplazos) {
+        Propietario copia = new Propietario();
+        copia.setCodigo(original.getCodigo());
+        copia.setNombre(original.getNombre());
+        copia.setDireccion(original.getDireccion());
+        copia.setEmail(original.getEmail());
+        if (original.getPropiedades() != null) {
+            List<Propiedad> propiedades = new ArrayList<>(original.getPropiedades());
+            propiedades.replaceAll(propiedad -> reemplazos.getOrDefault(propiedad, propiedad));
+            copia.setPropiedades(Collections.unmodifiableList(propiedades));
+        }
+        return copia;
+    }
+
+    private void asignarCuota(Propiedad propiedad, Zona zona, BigDecimal cuota) {
+        if (propiedad.getCuotas() == null) {
+            propiedad.setCuotas(new HashMap<>());
+        }
+        propiedad.getCuotas().put(zona, cuota);
     }
     
     /**
      * Calcula las cuotas totales por propietario, sumando las cuotas de todas sus propiedades.
-     * El resultado es un mapa que asocia cada propietario con sus cuotas por zona.
+     * El resultado es un mapa que asocia cada propietario con sus cuotas por zona, en orden
+     * de código de propietario ({@link CuotasPropietarios}); el mapa devuelto es de solo
+     * lectura. Las de una versión publicada se calculan una sola vez y se obtienen con
+     * {@link CuotasPropietarios#de(SnapshotComunidad)}.
      *
      * @param comunidad Comunidad para la cual calcular las cuotas
      * @return Mapa con las cuotas por propietario y zona
      */
     public Map<Propietario, Map<Zona, BigDecimal>> calcularCuotasPorPropietario(Comunidad comunidad) {
-        Map<Propietario, Map<Zona, BigDecimal>> cuotasPorPropietario = new HashMap<>();
-        
-        // Para cada propietario
-        for (Propietario propietario : comunidad.getPropietarios()) {
-            Map<Zona, BigDecimal> cuotasPropietario = new HashMap<>();
-            
-            // Verificar que el propietario tenga propiedades
-            if (propietario.getPropiedades() != null && !propietario.getPropiedades().isEmpty()) {
-                // Sumar las cuotas de todas sus propiedades
-                for (Propiedad propiedad : propietario.getPropiedades()) {
-                    if (propiedad.getCuotas() != null) {
-                        propiedad.getCuotas().forEach((zona, cuota) -> {
-                            cuotasPropietario.merge(zona, cuota, BigDecimal::add);
-                        });
-                    }
-                }
-            }
-            
-            cuotasPorPropietario.put(propietario, cuotasPropietario);
-        }
-        
-        return cuotasPorPropietario;
+        return CuotasPropietarios.calcular(comunidad).getPorPropietario();
     }
     
     /**
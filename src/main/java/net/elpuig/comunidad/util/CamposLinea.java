@@ -0,0 +1,186 @@
+package net.elpuig.comunidad.util;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Divide un rango de bytes en campos separados por un carácter, sin crear objetos.
+ * Reproduce la semántica de {@link String#split(String)}: los campos vacíos del final
+ * se descartan. Solo se crean Strings cuando se piden explícitamente con {@link #texto(int)}.
+ */
+public final class CamposLinea {
+
+    private final Charset charset;
+    private ByteBuffer buffer;
+    private int[] inicios = new int[8];
+    private int[] fines = new int[8];
+    private int numero;
+    private byte[] copia = new byte[256];
+    private char[] digitos = new char[32];
+
+    public CamposLinea(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Divide el rango [desde, hasta) del buffer por el separador indicado.
+     *
+     * @return número de campos resultantes
+     */
+    public int dividir(ByteBuffer buffer, int desde, int hasta, char separador) {
+        this.buffer = buffer;
+        // Los separadores finales generan campos vacíos que split() descarta
+        while (hasta > desde && buffer.get(hasta - 1) == separador) {
+            hasta--;
+        }
+        numero = 0;
+        if (desde == hasta) {
+            return 0;
+        }
+        int inicioCampo = desde;
+        for (int i = desde; i < hasta; i++) {
+            if (buffer.get(i) == separador) {
+                anadir(inicioCampo, i);
+                inicioCampo = i + 1;
+            }
+        }
+        anadir(inicioCampo, hasta);
+        return numero;
+    }
+
+    private void anadir(int desde, int hasta) {
+        if (numero == inicios.length) {
+            inicios = Arrays.copyOf(inicios, numero * 2);
+            fines = Arrays.copyOf(fines, numero * 2);
+        }
+        inicios[numero] = desde;
+        fines[numero] = hasta;
+        numero++;
+    }
+
+    public int numero() {
+        return numero;
+    }
+
+    public int inicio(int campo) {
+        return inicios[campo];
+    }
+
+    public int fin(int campo) {
+        return fines[campo];
+    }
+
+    public int longitud(int campo) {
+        return fines[campo] - inicios[campo];
+    }
+
+    /**
+     * Decodifica el campo a String con el charset del parser.
+     */
+    public String texto(int campo) {
+        return decodificar(buffer, inicios[campo], fines[campo]);
+    }
+
+    /**
+     * Decodifica un rango arbitrario del buffer a String.
+     */
+    public String decodificar(ByteBuffer origen, int desde, int hasta) {
+        int longitud = hasta - desde;
+        if (origen.hasArray()) {
+            return new String(origen.array(), origen.arrayOffset() + desde, longitud, charset);
+        }
+        if (copia.length < longitud) {
+            copia = new byte[Math.max(longitud, copia.length * 2)];
+        }
+        origen.get(desde, copia, 0, longitud);
+        return new String(copia, 0, longitud, charset);
+    }
+
+    /**
+     * Compara el campo con un literal ASCII.
+     */
+    public boolean igual(int campo, String literal) {
+        return igual(buffer, inicios[campo], fines[campo], literal);
+    }
+
+    static boolean igual(ByteBuffer buffer, int desde, int hasta, String literal) {
+        if (hasta - desde != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (buffer.get(desde + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean empiezaPor(ByteBuffer buffer, int desde, int hasta, String literal) {
+        return hasta - desde >= literal.length()
+            && igual(buffer, desde, desde + literal.length(), literal);
+    }
+
+    /**
+     * Interpreta el campo como entero con la misma semántica que {@link Integer#parseInt(String)}.
+     *
+     * @throws NumberFormatException Si el campo no es un entero válido
+     */
+    public int entero(int campo) {
+        return entero(buffer, inicios[campo], fines[campo]);
+    }
+
+    int entero(ByteBuffer origen, int desde, int hasta) {
+        int i = desde;
+        boolean negativo = false;
+        if (i < hasta && (origen.get(i) == '-' || origen.get(i) == '+')) {
+            negativo = origen.get(i) == '-';
+            i++;
+        }
+        if (i == hasta) {
+            throw errorNumero(origen, desde, hasta);
+        }
+        long valor = 0;
+        for (; i < hasta; i++) {
+            int digito = origen.get(i) - '0';
+            if (digito < 0 || digito > 9) {
+                throw errorNumero(origen, desde, hasta);
+            }
+            valor = valor * 10 + digito;
+            if (valor > (long) Integer.MAX_VALUE + 1) {
+                throw errorNumero(origen, desde, hasta);
+            }
+        }
+        valor = negativo ? -valor : valor;
+        if (valor > Integer.MAX_VALUE) {
+            throw errorNumero(origen, desde, hasta);
+        }
+        return (int) valor;
+    }
+
+    private NumberFormatException errorNumero(ByteBuffer origen, int desde, int hasta) {
+        return new NumberFormatException("For input string: \"" + decodificar(origen, desde, hasta) + "\"");
+    }
+
+    /**
+     * Interpreta el campo como importe decimal sin pasar por String.
+     *
+     * @throws NumberFormatException Si el campo no es un número válido
+     */
+    public BigDecimal decimal(int campo) {
+        int desde = inicios[campo];
+        int longitud = fines[campo] - desde;
+        if (digitos.length < longitud) {
+            digitos = new char[Math.max(longitud, digitos.length * 2)];
+        }
+        for (int i = 0; i < longitud; i++) {
+            int b = buffer.get(desde + i) & 0xFF;
+            if (b >= 0x80) {
+                throw new NumberFormatException();
+            }
+            digitos[i] = (char) b;
+        }
+        return new BigDecimal(digitos, 0, longitud);
+    }
+}
@@ -0,0 +1,100 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimación aproximada del espacio que ocupa una comunidad en el heap.
+ * Se basa en tamaños típicos de objeto en una JVM de 64 bits con punteros comprimidos;
+ * no pretende ser exacta, solo servir para limitar cuántas comunidades se mantienen cargadas.
+ */
+public final class EstimadorMemoria {
+
+    private static final int CABECERA = 16;
+    private static final int REFERENCIA = 4;
+    private static final int STRING = 24 + CABECERA;
+    private static final int ENTRADA_MAPA = 32 + REFERENCIA;
+    private static final int BIG_DECIMAL = 40;
+    private static final int INTEGER = 16;
+
+    private EstimadorMemoria() {
+    }
+
+    /**
+     * Estima el tamaño en bytes de una comunidad, todo su grafo de objetos y los índices que
+     * ya tenga construidos.
+     *
+     * @param derivados Comunidad a estimar con sus datos derivados
+     * @return Número aproximado de bytes
+     */
+    public static long estimar(DerivadosComunidad derivados) {
+        Comunidad comunidad = derivados.getComunidad();
+        long bytes = CABECERA + 10L * REFERENCIA;
+        bytes += texto(comunidad.getId()) + texto(comunidad.getNombre()) + texto(comunidad.getPoblacion());
+        bytes += lista(comunidad.getZonas());
+        if (comunidad.getZonas() != null) {
+            for (Zona zona : comunidad.getZonas()) {
+                bytes += CABECERA + 4L * REFERENCIA + texto(zona.getId()) + texto(zona.getNombre())
+                    + texto(zona.getParametrosReparto());
+            }
+        }
+        bytes += lista(comunidad.getPropietarios());
+        long textosPropietarios = 0;
+        if (comunidad.getPropietarios() != null) {
+            for (Propietario propietario : comunidad.getPropietarios()) {
+                long textos = texto(propietario.getCodigo()) + texto(propietario.getNombre())
+                    + texto(propietario.getDireccion()) + texto(propietario.getEmail());
+                textosPropietarios += textos;
+                bytes += CABECERA + 5L * REFERENCIA + textos + lista(propietario.getPropiedades());
+            }
+        }
+        bytes += lista(comunidad.getPropiedades());
+        if (comunidad.getPropiedades() != null) {
+            for (Propiedad propiedad : comunidad.getPropiedades()) {
+                bytes += CABECERA + 7L * REFERENCIA + texto(propiedad.getCodigo()) + texto(propiedad.getInfoAdicional())
+                    + mapa(propiedad.getPorcentajesZona(), INTEGER)
+                    + mapa(propiedad.getCuotas(), BIG_DECIMAL);
+            }
+        }
+        bytes += lista(comunidad.getGastos());
+        if (comunidad.getGastos() != null) {
+            for (Gasto gasto : comunidad.getGastos()) {
+                bytes += CABECERA + 4L * REFERENCIA + texto(gasto.getId()) + texto(gasto.getDescripcion()) + BIG_DECIMAL;
+            }
+        }
+        bytes += mapa(comunidad.getTotalesPorZona(), BIG_DECIMAL);
+        IndiceZonas indiceZonas = derivados.getIndiceZonas();
+        if (indiceZonas != null) {
+            // Tres arrays paralelos por pertenencia a zona
+            bytes += (long) indiceZonas.getNumeroPropiedades() * 3 * REFERENCIA;
+            // Más los pesos compilados de las estrategias de reparto que no son uniformes
+            bytes += indiceZonas.getPesosCompilados() * Long.BYTES;
+            // Y un array de posiciones por propietario, con un int por propiedad
+            bytes += (long) indiceZonas.getNumeroPropiedades() * Integer.BYTES
+                + (long) indiceZonas.getNumeroPropietarios() * (ENTRADA_MAPA + CABECERA);
+        }
+        IndicePropietarios indicePropietarios = derivados.getIndicePropietarios();
+        if (indicePropietarios != null) {
+            // Una copia normalizada de los textos de cada propietario y un long por palabra
+            bytes += textosPropietarios + (long) indicePropietarios.size() * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    private static long texto(String texto) {
+        return texto == null ? 0 : STRING + texto.length();
+    }
+
+    private static long lista(List<?> lista) {
+        return lista == null ? 0 : CABECERA + 24 + (long) lista.size() * REFERENCIA;
+    }
+
+    private static long mapa(Map<?, ?> mapa, int tamanoValor) {
+        if (mapa == null) {
+            return 0;
+        }
+        int tabla = Integer.highestOneBit(Math.max(16, mapa.size() * 2 - 1));
+        return CABECERA + 48 + (long) tabla * REFERENCIA + (long) mapa.size() * (ENTRADA_MAPA + tamanoValor);
+    }
+}
@@ -0,0 +1,199 @@
+package net.elpuig.comunidad.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import net.elpuig.comunidad.model.*;
+import org.springframework.stereotype.Component;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exporta las cuotas de una comunidad calculada, por propiedad o por propietario, en CSV
+ * o NDJSON. Cada fila se escribe en cuanto se genera, directamente desde la comunidad ya
+ * calculada: no se construye ninguna lista ni documento intermedio, así que la memoria
+ * usada no depende del tamaño de la comunidad. La cabecera se envía nada más empezar.
+ *
+ * En CSV hay una columna por zona, en el orden de la comunidad, como en la vista de cuotas;
+ * en NDJSON cada objeto solo incluye las zonas en que participa.
+ */
+@Component
+public class ExportadorCuotas {
+
+    private static final int TAM_BUFFER = 64 * 1024;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Escribe las cuotas de cada propiedad, en el orden de la comunidad. El stream no se cierra.
+     *
+     * @param comunidad Comunidad ya calculada
+     * @param formato Formato de salida
+     * @param salida Stream donde escribir, en UTF-8
+     * @throws IOException Si hay un error al escribir
+     */
+    public void exportarPropiedades(Comunidad comunidad, FormatoExportacion formato, OutputStream salida)
+            throws IOException {
+        List<Zona> zonas = comunidad.getZonas();
+        List<Propiedad> propiedades = comunidad.getPropiedades() != null ? comunidad.getPropiedades() : List.of();
+        if (formato == FormatoExportacion.CSV) {
+            Writer out = escritor(salida);
+            out.write("codigo;tipo;propietario");
+            cabeceraZonas(out, zonas);
+            out.flush();
+            for (Propiedad propiedad : propiedades) {
+                campo(out, propiedad.getCodigo());
+                out.write(';');
+                campo(out, propiedad.getTipo());
+                out.write(';');
+                campo(out, propiedad.getPropietario() != null ? propiedad.getPropietario().getCodigo() : "");
+                filaZonas(out, zonas, propiedad.getCuotas());
+            }
+            out.flush();
+        } else {
+            JsonGenerator json = generador(salida);
+            for (Propiedad propiedad : propiedades) {
+                json.writeStartObject();
+                json.writeStringField("codigo", propiedad.getCodigo());
+                json.writeStringField("tipo", propiedad.getTipo());
+                json.writeStringField("propietario",
+                    propiedad.getPropietario() != null ? propiedad.getPropietario().getCodigo() : null);
+                objetoCuotas(json, propiedad.getCuotas());
+                fin(json);
+            }
+            json.flush();
+        }
+    }
+
+    /**
+     * Escribe las cuotas sumadas de cada propietario, en orden de código. El stream no se cierra.
+     *
+     * @param snapshot Versión publicada de la comunidad, cuyas cuotas por propietario ya están sumadas
+     * @param formato Formato de salida
+     * @param salida Stream donde escribir, en UTF-8
+     * @throws IOException Si hay un error al escribir
+     */
+    public void exportarPropietarios(SnapshotComunidad snapshot, FormatoExportacion formato, OutputStream salida)
+            throws IOException {
+        List<Zona> zonas = snapshot.getComunidad().getZonas();
+        Map<Propietario, Map<Zona, BigDecimal>> cuotas = CuotasPropietarios.de(snapshot).getPorPropietario();
+        if (formato == FormatoExportacion.CSV) {
+            Writer out = escritor(salida);
+            out.write("codigo;nombre;propiedades");
+            cabeceraZonas(out, zonas);
+            out.flush();
+            for (Map.Entry<Propietario, Map<Zona, BigDecimal>> entrada : cuotas.entrySet()) {
+                Propietario propietario = entrada.getKey();
+                campo(out, propietario.getCodigo());
+                out.write(';');
+                campo(out, propietario.getNombre());
+                out.write(';');
+                out.write(String.valueOf(numeroPropiedades(propietario)));
+                filaZonas(out, zonas, entrada.getValue());
+            }
+            out.flush();
+        } else {
+            JsonGenerator json = generador(salida);
+            for (Map.Entry<Propietario, Map<Zona, BigDecimal>> entrada : cuotas.entrySet()) {
+                Propietario propietario = entrada.getKey();
+                json.writeStartObject();
+                json.writeStringField("codigo", propietario.getCodigo());
+                json.writeStringField("nombre", propietario.getNombre());
+                json.writeNumberField("propiedades", numeroPropiedades(propietario));
+                objetoCuotas(json, entrada.getValue());
+                fin(json);
+            }
+            json.flush();
+        }
+    }
+
+    private static Writer escritor(OutputStream salida) {
+        return new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), TAM_BUFFER);
+    }
+
+    private JsonGenerator generador(OutputStream salida) throws IOException {
+        JsonGenerator json = jsonFactory.createGenerator(salida);
+        // Cada objeto termina con su salto de línea (ver fin) y no se cierra el stream de la respuesta
+        json.setRootValueSeparator(null);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return json;
+    }
+
+    private static void fin(JsonGenerator json) throws IOException {
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private static void cabeceraZonas(Writer out, List<Zona> zonas) throws IOException {
+        for (Zona zona : zonas) {
+            out.write(';');
+            campo(out, zona.getId());
+        }
+        out.write(";total\n");
+    }
+
+    /**
+     * Escribe las cuotas de una fila en el orden de las zonas, con 0.00 en las zonas sin
+     * cuota, y el total de la fila.
+     */
+    private static void filaZonas(Writer out, List<Zona> zonas, Map<Zona, BigDecimal> cuotas) throws IOException {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Zona zona : zonas) {
+            BigDecimal cuota = cuotas != null ? cuotas.get(zona) : null;
+            out.write(';');
+            if (cuota != null) {
+                out.write(cuota.toPlainString());
+                total = total.add(cuota);
+            } else {
+                out.write("0.00");
+            }
+        }
+        out.write(';');
+        out.write(total.setScale(Math.max(2, total.scale())).toPlainString());
+        out.write('\n');
+    }
+
+    private static void objetoCuotas(JsonGenerator json, Map<Zona, BigDecimal> cuotas) throws IOException {
+        BigDecimal total = BigDecimal.ZERO;
+        json.writeObjectFieldStart("cuotas");
+        if (cuotas != null) {
+            for (Map.Entry<Zona, BigDecimal> cuota : cuotas.entrySet()) {
+                json.writeNumberField(cuota.getKey().getId(), cuota.getValue());
+                total = total.add(cuota.getValue());
+            }
+        }
+        json.writeEndObject();
+        json.writeNumberField("total", total);
+    }
+
+    private static int numeroPropiedades(Propietario propietario) {
+        return propietario.getPropiedades() != null ? propietario.getPropiedades().size() : 0;
+    }
+
+    /**
+     * Escribe un campo CSV, entre comillas si contiene el separador, comillas o saltos de línea.
+     */
+    private static void campo(Writer out, String valor) throws IOException {
+        if (valor == null) {
+            return;
+        }
+        boolean comillas = false;
+        for (int i = 0; i < valor.length() && !comillas; i++) {
+            char c = valor.charAt(i);
+            comillas = c == ';' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!comillas) {
+            out.write(valor);
+            return;
+        }
+        out.write('"');
+        out.write(valor.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -14,6 +14,15 @@ import java.util.*;
  */
 @Component
 public class FileParser {
+
+    /**
+     * Gastos leídos de un archivo de presupuesto junto con el año de su cabecera.
+     *
+     * @param gastos Gastos del archivo, en orden
+     * @param anio Año de la cabecera ({@code #Presupuesto 2008}), o null si no lo indica
+     */
+    public record Presupuesto(List<Gasto> gastos, Integer anio) {
+    }
     
     /**
      * Analiza el archivo de comunidad y crea la estructura de datos correspondiente.
@@ -29,17 +38,31 @@ public class FileParser {
      * @throws IllegalArgumentException Si el formato del archivo no es válido
      */
     public Comunidad parseComunidad(InputStream input) throws IOException {
+        return parseComunidad(input, ProgresoProcesado.NINGUNO);
+    }
+
+    /**
+     * Analiza el archivo de comunidad avisando de las líneas leídas.
+     *
+     * @see #parseComunidad(InputStream)
+     */
+    public Comunidad parseComunidad(InputStream input, ProgresoProcesado progreso) throws IOException {
         Comunidad comunidad = new Comunidad();
         Map<String, Zona> zonasMap = new HashMap<>();
         Map<String, Propietario> propietariosMap = new HashMap<>();
         List<String> propiedadesLines = new ArrayList<>();
         boolean formatoValido = false;
         
+        long lineas = 0;
+        
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
             String line;
             String currentSection = null;
             
             while ((line = reader.readLine()) != null) {
+                if ((++lineas & (ProgresoProcesado.INTERVALO_LINEAS - 1)) == 0) {
+                    progreso.lineasLeidas(lineas);
+                }
                 line = line.trim();
                 if (line.isEmpty()) continue;
                 
@@ -72,6 +95,7 @@ public class FileParser {
                 }
             }
         }
+        progreso.lineasLeidas(lineas);
         
         if (!formatoValido) {
             throw new IllegalArgumentException("El archivo de comunidad no tiene un formato válido.");
@@ -110,7 +134,9 @@ public class FileParser {
 
     /**
      * Procesa una línea de información de zona.
-     * Formato esperado: id;nombre;tipoReparto
+     * Formato esperado: id;nombre;tipoReparto[;parametrosReparto]
+     *
+     * @throws IllegalArgumentException Si los parámetros no son válidos para el tipo de reparto
      */
     private void parseZonaLine(String line, Map<String, Zona> zonasMap) {
         String[] parts = line.split(";");
@@ -119,6 +145,10 @@ public class FileParser {
             zona.setId(parts[0]);
             zona.setNombre(parts[1]);
             zona.setTipoReparto(parts[2].charAt(0));
+            if (parts.length >= 4 && !parts[3].isBlank()) {
+                zona.setParametrosReparto(parts[3].trim());
+            }
+            TipoReparto.validar(zona);
             zonasMap.put(zona.getId(), zona);
         }
     }
@@ -217,6 +247,7 @@ public class FileParser {
      * Analiza el archivo de gastos y crea la lista de gastos correspondiente.
      * El archivo debe comenzar con #Presupuesto o #Pressupost y contener líneas con el formato:
      * id;descripcion;importe;zona
+     * El año de la cabecera no se devuelve: para obtenerlo se usa {@link #parsePresupuesto}.
      *
      * @param input Stream de entrada con el contenido del archivo
      * @param comunidad Comunidad a la que pertenecen los gastos
@@ -225,15 +256,39 @@ public class FileParser {
      * @throws IllegalArgumentException Si el formato del archivo no es válido o hay datos incorrectos
      */
     public List<Gasto> parseGastos(InputStream input, Comunidad comunidad) throws IOException {
+        return parsePresupuesto(input, comunidad, ProgresoProcesado.NINGUNO).gastos();
+    }
+
+    /**
+     * Analiza el archivo de gastos avisando de las líneas leídas.
+     *
+     * @see #parseGastos(InputStream, Comunidad)
+     */
+    public List<Gasto> parseGastos(InputStream input, Comunidad comunidad, ProgresoProcesado progreso) throws IOException {
+        return parsePresupuesto(input, comunidad, progreso).gastos();
+    }
+
+    /**
+     * Analiza el archivo de gastos y devuelve también el año de su cabecera
+     * ({@code #Presupuesto 2008}). La comunidad no se modifica.
+     *
+     * @see #parseGastos(InputStream, Comunidad)
+     */
+    public Presupuesto parsePresupuesto(InputStream input, Comunidad comunidad, ProgresoProcesado progreso) throws IOException {
+        Integer anio = null;
         List<Gasto> gastos = new ArrayList<>();
         Map<String, Zona> zonasMap = new HashMap<>();
         comunidad.getZonas().forEach(zona -> zonasMap.put(zona.getId(), zona));
         boolean formatoValido = false;
         int lineasProcesadas = 0;
+        long lineas = 0;
         
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
             String line;
             while ((line = reader.readLine()) != null) {
+                if ((++lineas & (ProgresoProcesado.INTERVALO_LINEAS - 1)) == 0) {
+                    progreso.lineasLeidas(lineas);
+                }
                 line = line.trim();
                 if (line.isEmpty()) continue;
                 
@@ -241,6 +296,7 @@ public class FileParser {
                 if (line.startsWith("#")) {
                     if (line.startsWith("#Pressupost") || line.startsWith("#Presupuesto")) {
                         formatoValido = true;
+                        anio = anioPresupuesto(line);
                     }
                     continue;
                 }
@@ -268,11 +324,34 @@ public class FileParser {
                 }
             }
         }
+        progreso.lineasLeidas(lineas);
         
         if (!formatoValido && lineasProcesadas == 0) {
             throw new IllegalArgumentException("El archivo de gastos no tiene un formato válido.");
         }
         
-        return gastos;
+        return new Presupuesto(gastos, anio);
+    }
+
+    /**
+     * Obtiene el año de la cabecera del presupuesto ({@code #Presupuesto 2008}): la primera
+     * palabra después de la palabra clave que sea un año (de 1 a 9999), de modo que cabeceras
+     * como {@code #Pressupost any 2008} también valen.
+     *
+     * @param cabecera Línea de cabecera completa
+     * @return El año o null si la cabecera no indica ninguno
+     */
+    static Integer anioPresupuesto(String cabecera) {
+        String[] palabras = cabecera.trim().split("\\s+");
+        for (int i = 1; i < palabras.length; i++) {
+            String palabra = palabras[i];
+            if (palabra.length() <= 4 && palabra.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                int valor = Integer.parseInt(palabra);
+                if (valor >= 1) {
+                    return valor;
+                }
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,495 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Parser alternativo a {@link FileParser} que trabaja directamente sobre bytes.
+ * Lee los archivos por bloques desde el canal NIO del fichero o del stream
+ * ({@link LectorLineas}) con un charset explícito, separa los campos sin crear Strings
+ * intermedios y solo decodifica los campos que se guardan en el modelo. Genera exactamente el mismo grafo de
+ * {@link Comunidad} y {@link Gasto} que {@link FileParser}.
+ *
+ * Las líneas de #Propiedad se guardan al leerlas y se analizan al final, cuando ya se conocen
+ * zonas y propietarios; en archivos grandes ese análisis se reparte por tramos entre varios
+ * hilos.
+ */
+@Component
+public class FileParserNio {
+
+    private static final int SECCION_NINGUNA = 0;
+    private static final int SECCION_COMUNIDAD = 1;
+    private static final int SECCION_ZONA = 2;
+    private static final int SECCION_PROPIEDAD = 3;
+    private static final int SECCION_PROPIETARIO = 4;
+
+    /** Máximo de textos distintos que se reutilizan en tipo e información adicional */
+    private static final int MAX_TEXTOS_COMPARTIDOS = 4096;
+
+    /** Líneas de #Propiedad de cada tramo de la segunda fase del análisis */
+    private static final int TAMANO_TRAMO = 16_384;
+
+    /** Líneas de #Propiedad a partir de las cuales los tramos se analizan en paralelo; 0 = nunca */
+    @Value("${comunidad.parser.umbral-paralelo:100000}")
+    private int umbralParalelo = 100_000;
+
+    private final Charset charset;
+
+    public FileParserNio(@Value("${comunidad.parser.charset:UTF-8}") Charset charset) {
+        if (!"#;".equals(new String("#;".getBytes(charset), StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("El charset " + charset + " no es compatible con ASCII");
+        }
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Analiza el archivo de comunidad desde un stream.
+     *
+     * @see FileParser#parseComunidad(InputStream)
+     */
+    public Comunidad parseComunidad(InputStream input) throws IOException {
+        return parseComunidad(input, ProgresoProcesado.NINGUNO);
+    }
+
+    /**
+     * Analiza el archivo de comunidad desde un stream, avisando de las líneas leídas.
+     *
+     * @see FileParser#parseComunidad(InputStream)
+     */
+    public Comunidad parseComunidad(InputStream input, ProgresoProcesado progreso) throws IOException {
+        try (LectorLineas lector = LectorLineas.de(input)) {
+            return parseComunidad(lector, progreso);
+        }
+    }
+
+    /**
+     * Analiza el archivo de comunidad leyéndolo por bloques desde el canal del fichero.
+     *
+     * @see FileParser#parseComunidad(InputStream)
+     */
+    public Comunidad parseComunidad(Path fichero) throws IOException {
+        try (LectorLineas lector = LectorLineas.de(fichero)) {
+            return parseComunidad(lector, ProgresoProcesado.NINGUNO);
+        }
+    }
+
+    private Comunidad parseComunidad(LectorLineas lector, ProgresoProcesado progreso) throws IOException {
+        Comunidad comunidad = new Comunidad();
+        CamposLinea campos = new CamposLinea(charset);
+        Map<String, Zona> zonasMap = new HashMap<>();
+        TablaBytes<Zona> zonasPorId = new TablaBytes<>();
+        TablaBytes<Propietario> propietariosPorCodigo = new TablaBytes<>();
+        LineasPropiedad propiedadesLines = new LineasPropiedad();
+        boolean formatoValido = false;
+        int seccion = SECCION_NINGUNA;
+
+        while (lector.siguiente()) {
+            if ((lector.lineas() & (ProgresoProcesado.INTERVALO_LINEAS - 1)) == 0) {
+                progreso.lineasLeidas(lector.lineas());
+            }
+            if (lector.vacia()) continue;
+            ByteBuffer buffer = lector.buffer();
+            int inicio = lector.inicio();
+            int fin = lector.fin();
+
+            // Detectar secciones del archivo
+            if (buffer.get(inicio) == '#') {
+                seccion = seccion(buffer, inicio, fin);
+                if (seccion == SECCION_COMUNIDAD) {
+                    formatoValido = true;
+                }
+                continue;
+            }
+
+            switch (seccion) {
+                case SECCION_COMUNIDAD:
+                    if (campos.dividir(buffer, inicio, fin, ';') >= 3) {
+                        comunidad.setId(campos.texto(0));
+                        comunidad.setNombre(campos.texto(1));
+                        comunidad.setPoblacion(campos.texto(2));
+                    }
+                    break;
+                case SECCION_ZONA:
+                    int camposZona = campos.dividir(buffer, inicio, fin, ';');
+                    if (camposZona >= 3) {
+                        Zona zona = new Zona();
+                        zona.setId(campos.texto(0));
+                        zona.setNombre(campos.texto(1));
+                        zona.setTipoReparto(campos.texto(2).charAt(0));
+                        if (camposZona >= 4 && !campos.texto(3).isBlank()) {
+                            zona.setParametrosReparto(campos.texto(3).trim());
+                        }
+                        TipoReparto.validar(zona);
+                        zonasMap.put(zona.getId(), zona);
+                        zonasPorId.put(copiar(buffer, campos.inicio(0), campos.fin(0)), zona);
+                    }
+                    break;
+                case SECCION_PROPIEDAD:
+                    // Se resuelven al final, cuando ya se conocen zonas y propietarios
+                    propiedadesLines.anadir(buffer, inicio, fin);
+                    break;
+                case SECCION_PROPIETARIO:
+                    if (campos.dividir(buffer, inicio, fin, ';') >= 4) {
+                        Propietario propietario = new Propietario();
+                        propietario.setCodigo(campos.texto(0));
+                        propietario.setNombre(campos.texto(1));
+                        propietario.setDireccion(campos.texto(2));
+                        propietario.setEmail(campos.texto(3));
+                        propietario.setPropiedades(new ArrayList<>());
+                        propietariosPorCodigo.put(copiar(buffer, campos.inicio(0), campos.fin(0)), propietario);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        progreso.lineasLeidas(lector.lineas());
+
+        if (!formatoValido) {
+            throw new IllegalArgumentException("El archivo de comunidad no tiene un formato válido.");
+        }
+
+        comunidad.setZonas(new ArrayList<>(zonasMap.values()));
+
+        List<Propietario> propietariosOrdenados = propietariosPorCodigo.valores();
+        propietariosOrdenados.sort(Comparator.comparing(Propietario::getCodigo));
+        comunidad.setPropietarios(propietariosOrdenados);
+
+        // Segunda fase: las propiedades se analizan por tramos y después se añaden, en el orden
+        // del archivo, a la comunidad y a las listas de sus propietarios
+        Propiedad[] analizadas = parsePropiedades(propiedadesLines, zonasPorId, propietariosPorCodigo);
+        List<Propiedad> propiedades = new ArrayList<>(analizadas.length);
+        for (Propiedad propiedad : analizadas) {
+            if (propiedad != null) {
+                propiedades.add(propiedad);
+                if (propiedad.getPropietario() != null) {
+                    propiedad.getPropietario().getPropiedades().add(propiedad);
+                }
+            }
+        }
+        comunidad.setPropiedades(propiedades);
+
+        return comunidad;
+    }
+
+    /**
+     * Analiza las líneas de #Propiedad por tramos de {@value #TAMANO_TRAMO} líneas, en paralelo
+     * en el pool fork/join común si hay al menos {@code comunidad.parser.umbral-paralelo}. Cada
+     * tramo tiene su propio estado de análisis y escribe solo sus posiciones del resultado; las
+     * tablas de zonas y propietarios ya no cambian, así que se leen sin bloqueos. Las propiedades
+     * no se enlazan aún con la comunidad ni con sus propietarios.
+     *
+     * @return Una propiedad por línea, o null en las líneas que no tienen todos los campos
+     */
+    private Propiedad[] parsePropiedades(LineasPropiedad lineas, TablaBytes<Zona> zonasPorId,
+                                         TablaBytes<Propietario> propietariosPorCodigo) {
+        Propiedad[] propiedades = new Propiedad[lineas.numero()];
+        IntStream tramos = IntStream.range(0, (lineas.numero() + TAMANO_TRAMO - 1) / TAMANO_TRAMO);
+        if (umbralParalelo > 0 && lineas.numero() >= umbralParalelo) {
+            tramos = tramos.parallel();
+        }
+        tramos.forEach(tramo -> {
+            ByteBuffer arena = ByteBuffer.wrap(lineas.bytes);
+            CamposLinea campos = new CamposLinea(charset);
+            TablaBytes<String> textos = new TablaBytes<>();
+            int hasta = Math.min(lineas.numero(), (tramo + 1) * TAMANO_TRAMO);
+            for (int i = tramo * TAMANO_TRAMO; i < hasta; i++) {
+                propiedades[i] = parsePropiedadLine(arena, lineas.inicio(i), lineas.fin(i),
+                    campos, zonasPorId, propietariosPorCodigo, textos);
+            }
+        });
+        return propiedades;
+    }
+
+    private static int seccion(ByteBuffer buffer, int inicio, int fin) {
+        if (CamposLinea.igual(buffer, inicio, fin, "#Comunitat") || CamposLinea.igual(buffer, inicio, fin, "#Comunidad")) {
+            return SECCION_COMUNIDAD;
+        }
+        if (CamposLinea.igual(buffer, inicio, fin, "#Zona")) {
+            return SECCION_ZONA;
+        }
+        if (CamposLinea.igual(buffer, inicio, fin, "#Propietat") || CamposLinea.igual(buffer, inicio, fin, "#Propiedad")) {
+            return SECCION_PROPIEDAD;
+        }
+        if (CamposLinea.igual(buffer, inicio, fin, "#Propietari") || CamposLinea.igual(buffer, inicio, fin, "#Propietario")) {
+            return SECCION_PROPIETARIO;
+        }
+        return SECCION_NINGUNA;
+    }
+
+    /**
+     * Procesa una línea de propiedad con el mismo formato y reglas que
+     * {@link FileParser}: tipo;codigo;metros;propietario;porcentajes;infoAdicional;infoExtra
+     *
+     * @return La propiedad, o null si la línea no tiene todos los campos
+     */
+    private Propiedad parsePropiedadLine(ByteBuffer arena, int inicio, int fin, CamposLinea campos,
+                                         TablaBytes<Zona> zonasPorId,
+                                         TablaBytes<Propietario> propietariosPorCodigo,
+                                         TablaBytes<String> textos) {
+        if (campos.dividir(arena, inicio, fin, ';') < 7) {
+            return null;
+        }
+        Propiedad propiedad = new Propiedad();
+        propiedad.setTipo(textoCompartido(arena, campos.inicio(0), campos.fin(0), campos, textos));
+        propiedad.setCodigo(campos.texto(1));
+        propiedad.setMetrosCuadrados(campos.entero(2));
+
+        // Asignar propietario; la propiedad se añade a su lista al unir los tramos
+        propiedad.setPropietario(propietariosPorCodigo.get(arena, campos.inicio(3), campos.fin(3)));
+
+        // Los campos 4 a 6 se leen antes de volver a dividir la línea
+        int inicioPorcentajes = campos.inicio(4);
+        int finPorcentajes = campos.fin(4);
+        int inicioInfo = campos.inicio(5);
+        int finInfo = campos.fin(5);
+        int inicioExtra = campos.inicio(6);
+        int finExtra = campos.fin(6);
+
+        propiedad.setInfoAdicional(infoAdicional(arena, inicioInfo, finInfo, inicioExtra, finExtra,
+            propiedad.getTipo(), campos, textos));
+
+        // Procesar porcentajes por zona: E-15,C-20
+        Map<Zona, Integer> porcentajes = new HashMap<>();
+        int inicioParte = inicioPorcentajes;
+        for (int i = inicioPorcentajes; i <= finPorcentajes; i++) {
+            if (i == finPorcentajes || arena.get(i) == ',') {
+                parsePorcentaje(arena, inicioParte, i, campos, zonasPorId, porcentajes);
+                inicioParte = i + 1;
+            }
+        }
+        propiedad.setPorcentajesZona(porcentajes);
+        return propiedad;
+    }
+
+    private void parsePorcentaje(ByteBuffer arena, int desde, int hasta, CamposLinea campos,
+                                 TablaBytes<Zona> zonasPorId, Map<Zona, Integer> porcentajes) {
+        // Igual que porcentaje.split("-") con longitud 2
+        while (hasta > desde && arena.get(hasta - 1) == '-') {
+            hasta--;
+        }
+        int guion = -1;
+        for (int i = desde; i < hasta; i++) {
+            if (arena.get(i) == '-') {
+                if (guion >= 0) {
+                    return;
+                }
+                guion = i;
+            }
+        }
+        if (guion < 0) {
+            return;
+        }
+        Zona zona = zonasPorId.get(arena, desde, guion);
+        if (zona != null) {
+            porcentajes.put(zona, campos.entero(arena, guion + 1, hasta));
+        }
+    }
+
+    private String infoAdicional(ByteBuffer arena, int inicioInfo, int finInfo, int inicioExtra, int finExtra,
+                                 String tipo, CamposLinea campos, TablaBytes<String> textos) {
+        String prefijo = null;
+        if (CamposLinea.igual(arena, inicioInfo, finInfo, "HH")) {
+            prefijo = "Habitaje habitual;";
+        } else if (CamposLinea.igual(arena, inicioInfo, finInfo, "HNH")) {
+            prefijo = "Habitaje no habitual;";
+        } else if ("G".equals(tipo)) {
+            if (CamposLinea.igual(arena, inicioInfo, finInfo, "A")) {
+                prefijo = "Abierta;";
+            } else if (CamposLinea.igual(arena, inicioInfo, finInfo, "C")) {
+                prefijo = "Cerrada;";
+            }
+        }
+        if (prefijo == null) {
+            // Los dos campos son contiguos en la línea: "info;extra"
+            return textoCompartido(arena, inicioInfo, finExtra, campos, textos);
+        }
+        return prefijo + textoCompartido(arena, inicioExtra, finExtra, campos, textos);
+    }
+
+    /**
+     * Devuelve una única instancia de String para textos que se repiten mucho
+     * (tipo de propiedad, "VH;2", "A;N"...). A partir de cierto número de textos
+     * distintos se deja de compartir para no crecer sin límite.
+     */
+    private String textoCompartido(ByteBuffer buffer, int desde, int hasta, CamposLinea campos, TablaBytes<String> textos) {
+        String texto = textos.get(buffer, desde, hasta);
+        if (texto == null) {
+            texto = campos.decodificar(buffer, desde, hasta);
+            if (textos.size() < MAX_TEXTOS_COMPARTIDOS) {
+                textos.put(copiar(buffer, desde, hasta), texto);
+            }
+        }
+        return texto;
+    }
+
+    /**
+     * Analiza el archivo de gastos desde un stream.
+     *
+     * @see FileParser#parseGastos(InputStream, Comunidad)
+     */
+    public List<Gasto> parseGastos(InputStream input, Comunidad comunidad) throws IOException {
+        return parsePresupuesto(input, comunidad, ProgresoProcesado.NINGUNO).gastos();
+    }
+
+    /**
+     * Analiza el archivo de gastos desde un stream, avisando de las líneas leídas.
+     *
+     * @see FileParser#parseGastos(InputStream, Comunidad)
+     */
+    public List<Gasto> parseGastos(InputStream input, Comunidad comunidad, ProgresoProcesado progreso) throws IOException {
+        return parsePresupuesto(input, comunidad, progreso).gastos();
+    }
+
+    /**
+     * Analiza el archivo de gastos leyéndolo por bloques desde el canal del fichero.
+     *
+     * @see FileParser#parseGastos(InputStream, Comunidad)
+     */
+    public List<Gasto> parseGastos(Path fichero, Comunidad comunidad) throws IOException {
+        return parsePresupuesto(fichero, comunidad).gastos();
+    }
+
+    /**
+     * Analiza el archivo de gastos desde un stream y devuelve también el año de su cabecera.
+     *
+     * @see FileParser#parsePresupuesto(InputStream, Comunidad, ProgresoProcesado)
+     */
+    public FileParser.Presupuesto parsePresupuesto(InputStream input, Comunidad comunidad,
+                                                   ProgresoProcesado progreso) throws IOException {
+        try (LectorLineas lector = LectorLineas.de(input)) {
+            return parsePresupuesto(lector, comunidad, progreso);
+        }
+    }
+
+    /**
+     * Analiza el archivo de gastos de un fichero y devuelve también el año de su cabecera.
+     *
+     * @see FileParser#parsePresupuesto(InputStream, Comunidad, ProgresoProcesado)
+     */
+    public FileParser.Presupuesto parsePresupuesto(Path fichero, Comunidad comunidad) throws IOException {
+        try (LectorLineas lector = LectorLineas.de(fichero)) {
+            return parsePresupuesto(lector, comunidad, ProgresoProcesado.NINGUNO);
+        }
+    }
+
+    private FileParser.Presupuesto parsePresupuesto(LectorLineas lector, Comunidad comunidad,
+                                                    ProgresoProcesado progreso) throws IOException {
+        Integer anio = null;
+        List<Gasto> gastos = new ArrayList<>();
+        CamposLinea campos = new CamposLinea(charset);
+        TablaBytes<Zona> zonasPorId = new TablaBytes<>(comunidad.getZonas().size());
+        comunidad.getZonas().forEach(zona -> zonasPorId.put(zona.getId().getBytes(charset), zona));
+        boolean formatoValido = false;
+        int lineasProcesadas = 0;
+
+        while (lector.siguiente()) {
+            if ((lector.lineas() & (ProgresoProcesado.INTERVALO_LINEAS - 1)) == 0) {
+                progreso.lineasLeidas(lector.lineas());
+            }
+            if (lector.vacia()) continue;
+            ByteBuffer buffer = lector.buffer();
+            int inicio = lector.inicio();
+            int fin = lector.fin();
+
+            // Verificar formato del archivo
+            if (buffer.get(inicio) == '#') {
+                if (CamposLinea.empiezaPor(buffer, inicio, fin, "#Pressupost")
+                    || CamposLinea.empiezaPor(buffer, inicio, fin, "#Presupuesto")) {
+                    formatoValido = true;
+                    // La cabecera es una sola línea: basta con decodificarla para leer el año
+                    anio = FileParser.anioPresupuesto(new String(copiar(buffer, inicio, fin), charset));
+                }
+                continue;
+            }
+
+            // Procesar línea de gasto
+            if (campos.dividir(buffer, inicio, fin, ';') >= 4) {
+                lineasProcesadas++;
+                Gasto gasto = new Gasto();
+                gasto.setId(campos.texto(0));
+                gasto.setDescripcion(campos.texto(1));
+                try {
+                    gasto.setImporte(campos.decimal(2));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Error en formato de importe para el gasto " + gasto.getId());
+                }
+
+                // Verificar que la zona existe
+                Zona zona = zonasPorId.get(buffer, campos.inicio(3), campos.fin(3));
+                if (zona == null) {
+                    throw new IllegalArgumentException("La zona " + campos.texto(3) + " no existe para el gasto " + gasto.getId());
+                }
+                gasto.setZona(zona);
+                gastos.add(gasto);
+            }
+        }
+
+        progreso.lineasLeidas(lector.lineas());
+
+        if (!formatoValido && lineasProcesadas == 0) {
+            throw new IllegalArgumentException("El archivo de gastos no tiene un formato válido.");
+        }
+
+        return new FileParser.Presupuesto(gastos, anio);
+    }
+
+    private static byte[] copiar(ByteBuffer buffer, int desde, int hasta) {
+        byte[] bytes = new byte[hasta - desde];
+        buffer.get(desde, bytes);
+        return bytes;
+    }
+
+    /**
+     * Copia compacta de las líneas de #Propiedad: todos los bytes en un único array
+     * y las posiciones de cada línea en un array de enteros.
+     */
+    private static final class LineasPropiedad {
+        private byte[] bytes = new byte[8192];
+        private int[] limites = new int[256];
+        private int usados;
+        private int numero;
+
+        void anadir(ByteBuffer buffer, int desde, int hasta) {
+            int longitud = hasta - desde;
+            if (usados + longitud > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(usados + longitud, bytes.length * 2));
+            }
+            if (numero * 2 + 2 > limites.length) {
+                limites = Arrays.copyOf(limites, limites.length * 2);
+            }
+            buffer.get(desde, bytes, usados, longitud);
+            limites[numero * 2] = usados;
+            limites[numero * 2 + 1] = usados + longitud;
+            usados += longitud;
+            numero++;
+        }
+
+        int numero() {
+            return numero;
+        }
+
+        int inicio(int linea) {
+            return limites[linea * 2];
+        }
+
+        int fin(int linea) {
+            return limites[linea * 2 + 1];
+        }
+    }
+}
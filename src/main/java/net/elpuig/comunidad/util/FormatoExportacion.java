@@ -0,0 +1,41 @@
+package net.elpuig.comunidad.util;
+
+/**
+ * Formato de las exportaciones de cuotas de {@link ExportadorCuotas}.
+ */
+public enum FormatoExportacion {
+    /** Una fila por propiedad o propietario, separada por ';' como los archivos de entrada */
+    CSV("csv", "text/csv"),
+    /** Un objeto JSON por línea */
+    NDJSON("ndjson", "application/x-ndjson");
+
+    private final String extension;
+    private final String tipoContenido;
+
+    FormatoExportacion(String extension, String tipoContenido) {
+        this.extension = extension;
+        this.tipoContenido = tipoContenido;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getTipoContenido() {
+        return tipoContenido;
+    }
+
+    /**
+     * Obtiene el formato por su extensión, sin distinguir mayúsculas.
+     *
+     * @throws IllegalArgumentException Si el formato no existe
+     */
+    public static FormatoExportacion de(String extension) {
+        for (FormatoExportacion formato : values()) {
+            if (formato.extension.equalsIgnoreCase(extension)) {
+                return formato;
+            }
+        }
+        throw new IllegalArgumentException("Formato de exportación no válido: " + extension);
+    }
+}
@@ -0,0 +1,418 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.PresupuestoAnual;
+import org.springframework.stereotype.Component;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Registro en disco, de solo añadir, de los presupuestos anuales de una comunidad. Cada
+ * publicación añade un registro al final del archivo; al leerlo, el último registro de
+ * cada año sustituye a los anteriores.
+ *
+ * Estructura del archivo: "CMHP" y la versión del formato (2 bytes), seguidos de los
+ * registros. Cada registro lleva su longitud (4 bytes), el CRC32C del cuerpo (4 bytes) y el
+ * cuerpo: año, versión, fecha, número de gastos, total general, zonas con su total,
+ * propiedades y propietarios con su cuota en céntimos. Los enteros son varint (zigzag los
+ * que pueden ser negativos) y los códigos, que van ordenados, solo guardan lo que no
+ * comparten con el anterior.
+ *
+ * Si la aplicación se detiene a mitad de un registro, al leer se descarta lo que sigue al
+ * último registro completo.
+ */
+@Component
+public class HistorialBinario {
+
+    /** Extensión de los archivos de historial */
+    public static final String EXTENSION = ".hist";
+
+    private static final byte[] MAGIA = {'C', 'M', 'H', 'P'};
+    private static final short VERSION_FORMATO = 1;
+    private static final int CABECERA = MAGIA.length + 2;
+    private static final int CABECERA_REGISTRO = 8;
+
+    /**
+     * Contenido leído de un archivo de historial.
+     *
+     * @param presupuestos Último registro de cada año, ordenados por año
+     * @param registros Número de registros válidos del archivo
+     * @param longitudValida Bytes del archivo hasta el final del último registro completo
+     * @param danado Si después de los registros válidos había datos incompletos o dañados
+     */
+    public record Contenido(List<PresupuestoAnual> presupuestos, int registros, long longitudValida,
+                            boolean danado) {
+    }
+
+    /**
+     * Añade un presupuesto al final del archivo, creándolo si no existe. Si el archivo
+     * termina en un registro incompleto, se descarta antes de añadir.
+     *
+     * @param presupuesto Presupuesto a añadir
+     * @param fichero Archivo de historial
+     * @param longitudValida Longitud válida del archivo, o -1 si no se ha leído
+     * @return La nueva longitud del archivo
+     * @throws IOException Si hay un error al escribir
+     */
+    public long anadir(PresupuestoAnual presupuesto, Path fichero, long longitudValida) throws IOException {
+        ByteBuffer registro = registro(presupuesto);
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ)) {
+            long posicion = longitudValida >= 0 ? longitudValida : canal.size();
+            if (posicion < CABECERA) {
+                escribirTodo(canal, cabecera(), 0);
+                posicion = CABECERA;
+            }
+            canal.truncate(posicion);
+            posicion += escribirTodo(canal, registro, posicion);
+            canal.force(false);
+            return posicion;
+        }
+    }
+
+    /**
+     * Reescribe el archivo solo con los presupuestos indicados, sustituyéndolo de forma atómica.
+     *
+     * @param presupuestos Presupuestos a conservar
+     * @param fichero Archivo de historial
+     * @return La longitud del nuevo archivo
+     * @throws IOException Si hay un error al escribir
+     */
+    public long reescribir(Collection<PresupuestoAnual> presupuestos, Path fichero) throws IOException {
+        Path directorio = fichero.toAbsolutePath().getParent();
+        Path temporal = Files.createTempFile(directorio, fichero.getFileName().toString(), ".tmp");
+        try {
+            long posicion;
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                posicion = escribirTodo(canal, cabecera(), 0);
+                for (PresupuestoAnual presupuesto : presupuestos) {
+                    posicion += escribirTodo(canal, registro(presupuesto), posicion);
+                }
+                canal.force(true);
+            }
+            Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return posicion;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        }
+    }
+
+    /**
+     * Lee un archivo de historial. Se lee con el canal, sin proyectarlo en memoria, para no
+     * dejarlo bloqueado al reescribirlo (en Windows, hasta que se liberase la proyección).
+     *
+     * @param fichero Archivo escrito con {@link #anadir}
+     * @param comunidad Código de la comunidad del archivo
+     * @return Los presupuestos válidos del archivo
+     * @throws IOException Si hay un error al leer
+     * @throws IllegalArgumentException Si el archivo no es un historial o es de otra versión del formato
+     */
+    public Contenido leer(Path fichero, String comunidad) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            if (tamano > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("El historial " + fichero + " es demasiado grande");
+            }
+            if (tamano < CABECERA) {
+                return new Contenido(List.of(), 0, 0, tamano > 0);
+            }
+            ByteBuffer datos = ByteBuffer.allocate((int) tamano);
+            while (datos.hasRemaining() && canal.read(datos) >= 0) {
+                // Hasta llenar el buffer o llegar al final
+            }
+            datos.flip();
+            byte[] magia = new byte[MAGIA.length];
+            datos.get(magia);
+            if (!Arrays.equals(magia, MAGIA)) {
+                throw new IllegalArgumentException("El fichero " + fichero + " no es un historial de presupuestos");
+            }
+            short version = datos.getShort();
+            if (version != VERSION_FORMATO) {
+                throw new IllegalArgumentException("Versión de historial no compatible: " + version);
+            }
+
+            TreeMap<Integer, PresupuestoAnual> porAnio = new TreeMap<>();
+            int registros = 0;
+            long valida = CABECERA;
+            boolean danado = false;
+            while (datos.remaining() > 0) {
+                if (datos.remaining() < CABECERA_REGISTRO) {
+                    danado = true;
+                    break;
+                }
+                int longitud = datos.getInt();
+                int checksum = datos.getInt();
+                if (longitud < 0 || longitud > datos.remaining()) {
+                    danado = true;
+                    break;
+                }
+                ByteBuffer cuerpo = datos.slice(datos.position(), longitud);
+                CRC32C crc = new CRC32C();
+                crc.update(cuerpo.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    danado = true;
+                    break;
+                }
+                PresupuestoAnual presupuesto;
+                try {
+                    presupuesto = leerCuerpo(new Lector(cuerpo), comunidad);
+                } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                    danado = true;
+                    break;
+                }
+                porAnio.put(presupuesto.getAnio(), presupuesto);
+                registros++;
+                datos.position(datos.position() + longitud);
+                valida = datos.position();
+            }
+            return new Contenido(new ArrayList<>(porAnio.values()), registros, valida, danado);
+        }
+    }
+
+    private static ByteBuffer cabecera() {
+        return ByteBuffer.allocate(CABECERA).put(MAGIA).putShort(VERSION_FORMATO).flip();
+    }
+
+    private static int escribirTodo(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        int escritos = 0;
+        while (buffer.hasRemaining()) {
+            escritos += canal.write(buffer, posicion + escritos);
+        }
+        return escritos;
+    }
+
+    private static ByteBuffer registro(PresupuestoAnual presupuesto) {
+        Escritor out = new Escritor(64 + presupuesto.numeroPropiedades() * 12 + presupuesto.numeroPropietarios() * 24);
+        out.varint(presupuesto.getAnio());
+        out.varint(presupuesto.getVersion());
+        out.zigzag(presupuesto.getRegistrado() != null ? presupuesto.getRegistrado().toEpochMilli() : 0);
+        out.varint(presupuesto.getNumeroGastos());
+        out.importe(presupuesto.getTotalGeneral());
+
+        out.varint(presupuesto.numeroZonas());
+        for (int i = 0; i < presupuesto.numeroZonas(); i++) {
+            out.texto(presupuesto.zona(i));
+            out.texto(presupuesto.nombreZona(i));
+            out.importe(presupuesto.totalZona(i));
+        }
+
+        out.varint(presupuesto.numeroPropiedades());
+        String anterior = "";
+        for (int i = 0; i < presupuesto.numeroPropiedades(); i++) {
+            anterior = out.codigo(anterior, presupuesto.codigoPropiedad(i));
+            out.zigzag(presupuesto.centimosPropiedad(i));
+        }
+
+        out.varint(presupuesto.numeroPropietarios());
+        anterior = "";
+        for (int i = 0; i < presupuesto.numeroPropietarios(); i++) {
+            anterior = out.codigo(anterior, presupuesto.codigoPropietario(i));
+            out.texto(presupuesto.nombrePropietario(i));
+            out.zigzag(presupuesto.centimosPropietario(i));
+        }
+
+        byte[] cuerpo = out.bytes();
+        CRC32C crc = new CRC32C();
+        crc.update(cuerpo, 0, out.size());
+        return ByteBuffer.allocate(CABECERA_REGISTRO + out.size())
+            .putInt(out.size())
+            .putInt((int) crc.getValue())
+            .put(cuerpo, 0, out.size())
+            .flip();
+    }
+
+    private static PresupuestoAnual leerCuerpo(Lector in, String comunidad) {
+        int anio = in.varint();
+        long version = in.varlong();
+        Instant registrado = Instant.ofEpochMilli(in.zigzag());
+        int numeroGastos = in.varint();
+        BigDecimal totalGeneral = in.importe();
+
+        int numeroZonas = in.varint();
+        String[] zonas = new String[numeroZonas];
+        String[] nombresZona = new String[numeroZonas];
+        BigDecimal[] totalesZona = new BigDecimal[numeroZonas];
+        for (int i = 0; i < numeroZonas; i++) {
+            zonas[i] = in.texto();
+            nombresZona[i] = in.texto();
+            totalesZona[i] = in.importe();
+        }
+
+        int numeroPropiedades = in.varint();
+        String[] codigosPropiedad = new String[numeroPropiedades];
+        long[] centimosPropiedad = new long[numeroPropiedades];
+        String anterior = "";
+        for (int i = 0; i < numeroPropiedades; i++) {
+            anterior = in.codigo(anterior);
+            codigosPropiedad[i] = anterior;
+            centimosPropiedad[i] = in.zigzag();
+        }
+
+        int numeroPropietarios = in.varint();
+        String[] codigosPropietario = new String[numeroPropietarios];
+        String[] nombresPropietario = new String[numeroPropietarios];
+        long[] centimosPropietario = new long[numeroPropietarios];
+        anterior = "";
+        for (int i = 0; i < numeroPropietarios; i++) {
+            anterior = in.codigo(anterior);
+            codigosPropietario[i] = anterior;
+            nombresPropietario[i] = in.texto();
+            centimosPropietario[i] = in.zigzag();
+        }
+
+        return new PresupuestoAnual(comunidad, anio, version, registrado, numeroGastos, totalGeneral,
+            zonas, nombresZona, totalesZona, codigosPropiedad, centimosPropiedad,
+            codigosPropietario, nombresPropietario, centimosPropietario);
+    }
+
+    /**
+     * Escritura de varints y textos en memoria. Cada registro se compone entero antes de
+     * escribirlo para poder calcular su longitud y su checksum.
+     */
+    private static final class Escritor extends ByteArrayOutputStream {
+
+        Escritor(int capacidad) {
+            super(capacidad);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        void varint(long valor) {
+            while ((valor & ~0x7FL) != 0) {
+                write((int) ((valor & 0x7F) | 0x80));
+                valor >>>= 7;
+            }
+            write((int) valor);
+        }
+
+        void zigzag(long valor) {
+            varint((valor << 1) ^ (valor >> 63));
+        }
+
+        /** Longitud + 1 (0 = null) y UTF-8 */
+        void texto(String texto) {
+            if (texto == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Caracteres compartidos con el código anterior y el resto en UTF-8.
+         *
+         * @return El código escrito, que será el anterior del siguiente
+         */
+        String codigo(String anterior, String codigo) {
+            int comunes = 0;
+            int maximo = Math.min(anterior.length(), codigo.length());
+            while (comunes < maximo && anterior.charAt(comunes) == codigo.charAt(comunes)) {
+                comunes++;
+            }
+            // No se parte un par sustituto entre el prefijo y el resto
+            if (comunes > 0 && Character.isHighSurrogate(codigo.charAt(comunes - 1))) {
+                comunes--;
+            }
+            varint(comunes);
+            byte[] resto = codigo.substring(comunes).getBytes(StandardCharsets.UTF_8);
+            varint(resto.length);
+            write(resto, 0, resto.length);
+            return codigo;
+        }
+
+        /** Escala + 1 (0 = null) y valor sin escala */
+        void importe(BigDecimal importe) {
+            if (importe == null) {
+                varint(0);
+                return;
+            }
+            if (importe.scale() < 0) {
+                importe = importe.setScale(0);
+            }
+            long sinEscala;
+            try {
+                sinEscala = importe.unscaledValue().longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("El importe " + importe + " no cabe en el historial");
+            }
+            varint(importe.scale() + 1L);
+            zigzag(sinEscala);
+        }
+    }
+
+    /**
+     * Lectura de varints y textos sobre un registro ya leído.
+     */
+    private static final class Lector {
+        private final ByteBuffer buffer;
+
+        Lector(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        long varlong() {
+            long valor = 0;
+            for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+                byte b = buffer.get();
+                valor |= (long) (b & 0x7F) << desplazamiento;
+                if (b >= 0) {
+                    return valor;
+                }
+            }
+            throw new IndexOutOfBoundsException("varint demasiado largo");
+        }
+
+        int varint() {
+            long valor = varlong();
+            if (valor > Integer.MAX_VALUE) {
+                throw new IndexOutOfBoundsException("varint fuera de rango");
+            }
+            return (int) valor;
+        }
+
+        long zigzag() {
+            long valor = varlong();
+            return (valor >>> 1) ^ -(valor & 1);
+        }
+
+        private String utf8(int longitud) {
+            byte[] bytes = new byte[longitud];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String texto() {
+            int longitud = varint();
+            return longitud > 0 ? utf8(longitud - 1) : null;
+        }
+
+        String codigo(String anterior) {
+            int comunes = varint();
+            if (comunes > anterior.length()) {
+                throw new IndexOutOfBoundsException("prefijo fuera de rango");
+            }
+            return anterior.substring(0, comunes).concat(utf8(varint()));
+        }
+
+        BigDecimal importe() {
+            int escala = varint();
+            return escala > 0 ? BigDecimal.valueOf(zigzag(), escala - 1) : null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package net.elpuig.comunidad.util;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lector de líneas que trabaja directamente sobre bytes, sin decodificar a String.
+ * Las líneas se exponen como rangos [inicio, fin) sobre el buffer actual, ya recortados
+ * igual que {@link String#trim()}. El rango solo es válido hasta la siguiente llamada
+ * a {@link #siguiente()}. Como {@link java.io.BufferedReader#readLine()}, una línea termina
+ * en {@code '\n'}, en {@code '\r'} o en {@code "\r\n"}.
+ *
+ * Se lee por bloques desde un canal NIO reutilizando el mismo buffer. Los ficheros no se
+ * proyectan en memoria: la proyección no se libera hasta que la recoge el GC y, en Windows,
+ * mientras tanto no se puede borrar ni sustituir el fichero. Un fichero pequeño se lee de
+ * una vez en un buffer de su tamaño.
+ */
+public final class LectorLineas implements Closeable {
+
+    private static final int TAM_BLOQUE = 64 * 1024;
+    /** Tamaño máximo del buffer de lectura de un fichero */
+    private static final int TAM_BLOQUE_FICHERO = 1024 * 1024;
+
+    private final ReadableByteChannel canal;
+    private ByteBuffer buffer;
+    private boolean finDatos;
+    private int posicion;
+    private int inicio;
+    private int fin;
+    private long lineas;
+    /** La última línea terminó en '\r': si el siguiente byte es '\n', es parte del mismo salto */
+    private boolean trasRetorno;
+
+    private LectorLineas(ReadableByteChannel canal, ByteBuffer buffer, boolean finDatos) {
+        this.canal = canal;
+        this.buffer = buffer;
+        this.finDatos = finDatos;
+    }
+
+    /**
+     * Crea un lector sobre un stream. Si el stream es un fichero se lee desde su canal.
+     */
+    public static LectorLineas de(InputStream input) throws IOException {
+        if (input instanceof FileInputStream fis) {
+            return deCanalFichero(fis.getChannel());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(TAM_BLOQUE);
+        buffer.limit(0);
+        return new LectorLineas(Channels.newChannel(input), buffer, false);
+    }
+
+    /**
+     * Crea un lector sobre un fichero.
+     */
+    public static LectorLineas de(Path fichero) throws IOException {
+        return deCanalFichero(FileChannel.open(fichero, StandardOpenOption.READ));
+    }
+
+    private static LectorLineas deCanalFichero(FileChannel canal) throws IOException {
+        long restante = canal.size() - canal.position();
+        // Un byte más que el fichero para que la primera lectura ya encuentre el final
+        int tamano = (int) Math.max(TAM_BLOQUE, Math.min(restante + 1, TAM_BLOQUE_FICHERO));
+        ByteBuffer buffer = ByteBuffer.allocate(tamano);
+        buffer.limit(0);
+        return new LectorLineas(canal, buffer, false);
+    }
+
+    /**
+     * Avanza a la siguiente línea.
+     *
+     * @return false si no quedan más líneas
+     */
+    public boolean siguiente() throws IOException {
+        while (true) {
+            int limite = buffer.limit();
+            if (trasRetorno) {
+                if (posicion == limite && !finDatos) {
+                    rellenar();
+                    continue;
+                }
+                if (posicion < limite && buffer.get(posicion) == '\n') {
+                    posicion++;
+                }
+                trasRetorno = false;
+            }
+            for (int i = posicion; i < limite; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    marcarLinea(posicion, i);
+                    posicion = i + 1;
+                    trasRetorno = b == '\r';
+                    return true;
+                }
+            }
+            if (finDatos) {
+                if (posicion >= limite) {
+                    return false;
+                }
+                // Última línea sin salto final
+                marcarLinea(posicion, limite);
+                posicion = limite;
+                return true;
+            }
+            rellenar();
+        }
+    }
+
+    /**
+     * Mueve los bytes pendientes al principio del buffer y lee más datos del canal.
+     * Si una línea no cabe en el buffer, este se duplica.
+     */
+    private void rellenar() throws IOException {
+        int pendientes = buffer.limit() - posicion;
+        if (posicion == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer mayor = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.position(0);
+            mayor.put(buffer);
+            buffer = mayor;
+        } else {
+            buffer.position(posicion);
+            buffer.compact();
+        }
+        buffer.position(pendientes);
+        buffer.limit(buffer.capacity());
+        int leidos = 0;
+        while (leidos == 0) {
+            leidos = canal.read(buffer);
+        }
+        if (leidos < 0) {
+            finDatos = true;
+        }
+        buffer.limit(buffer.position());
+        posicion = 0;
+    }
+
+    private void marcarLinea(int desde, int hasta) {
+        // Mismo criterio que String.trim(): se descartan los bytes <= ' '
+        while (desde < hasta && (buffer.get(desde) & 0xFF) <= ' ') {
+            desde++;
+        }
+        while (hasta > desde && (buffer.get(hasta - 1) & 0xFF) <= ' ') {
+            hasta--;
+        }
+        inicio = desde;
+        fin = hasta;
+        lineas++;
+    }
+
+    /** Buffer sobre el que se definen los rangos de la línea actual */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /** Posición del primer byte de la línea actual */
+    public int inicio() {
+        return inicio;
+    }
+
+    /** Posición siguiente al último byte de la línea actual */
+    public int fin() {
+        return fin;
+    }
+
+    /** Líneas leídas hasta ahora, incluida la actual */
+    public long lineas() {
+        return lineas;
+    }
+
+    /** Indica si la línea actual está vacía tras el recorte */
+    public boolean vacia() {
+        return inicio == fin;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+}
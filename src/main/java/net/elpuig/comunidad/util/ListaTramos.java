@@ -0,0 +1,86 @@
+package net.elpuig.comunidad.util;
+
+import java.util.*;
+
+/**
+ * Lista de solo lectura guardada en tramos de tamaño fijo, para sacar versiones de una lista
+ * grande que solo cambian en unas pocas posiciones. La versión nueva copia el array de tramos
+ * y los tramos con algún cambio y comparte el resto con la anterior, así que cambiar k
+ * elementos cuesta {@code size() / TAMANO_TRAMO + k * TAMANO_TRAMO} en lugar de copiar la lista.
+ * Las listas de propiedades y propietarios de las comunidades recalculadas se guardan así.
+ *
+ * @param <E> Tipo de los elementos
+ */
+public final class ListaTramos<E> extends AbstractList<E> implements RandomAccess {
+
+    /** Elementos por tramo; potencia de dos para localizar un elemento con desplazamientos */
+    static final int TAMANO_TRAMO = 1024;
+    private static final int BITS_TRAMO = Integer.numberOfTrailingZeros(TAMANO_TRAMO);
+
+    private final Object[][] tramos;
+    private final int size;
+
+    private ListaTramos(Object[][] tramos, int size) {
+        this.tramos = tramos;
+        this.size = size;
+    }
+
+    /**
+     * Devuelve la lista en tramos; si ya lo está se devuelve tal cual y si no se copia una vez.
+     *
+     * @param lista Lista original, que no se modifica
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> ListaTramos<E> de(List<? extends E> lista) {
+        if (lista instanceof ListaTramos<?> tramos) {
+            return (ListaTramos<E>) tramos;
+        }
+        int size = lista.size();
+        Object[][] tramos = new Object[(size + TAMANO_TRAMO - 1) >>> BITS_TRAMO][];
+        Iterator<? extends E> elementos = lista.iterator();
+        for (int t = 0; t < tramos.length; t++) {
+            tramos[t] = new Object[Math.min(TAMANO_TRAMO, size - (t << BITS_TRAMO))];
+            for (int i = 0; i < tramos[t].length; i++) {
+                tramos[t][i] = elementos.next();
+            }
+        }
+        return new ListaTramos<>(tramos, size);
+    }
+
+    /**
+     * Devuelve una versión de la lista con algunos elementos sustituidos. Esta lista no cambia.
+     *
+     * @param cambios Elementos nuevos indexados por su posición
+     * @return La lista nueva, que comparte con esta los tramos sin cambios
+     * @throws IndexOutOfBoundsException Si alguna posición no está en la lista
+     */
+    public ListaTramos<E> con(Map<Integer, ? extends E> cambios) {
+        if (cambios.isEmpty()) {
+            return this;
+        }
+        Object[][] nuevos = tramos.clone();
+        boolean[] copiados = new boolean[tramos.length];
+        cambios.forEach((posicion, elemento) -> {
+            Objects.checkIndex(posicion, size);
+            int t = posicion >>> BITS_TRAMO;
+            if (!copiados[t]) {
+                nuevos[t] = tramos[t].clone();
+                copiados[t] = true;
+            }
+            nuevos[t][posicion & (TAMANO_TRAMO - 1)] = elemento;
+        });
+        return new ListaTramos<>(nuevos, size);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        Objects.checkIndex(index, size);
+        return (E) tramos[index >>> BITS_TRAMO][index & (TAMANO_TRAMO - 1)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
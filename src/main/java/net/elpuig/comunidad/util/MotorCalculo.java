@@ -0,0 +1,11 @@
+package net.elpuig.comunidad.util;
+
+/**
+ * Motor de cálculo utilizado por {@link CalculadoraCuotas}.
+ */
+public enum MotorCalculo {
+    /** BigDecimal con redondeo hacia arriba en cada cuota (comportamiento original) */
+    BIG_DECIMAL,
+    /** Céntimos en long con reparto del sobrante por mayor resto: cada zona suma exactamente su total */
+    CENTIMOS
+}
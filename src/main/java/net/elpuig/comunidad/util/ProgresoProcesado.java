@@ -0,0 +1,40 @@
+package net.elpuig.comunidad.util;
+
+/**
+ * Recibe el avance del procesado de una comunidad mientras se ejecuta. Los parsers avisan de
+ * las líneas leídas cada {@link #INTERVALO_LINEAS} líneas y al terminar cada archivo, y la
+ * calculadora de cada zona repartida; en el cálculo paralelo los avisos llegan desde varios
+ * hilos, así que las implementaciones deben ser seguras entre hilos y baratas.
+ */
+public interface ProgresoProcesado {
+
+    /** Procesado sin seguimiento */
+    ProgresoProcesado NINGUNO = new ProgresoProcesado() {
+    };
+
+    /** Líneas leídas entre dos avisos de los parsers; potencia de dos */
+    int INTERVALO_LINEAS = 1 << 16;
+
+    /**
+     * Empieza una fase del procesado.
+     *
+     * @param fase Nombre de la fase, el mismo que en las métricas de duración
+     */
+    default void fase(String fase) {
+    }
+
+    /**
+     * Líneas leídas hasta ahora del archivo que se está analizando, incluidas las vacías.
+     */
+    default void lineasLeidas(long lineas) {
+    }
+
+    /**
+     * Zonas con gastos ya repartidas.
+     *
+     * @param repartidas Zonas terminadas
+     * @param total Zonas con gastos de la comunidad
+     */
+    default void zonasRepartidas(int repartidas, int total) {
+    }
+}
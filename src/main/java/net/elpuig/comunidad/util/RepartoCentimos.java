@@ -0,0 +1,172 @@
+package net.elpuig.comunidad.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Reparto de importes en céntimos (aritmética entera en {@code long}).
+ * Cada propiedad recibe la parte entera de su cuota y los céntimos sobrantes se
+ * asignan por el método del mayor resto: primero a las propiedades con mayor resto y,
+ * en caso de empate, a la que aparece antes en la zona. Así la suma de las cuotas de
+ * una zona coincide siempre, céntimo a céntimo, con el total de la zona.
+ *
+ * Los arrays de trabajo se reutilizan entre zonas, por lo que una instancia no debe
+ * compartirse entre hilos. El array devuelto por los métodos de reparto solo es
+ * válido hasta la siguiente llamada.
+ */
+public final class RepartoCentimos {
+
+    private long[] cuotas = new long[16];
+    private long[] claves = new long[16];
+    /** Restos ordenados, solo para las zonas cuyas claves no caben en un long */
+    private long[] ordenados = new long[0];
+
+    /**
+     * Reparte un total proporcionalmente a los pesos indicados.
+     *
+     * @param totalCentimos Importe a repartir en céntimos
+     * @param pesos Peso de cada propiedad (porcentaje o pesos compilados de la zona)
+     * @param n Número de propiedades
+     * @param totalPesos Suma de los pesos; debe ser mayor que cero
+     * @return Cuota en céntimos de cada propiedad, en las posiciones [0, n)
+     */
+    public long[] repartirProporcional(long totalCentimos, long[] pesos, int n, long totalPesos) {
+        reservar(n);
+        long repartido = 0;
+        // La clave ordena por resto y, a igualdad de resto, por posición ascendente
+        boolean clavesSinDesbordamiento = totalPesos <= Long.MAX_VALUE / Math.max(n, 1);
+        for (int i = 0; i < n; i++) {
+            long producto = totalCentimos * pesos[i];
+            long cuota;
+            long resto;
+            if (Math.multiplyHigh(totalCentimos, pesos[i]) == (producto >> 63)) {
+                cuota = Math.floorDiv(producto, totalPesos);
+                resto = Math.floorMod(producto, totalPesos);
+            } else {
+                // Pesos grandes (p. ej. fijo + proporcional con muchas propiedades): el producto
+                // no cabe en un long, pero la cuota y el resto sí
+                BigInteger[] division = BigInteger.valueOf(totalCentimos).multiply(BigInteger.valueOf(pesos[i]))
+                    .divideAndRemainder(BigInteger.valueOf(totalPesos));
+                cuota = division[0].longValueExact();
+                resto = division[1].longValueExact();
+                if (resto < 0) {
+                    cuota--;
+                    resto += totalPesos;
+                }
+            }
+            cuotas[i] = cuota;
+            claves[i] = clavesSinDesbordamiento ? resto * n + (n - 1 - i) : resto;
+            repartido += cuota;
+        }
+        long sobrante = totalCentimos - repartido;
+        if (sobrante == 0) {
+            return cuotas;
+        }
+        if (clavesSinDesbordamiento) {
+            Arrays.sort(claves, 0, n);
+            for (long k = 0; k < sobrante; k++) {
+                long clave = claves[n - 1 - (int) (k % n)];
+                int posicion = n - 1 - (int) (clave % n);
+                cuotas[posicion]++;
+            }
+        } else {
+            asignarSobrantePorUmbral(sobrante, n);
+        }
+        return cuotas;
+    }
+
+    /**
+     * Reparte un total a partes iguales. Los céntimos sobrantes van a las primeras propiedades.
+     *
+     * @param totalCentimos Importe a repartir en céntimos
+     * @param n Número de propiedades; debe ser mayor que cero
+     * @return Cuota en céntimos de cada propiedad, en las posiciones [0, n)
+     */
+    public long[] repartirIgualitario(long totalCentimos, int n) {
+        reservar(n);
+        long cuota = Math.floorDiv(totalCentimos, (long) n);
+        long sobrante = Math.floorMod(totalCentimos, (long) n);
+        for (int i = 0; i < n; i++) {
+            cuotas[i] = i < sobrante ? cuota + 1 : cuota;
+        }
+        return cuotas;
+    }
+
+    /**
+     * Caso en que resto * n no cabe en un long (pesos muy grandes con muchas propiedades), así
+     * que {@code claves} solo tiene el resto. Se ordena una copia de los restos para hallar el
+     * menor resto que recibe céntimo: reciben uno todas las propiedades con un resto mayor y,
+     * de las que lo tienen igual, las primeras hasta completar el sobrante. El resultado es el
+     * mismo que con las claves empaquetadas, en O(n log n).
+     */
+    private void asignarSobrantePorUmbral(long sobrante, int n) {
+        long vueltas = sobrante / n;
+        int resto = (int) (sobrante % n);
+        if (vueltas > 0) {
+            for (int i = 0; i < n; i++) {
+                cuotas[i] += vueltas;
+            }
+        }
+        if (resto == 0) {
+            return;
+        }
+        if (ordenados.length < n) {
+            ordenados = new long[Math.max(n, cuotas.length)];
+        }
+        System.arraycopy(claves, 0, ordenados, 0, n);
+        Arrays.sort(ordenados, 0, n);
+        long umbral = ordenados[n - resto];
+        // De las que reciben céntimo, cuántas tienen justo el resto umbral
+        int empatadas = 0;
+        for (int i = n - resto; i < n && ordenados[i] == umbral; i++) {
+            empatadas++;
+        }
+        for (int i = 0; i < n; i++) {
+            if (claves[i] > umbral) {
+                cuotas[i]++;
+            } else if (claves[i] == umbral && empatadas > 0) {
+                cuotas[i]++;
+                empatadas--;
+            }
+        }
+    }
+
+    private void reservar(int n) {
+        if (cuotas.length < n) {
+            int capacidad = Math.max(n, cuotas.length * 2);
+            cuotas = new long[capacidad];
+            claves = new long[capacidad];
+        }
+    }
+
+    /**
+     * Convierte el total de una zona a céntimos sin redondearlo.
+     *
+     * @throws IllegalArgumentException Si el total tiene fracciones de céntimo
+     */
+    public static long totalACentimos(BigDecimal total) {
+        BigDecimal exacto;
+        try {
+            exacto = total.setScale(2, RoundingMode.UNNECESSARY);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("El total " + total.toPlainString() + " tiene más de dos decimales");
+        }
+        return exacto.unscaledValue().longValueExact();
+    }
+
+    /**
+     * Convierte un importe a céntimos, redondeando al céntimo más próximo.
+     */
+    public static long aCentimos(BigDecimal importe) {
+        return importe.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Convierte céntimos a un importe con dos decimales.
+     */
+    public static BigDecimal deCentimos(long centimos) {
+        return BigDecimal.valueOf(centimos, 2);
+    }
+}
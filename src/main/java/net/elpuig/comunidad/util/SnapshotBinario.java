@@ -0,0 +1,645 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.*;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Formato binario compacto de una comunidad ya calculada, para guardarla en disco y volver
+ * a cargarla sin parsear los archivos de texto ni recalcular las cuotas.
+ *
+ * Estructura del archivo (los enteros se escriben como varint y los que pueden ser
+ * negativos en zigzag):
+ * <ul>
+ *   <li>Cabecera fija: "CMSN", versión del formato (2 bytes), 2 bytes reservados, longitud
+ *       del cuerpo (8 bytes) y CRC32C del cuerpo (4 bytes).</li>
+ *   <li>Ficha: versión publicada de la comunidad, sus datos generales con los textos en línea, número de propiedades, propietarios y gastos, y
+ *       totales. Permite listar las comunidades guardadas leyendo solo el principio de cada
+ *       archivo ({@link #leerFicha(Path)}).</li>
+ *   <li>Diccionario con cada texto distinto una sola vez, en UTF-8. El resto del archivo
+ *       se refiere a los textos por su posición en el diccionario (0 = null).</li>
+ *   <li>Comunidad con el año de su presupuesto, zonas con los parámetros de su reparto,
+ *       propietarios, propiedades con sus porcentajes y cuotas por zona, gastos, totales por zona y total general. Zonas y propietarios se referencian por
+ *       su posición. Los importes se guardan como entero sin escala más la escala, es
+ *       decir, en céntimos para los importes con dos decimales.</li>
+ * </ul>
+ *
+ * Al leer la comunidad, el archivo se lee entero en un buffer y se comprueba el checksum antes de
+ * decodificar nada. La comunidad devuelta tiene sus cuotas y totales, pero no los datos derivados (índice
+ * de zonas, cuotas por propietario), que se reconstruyen al publicarla.
+ */
+@Component
+public class SnapshotBinario {
+
+    /** Extensión de los archivos de snapshot */
+    public static final String EXTENSION = ".snap";
+
+    private static final byte[] MAGIA = {'C', 'M', 'S', 'N'};
+    private static final short VERSION_FORMATO = 1;
+    private static final int CABECERA = 20;
+    private static final int TAM_BUFFER = 64 * 1024;
+    /** Bytes que se leen para obtener la ficha */
+    private static final int TAM_FICHA = 64 * 1024;
+    /** Máximo de importes distintos que se reutilizan al leer */
+    private static final int MAX_IMPORTES_COMPARTIDOS = 65536;
+
+    /**
+     * Comunidad leída de un snapshot junto con su ficha.
+     *
+     * @param ficha Datos generales y versión publicada
+     * @param comunidad Comunidad, con listas modificables y sin datos derivados
+     */
+    public record Contenido(FilaComunidad ficha, Comunidad comunidad) {
+    }
+
+    /**
+     * Escribe la comunidad en el fichero indicado sin versión publicada (0).
+     *
+     * @see #escribir(Comunidad, long, Path)
+     */
+    public void escribir(Comunidad comunidad, Path fichero) throws IOException {
+        escribir(comunidad, 0, fichero);
+    }
+
+    /**
+     * Escribe la comunidad en el fichero indicado. Se escribe primero en un temporal del mismo
+     * directorio que luego sustituye al fichero, así que nunca queda un snapshot a medias.
+     *
+     * @param comunidad Comunidad ya calculada; no debe modificarse mientras se escribe
+     * @param version Versión publicada de la comunidad, que se guarda en la ficha
+     * @param fichero Fichero de destino
+     * @throws IOException Si hay un error al escribir
+     * @throws IllegalArgumentException Si algún importe no cabe en el formato
+     */
+    public void escribir(Comunidad comunidad, long version, Path fichero) throws IOException {
+        Path directorio = fichero.toAbsolutePath().getParent();
+        Path temporal = Files.createTempFile(directorio, fichero.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                canal.position(CABECERA);
+                Escritor out = new Escritor(canal);
+                escribirFicha(comunidad, version, out);
+                escribirCuerpo(comunidad, out);
+                out.vaciar();
+
+                ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+                cabecera.put(MAGIA).putShort(VERSION_FORMATO).putShort((short) 0)
+                    .putLong(out.longitud).putInt((int) out.crc.getValue()).flip();
+                long posicion = 0;
+                while (cabecera.hasRemaining()) {
+                    posicion += canal.write(cabecera, posicion);
+                }
+                canal.force(true);
+            }
+            Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        }
+    }
+
+    /**
+     * Lee una comunidad de un fichero de snapshot.
+     *
+     * @param fichero Fichero escrito con {@link #escribir(Comunidad, long, Path)}
+     * @return La comunidad, con listas modificables y sin datos derivados
+     * @throws IOException Si hay un error al leer
+     * @throws IllegalArgumentException Si el fichero no es un snapshot, es de otra versión
+     *         del formato o está dañado
+     */
+    public Comunidad leer(Path fichero) throws IOException {
+        return leerContenido(fichero).comunidad();
+    }
+
+    /**
+     * Lee la comunidad de un fichero de snapshot junto con su ficha.
+     *
+     * @see #leer(Path)
+     */
+    public Contenido leerContenido(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            ByteBuffer datos = leerDatos(canal, fichero, Integer.MAX_VALUE);
+            ByteBuffer cuerpo = datos.slice(CABECERA, datos.limit() - CABECERA);
+            CRC32C crc = new CRC32C();
+            crc.update(cuerpo.duplicate());
+            if ((int) crc.getValue() != datos.getInt(CABECERA - 4)) {
+                throw danado(fichero);
+            }
+            try {
+                Lector in = new Lector(cuerpo);
+                FilaComunidad ficha = leerFicha(in);
+                return new Contenido(ficha, leerCuerpo(in));
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw danado(fichero);
+            }
+        }
+    }
+
+    /**
+     * Lee solo la ficha de un snapshot, sin decodificar la comunidad ni comprobar el checksum
+     * del cuerpo, que se comprueba al leerla entera.
+     *
+     * @param fichero Fichero de snapshot
+     * @return La ficha
+     * @throws IOException Si hay un error al leer
+     * @throws IllegalArgumentException Si el fichero no es un snapshot, es de otra versión
+     *         del formato o está dañado
+     */
+    public FilaComunidad leerFicha(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            // La ficha está al principio: basta con leer los primeros bytes, salvo que sea más larga
+            ByteBuffer datos = leerDatos(canal, fichero, TAM_FICHA);
+            try {
+                return leerFicha(new Lector(datos.slice(CABECERA, datos.limit() - CABECERA)));
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                if (datos.limit() < canal.size()) {
+                    canal.position(0);
+                    datos = leerDatos(canal, fichero, Integer.MAX_VALUE);
+                    try {
+                        return leerFicha(new Lector(datos.slice(CABECERA, datos.limit() - CABECERA)));
+                    } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e2) {
+                        throw danado(fichero);
+                    }
+                }
+                throw danado(fichero);
+            }
+        }
+    }
+
+    /**
+     * Lee el principio del fichero, como mucho {@code maximo} bytes, y comprueba la cabecera:
+     * formato, versión y longitud. Se lee con el canal en lugar de proyectarlo en memoria para
+     * no dejar el fichero bloqueado (en Windows, hasta que se liberase la proyección no se
+     * podría sustituir al guardar una versión nueva).
+     */
+    private static ByteBuffer leerDatos(FileChannel canal, Path fichero, int maximo) throws IOException {
+        long tamano = canal.size();
+        if (tamano > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("El snapshot " + fichero + " es demasiado grande");
+        }
+        if (tamano < CABECERA) {
+            throw danado(fichero);
+        }
+        ByteBuffer datos = ByteBuffer.allocate((int) Math.min(tamano, Math.max(maximo, CABECERA)));
+        while (datos.hasRemaining() && canal.read(datos) >= 0) {
+            // Hasta llenar el buffer o llegar al final
+        }
+        if (datos.hasRemaining()) {
+            throw danado(fichero);
+        }
+        datos.flip();
+        byte[] magia = new byte[MAGIA.length];
+        datos.get(magia);
+        if (!Arrays.equals(magia, MAGIA)) {
+            throw new IllegalArgumentException("El fichero " + fichero + " no es un snapshot de comunidad");
+        }
+        short version = datos.getShort();
+        if (version != VERSION_FORMATO) {
+            throw new IllegalArgumentException("Versión de snapshot no compatible: " + version);
+        }
+        if (datos.getShort() != 0 || datos.getLong() != tamano - CABECERA) {
+            throw danado(fichero);
+        }
+        return datos;
+    }
+
+    private static IllegalArgumentException danado(Path fichero) {
+        return new IllegalArgumentException("El snapshot " + fichero + " está dañado");
+    }
+
+    private static void escribirFicha(Comunidad comunidad, long version, Escritor out) throws IOException {
+        out.varint(version);
+        out.literal(comunidad.getId());
+        out.literal(comunidad.getNombre());
+        out.literal(comunidad.getPoblacion());
+        out.varint(comunidad.getAnioPresupuesto() != null ? comunidad.getAnioPresupuesto() + 1L : 0);
+        out.varint(lista(comunidad.getPropiedades()).size());
+        out.varint(lista(comunidad.getPropietarios()).size());
+        out.varint(lista(comunidad.getGastos()).size());
+        Map<Zona, BigDecimal> totales = comunidad.getTotalesPorZona();
+        out.varint(totales != null ? totales.size() + 1 : 0);
+        if (totales != null) {
+            for (Map.Entry<Zona, BigDecimal> total : totales.entrySet()) {
+                out.literal(total.getKey().getId());
+                out.importe(total.getValue());
+            }
+        }
+        out.importe(comunidad.getTotalGeneral());
+    }
+
+    private static FilaComunidad leerFicha(Lector in) {
+        long version = in.varlong();
+        String id = in.literal();
+        String nombre = in.literal();
+        String poblacion = in.literal();
+        int anio = in.varint();
+        int propiedades = in.varint();
+        int propietarios = in.varint();
+        int gastos = in.varint();
+        int numeroTotales = in.varint();
+        Map<String, BigDecimal> totales = new LinkedHashMap<>();
+        for (int i = 1; i < numeroTotales; i++) {
+            totales.put(in.literal(), in.importe());
+        }
+        return new FilaComunidad(id, nombre, poblacion, anio > 0 ? anio - 1 : null, version,
+            propiedades, propietarios, gastos, totales, in.importe());
+    }
+
+    private void escribirCuerpo(Comunidad comunidad, Escritor out) throws IOException {
+        List<Zona> zonas = lista(comunidad.getZonas());
+        List<Propietario> propietarios = lista(comunidad.getPropietarios());
+        List<Propiedad> propiedades = lista(comunidad.getPropiedades());
+        List<Gasto> gastos = lista(comunidad.getGastos());
+
+        // Primera pasada: diccionario de textos
+        Map<String, Integer> textos = new HashMap<>();
+        List<String> diccionario = new ArrayList<>();
+        Registro registrar = texto -> {
+            if (texto != null && textos.putIfAbsent(texto, diccionario.size() + 1) == null) {
+                diccionario.add(texto);
+            }
+        };
+        registrar.texto(comunidad.getId());
+        registrar.texto(comunidad.getNombre());
+        registrar.texto(comunidad.getPoblacion());
+        for (Zona zona : zonas) {
+            registrar.texto(zona.getId());
+            registrar.texto(zona.getNombre());
+            registrar.texto(zona.getParametrosReparto());
+        }
+        for (Propietario propietario : propietarios) {
+            registrar.texto(propietario.getCodigo());
+            registrar.texto(propietario.getNombre());
+            registrar.texto(propietario.getDireccion());
+            registrar.texto(propietario.getEmail());
+        }
+        for (Propiedad propiedad : propiedades) {
+            registrar.texto(propiedad.getCodigo());
+            registrar.texto(propiedad.getTipo());
+            registrar.texto(propiedad.getInfoAdicional());
+        }
+        for (Gasto gasto : gastos) {
+            registrar.texto(gasto.getId());
+            registrar.texto(gasto.getDescripcion());
+        }
+
+        out.varint(diccionario.size());
+        for (String texto : diccionario) {
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            out.varint(bytes.length);
+            out.bytes(bytes);
+        }
+
+        // Segunda pasada: estructura, con referencias al diccionario
+        out.texto(textos, comunidad.getId());
+        out.texto(textos, comunidad.getNombre());
+        out.texto(textos, comunidad.getPoblacion());
+        out.varint(comunidad.getAnioPresupuesto() != null ? comunidad.getAnioPresupuesto() + 1L : 0);
+
+        Map<Zona, Integer> posicionesZona = new HashMap<>();
+        out.varint(zonas.size());
+        for (Zona zona : zonas) {
+            posicionesZona.put(zona, posicionesZona.size());
+            out.texto(textos, zona.getId());
+            out.texto(textos, zona.getNombre());
+            out.varint(zona.getTipoReparto());
+            out.texto(textos, zona.getParametrosReparto());
+        }
+
+        Map<String, Integer> posicionesPropietario = new HashMap<>();
+        out.varint(propietarios.size());
+        for (Propietario propietario : propietarios) {
+            posicionesPropietario.put(propietario.getCodigo(), posicionesPropietario.size());
+            out.texto(textos, propietario.getCodigo());
+            out.texto(textos, propietario.getNombre());
+            out.texto(textos, propietario.getDireccion());
+            out.texto(textos, propietario.getEmail());
+        }
+
+        out.varint(propiedades.size());
+        for (Propiedad propiedad : propiedades) {
+            out.texto(textos, propiedad.getCodigo());
+            out.zigzag(propiedad.getMetrosCuadrados());
+            out.varint(propiedad.getPropietario() != null
+                ? posicionesPropietario.get(propiedad.getPropietario().getCodigo()) + 1 : 0);
+            out.texto(textos, propiedad.getTipo());
+            out.texto(textos, propiedad.getInfoAdicional());
+            Map<Zona, Integer> porcentajes = propiedad.getPorcentajesZona();
+            out.varint(porcentajes != null ? porcentajes.size() + 1 : 0);
+            if (porcentajes != null) {
+                for (Map.Entry<Zona, Integer> entrada : porcentajes.entrySet()) {
+                    out.varint(posicion(posicionesZona, entrada.getKey()));
+                    out.zigzag(entrada.getValue());
+                }
+            }
+            escribirImportes(out, posicionesZona, propiedad.getCuotas());
+        }
+
+        out.varint(comunidad.getGastos() != null ? gastos.size() + 1 : 0);
+        for (Gasto gasto : gastos) {
+            out.texto(textos, gasto.getId());
+            out.texto(textos, gasto.getDescripcion());
+            out.importe(gasto.getImporte());
+            out.varint(gasto.getZona() != null ? posicion(posicionesZona, gasto.getZona()) + 1 : 0);
+        }
+
+        escribirImportes(out, posicionesZona, comunidad.getTotalesPorZona());
+        out.importe(comunidad.getTotalGeneral());
+    }
+
+    private static void escribirImportes(Escritor out, Map<Zona, Integer> posicionesZona,
+                                         Map<Zona, BigDecimal> importes) throws IOException {
+        out.varint(importes != null ? importes.size() + 1 : 0);
+        if (importes != null) {
+            for (Map.Entry<Zona, BigDecimal> entrada : importes.entrySet()) {
+                out.varint(posicion(posicionesZona, entrada.getKey()));
+                out.importe(entrada.getValue());
+            }
+        }
+    }
+
+    private static int posicion(Map<Zona, Integer> posicionesZona, Zona zona) {
+        Integer posicion = posicionesZona.get(zona);
+        if (posicion == null) {
+            throw new IllegalArgumentException("La zona " + zona.getId() + " no pertenece a la comunidad");
+        }
+        return posicion;
+    }
+
+    private Comunidad leerCuerpo(Lector in) {
+        String[] diccionario = new String[in.varint() + 1];
+        for (int i = 1; i < diccionario.length; i++) {
+            diccionario[i] = in.utf8(in.varint());
+        }
+
+        Comunidad comunidad = new Comunidad();
+        comunidad.setId(diccionario[in.varint()]);
+        comunidad.setNombre(diccionario[in.varint()]);
+        comunidad.setPoblacion(diccionario[in.varint()]);
+        int anio = in.varint();
+        comunidad.setAnioPresupuesto(anio > 0 ? anio - 1 : null);
+
+        int numeroZonas = in.varint();
+        Zona[] zonas = new Zona[numeroZonas];
+        for (int i = 0; i < numeroZonas; i++) {
+            Zona zona = new Zona();
+            zona.setId(diccionario[in.varint()]);
+            zona.setNombre(diccionario[in.varint()]);
+            zona.setTipoReparto((char) in.varint());
+            zona.setParametrosReparto(diccionario[in.varint()]);
+            zonas[i] = zona;
+        }
+        comunidad.setZonas(new ArrayList<>(Arrays.asList(zonas)));
+
+        int numeroPropietarios = in.varint();
+        Propietario[] propietarios = new Propietario[numeroPropietarios];
+        for (int i = 0; i < numeroPropietarios; i++) {
+            Propietario propietario = new Propietario();
+            propietario.setCodigo(diccionario[in.varint()]);
+            propietario.setNombre(diccionario[in.varint()]);
+            propietario.setDireccion(diccionario[in.varint()]);
+            propietario.setEmail(diccionario[in.varint()]);
+            propietario.setPropiedades(new ArrayList<>());
+            propietarios[i] = propietario;
+        }
+        comunidad.setPropietarios(new ArrayList<>(Arrays.asList(propietarios)));
+
+        // Las propiedades de cada propietario van en el orden de la comunidad, como al parsear
+        int numeroPropiedades = in.varint();
+        List<Propiedad> propiedades = new ArrayList<>(numeroPropiedades);
+        for (int i = 0; i < numeroPropiedades; i++) {
+            Propiedad propiedad = new Propiedad();
+            propiedad.setCodigo(diccionario[in.varint()]);
+            propiedad.setMetrosCuadrados((int) in.zigzag());
+            int propietario = in.varint();
+            if (propietario > 0) {
+                propiedad.setPropietario(propietarios[propietario - 1]);
+                propietarios[propietario - 1].getPropiedades().add(propiedad);
+            }
+            propiedad.setTipo(diccionario[in.varint()]);
+            propiedad.setInfoAdicional(diccionario[in.varint()]);
+            int numeroPorcentajes = in.varint();
+            if (numeroPorcentajes > 0) {
+                Map<Zona, Integer> porcentajes = new HashMap<>();
+                for (int j = 1; j < numeroPorcentajes; j++) {
+                    porcentajes.put(zonas[in.varint()], (int) in.zigzag());
+                }
+                propiedad.setPorcentajesZona(porcentajes);
+            }
+            propiedad.setCuotas(leerImportes(in, zonas));
+            propiedades.add(propiedad);
+        }
+        comunidad.setPropiedades(propiedades);
+
+        int numeroGastos = in.varint();
+        if (numeroGastos > 0) {
+            List<Gasto> gastos = new ArrayList<>(numeroGastos - 1);
+            for (int i = 1; i < numeroGastos; i++) {
+                Gasto gasto = new Gasto();
+                gasto.setId(diccionario[in.varint()]);
+                gasto.setDescripcion(diccionario[in.varint()]);
+                gasto.setImporte(in.importe());
+                int zona = in.varint();
+                gasto.setZona(zona > 0 ? zonas[zona - 1] : null);
+                gastos.add(gasto);
+            }
+            comunidad.setGastos(gastos);
+        }
+
+        comunidad.setTotalesPorZona(leerImportes(in, zonas));
+        comunidad.setTotalGeneral(in.importe());
+        return comunidad;
+    }
+
+    private static Map<Zona, BigDecimal> leerImportes(Lector in, Zona[] zonas) {
+        int numero = in.varint();
+        if (numero == 0) {
+            return null;
+        }
+        Map<Zona, BigDecimal> importes = new HashMap<>();
+        for (int i = 1; i < numero; i++) {
+            importes.put(zonas[in.varint()], in.importe());
+        }
+        return importes;
+    }
+
+    private static <T> List<T> lista(List<T> lista) {
+        return lista != null ? lista : Collections.emptyList();
+    }
+
+    @FunctionalInterface
+    private interface Registro {
+        void texto(String texto);
+    }
+
+    /**
+     * Escritura con buffer sobre el canal, calculando el CRC32C y la longitud de lo escrito.
+     */
+    private static final class Escritor {
+        private final FileChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocate(TAM_BUFFER);
+        private final CRC32C crc = new CRC32C();
+        private long longitud;
+
+        Escritor(FileChannel canal) {
+            this.canal = canal;
+        }
+
+        void byte_(int valor) throws IOException {
+            if (!buffer.hasRemaining()) {
+                vaciar();
+            }
+            buffer.put((byte) valor);
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            int desde = 0;
+            while (desde < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    vaciar();
+                }
+                int n = Math.min(buffer.remaining(), bytes.length - desde);
+                buffer.put(bytes, desde, n);
+                desde += n;
+            }
+        }
+
+        void varint(long valor) throws IOException {
+            while ((valor & ~0x7FL) != 0) {
+                byte_((int) ((valor & 0x7F) | 0x80));
+                valor >>>= 7;
+            }
+            byte_((int) valor);
+        }
+
+        void zigzag(long valor) throws IOException {
+            varint((valor << 1) ^ (valor >> 63));
+        }
+
+        void texto(Map<String, Integer> textos, String texto) throws IOException {
+            varint(texto != null ? textos.get(texto) : 0);
+        }
+
+        /** Texto en línea, fuera del diccionario: longitud en UTF-8 + 1 (0 = null) y bytes */
+        void literal(String texto) throws IOException {
+            if (texto == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1L);
+            bytes(bytes);
+        }
+
+        /** Escala + 1 (0 = null) y valor sin escala */
+        void importe(BigDecimal importe) throws IOException {
+            if (importe == null) {
+                varint(0);
+                return;
+            }
+            if (importe.scale() < 0) {
+                importe = importe.setScale(0);
+            }
+            long sinEscala;
+            try {
+                sinEscala = importe.unscaledValue().longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("El importe " + importe + " no cabe en un snapshot");
+            }
+            varint(importe.scale() + 1L);
+            zigzag(sinEscala);
+        }
+
+        void vaciar() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            longitud += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Lectura de varints y textos sobre el cuerpo ya leído.
+     */
+    private static final class Lector {
+        private final ByteBuffer buffer;
+        private byte[] auxiliar = new byte[256];
+        /** Importes con dos decimales ya leídos; las cuotas de una zona se repiten mucho entre propiedades */
+        private final Map<Long, BigDecimal> importes = new HashMap<>();
+
+        Lector(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        long varlong() {
+            long valor = 0;
+            for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+                byte b = buffer.get();
+                valor |= (long) (b & 0x7F) << desplazamiento;
+                if (b >= 0) {
+                    return valor;
+                }
+            }
+            throw new IndexOutOfBoundsException("varint demasiado largo");
+        }
+
+        int varint() {
+            long valor = varlong();
+            if (valor > Integer.MAX_VALUE) {
+                throw new IndexOutOfBoundsException("varint fuera de rango");
+            }
+            return (int) valor;
+        }
+
+        long zigzag() {
+            long valor = varlong();
+            return (valor >>> 1) ^ -(valor & 1);
+        }
+
+        String utf8(int longitud) {
+            if (longitud > auxiliar.length) {
+                auxiliar = new byte[Math.max(longitud, auxiliar.length * 2)];
+            }
+            buffer.get(auxiliar, 0, longitud);
+            return new String(auxiliar, 0, longitud, StandardCharsets.UTF_8);
+        }
+
+        String literal() {
+            int longitud = varint();
+            return longitud > 0 ? utf8(longitud - 1) : null;
+        }
+
+        BigDecimal importe() {
+            int escala = varint();
+            if (escala == 0) {
+                return null;
+            }
+            long sinEscala = zigzag();
+            if (escala - 1 != 2) {
+                return BigDecimal.valueOf(sinEscala, escala - 1);
+            }
+            BigDecimal importe = importes.get(sinEscala);
+            if (importe == null) {
+                importe = BigDecimal.valueOf(sinEscala, 2);
+                if (importes.size() < MAX_IMPORTES_COMPARTIDOS) {
+                    importes.put(sinEscala, importe);
+                }
+            }
+            return importe;
+        }
+    }
+}
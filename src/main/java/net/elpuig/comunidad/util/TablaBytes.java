@@ -0,0 +1,127 @@
+package net.elpuig.comunidad.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tabla hash de direccionamiento abierto cuyas claves son secuencias de bytes.
+ * Permite buscar zonas, propietarios o textos repetidos a partir de un rango del buffer
+ * de lectura sin crear un String para la clave.
+ *
+ * @param <V> Tipo de los valores almacenados
+ */
+public final class TablaBytes<V> {
+
+    private byte[][] claves;
+    private Object[] valores;
+    private int tamano;
+
+    public TablaBytes() {
+        this(16);
+    }
+
+    public TablaBytes(int capacidadInicial) {
+        int capacidad = Integer.highestOneBit(Math.max(4, capacidadInicial) * 2 - 1);
+        claves = new byte[capacidad][];
+        valores = new Object[capacidad];
+    }
+
+    /**
+     * Busca el valor asociado al rango [desde, hasta) del buffer.
+     *
+     * @return el valor o null si la clave no existe
+     */
+    @SuppressWarnings("unchecked")
+    public V get(ByteBuffer buffer, int desde, int hasta) {
+        int mascara = claves.length - 1;
+        int i = hash(buffer, desde, hasta) & mascara;
+        byte[] clave;
+        while ((clave = claves[i]) != null) {
+            if (iguales(clave, buffer, desde, hasta)) {
+                return (V) valores[i];
+            }
+            i = (i + 1) & mascara;
+        }
+        return null;
+    }
+
+    /**
+     * Asocia un valor a la clave, reemplazando el anterior si existía.
+     */
+    public void put(byte[] clave, V valor) {
+        if ((tamano + 1) * 2 > claves.length) {
+            redimensionar();
+        }
+        ByteBuffer envoltorio = ByteBuffer.wrap(clave);
+        int mascara = claves.length - 1;
+        int i = hash(envoltorio, 0, clave.length) & mascara;
+        while (claves[i] != null) {
+            if (iguales(claves[i], envoltorio, 0, clave.length)) {
+                valores[i] = valor;
+                return;
+            }
+            i = (i + 1) & mascara;
+        }
+        claves[i] = clave;
+        valores[i] = valor;
+        tamano++;
+    }
+
+    public int size() {
+        return tamano;
+    }
+
+    /**
+     * Devuelve los valores almacenados, sin un orden definido.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> valores() {
+        List<V> lista = new ArrayList<>(tamano);
+        for (int i = 0; i < claves.length; i++) {
+            if (claves[i] != null) {
+                lista.add((V) valores[i]);
+            }
+        }
+        return lista;
+    }
+
+    private void redimensionar() {
+        byte[][] clavesAnteriores = claves;
+        Object[] valoresAnteriores = valores;
+        claves = new byte[clavesAnteriores.length * 2][];
+        valores = new Object[clavesAnteriores.length * 2];
+        int mascara = claves.length - 1;
+        for (int j = 0; j < clavesAnteriores.length; j++) {
+            byte[] clave = clavesAnteriores[j];
+            if (clave != null) {
+                int i = hash(ByteBuffer.wrap(clave), 0, clave.length) & mascara;
+                while (claves[i] != null) {
+                    i = (i + 1) & mascara;
+                }
+                claves[i] = clave;
+                valores[i] = valoresAnteriores[j];
+            }
+        }
+    }
+
+    private static int hash(ByteBuffer buffer, int desde, int hasta) {
+        int h = 0x811C9DC5;
+        for (int i = desde; i < hasta; i++) {
+            h = (h ^ buffer.get(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean iguales(byte[] clave, ByteBuffer buffer, int desde, int hasta) {
+        if (clave.length != hasta - desde) {
+            return false;
+        }
+        for (int i = 0; i < clave.length; i++) {
+            if (clave[i] != buffer.get(desde + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+package net.elpuig.comunidad.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import net.elpuig.comunidad.model.CuotasPropietarios;
+import net.elpuig.comunidad.model.Gasto;
+import net.elpuig.comunidad.model.Propietario;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.model.Zona;
+import net.elpuig.comunidad.service.ComunidadService;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * La API responde 304 cuando el cliente ya tiene la versión vigente, recorre las listas
+ * grandes con el cursor sin repetir ni saltarse elementos y rechaza con 409 los cursores
+ * emitidos para una versión anterior de la comunidad. Las cuotas de un propietario son las
+ * del cálculo de la comunidad, y un código desconocido responde 404.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ComunidadApiControllerTest {
+
+	private static final String ID = "API-TEST";
+	private static final int PROPIEDADES = 25;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ComunidadService comunidadService;
+
+	@TempDir
+	Path temporal;
+
+	private SnapshotComunidad snapshot;
+
+	@BeforeEach
+	void cargarComunidad() throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setComunidadId(ID);
+		configuracion.setPropiedades(PROPIEDADES);
+		new GeneradorArchivos(configuracion).escribir(temporal);
+		snapshot = comunidadService.procesarArchivos(temporal.resolve("comunidad.txt"),
+			temporal.resolve("gastos.txt"), ProgresoProcesado.NINGUNO);
+	}
+
+	@Test
+	void respondeNoModificadoConElETagVigente() throws Exception {
+		String etag = mockMvc.perform(get("/api/comunidades/" + ID))
+			.andExpect(status().isOk())
+			.andExpect(header().string("ETag", "\"" + ID + "-" + snapshot.getVersion() + "\""))
+			.andReturn().getResponse().getHeader("ETag");
+
+		mockMvc.perform(get("/api/comunidades/" + ID + "/propiedades").header("If-None-Match", etag))
+			.andExpect(status().isNotModified());
+
+		// Una nueva versión invalida el ETag
+		modificarUnGasto();
+		mockMvc.perform(get("/api/comunidades/" + ID).header("If-None-Match", etag))
+			.andExpect(status().isOk());
+	}
+
+	@Test
+	void recorrePorPaginasConElCursor() throws Exception {
+		List<String> codigos = new ArrayList<>();
+		String cursor = null;
+		int paginas = 0;
+		do {
+			var peticion = get("/api/comunidades/" + ID + "/propiedades").param("orden", "codigo").param("limite", "10");
+			if (cursor != null) {
+				peticion.param("cursor", cursor);
+			}
+			String cuerpo = mockMvc.perform(peticion)
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.version").value(snapshot.getVersion()))
+				.andReturn().getResponse().getContentAsString();
+			codigos.addAll(JsonPath.read(cuerpo, "$.elementos[*].codigo"));
+			cursor = JsonPath.read(cuerpo, "$.siguienteCursor");
+			paginas++;
+		} while (cursor != null);
+
+		assertEquals(3, paginas);
+		assertEquals(PROPIEDADES, codigos.size());
+		Set<String> distintos = new HashSet<>(codigos);
+		assertEquals(PROPIEDADES, distintos.size());
+		List<String> ordenados = new ArrayList<>(codigos);
+		ordenados.sort(null);
+		assertEquals(ordenados, codigos);
+	}
+
+	@Test
+	void cuotasDeUnPropietario() throws Exception {
+		CuotasPropietarios cuotas = CuotasPropietarios.de(snapshot);
+		Propietario propietario = cuotas.getOrdenados().get(0);
+		BigDecimal total = cuotas.cuotas(propietario.getCodigo()).values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+
+		String cuerpo = mockMvc.perform(get("/api/comunidades/" + ID + "/propietarios/" + propietario.getCodigo()))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.codigo").value(propietario.getCodigo()))
+			.andExpect(jsonPath("$.nombre").value(propietario.getNombre()))
+			.andReturn().getResponse().getContentAsString();
+		assertEquals(0, total.compareTo(new BigDecimal(JsonPath.read(cuerpo, "$.total").toString())));
+		for (Map.Entry<Zona, BigDecimal> cuota : cuotas.cuotas(propietario.getCodigo()).entrySet()) {
+			Object importe = JsonPath.read(cuerpo, "$.cuotas." + cuota.getKey().getId());
+			assertEquals(0, cuota.getValue().compareTo(new BigDecimal(importe.toString())), "Zona " + cuota.getKey().getId());
+		}
+
+		mockMvc.perform(get("/api/comunidades/" + ID + "/propietarios/NO-EXISTE"))
+			.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void rechazaCursoresDeUnaVersionAnterior() throws Exception {
+		MvcResult primera = mockMvc.perform(get("/api/comunidades/" + ID + "/propiedades").param("limite", "10"))
+			.andExpect(status().isOk())
+			.andReturn();
+		String cursor = JsonPath.read(primera.getResponse().getContentAsString(), "$.siguienteCursor");
+		assertNotNull(cursor);
+
+		modificarUnGasto();
+
+		mockMvc.perform(get("/api/comunidades/" + ID + "/propiedades").param("limite", "10").param("cursor", cursor))
+			.andExpect(status().isConflict())
+			.andExpect(jsonPath("$.error").exists());
+	}
+
+	private void modificarUnGasto() {
+		Gasto gasto = snapshot.getComunidad().getGastos().get(0);
+		SnapshotComunidad nuevo = comunidadService.modificarGasto(ID, gasto.getId(), gasto.getDescripcion(),
+			gasto.getImporte().add(BigDecimal.TEN), gasto.getZona().getId());
+		assertTrue(nuevo.getVersion() > snapshot.getVersion());
+	}
+}
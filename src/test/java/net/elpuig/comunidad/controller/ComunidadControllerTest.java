@@ -0,0 +1,113 @@
+package net.elpuig.comunidad.controller;
+
+import net.elpuig.comunidad.model.PaginaRenderizada;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.service.ComunidadService;
+import net.elpuig.comunidad.service.RegistroComunidades;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Las vistas de una comunidad que no está cargada redirigen al formulario de carga de la
+ * aplicación, también cuando no está desplegada en la raíz del servidor. Las de una comunidad
+ * cargada se renderizan una vez por versión y se sirven comprimidas o no según el cliente.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ComunidadControllerTest {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ComunidadService comunidadService;
+
+	@Autowired
+	private RegistroComunidades registro;
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void redirigeAlInicioDentroDeLaRutaDeContexto() throws Exception {
+		for (String vista : new String[] {"/propiedades", "/propietarios", "/cuotas"}) {
+			mockMvc.perform(get("/app" + vista).contextPath("/app").param("comunidad", "NO-CARGADA"))
+				.andExpect(status().isFound())
+				.andExpect(header().string("Location", "http://localhost/app/"));
+			mockMvc.perform(get(vista).param("comunidad", "NO-CARGADA"))
+				.andExpect(status().isFound())
+				.andExpect(header().string("Location", "http://localhost/"));
+		}
+	}
+
+	@Test
+	void sirveLasPaginasDesdeLaCache() throws Exception {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setComunidadId("PAGINAS-TEST");
+		new GeneradorArchivos(configuracion).escribir(temporal);
+		SnapshotComunidad snapshot = comunidadService.procesarArchivos(temporal.resolve("comunidad.txt"),
+			temporal.resolve("gastos.txt"), ProgresoProcesado.NINGUNO);
+
+		long bytes = registro.getBytesEstimados();
+		MockHttpServletResponse comprimida = servir(get("/propiedades").param("comunidad", snapshot.getId())
+			.header("Accept-Encoding", "gzip, deflate"));
+		assertEquals(200, comprimida.getStatus());
+		assertEquals("gzip", comprimida.getHeader("Content-Encoding"));
+		String etag = comprimida.getHeader("ETag");
+		assertEquals("W/\"PAGINAS-TEST-" + snapshot.getVersion() + "-propiedades\"", etag);
+		CompletableFuture<PaginaRenderizada> guardada = snapshot.getDerivados().getPaginas().get("propiedades");
+		assertNotNull(guardada);
+		// La primera petición recibe la misma página que se guarda, y se cuenta en el registro
+		assertArrayEquals(guardada.join().getComprimida(), comprimida.getContentAsByteArray());
+		assertEquals(bytes + guardada.join().getComprimida().length, registro.getBytesEstimados());
+
+		// Otra petición, con sus propios parámetros y sin gzip, recibe la misma página sin renderizarla
+		MockHttpServletResponse plana = servir(get("/propiedades").param("comunidad", snapshot.getId())
+			.param("otro", "valor").header("Accept-Encoding", "gzip;q=0"));
+		assertEquals(200, plana.getStatus());
+		assertNull(plana.getHeader("Content-Encoding"));
+		assertEquals(etag, plana.getHeader("ETag"));
+		assertSame(guardada, snapshot.getDerivados().getPaginas().get("propiedades"));
+		String html = plana.getContentAsString(StandardCharsets.UTF_8);
+		assertEquals(html, descomprimir(comprimida.getContentAsByteArray()));
+		assertEquals(guardada.join().getLongitud(), html.getBytes(StandardCharsets.UTF_8).length);
+		assertFalse(html.contains("otro"));
+
+		mockMvc.perform(get("/propiedades").param("comunidad", snapshot.getId()).header("If-None-Match", etag))
+			.andExpect(status().isNotModified());
+	}
+
+	/** Hace la petición y, como el cuerpo se escribe en segundo plano, espera a la respuesta */
+	private MockHttpServletResponse servir(MockHttpServletRequestBuilder peticion) throws Exception {
+		MvcResult resultado = mockMvc.perform(peticion).andReturn();
+		return mockMvc.perform(asyncDispatch(resultado)).andReturn().getResponse();
+	}
+
+	private static String descomprimir(byte[] comprimida) throws IOException {
+		try (InputStream entrada = new GZIPInputStream(new ByteArrayInputStream(comprimida))) {
+			return new String(entrada.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package net.elpuig.comunidad.controller;
+
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.service.ColaProcesado;
+import net.elpuig.comunidad.service.ComunidadService;
+import net.elpuig.comunidad.service.MetricasComunidad;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Con todos los hilos ocupados y la cola llena, una subida más se rechaza con 503 y
+ * {@code Retry-After} en lugar de quedar esperando.
+ */
+@SpringBootTest
+class TrabajoApiControllerTest {
+
+	@Autowired
+	private MetricasComunidad metricas;
+
+	/** Retiene los trabajos en curso hasta el final de la prueba */
+	private final CountDownLatch liberar = new CountDownLatch(1);
+
+	private ColaProcesado cola;
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void crearCola() {
+		ComunidadService bloqueado = new ComunidadService() {
+			@Override
+			public SnapshotComunidad procesarArchivos(Path comunidadArchivo, Path gastosArchivo,
+													  ProgresoProcesado progreso) throws IOException {
+				try {
+					liberar.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("Procesado de prueba");
+			}
+		};
+		// Un hilo y una posición en la cola
+		cola = new ColaProcesado(bloqueado, metricas, 1, 1, 10, false);
+		cola.iniciar();
+		TrabajoApiController controlador = new TrabajoApiController();
+		ReflectionTestUtils.setField(controlador, "colaProcesado", cola);
+		mockMvc = MockMvcBuilders.standaloneSetup(controlador).build();
+	}
+
+	@AfterEach
+	void detenerCola() {
+		liberar.countDown();
+		cola.detener();
+	}
+
+	@Test
+	void rechazaConColaLlena() throws Exception {
+		// Uno en curso y otro esperando
+		subir().andExpect(status().isAccepted());
+		subir().andExpect(status().isAccepted());
+
+		subir()
+			.andExpect(status().isServiceUnavailable())
+			.andExpect(header().string("Retry-After", "5"))
+			.andExpect(jsonPath("$.error").exists());
+	}
+
+	private ResultActions subir() throws Exception {
+		return mockMvc.perform(multipart("/api/trabajos")
+			.file(new MockMultipartFile("comunidadFile", "comunidad.txt", "text/plain",
+				"#Comunidad\n".getBytes(StandardCharsets.UTF_8)))
+			.file(new MockMultipartFile("gastosFile", "gastos.txt", "text/plain",
+				"#Presupuesto\n".getBytes(StandardCharsets.UTF_8))));
+	}
+}
@@ -0,0 +1,66 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Las cuotas de un propietario buscado por código suman las de todas sus propiedades y son
+ * las mismas que las del recorrido de todos los propietarios; un código desconocido no tiene.
+ */
+class CuotasPropietariosTest {
+
+	private static final String COMUNIDAD = """
+		#Comunidad
+		CP;Cuotas por propietario;Barcelona
+
+		#Zona
+		A;Escalera;P
+		B;Garaje;I
+
+		#Propiedad
+		P;P1;80;02;A-60,B-1;Piso;-
+		P;P2;70;02;A-40;Piso;-
+		G;G1;12;01;B-1;A;S
+
+		#Propietario
+		02;Ana Pons;Calle Mayor 1;ana@correo.net
+		01;Blas Roca;Calle Mayor 1;blas@correo.net
+		""";
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void buscaPorCodigo() throws IOException {
+		DerivadosComunidad derivados = new ComunidadesPrueba(temporal)
+			.derivados(COMUNIDAD, "#Presupuesto 2024\nG1;Limpieza;100;A\nG2;Puerta;30;B\n");
+		CuotasPropietarios cuotas = CuotasPropietarios.calcular(derivados.getComunidad());
+
+		assertEquals(List.of("01", "02"), cuotas.getOrdenados().stream().map(Propietario::getCodigo).toList());
+		assertEquals("Ana Pons", cuotas.propietario("02").getNombre());
+		assertSame(cuotas.getOrdenados().get(1), cuotas.propietario("02"));
+		// P1 (60 de la escalera y 15 del garaje) y P2 (40 de la escalera)
+		assertImportes(Map.of("A", "100", "B", "15"), cuotas.cuotas("02"));
+		assertImportes(Map.of("B", "15"), cuotas.cuotas("01"));
+		for (Propietario propietario : cuotas.getOrdenados()) {
+			assertEquals(cuotas.getPorPropietario().get(propietario), cuotas.cuotas(propietario.getCodigo()));
+		}
+
+		assertNull(cuotas.propietario("99"));
+		assertNull(cuotas.cuotas("99"));
+	}
+
+	private static void assertImportes(Map<String, String> esperados, Map<Zona, BigDecimal> cuotas) {
+		assertEquals(esperados.size(), cuotas.size(), cuotas.toString());
+		cuotas.forEach((zona, cuota) -> assertEquals(0, new BigDecimal(esperados.get(zona.getId())).compareTo(cuota),
+			() -> "Zona " + zona.getId() + " = " + cuota));
+	}
+}
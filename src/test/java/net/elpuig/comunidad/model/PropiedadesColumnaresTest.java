@@ -0,0 +1,83 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.FileParserNio;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import net.elpuig.comunidad.util.MotorCalculo;
+import net.elpuig.comunidad.util.RepartoCentimos;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Las columnas dan los mismos datos que las propiedades de las que se copian: las vistas de
+ * fila, los porcentajes y las cuotas por zona, y los totales en céntimos por fila y por zona.
+ */
+class PropiedadesColumnaresTest {
+
+	private final FileParserNio parser = new FileParserNio(StandardCharsets.UTF_8);
+	private final CalculadoraCuotas calculadora = new CalculadoraCuotas();
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void igualQueLasPropiedades() throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setPropiedades(500);
+		configuracion.setPropietarios(120);
+		configuracion.setZonas(5);
+		configuracion.setZonasPorPropiedad(3);
+		configuracion.setGastos(40);
+		new GeneradorArchivos(configuracion).escribir(temporal);
+		Comunidad comunidad = parser.parseComunidad(temporal.resolve("comunidad.txt"));
+		comunidad.setGastos(parser.parseGastos(temporal.resolve("gastos.txt"), comunidad));
+		// Sin gastos en la zona común: sus miembros tienen porcentaje pero no cuota
+		Zona sinGastos = comunidad.getZonas().get(2);
+		List<Gasto> gastos = comunidad.getGastos().stream().filter(gasto -> gasto.getZona() != sinGastos).toList();
+		calculadora.calcularCuotas(comunidad, gastos, MotorCalculo.CENTIMOS);
+
+		PropiedadesColumnares columnas = PropiedadesColumnares.construir(comunidad);
+
+		assertEquals(comunidad.getPropiedades().size(), columnas.size());
+		assertEquals(comunidad.getZonas().size(), columnas.numeroZonas());
+		long[] totalesZona = new long[columnas.numeroZonas()];
+		int[] miembrosZona = new int[columnas.numeroZonas()];
+		for (int i = 0; i < columnas.size(); i++) {
+			Propiedad propiedad = comunidad.getPropiedades().get(i);
+			PropiedadesColumnares.Fila fila = columnas.getPropiedades().get(i);
+			assertEquals(propiedad.getCodigo(), fila.getCodigo());
+			assertEquals(propiedad.getTipo(), fila.getTipo());
+			assertEquals(propiedad.getMetrosCuadrados(), fila.getMetrosCuadrados());
+			assertSame(propiedad.getPropietario(), fila.getPropietario());
+			assertEquals(propiedad.getInfoAdicional(), fila.getInfoAdicional());
+			assertEquals(propiedad.getPorcentajesZona(), fila.getPorcentajesZona());
+
+			Map<Zona, BigDecimal> cuotas = propiedad.getCuotas() != null ? propiedad.getCuotas() : Map.of();
+			assertEquals(cuotas.keySet(), fila.getCuotas().keySet(), propiedad.getCodigo());
+			assertFalse(fila.getCuotas().containsKey(sinGastos));
+			long totalFila = 0;
+			for (Map.Entry<Zona, BigDecimal> cuota : cuotas.entrySet()) {
+				assertEquals(0, cuota.getValue().compareTo(fila.getCuotas().get(cuota.getKey())), propiedad.getCodigo());
+				long centimos = RepartoCentimos.aCentimos(cuota.getValue());
+				totalFila += centimos;
+				totalesZona[comunidad.getZonas().indexOf(cuota.getKey())] += centimos;
+			}
+			assertEquals(totalFila, columnas.totalCentimosFila(i), propiedad.getCodigo());
+			propiedad.getPorcentajesZona().keySet().forEach(zona -> miembrosZona[comunidad.getZonas().indexOf(zona)]++);
+		}
+		for (int z = 0; z < columnas.numeroZonas(); z++) {
+			assertSame(comunidad.getZonas().get(z), columnas.zona(z));
+			assertEquals(totalesZona[z], columnas.totalCentimos(z), columnas.zona(z).getId());
+			assertEquals(miembrosZona[z], columnas.numeroMiembros(z), columnas.zona(z).getId());
+		}
+		assertEquals(0, columnas.totalCentimos(comunidad.getZonas().indexOf(sinGastos)));
+	}
+}
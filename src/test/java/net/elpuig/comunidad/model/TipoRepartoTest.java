@@ -0,0 +1,180 @@
+package net.elpuig.comunidad.model;
+
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.FileParserNio;
+import net.elpuig.comunidad.util.MotorCalculo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cada estrategia de reparto da a cada propiedad la parte que le corresponde con los dos
+ * motores, y los errores de una zona indican la letra que trae el archivo.
+ */
+class TipoRepartoTest {
+
+	private static final String COMUNIDAD = """
+		#Comunidad
+		T1;Prueba;Barcelona
+
+		#Zona
+		M;Metros;M
+		T;Tipos;T;L=2,P=1,G=0.5
+		F;Fijo;F;40
+		X;Desconocida;X
+
+		#Propiedad
+		L;L1;100;01;M-10,T-10,F-50,X-1;Local;-
+		P;P1;60;02;M-10,T-10,F-30,X-1;Piso;-
+		G;G1;40;03;M-10,T-10,F-20,X-1;Garaje;-
+
+		#Propietario
+		01;Ana;Barcelona;ana@correo.net
+		02;Blas;Barcelona;blas@correo.net
+		03;Carla;Barcelona;carla@correo.net
+		""";
+
+	private static final String GASTOS = """
+		#Presupuesto 2024
+		G1;Gasto por metros;200;M
+		G2;Gasto por tipo;350;T
+		G3;Gasto fijo y proporcional;300;F
+		G4;Gasto de letra desconocida;90;X
+		""";
+
+	private final FileParserNio parser = new FileParserNio(StandardCharsets.UTF_8);
+	private final CalculadoraCuotas calculadora = new CalculadoraCuotas();
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void repartenSegunSuEstrategia() throws IOException {
+		for (MotorCalculo motor : MotorCalculo.values()) {
+			Comunidad comunidad = leer(COMUNIDAD);
+			calculadora.calcularCuotas(comunidad, comunidad.getGastos(), motor);
+
+			// M: 100, 60 y 40 metros
+			assertCuotas(comunidad, "M", "100", "60", "40", motor);
+			// T: el local pesa 2, el piso 1 y el garaje 0,5
+			assertCuotas(comunidad, "T", "200", "100", "50", motor);
+			// F: el 40 % (120) a partes iguales y el resto (180) por porcentajes 50/30/20
+			assertCuotas(comunidad, "F", "130", "94", "76", motor);
+			// Una letra desconocida reparte a partes iguales, como antes de haber estrategias
+			assertCuotas(comunidad, "X", "30", "30", "30", motor);
+		}
+	}
+
+	@Test
+	void fijoSinPorcentajesReparteAPartesIguales() throws IOException {
+		Comunidad comunidad = leer(COMUNIDAD.replace("F-50", "F-0").replace("F-30", "F-0").replace("F-20", "F-0"));
+		calculadora.calcularCuotas(comunidad, comunidad.getGastos(), MotorCalculo.CENTIMOS);
+		assertCuotas(comunidad, "F", "100", "100", "100", MotorCalculo.CENTIMOS);
+	}
+
+	@Test
+	void fijoConMuchasPropiedades() throws IOException {
+		// Con tantas propiedades la suma de los pesos compilados no cabe en las claves del
+		// reparto en céntimos, que reparte el sobrante por umbral
+		int n = 199_999;
+		StringBuilder texto = new StringBuilder("#Comunidad\nT1;Prueba;Barcelona\n\n#Zona\nF;Fijo;F;33.33\n\n#Propiedad\n");
+		long totalPorcentajes = 0;
+		for (int i = 0; i < n; i++) {
+			int porcentaje = 1 + i % 7;
+			totalPorcentajes += porcentaje;
+			texto.append("P;P").append(i).append(";60;01;F-").append(porcentaje).append(";Piso;-\n");
+		}
+		texto.append("\n#Propietario\n01;Ana;Barcelona;ana@correo.net\n");
+		BigDecimal total = new BigDecimal("1234567.89");
+
+		for (MotorCalculo motor : MotorCalculo.values()) {
+			Comunidad comunidad = leer(texto.toString(), "#Presupuesto 2024\nG1;Gasto fijo y proporcional;" + total + ";F\n");
+			Zona zona = comunidad.getZonas().get(0);
+			long inicio = System.nanoTime();
+			calculadora.calcularCuotas(comunidad, comunidad.getGastos(), motor);
+			long milisegundos = (System.nanoTime() - inicio) / 1_000_000;
+			assertTrue(milisegundos < 10_000, motor + ": " + milisegundos + " ms");
+
+			BigDecimal suma = BigDecimal.ZERO;
+			for (int i = 0; i < n; i++) {
+				BigDecimal cuota = comunidad.getPropiedades().get(i).getCuotas().get(zona);
+				suma = suma.add(cuota);
+				// total * (0,3333 / n + 0,6667 * porcentaje / totalPorcentajes)
+				double esperada = total.doubleValue() * (0.3333 / n + 0.6667 * (1 + i % 7) / totalPorcentajes);
+				assertEquals(esperada, cuota.doubleValue(), 0.0101, motor + ": propiedad P" + i);
+			}
+			if (motor == MotorCalculo.CENTIMOS) {
+				assertEquals(0, total.compareTo(suma), motor + ": " + suma);
+			}
+		}
+	}
+
+	@Test
+	void errorIndicaLaLetraDelArchivo() {
+		IllegalArgumentException desconocida = assertThrows(IllegalArgumentException.class,
+			() -> leer(COMUNIDAD.replace("X;Desconocida;X", "X;Desconocida;X;30")));
+		assertTrue(desconocida.getMessage().contains("reparto X"), desconocida.getMessage());
+		assertTrue(desconocida.getMessage().contains("zona X"), desconocida.getMessage());
+
+		IllegalArgumentException metros = assertThrows(IllegalArgumentException.class,
+			() -> leer(COMUNIDAD.replace("M;Metros;M", "M;Metros;M;2")));
+		assertTrue(metros.getMessage().contains("reparto M"), metros.getMessage());
+
+		IllegalArgumentException tipos = assertThrows(IllegalArgumentException.class,
+			() -> leer(COMUNIDAD.replace("L=2,P=1,G=0.5", "L=-2")));
+		assertTrue(tipos.getMessage().contains("reparto T"), tipos.getMessage());
+
+		IllegalArgumentException fijo = assertThrows(IllegalArgumentException.class,
+			() -> leer(COMUNIDAD.replace("F;Fijo;F;40", "F;Fijo;F;140")));
+		assertTrue(fijo.getMessage().contains("reparto F"), fijo.getMessage());
+	}
+
+	@Test
+	void rechazaPorcentajesNegativos() throws IOException {
+		Comunidad comunidad = leer(COMUNIDAD);
+		Zona fijo = comunidad.getZonas().stream().filter(zona -> zona.getId().equals("F")).findFirst().orElseThrow();
+		Propiedad piso = comunidad.getPropiedades().stream().filter(p -> p.getCodigo().equals("P1")).findFirst().orElseThrow();
+		Map<Zona, Integer> porcentajes = new HashMap<>(piso.getPorcentajesZona());
+		porcentajes.put(fijo, -30);
+		piso.setPorcentajesZona(porcentajes);
+
+		IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+			() -> calculadora.calcularCuotas(comunidad, comunidad.getGastos(), MotorCalculo.CENTIMOS));
+		assertTrue(error.getMessage().contains("P1"), error.getMessage());
+		assertTrue(error.getMessage().contains("zona F"), error.getMessage());
+	}
+
+	private static void assertCuotas(Comunidad comunidad, String zonaId, String local, String piso, String garaje,
+	                                 MotorCalculo motor) {
+		Zona zona = comunidad.getZonas().stream().filter(z -> z.getId().equals(zonaId)).findFirst().orElseThrow();
+		String[] esperadas = {local, piso, garaje};
+		for (int i = 0; i < esperadas.length; i++) {
+			Propiedad propiedad = comunidad.getPropiedades().get(i);
+			BigDecimal cuota = propiedad.getCuotas().get(zona);
+			assertEquals(0, new BigDecimal(esperadas[i]).compareTo(cuota),
+				motor + ": zona " + zonaId + ", propiedad " + propiedad.getCodigo() + " = " + cuota);
+		}
+	}
+
+	private Comunidad leer(String textoComunidad) throws IOException {
+		return leer(textoComunidad, GASTOS);
+	}
+
+	private Comunidad leer(String textoComunidad, String textoGastos) throws IOException {
+		Path archivoComunidad = temporal.resolve("comunidad.txt");
+		Path archivoGastos = temporal.resolve("gastos.txt");
+		Files.writeString(archivoComunidad, textoComunidad);
+		Files.writeString(archivoGastos, textoGastos);
+		Comunidad comunidad = parser.parseComunidad(archivoComunidad);
+		comunidad.setGastos(parser.parseGastos(archivoGastos, comunidad));
+		return comunidad;
+	}
+}
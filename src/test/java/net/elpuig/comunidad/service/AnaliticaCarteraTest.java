@@ -0,0 +1,217 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.FilaCartera;
+import net.elpuig.comunidad.model.FilaPropiedadCartera;
+import net.elpuig.comunidad.model.FilaPropietarioCartera;
+import net.elpuig.comunidad.model.PanelCartera;
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import net.elpuig.comunidad.util.SnapshotBinario;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * El panel suma las comunidades por población, nombre de zona y categoría de gasto, reúne por
+ * email a los propietarios de varias comunidades, se actualiza al publicar una versión nueva y
+ * sigue contando las comunidades descartadas de memoria.
+ */
+class AnaliticaCarteraTest {
+
+	private static final String COMUNIDAD_A = """
+		#Comunidad
+		A;Comunidad A;Barcelona
+
+		#Zona
+		E;Escalera;P
+		J;Jardín;I
+
+		#Propiedad
+		P;P1;80;01;E-60,J-1;Piso;-
+		P;P2;70;02;E-40,J-1;Piso;-
+
+		#Propietario
+		01;Ana Pons;Calle Mayor 1;ana@correo.net
+		02;Blas Roca;Calle Mayor 1;blas@correo.net
+		""";
+
+	private static final String GASTOS_A = """
+		#Presupuesto 2024
+		LI01;Limpieza;100;E
+		JA01;Jardinería;50;J
+		""";
+
+	private static final String COMUNIDAD_B = """
+		#Comunidad
+		B;Comunidad B;Barcelona
+
+		#Zona
+		E;Escalera;P
+
+		#Propiedad
+		L;L1;120;01;E-100;Local;-
+
+		#Propietario
+		01;Ana Pons;Plaza Nueva 3;ANA@correo.net
+		""";
+
+	private static final String GASTOS_B = """
+		#Presupuesto 2024
+		LI01;Limpieza;200;E
+		""";
+
+	private static final String COMUNIDAD_C = """
+		#Comunidad
+		C;Comunidad C;Girona
+
+		#Zona
+		E;Escalera;P
+
+		#Propiedad
+		P;P1;90;01;E-100;Piso;-
+
+		#Propietario
+		01;Carla Vidal;Rambla 5;carla@correo.net
+		""";
+
+	private final AnaliticaCartera analitica = new AnaliticaCartera();
+	private ComunidadesPrueba comunidades;
+	private RegistroComunidades registro;
+
+	@TempDir
+	Path temporal;
+
+	@BeforeEach
+	void publicar() throws IOException {
+		comunidades = new ComunidadesPrueba(temporal);
+		AlmacenSnapshots almacen = ComunidadesPrueba.almacen("");
+		registro = new RegistroComunidades(10, 0, almacen);
+		conectar(registro, almacen);
+		registro.publicar(comunidades.derivados(COMUNIDAD_A, GASTOS_A));
+		registro.publicar(comunidades.derivados(COMUNIDAD_B, GASTOS_B));
+		registro.publicar(comunidades.derivados(COMUNIDAD_C, "#Presupuesto 2024\nAS01;Ascensor;30;E\n"));
+	}
+
+	@Test
+	void sumaLaCartera() {
+		PanelCartera panel = analitica.panel(10);
+
+		assertEquals(3, panel.getComunidades());
+		assertImporte("380", panel.getTotalGeneral());
+		assertFilas(panel.getPoblaciones(), "Barcelona", 2, "350", "Girona", 1, "30");
+		assertFilas(panel.getZonas(), "Escalera", 3, "330", "Jardín", 1, "50");
+		assertFilas(panel.getCategorias(), "LI", 2, "300", "JA", 1, "50", "AS", 1, "30");
+
+		// Ana tiene propiedades en A y en B, con el mismo email en distintas mayúsculas
+		assertEquals(3, panel.getNumeroPropietarios());
+		List<FilaPropietarioCartera> propietarios = panel.getPropietarios();
+		assertEquals(List.of("Ana Pons", "Blas Roca", "Carla Vidal"),
+			propietarios.stream().map(FilaPropietarioCartera::getNombre).toList());
+		assertEquals(2, propietarios.get(0).getComunidades());
+		assertEquals(2, propietarios.get(0).getPropiedades());
+		assertImporte("285", propietarios.get(0).getTotal());
+		assertImporte("65", propietarios.get(1).getTotal());
+
+		List<FilaPropiedadCartera> propiedades = panel.getPropiedades();
+		assertEquals(List.of("B/L1", "A/P1", "A/P2", "C/P1"),
+			propiedades.stream().map(fila -> fila.getComunidad() + "/" + fila.getCodigo()).toList());
+		assertImporte("200", propiedades.get(0).getTotal());
+		assertImporte("85", propiedades.get(1).getTotal());
+
+		PanelCartera limitado = analitica.panel(2);
+		assertEquals(2, limitado.getPropietarios().size());
+		assertEquals(2, limitado.getPropiedades().size());
+		assertEquals(3, limitado.getNumeroPropietarios());
+		assertThrows(IllegalArgumentException.class, () -> analitica.panel(0));
+	}
+
+	@Test
+	void seActualizaAlPublicar() throws IOException {
+		assertImporte("380", analitica.panel(10).getTotalGeneral());
+
+		registro.publicar(comunidades.derivados(COMUNIDAD_C, "#Presupuesto 2024\nAS01;Ascensor;30;E\nAS02;Revisión;60;E\n"));
+		PanelCartera panel = analitica.panel(10);
+		assertImporte("440", panel.getTotalGeneral());
+		assertFilas(panel.getPoblaciones(), "Barcelona", 2, "350", "Girona", 1, "90");
+		assertFilas(panel.getCategorias(), "LI", 2, "300", "AS", 1, "90", "JA", 1, "50");
+
+		registro.eliminar("B");
+		panel = analitica.panel(10);
+		assertEquals(2, panel.getComunidades());
+		assertImporte("240", panel.getTotalGeneral());
+		// Sin B, Ana solo suma su piso de A y pasa por detrás de Carla
+		assertEquals(List.of("Carla Vidal", "Ana Pons", "Blas Roca"),
+			panel.getPropietarios().stream().map(FilaPropietarioCartera::getNombre).toList());
+		assertEquals(1, panel.getPropietarios().get(1).getComunidades());
+		assertImporte("85", panel.getPropietarios().get(1).getTotal());
+	}
+
+	@Test
+	void incluyeLasComunidadesDescartadas() throws IOException {
+		AlmacenSnapshots almacen = almacen();
+		registro = new RegistroComunidades(1, 0, almacen);
+		conectar(registro, almacen);
+		registro.publicar(comunidades.derivados(COMUNIDAD_A, GASTOS_A));
+		almacen.guardar(registro.obtener("A"));
+		analitica.panel(10);
+		registro.publicar(comunidades.derivados(COMUNIDAD_B, GASTOS_B));
+		registro.publicar(comunidades.derivados(COMUNIDAD_C, "#Presupuesto 2024\nAS01;Ascensor;30;E\n"));
+
+		// A se ha descartado pero sigue en el panel
+		assertNull(registro.obtener("A"));
+		PanelCartera panel = analitica.panel(10);
+		assertEquals(3, panel.getComunidades());
+		assertImporte("380", panel.getTotalGeneral());
+		assertEquals("Ana Pons", panel.getPropietarios().get(0).getNombre());
+		assertEquals(2, panel.getPropietarios().get(0).getComunidades());
+		assertTrue(panel.getOmitidas().isEmpty());
+
+		// Al arrancar de nuevo, las guardadas se leen de disco sin cargarlas en el registro
+		AlmacenSnapshots reiniciado = almacen();
+		reiniciado.indexar(new ArrayList<>());
+		RegistroComunidades vacio = new RegistroComunidades(1, 0, reiniciado);
+		conectar(vacio, reiniciado);
+		panel = analitica.panel(10);
+		assertEquals(1, panel.getComunidades());
+		assertImporte("150", panel.getTotalGeneral());
+		assertEquals(0, vacio.size());
+
+		// Una guardada que ya no se puede leer se omite y se indica
+		Files.write(temporal.resolve("snapshots").resolve("A" + SnapshotBinario.EXTENSION), new byte[] {1, 2, 3});
+		conectar(new RegistroComunidades(1, 0, reiniciado), reiniciado);
+		panel = analitica.panel(10);
+		assertEquals(0, panel.getComunidades());
+		assertEquals(List.of("A"), panel.getOmitidas());
+	}
+
+	private AlmacenSnapshots almacen() {
+		return ComunidadesPrueba.almacen(temporal.resolve("snapshots").toString());
+	}
+
+	private void conectar(RegistroComunidades registro, AlmacenSnapshots almacen) {
+		ReflectionTestUtils.setField(analitica, "resumenesCartera", ComunidadesPrueba.resumenes(registro, almacen));
+	}
+
+	/** Comprueba las filas en orden: clave, comunidades y total de cada una */
+	private static void assertFilas(List<FilaCartera> filas, Object... esperadas) {
+		assertEquals(esperadas.length / 3, filas.size(), filas.toString());
+		for (int i = 0; i < filas.size(); i++) {
+			FilaCartera fila = filas.get(i);
+			assertEquals(esperadas[3 * i], fila.getClave());
+			assertEquals(esperadas[3 * i + 1], fila.getComunidades(), fila.getClave());
+			assertImporte((String) esperadas[3 * i + 2], fila.getTotal());
+		}
+	}
+
+	private static void assertImporte(String esperado, BigDecimal importe) {
+		assertEquals(0, new BigDecimal(esperado).compareTo(importe), () -> esperado + " != " + importe);
+	}
+}
@@ -0,0 +1,136 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.FilaBusquedaPropietario;
+import net.elpuig.comunidad.model.IndicePropietarios;
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * La búsqueda encuentra propietarios de todas las comunidades por el principio de cualquier
+ * palabra, sin distinguir mayúsculas ni acentos, y sigue al registro: una versión nueva
+ * sustituye los datos de la anterior, una comunidad retirada deja de aparecer y una descartada
+ * de memoria sigue apareciendo.
+ */
+class BuscadorPropietariosTest {
+
+	private static final String COMUNIDAD = """
+		#Comunidad
+		%s;%s;Barcelona
+
+		#Zona
+		E;Escalera;P
+
+		#Propiedad
+		P;P1;80;01;E-60;Piso;-
+		P;P2;70;02;E-30;Piso;-
+		G;G1;12;01;E-10;A;S
+
+		#Propietario
+		01;%s;Calle Mayor 1;%s
+		02;%s;Plaza Nueva 3;otro@correo.net
+		""";
+
+	private static final String GASTOS = """
+		#Presupuesto 2024
+		G1;Limpieza;1000;E
+		""";
+
+	private final BuscadorPropietarios buscador = new BuscadorPropietarios();
+	private ComunidadesPrueba comunidades;
+	private RegistroComunidades registro;
+
+	@TempDir
+	Path temporal;
+
+	@BeforeEach
+	void publicar() throws IOException {
+		comunidades = new ComunidadesPrueba(temporal);
+		AlmacenSnapshots almacen = ComunidadesPrueba.almacen("");
+		registro = new RegistroComunidades(10, 0, almacen);
+		conectar(registro, almacen);
+		registro.publicar(derivados("A", "María Núñez", "maria@correo.net", "Marcos Ruiz"));
+		registro.publicar(derivados("B", "Mariano Pla", "mpla@correo.net", "Ana Mar"));
+	}
+
+	@Test
+	void buscaEnTodasLasComunidades() {
+		assertEquals(Set.of("A-01", "A-02", "B-01", "B-02"), claves(buscador.buscar("MAR", 10)));
+		assertEquals(2, buscador.buscar("mar", 2).size());
+
+		List<FilaBusquedaPropietario> nunez = buscador.buscar("nuñe", 10);
+		assertEquals(1, nunez.size());
+		FilaBusquedaPropietario fila = nunez.get(0);
+		assertEquals("A", fila.getComunidad());
+		assertEquals("Comunidad A", fila.getNombreComunidad());
+		assertEquals("01", fila.getCodigo());
+		assertEquals("maria@correo.net", fila.getEmail());
+		assertEquals(List.of("P1", "G1"), fila.getPropiedades());
+		assertEquals(0, new BigDecimal("700").compareTo(fila.getTotal()));
+
+		// Por email y por dirección
+		assertEquals(Set.of("B-01"), claves(buscador.buscar("mpla", 10)));
+		assertEquals(Set.of("A-02", "B-02"), claves(buscador.buscar("plaza nue", 10)));
+		assertTrue(buscador.buscar("zzz", 10).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> buscador.buscar("  ", 10));
+	}
+
+	@Test
+	void ordenaPorLaMenorCoincidenciaDeCadaPropietario() throws IOException {
+		// "mart" aparece dos veces en el nombre del 01: cuenta "mart aa", no la primera
+		registro.publicar(derivados("C", "Mart Zz Mart Aa", "c@correo.net", "Mart Bb"));
+		assertEquals("mart aa", IndicePropietarios.de(registro.obtener("C")).coincidencia(0, "mart"));
+		assertEquals(List.of("C-01", "C-02"), buscador.buscar("mart", 10).stream()
+			.map(fila -> fila.getComunidad() + "-" + fila.getCodigo()).toList());
+	}
+
+	@Test
+	void sigueAlRegistro() throws IOException {
+		registro.publicar(derivados("A", "Laura Salas", "laura@correo.net", "Marcos Ruiz"));
+		assertTrue(buscador.buscar("nunez", 10).isEmpty());
+		assertEquals(Set.of("A-01"), claves(buscador.buscar("laura", 10)));
+		assertEquals(registro.obtener("A").getVersion(), buscador.buscar("laura", 10).get(0).getVersion());
+
+		registro.eliminar("B");
+		assertEquals(Set.of("A-02"), claves(buscador.buscar("mar", 10)));
+	}
+
+	@Test
+	void buscaEnLasComunidadesDescartadas() throws IOException {
+		AlmacenSnapshots almacen = ComunidadesPrueba.almacen(temporal.resolve("snapshots").toString());
+		registro = new RegistroComunidades(1, 0, almacen);
+		conectar(registro, almacen);
+		registro.publicar(derivados("A", "María Núñez", "maria@correo.net", "Marcos Ruiz"));
+		almacen.guardar(registro.obtener("A"));
+		registro.publicar(derivados("B", "Mariano Pla", "mpla@correo.net", "Ana Mar"));
+
+		assertEquals(1, registro.size());
+		assertEquals(Set.of("A-01", "A-02", "B-01", "B-02"), claves(buscador.buscar("mar", 10)));
+		FilaBusquedaPropietario fila = buscador.buscar("nunez", 10).get(0);
+		assertEquals(List.of("P1", "G1"), fila.getPropiedades());
+		assertEquals(0, new BigDecimal("700").compareTo(fila.getTotal()));
+	}
+
+	private void conectar(RegistroComunidades registro, AlmacenSnapshots almacen) {
+		ReflectionTestUtils.setField(buscador, "resumenesCartera", ComunidadesPrueba.resumenes(registro, almacen));
+	}
+
+	private DerivadosComunidad derivados(String id, String nombre, String email, String otro) throws IOException {
+		return comunidades.derivados(COMUNIDAD.formatted(id, "Comunidad " + id, nombre, email, otro), GASTOS);
+	}
+
+	private static Set<String> claves(List<FilaBusquedaPropietario> filas) {
+		return filas.stream().map(fila -> fila.getComunidad() + "-" + fila.getCodigo()).collect(Collectors.toSet());
+	}
+}
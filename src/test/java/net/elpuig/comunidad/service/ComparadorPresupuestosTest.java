@@ -0,0 +1,148 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.FilaDiferencia;
+import net.elpuig.comunidad.model.Pagina;
+import net.elpuig.comunidad.model.PresupuestoAnual;
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import net.elpuig.comunidad.util.MotorCalculo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Las diferencias por propiedad y por propietario entre dos años registrados coinciden con
+ * las calculadas a mano, incluidos los elementos que solo existen en uno de los dos años, y
+ * se pueden recorrer por páginas.
+ *
+ * En 2023 la escalera (80) se reparte 60/40 entre P1 y P2 y el jardín (40) a partes iguales:
+ * P1 = 48 + 20 = 68 y P2 = 32 + 20 = 52. En 2024 P2 pasa al propietario 01, se añade P3 (del
+ * 03) solo en el jardín, la escalera cuesta 100 y el jardín 50, que entre tres da 16,67, 16,67
+ * y 16,66 con el motor de céntimos: P1 = 76,67, P2 = 56,67 y P3 = 16,66.
+ */
+class ComparadorPresupuestosTest {
+
+	private static final String COMUNIDAD_2023 = """
+		#Comunidad
+		A;Comunidad A;Barcelona
+
+		#Zona
+		E;Escalera;P
+		J;Jardín;I
+
+		#Propiedad
+		P;P1;80;01;E-60,J-1;Piso;-
+		P;P2;70;02;E-40,J-1;Piso;-
+
+		#Propietario
+		01;Ana Pons;Calle Mayor 1;ana@correo.net
+		02;Blas Roca;Calle Mayor 1;blas@correo.net
+		""";
+
+	private static final String COMUNIDAD_2024 = """
+		#Comunidad
+		A;Comunidad A;Barcelona
+
+		#Zona
+		E;Escalera;P
+		J;Jardín;I
+
+		#Propiedad
+		P;P1;80;01;E-60,J-1;Piso;-
+		P;P2;70;01;E-40,J-1;Piso;-
+		P;P3;50;03;J-1;Piso;-
+
+		#Propietario
+		01;Ana Pons;Calle Mayor 1;ana@correo.net
+		03;Carla Vidal;Rambla 5;carla@correo.net
+		""";
+
+	private final ComparadorPresupuestos comparador = new ComparadorPresupuestos();
+	private PresupuestoAnual anterior;
+	private PresupuestoAnual actual;
+
+	@TempDir
+	Path temporal;
+
+	@BeforeEach
+	void registrar() throws IOException {
+		registrar(MotorCalculo.CENTIMOS);
+	}
+
+	@Test
+	void diferenciasConElMotorPorDefecto() throws IOException {
+		// Con BigDecimal cada tercio del jardín se redondea hacia arriba: 16,67 para las tres
+		registrar(MotorCalculo.BIG_DECIMAL);
+		List<FilaDiferencia> filas = comparador.propiedades(anterior, actual, false, null, 10).getElementos();
+		assertFila(filas.get(0), "P1", null, "68.00", "76.67", "8.67", "12.75");
+		assertFila(filas.get(2), "P3", null, null, "16.67", "16.67", null);
+	}
+
+	private void registrar(MotorCalculo motor) throws IOException {
+		ComunidadesPrueba comunidades = new ComunidadesPrueba(temporal, motor);
+		RegistroComunidades registro = new RegistroComunidades(10, 0, ComunidadesPrueba.almacen(""));
+		HistorialPresupuestos historial = new HistorialPresupuestos();
+		ReflectionTestUtils.setField(historial, "directorio", "");
+		historial.registrar(registro.publicar(comunidades.derivados(COMUNIDAD_2023, "#Presupuesto 2023\nLI01;Limpieza;80;E\nJA01;Jardinería;40;J\n")));
+		historial.registrar(registro.publicar(comunidades.derivados(COMUNIDAD_2024, "#Presupuesto 2024\nLI01;Limpieza;100;E\nJA01;Jardinería;50;J\n")));
+		anterior = historial.presupuesto("A", 2023);
+		actual = historial.presupuesto("A", 2024);
+	}
+
+	@Test
+	void diferenciasPorPropiedad() {
+		Pagina<FilaDiferencia> pagina = comparador.propiedades(anterior, actual, false, null, 10);
+		List<FilaDiferencia> filas = pagina.getElementos();
+		assertEquals(3, filas.size());
+		assertFila(filas.get(0), "P1", null, "68.00", "76.67", "8.67", "12.75");
+		assertFila(filas.get(1), "P2", null, "52.00", "56.67", "4.67", "8.98");
+		assertFila(filas.get(2), "P3", null, null, "16.66", "16.66", null);
+		assertNull(pagina.getSiguienteCursor());
+
+		// Por páginas, continuando desde el cursor
+		Pagina<FilaDiferencia> primera = comparador.propiedades(anterior, actual, false, null, 2);
+		assertEquals(List.of("P1", "P2"), primera.getElementos().stream().map(FilaDiferencia::getCodigo).toList());
+		Pagina<FilaDiferencia> segunda = comparador.propiedades(anterior, actual, false, primera.getSiguienteCursor(), 2);
+		assertEquals(List.of("P3"), segunda.getElementos().stream().map(FilaDiferencia::getCodigo).toList());
+		assertNull(segunda.getSiguienteCursor());
+
+		assertFila(comparador.propiedad(anterior, actual, "P2"), "P2", null, "52.00", "56.67", "4.67", "8.98");
+		assertNull(comparador.propiedad(anterior, actual, "P9"));
+	}
+
+	@Test
+	void diferenciasPorPropietario() {
+		List<FilaDiferencia> filas = comparador.propietarios(anterior, actual, true, null, 10).getElementos();
+		assertEquals(3, filas.size());
+		// 01 suma P1 y P2 en 2024; 02 ya no tiene propiedades y 03 es nuevo
+		assertFila(filas.get(0), "01", "Ana Pons", "68.00", "133.34", "65.34", "96.09");
+		assertFila(filas.get(1), "02", "Blas Roca", "52.00", null, "-52.00", "-100.00");
+		assertFila(filas.get(2), "03", "Carla Vidal", null, "16.66", "16.66", null);
+
+		assertFila(comparador.propietario(anterior, actual, "02"), "02", "Blas Roca", "52.00", null, "-52.00", "-100.00");
+	}
+
+	private static void assertFila(FilaDiferencia fila, String codigo, String nombre, String anterior,
+								   String actual, String diferencia, String variacion) {
+		assertEquals(codigo, fila.getCodigo());
+		assertEquals(nombre, fila.getNombre());
+		assertImporte(anterior, fila.getAnterior());
+		assertImporte(actual, fila.getActual());
+		assertImporte(diferencia, fila.getDiferencia());
+		assertImporte(variacion, fila.getVariacion());
+	}
+
+	private static void assertImporte(String esperado, BigDecimal importe) {
+		if (esperado == null) {
+			assertNull(importe);
+		} else {
+			assertEquals(0, new BigDecimal(esperado).compareTo(importe), () -> esperado + " != " + importe);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.FilaComunidad;
+import net.elpuig.comunidad.model.Propiedad;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Con el registro limitado a una comunidad y los snapshots en disco, la comunidad desalojada
+ * se vuelve a leer de disco al pedirla, con la misma versión y las mismas cuotas.
+ */
+@SpringBootTest(properties = "comunidad.registro.max-comunidades=1")
+class ComunidadServiceTest {
+
+	@TempDir
+	static Path snapshots;
+
+	@TempDir
+	Path temporal;
+
+	@Autowired
+	private ComunidadService comunidadService;
+
+	@Autowired
+	private RegistroComunidades registro;
+
+	@Autowired
+	private AlmacenSnapshots almacen;
+
+	@DynamicPropertySource
+	static void directorioSnapshots(DynamicPropertyRegistry propiedades) {
+		propiedades.add("comunidad.snapshots.directorio", () -> snapshots.toString());
+	}
+
+	@Test
+	void recargaDeDiscoLasComunidadesDesalojadas() throws Exception {
+		SnapshotComunidad a = procesar("DISCO-A");
+		esperarGuardada(a);
+		SnapshotComunidad b = procesar("DISCO-B");
+
+		// A ya está en disco, así que deja sitio a B
+		assertNull(registro.obtener(a.getId()));
+		assertSame(b, registro.obtener(b.getId()));
+		assertEquals(List.of("DISCO-A", "DISCO-B"),
+			comunidadService.getComunidades().stream().map(FilaComunidad::getId).toList());
+
+		SnapshotComunidad leida = comunidadService.getSnapshot(a.getId());
+		assertNotNull(leida);
+		assertNotSame(a, leida);
+		assertEquals(a.getVersion(), leida.getVersion());
+		assertEquals(cuotas(a), cuotas(leida));
+		assertSame(leida, registro.obtener(a.getId()));
+	}
+
+	private SnapshotComunidad procesar(String id) throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setComunidadId(id);
+		Path directorio = temporal.resolve(id);
+		new GeneradorArchivos(configuracion).escribir(directorio);
+		return comunidadService.procesarArchivos(directorio.resolve("comunidad.txt"),
+			directorio.resolve("gastos.txt"), ProgresoProcesado.NINGUNO);
+	}
+
+	/** Los snapshots se guardan en segundo plano */
+	private void esperarGuardada(SnapshotComunidad snapshot) throws InterruptedException {
+		long limite = System.nanoTime() + 10_000_000_000L;
+		while (!almacen.estaGuardada(snapshot.getId(), snapshot.getVersion())) {
+			assertTrue(System.nanoTime() < limite, "No se ha guardado " + snapshot.getId());
+			Thread.sleep(10);
+		}
+	}
+
+	/** Cuotas por código de propiedad y de zona, sin depender de las instancias */
+	private static Map<String, Map<String, BigDecimal>> cuotas(SnapshotComunidad snapshot) {
+		Map<String, Map<String, BigDecimal>> cuotas = new HashMap<>();
+		for (Propiedad propiedad : snapshot.getComunidad().getPropiedades()) {
+			Map<String, BigDecimal> porZona = new HashMap<>();
+			propiedad.getCuotas().forEach((zona, cuota) -> porZona.put(zona.getId(), cuota));
+			cuotas.put(propiedad.getCodigo(), porZona);
+		}
+		return cuotas;
+	}
+}
@@ -0,0 +1,137 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.PresupuestoAnual;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import net.elpuig.comunidad.util.HistorialBinario;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * El historial conserva en memoria y en disco el último presupuesto de cada año, compacta el
+ * archivo cuando acumula registros sustituidos y, al cargarlo, descarta un registro cortado y
+ * lo reescribe solo con el último presupuesto de cada año.
+ */
+class HistorialPresupuestosTest {
+
+	private static final String COMUNIDAD = """
+		#Comunidad
+		A;Comunidad A;Barcelona
+
+		#Zona
+		E;Escalera;P
+
+		#Propiedad
+		P;P1;80;01;E-60;Piso;-
+		P;P2;70;02;E-40;Piso;-
+
+		#Propietario
+		01;Ana Pons;Calle Mayor 1;ana@correo.net
+		02;Blas Roca;Calle Mayor 1;blas@correo.net
+		""";
+
+	private final HistorialBinario historialBinario = new HistorialBinario();
+	private final List<HistorialPresupuestos> historiales = new ArrayList<>();
+	private ComunidadesPrueba comunidades;
+	private RegistroComunidades registro;
+
+	@TempDir
+	Path temporal;
+
+	@BeforeEach
+	void crearRegistro() {
+		comunidades = new ComunidadesPrueba(temporal);
+		registro = new RegistroComunidades(10, 0, ComunidadesPrueba.almacen(""));
+	}
+
+	@AfterEach
+	void cerrar() throws InterruptedException {
+		for (HistorialPresupuestos historial : historiales) {
+			historial.cerrar();
+		}
+	}
+
+	@Test
+	void compactaElArchivoAlAcumularRegistrosSustituidos() throws Exception {
+		HistorialPresupuestos historial = historial();
+		SnapshotComunidad ultima = null;
+		// Con un solo año, al pasar de 2 * 1 + 4 registros se reescribe con el último
+		for (int i = 1; i <= 8; i++) {
+			ultima = registro.publicar(derivados("#Presupuesto 2024\nLI01;Limpieza;" + (100 * i) + ";E\n"));
+			CountDownLatch registrado = new CountDownLatch(1);
+			historial.registrarEnSegundoPlano(ultima, duracion -> registrado.countDown());
+			assertTrue(registrado.await(10, TimeUnit.SECONDS));
+		}
+
+		assertEquals(List.of(ultima.getVersion()),
+			historial.presupuestos("A").stream().map(PresupuestoAnual::getVersion).toList());
+		HistorialBinario.Contenido contenido = historialBinario.leer(fichero(), "A");
+		assertEquals(2, contenido.registros());
+		assertEquals(1, contenido.presupuestos().size());
+		assertEquals(ultima.getVersion(), contenido.presupuestos().get(0).getVersion());
+		assertEquals(0, new BigDecimal("800").compareTo(contenido.presupuestos().get(0).getTotalGeneral()));
+	}
+
+	@Test
+	void alCargarDescartaElRegistroCortadoYReescribe() throws Exception {
+		Files.createDirectories(temporal.resolve("snapshots"));
+		long longitud = -1;
+		for (int version = 1; version <= 3; version++) {
+			longitud = historialBinario.anadir(presupuesto(2024, version), fichero(), longitud);
+		}
+		historialBinario.anadir(presupuesto(2023, 4), fichero(), longitud);
+		Files.write(fichero(), new byte[] {0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+		HistorialPresupuestos historial = historial();
+		List<String> errores = new ArrayList<>();
+		historial.cargar(errores);
+
+		assertEquals(1, errores.size(), errores.toString());
+		assertTrue(errores.get(0).startsWith("A" + HistorialBinario.EXTENSION), errores.get(0));
+		assertEquals(List.of(2023, 2024), historial.presupuestos("A").stream().map(PresupuestoAnual::getAnio).toList());
+		assertEquals(3, historial.presupuesto("A", 2024).getVersion());
+		HistorialBinario.Contenido contenido = historialBinario.leer(fichero(), "A");
+		assertFalse(contenido.danado());
+		assertEquals(2, contenido.registros());
+		assertEquals(Files.size(fichero()), contenido.longitudValida());
+	}
+
+	private HistorialPresupuestos historial() {
+		HistorialPresupuestos historial = new HistorialPresupuestos();
+		ReflectionTestUtils.setField(historial, "historialBinario", historialBinario);
+		ReflectionTestUtils.setField(historial, "directorio", temporal.resolve("snapshots").toString());
+		historiales.add(historial);
+		return historial;
+	}
+
+	private Path fichero() {
+		return temporal.resolve("snapshots").resolve("A" + HistorialBinario.EXTENSION);
+	}
+
+	private DerivadosComunidad derivados(String textoGastos) throws IOException {
+		return comunidades.derivados(COMUNIDAD, textoGastos);
+	}
+
+	private static PresupuestoAnual presupuesto(int anio, long version) {
+		return new PresupuestoAnual("A", anio, version, Instant.ofEpochMilli(version), 1, new BigDecimal("100.00"),
+			new String[] {"E"}, new String[] {"Escalera"}, new BigDecimal[] {new BigDecimal("100.00")},
+			new String[] {"P1", "P2"}, new long[] {6000, 4000},
+			new String[] {"01", "02"}, new String[] {"Ana Pons", "Blas Roca"}, new long[] {6000, 4000});
+	}
+}
@@ -0,0 +1,117 @@
+package net.elpuig.comunidad.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.elpuig.comunidad.controller.ConfiguracionMetricas;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import net.elpuig.comunidad.util.FileParser;
+import net.elpuig.comunidad.util.FileParserNio;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Al procesar una comunidad se mide cada fase y los indicadores del registro siguen a las
+ * comunidades cargadas; las vistas miden su renderizado, pero no las redirecciones.
+ */
+class MetricasComunidadTest {
+
+	private final SimpleMeterRegistry medidores = new SimpleMeterRegistry();
+	private AlmacenSnapshots almacen;
+	private RegistroComunidades registro;
+	private MetricasComunidad metricas;
+
+	@TempDir
+	Path temporal;
+
+	@BeforeEach
+	void crearMetricas() {
+		almacen = ComunidadesPrueba.almacen("");
+		registro = new RegistroComunidades(10, 0, almacen);
+		metricas = new MetricasComunidad(medidores, registro, almacen);
+	}
+
+	@Test
+	void mideElProcesado() throws Exception {
+		// Las fases existen desde el arranque, aún sin medidas
+		assertEquals(0, fase(MetricasComunidad.FASE_CALCULO_CUOTAS).count());
+		assertEquals(0, medidores.get("comunidad.registro.comunidades").gauge().value());
+
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setComunidadId("METRICAS");
+		new GeneradorArchivos(configuracion).escribir(temporal);
+		SnapshotComunidad snapshot = servicio().procesarArchivos(temporal.resolve("comunidad.txt"),
+			temporal.resolve("gastos.txt"), ProgresoProcesado.NINGUNO);
+
+		for (String fase : List.of(MetricasComunidad.FASE_PARSEO_COMUNIDAD, MetricasComunidad.FASE_PARSEO_GASTOS,
+				MetricasComunidad.FASE_CALCULO_CUOTAS, MetricasComunidad.FASE_RESUMEN,
+				MetricasComunidad.FASE_PUBLICACION, MetricasComunidad.FASE_HISTORIAL)) {
+			assertEquals(1, fase(fase).count(), fase);
+		}
+		assertEquals(configuracion.getPropiedades(), medidores.get("comunidad.procesado.elementos")
+			.tag("tipo", "propiedades").summary().max());
+		assertEquals(1, medidores.get("comunidad.registro.comunidades").gauge().value());
+		assertEquals(registro.getBytesEstimados(), medidores.get("comunidad.registro.bytes").gauge().value());
+
+		registro.eliminar(snapshot.getId());
+		assertEquals(0, medidores.get("comunidad.registro.comunidades").gauge().value());
+	}
+
+	@Test
+	void mideElRenderizadoDeLasVistas() throws Exception {
+		ConfiguracionMetricas configuracion = new ConfiguracionMetricas();
+		ReflectionTestUtils.setField(configuracion, "metricas", metricas);
+		var interceptores = new InterceptorRegistry() {
+			HandlerInterceptor primero() {
+				return (HandlerInterceptor) getInterceptors().get(0);
+			}
+		};
+		configuracion.addInterceptors(interceptores);
+		HandlerInterceptor interceptor = interceptores.primero();
+
+		for (String vista : List.of("propiedades", "redirect:/")) {
+			MockHttpServletRequest peticion = new MockHttpServletRequest();
+			MockHttpServletResponse respuesta = new MockHttpServletResponse();
+			interceptor.postHandle(peticion, respuesta, this, new ModelAndView(vista));
+			interceptor.afterCompletion(peticion, respuesta, this, null);
+		}
+
+		assertEquals(1, medidores.get("comunidad.vista.renderizado").tag("vista", "propiedades").timer().count());
+		assertEquals(1, medidores.find("comunidad.vista.renderizado").timers().size());
+	}
+
+	private Timer fase(String fase) {
+		return medidores.get("comunidad.procesado.fase").tag("fase", fase).timer();
+	}
+
+	/** Servicio de procesado sobre el registro y las métricas de la prueba, sin guardar en disco */
+	private ComunidadService servicio() {
+		HistorialPresupuestos historial = new HistorialPresupuestos();
+		ReflectionTestUtils.setField(historial, "directorio", "");
+		ComunidadService servicio = new ComunidadService();
+		ReflectionTestUtils.setField(servicio, "fileParser", new FileParser());
+		ReflectionTestUtils.setField(servicio, "fileParserNio", new FileParserNio(StandardCharsets.UTF_8));
+		ReflectionTestUtils.setField(servicio, "calculadoraCuotas", new CalculadoraCuotas());
+		ReflectionTestUtils.setField(servicio, "parser", "nio");
+		ReflectionTestUtils.setField(servicio, "registro", registro);
+		ReflectionTestUtils.setField(servicio, "almacenSnapshots", almacen);
+		ReflectionTestUtils.setField(servicio, "historialPresupuestos", historial);
+		ReflectionTestUtils.setField(servicio, "metricas", metricas);
+		return servicio;
+	}
+}
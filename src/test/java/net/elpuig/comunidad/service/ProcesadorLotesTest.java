@@ -0,0 +1,164 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.InformeLote;
+import net.elpuig.comunidad.model.ResultadoLote;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Los archivos de un lote se clasifican por su cabecera y no por su nombre, los que no
+ * forman pareja aparecen como fallidos sin afectar a los demás, y las entradas de un ZIP
+ * respetan los límites de tamaño descomprimido.
+ */
+@SpringBootTest
+class ProcesadorLotesTest {
+
+	@Autowired
+	private ComunidadService comunidadService;
+
+	@TempDir
+	Path temporal;
+
+	private ProcesadorLotes procesador;
+
+	@BeforeEach
+	void crearProcesador() {
+		procesador = new ProcesadorLotes();
+		ReflectionTestUtils.setField(procesador, "comunidadService", comunidadService);
+		ReflectionTestUtils.setField(procesador, "paralelismo", 2);
+	}
+
+	@Test
+	void clasificaPorCabecera() throws IOException {
+		Map<String, byte[]> entradas = new LinkedHashMap<>();
+		// Nombres que no dicen nada del tipo, o que dicen lo contrario
+		entradas.put("a/uno.txt", gastos("LOTE-A"));
+		entradas.put("a/dos.txt", comunidad("LOTE-A"));
+		entradas.put("b/gastos.txt", comunidad("LOTE-B"));
+		entradas.put("b/comunidad.txt", conMarcaUtf8(gastos("LOTE-B")));
+		entradas.put("c/comunidad.txt", "Notas de la reunión\n".getBytes(StandardCharsets.UTF_8));
+
+		InformeLote informe = procesador.procesarZip(zip(entradas), "lote.zip");
+
+		assertEquals(2, informe.getCorrectos());
+		assertEquals(1, informe.getFallidos());
+		ResultadoLote a = resultado(informe, "a");
+		assertTrue(a.isCorrecto(), a.getError());
+		assertEquals("LOTE-A", a.getComunidadId());
+		assertEquals("a/dos.txt", a.getArchivoComunidad());
+		assertEquals("a/uno.txt", a.getArchivoGastos());
+		ResultadoLote b = resultado(informe, "b");
+		assertTrue(b.isCorrecto(), b.getError());
+		assertEquals("b/gastos.txt", b.getArchivoComunidad());
+		assertTrue(resultado(informe, "c/comunidad.txt").getError().startsWith("No empieza por #Comunidad"));
+		assertNotNull(comunidadService.getSnapshot("LOTE-A"));
+	}
+
+	@Test
+	void emparejaPorNombreYReportaLosQueNoTienenPareja() throws IOException {
+		Map<String, byte[]> entradas = new LinkedHashMap<>();
+		entradas.put("edificio1_comunidad.txt", comunidad("LOTE-E1"));
+		entradas.put("edificio1_gastos.txt", gastos("LOTE-E1"));
+		entradas.put("edificio2_comunidad.txt", comunidad("LOTE-E2"));
+		entradas.put("edificio3_gastos.txt", gastos("LOTE-E3"));
+
+		InformeLote informe = procesador.procesarZip(zip(entradas), "lote.zip");
+
+		assertEquals(1, informe.getCorrectos());
+		assertEquals(2, informe.getFallidos());
+		assertTrue(resultado(informe, "edificio1_comunidad.txt").isCorrecto());
+		assertEquals("No se ha encontrado su archivo de gastos",
+			resultado(informe, "edificio2_comunidad.txt").getError());
+		assertEquals("No se ha encontrado su archivo de comunidad",
+			resultado(informe, "edificio3_gastos.txt").getError());
+	}
+
+	@Test
+	void rechazaEntradasDemasiadoGrandes() throws IOException {
+		Map<String, byte[]> entradas = new LinkedHashMap<>();
+		entradas.put("a/comunidad.txt", comunidad("LOTE-G"));
+		entradas.put("a/gastos.txt", gastos("LOTE-G"));
+		ReflectionTestUtils.setField(procesador, "maxBytesEntrada", (long) entradas.get("a/gastos.txt").length);
+
+		InformeLote informe = procesador.procesarZip(zip(entradas), "lote.zip");
+
+		// La comunidad pasa del límite y se rechaza sin leerla; los gastos se quedan sin pareja
+		assertEquals(0, informe.getCorrectos());
+		assertEquals(2, informe.getFallidos());
+		assertTrue(resultado(informe, "a/comunidad.txt").getError().contains("supera el tamaño descomprimido máximo"));
+		assertEquals("No se ha encontrado su archivo de comunidad", resultado(informe, "a/gastos.txt").getError());
+	}
+
+	@Test
+	void rechazaZipsDemasiadoGrandes() throws IOException {
+		Map<String, byte[]> entradas = new LinkedHashMap<>();
+		entradas.put("a/comunidad.txt", comunidad("LOTE-T"));
+		entradas.put("a/gastos.txt", gastos("LOTE-T"));
+		ReflectionTestUtils.setField(procesador, "maxBytesTotal", (long) entradas.get("a/comunidad.txt").length);
+		Path zip = zip(entradas);
+
+		IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+			() -> procesador.procesarZip(zip, "lote.zip"));
+		assertTrue(error.getMessage().startsWith("El ZIP supera el tamaño descomprimido máximo"));
+	}
+
+	private Path zip(Map<String, byte[]> entradas) throws IOException {
+		Path zip = Files.createTempFile(temporal, "lote", ".zip");
+		try (ZipOutputStream salida = new ZipOutputStream(Files.newOutputStream(zip))) {
+			for (Map.Entry<String, byte[]> entrada : entradas.entrySet()) {
+				salida.putNextEntry(new ZipEntry(entrada.getKey()));
+				salida.write(entrada.getValue());
+				salida.closeEntry();
+			}
+		}
+		return zip;
+	}
+
+	private static byte[] comunidad(String id) throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		generador(id).escribirComunidad(salida);
+		return salida.toByteArray();
+	}
+
+	private static byte[] gastos(String id) throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		generador(id).escribirGastos(salida);
+		return salida.toByteArray();
+	}
+
+	private static GeneradorArchivos generador(String id) {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setComunidadId(id);
+		return new GeneradorArchivos(configuracion);
+	}
+
+	private static byte[] conMarcaUtf8(byte[] contenido) throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		salida.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+		salida.write(contenido);
+		return salida.toByteArray();
+	}
+
+	private static ResultadoLote resultado(InformeLote informe, String clave) {
+		return informe.getResultados().stream()
+			.filter(resultado -> resultado.getClave().equals(clave))
+			.findFirst()
+			.orElseThrow(() -> new AssertionError("No hay resultado para " + clave + ": " + informe.getResultados()));
+	}
+}
@@ -0,0 +1,187 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.util.ComunidadesPrueba;
+import net.elpuig.comunidad.util.EstimadorMemoria;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * El registro descarta las comunidades usadas hace más tiempo al pasar de cualquiera de sus
+ * límites, contando las páginas guardadas de cada versión, nunca descarta una versión sin guardar si hay almacén en disco, y publicarSi no
+ * pierde ningún cambio aunque varios hilos modifiquen la misma comunidad a la vez.
+ */
+class RegistroComunidadesTest {
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void desalojaLaMenosUsadaPorNumero() {
+		RegistroComunidades registro = new RegistroComunidades(2, 0, ComunidadesPrueba.almacen(""));
+		registro.publicar(derivados("A"));
+		registro.publicar(derivados("B"));
+		// A pasa a ser la usada más recientemente
+		assertNotNull(registro.obtener("A"));
+		registro.publicar(derivados("C"));
+
+		assertEquals(2, registro.size());
+		assertNotNull(registro.obtener("A"));
+		assertNull(registro.obtener("B"));
+		assertNotNull(registro.obtener("C"));
+	}
+
+	@Test
+	void desalojaPorMemoria() {
+		long bytes = EstimadorMemoria.estimar(derivados("A"));
+		// Caben dos comunidades y media
+		RegistroComunidades registro = new RegistroComunidades(100, bytes * 5 / 2, ComunidadesPrueba.almacen(""));
+		registro.publicar(derivados("A"));
+		registro.publicar(derivados("B"));
+		assertEquals(2, registro.size());
+		assertEquals(2 * bytes, registro.getBytesEstimados());
+
+		registro.publicar(derivados("C"));
+		assertEquals(2, registro.size());
+		assertEquals(2 * bytes, registro.getBytesEstimados());
+		assertNull(registro.obtener("A"));
+
+		// La recién publicada se conserva aunque ella sola pase del límite
+		RegistroComunidades pequeno = new RegistroComunidades(100, 1, ComunidadesPrueba.almacen(""));
+		pequeno.publicar(derivados("A"));
+		assertNotNull(pequeno.obtener("A"));
+	}
+
+	@Test
+	void cuentaLasPaginasDeLaVersionVigente() {
+		long bytes = EstimadorMemoria.estimar(derivados("A"));
+		RegistroComunidades registro = new RegistroComunidades(100, 3 * bytes, ComunidadesPrueba.almacen(""));
+		SnapshotComunidad a = registro.publicar(derivados("A"));
+		registro.publicar(derivados("B"));
+		registro.sumarPagina(a, 100);
+		assertEquals(2 * bytes + 100, registro.getBytesEstimados());
+
+		// Las páginas de una versión sustituida ya no se cuentan
+		SnapshotComunidad nueva = registro.publicarSi(derivados("A"), a.getVersion());
+		assertEquals(2 * bytes, registro.getBytesEstimados());
+		registro.sumarPagina(a, 100);
+		assertEquals(2 * bytes, registro.getBytesEstimados());
+
+		// Y con ellas se puede pasar del límite y descartar la menos usada
+		registro.sumarPagina(nueva, bytes + 1);
+		assertNull(registro.obtener("B"));
+		assertEquals(2 * bytes + 1, registro.getBytesEstimados());
+		registro.eliminar("A");
+		assertEquals(0, registro.getBytesEstimados());
+	}
+
+	@Test
+	void noDesalojaVersionesSinGuardar() throws Exception {
+		AlmacenSnapshots almacen = ComunidadesPrueba.almacen(temporal.toString());
+		RegistroComunidades registro = new RegistroComunidades(1, 0, almacen);
+		SnapshotComunidad a = registro.publicar(derivados("A"));
+		registro.publicar(derivados("B"));
+		// A no está en disco: se pasa del límite antes que perderla
+		assertEquals(2, registro.size());
+		assertNotNull(registro.obtener("A"));
+
+		almacen.guardar(a);
+		registro.desalojar();
+		assertEquals(1, registro.size());
+		assertNull(registro.obtener("A"));
+		assertNotNull(registro.obtener("B"));
+
+		// Una versión posterior a la guardada tampoco se descarta
+		SnapshotComunidad nueva = registro.publicarGuardada(derivados("A"), a.getVersion());
+		assertEquals(a.getVersion(), nueva.getVersion());
+		SnapshotComunidad cambiada = registro.publicarSi(derivados("A"), nueva.getVersion());
+		assertNotNull(cambiada);
+		registro.desalojar();
+		assertSame(cambiada, registro.obtener("A"));
+	}
+
+	@Test
+	void publicarSiRechazaVersionesAntiguas() {
+		RegistroComunidades registro = new RegistroComunidades(10, 0, ComunidadesPrueba.almacen(""));
+		SnapshotComunidad primera = registro.publicar(derivados("A"));
+		SnapshotComunidad segunda = registro.publicarSi(derivados("A"), primera.getVersion());
+		assertNotNull(segunda);
+		assertTrue(segunda.getVersion() > primera.getVersion());
+
+		assertNull(registro.publicarSi(derivados("A"), primera.getVersion()));
+		assertSame(segunda, registro.obtener("A"));
+		assertNull(registro.publicarSi(derivados("NO-CARGADA"), primera.getVersion()));
+	}
+
+	@Test
+	void publicarSiNoPierdeCambiosConcurrentes() throws Exception {
+		RegistroComunidades registro = new RegistroComunidades(10, 0, ComunidadesPrueba.almacen(""));
+		registro.publicar(contador("A", 0));
+		int hilos = 8;
+		int cambios = 500;
+		CountDownLatch salida = new CountDownLatch(1);
+		ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+		try {
+			List<Future<Integer>> reintentos = new ArrayList<>();
+			for (int h = 0; h < hilos; h++) {
+				reintentos.add(ejecutor.submit(() -> {
+					salida.await();
+					int repetidos = 0;
+					for (int i = 0; i < cambios; i++) {
+						// El mismo bucle que ComunidadService.cambiarGasto: leer, cambiar y publicar si nadie se ha adelantado
+						while (true) {
+							SnapshotComunidad actual = registro.obtener("A");
+							int valor = Integer.parseInt(actual.getComunidad().getNombre());
+							if (registro.publicarSi(contador("A", valor + 1), actual.getVersion()) != null) {
+								break;
+							}
+							repetidos++;
+						}
+					}
+					return repetidos;
+				}));
+			}
+			salida.countDown();
+			for (Future<Integer> reintento : reintentos) {
+				reintento.get();
+			}
+		} finally {
+			ejecutor.shutdownNow();
+		}
+		assertEquals(String.valueOf(hilos * cambios), registro.obtener("A").getComunidad().getNombre());
+	}
+
+	private static DerivadosComunidad contador(String id, int valor) {
+		DerivadosComunidad derivados = derivados(id);
+		derivados.getComunidad().setNombre(String.valueOf(valor));
+		return derivados;
+	}
+
+	private static DerivadosComunidad derivados(String id) {
+		Comunidad comunidad = new Comunidad();
+		comunidad.setId(id);
+		comunidad.setNombre("Comunidad " + id);
+		comunidad.setPoblacion("Barcelona");
+		comunidad.setZonas(Collections.emptyList());
+		comunidad.setPropiedades(Collections.emptyList());
+		comunidad.setPropietarios(Collections.emptyList());
+		comunidad.setGastos(Collections.emptyList());
+		comunidad.setTotalesPorZona(new HashMap<>());
+		comunidad.setTotalGeneral(BigDecimal.ZERO);
+		return new DerivadosComunidad(comunidad);
+	}
+}
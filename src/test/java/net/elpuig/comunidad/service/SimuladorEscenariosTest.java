@@ -0,0 +1,226 @@
+package net.elpuig.comunidad.service;
+
+import net.elpuig.comunidad.model.*;
+import net.elpuig.comunidad.util.CalculadoraCuotas;
+import net.elpuig.comunidad.util.GeneradorArchivos;
+import net.elpuig.comunidad.util.ProgresoProcesado;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Las diferencias de un escenario coinciden con las de recalcular de verdad la comunidad con
+ * los cambios aplicados, y simular no modifica la versión publicada.
+ */
+@SpringBootTest
+class SimuladorEscenariosTest {
+
+	private static final String ID = "SIM-TEST";
+	/** Zona proporcional de los archivos generados */
+	private static final String ESCALERA = "E";
+
+	@Autowired
+	private SimuladorEscenarios simulador;
+
+	@Autowired
+	private ComunidadService comunidadService;
+
+	@Autowired
+	private CalculadoraCuotas calculadora;
+
+	@TempDir
+	Path temporal;
+
+	private SnapshotComunidad snapshot;
+	private Gasto movido;
+	private Gasto subido;
+
+	@BeforeEach
+	void cargarComunidad() throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setComunidadId(ID);
+		configuracion.setPropiedades(60);
+		configuracion.setPropietarios(25);
+		configuracion.setGastos(30);
+		new GeneradorArchivos(configuracion).escribir(temporal);
+		snapshot = comunidadService.procesarArchivos(temporal.resolve("comunidad.txt"),
+			temporal.resolve("gastos.txt"), ProgresoProcesado.NINGUNO);
+
+		List<Gasto> gastos = snapshot.getComunidad().getGastos();
+		movido = gastos.stream().filter(gasto -> gasto.getZona().getId().equals(ESCALERA)).findFirst().orElseThrow();
+		subido = gastos.stream().filter(gasto -> !gasto.getZona().getId().equals(ESCALERA)).findFirst().orElseThrow();
+	}
+
+	@Test
+	void coincideConRecalcularLaComunidad() throws IOException {
+		// Un gasto de la escalera pasa a la zona de otro, que sube un 20 %
+		CambioEscenario mover = new CambioEscenario();
+		mover.setGasto(movido.getId());
+		mover.setZonaDestino(subido.getZona().getId());
+		CambioEscenario subir = new CambioEscenario();
+		subir.setGasto(subido.getId());
+		subir.setPorcentaje(BigDecimal.valueOf(20));
+		// La escalera pasa a repartirse a partes iguales
+		CambioEscenario igualitario = new CambioEscenario();
+		igualitario.setZona(ESCALERA);
+		igualitario.setTipoReparto('I');
+
+		SimulacionEscenarios simulacion = simulador.simular(snapshot, List.of(
+			escenario("mover y subir", mover, subir),
+			escenario("igualitario", igualitario)));
+
+		Path comunidadArchivo = temporal.resolve("comunidad.txt");
+		comprobar(simulacion.getEscenarios().get(0), comunidadArchivo, comunidad -> {
+			gasto(comunidad, movido.getId()).setZona(zona(comunidad, subido.getZona().getId()));
+			Gasto gasto = gasto(comunidad, subido.getId());
+			gasto.setImporte(gasto.getImporte().multiply(new BigDecimal("1.20")).setScale(2, RoundingMode.HALF_UP));
+		});
+		// Las zonas son claves de los porcentajes de las propiedades: el tipo se cambia en el archivo
+		Path igualitarioArchivo = temporal.resolve("igualitario.txt");
+		String contenido = Files.readString(comunidadArchivo);
+		assertTrue(contenido.contains("\nE;Escalera;P\n"));
+		Files.writeString(igualitarioArchivo, contenido.replace("\nE;Escalera;P\n", "\nE;Escalera;I\n"));
+		comprobar(simulacion.getEscenarios().get(1), igualitarioArchivo, comunidad -> { });
+	}
+
+	@Test
+	void noModificaLaComunidad() {
+		Comunidad comunidad = snapshot.getComunidad();
+		List<Gasto> gastos = new ArrayList<>();
+		for (Gasto gasto : comunidad.getGastos()) {
+			Gasto copia = new Gasto();
+			copia.setId(gasto.getId());
+			copia.setDescripcion(gasto.getDescripcion());
+			copia.setImporte(gasto.getImporte());
+			copia.setZona(gasto.getZona());
+			gastos.add(copia);
+		}
+		Map<String, Map<Zona, BigDecimal>> cuotas = cuotasPorPropiedad(comunidad);
+		Map<Zona, BigDecimal> totales = new HashMap<>(comunidad.getTotalesPorZona());
+		char tipoReparto = movido.getZona().getTipoReparto();
+
+		CambioEscenario mover = new CambioEscenario();
+		mover.setGasto(movido.getId());
+		mover.setZonaDestino(subido.getZona().getId());
+		mover.setImporte(BigDecimal.valueOf(-1));
+		CambioEscenario igualitario = new CambioEscenario();
+		igualitario.setZona(ESCALERA);
+		igualitario.setTipoReparto('I');
+		simulador.simular(snapshot, List.of(escenario("cambios", mover, igualitario)));
+
+		assertSame(snapshot, comunidadService.getSnapshot(ID));
+		assertEquals(gastos, comunidad.getGastos());
+		assertEquals(cuotas, cuotasPorPropiedad(comunidad));
+		assertEquals(totales, comunidad.getTotalesPorZona());
+		assertEquals(tipoReparto, movido.getZona().getTipoReparto());
+	}
+
+	@Test
+	void noGuardaLosPesosSimuladosEnLaVersionPublicada() {
+		IndiceZonas indice = IndiceZonas.de(snapshot);
+		long compilados = indice.getPesosCompilados();
+
+		List<Escenario> escenarios = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			CambioEscenario coeficientes = new CambioEscenario();
+			coeficientes.setZona(ESCALERA);
+			coeficientes.setTipoReparto('T');
+			coeficientes.setParametrosReparto("L=2.000" + i + ",P=1");
+			escenarios.add(escenario("coeficientes " + i, coeficientes));
+		}
+		SimulacionEscenarios simulacion = simulador.simular(snapshot, escenarios);
+
+		assertTrue(simulacion.getEscenarios().stream().allMatch(resultado -> !resultado.getPropietarios().isEmpty()));
+		assertEquals(compilados, indice.getPesosCompilados());
+	}
+
+	/**
+	 * Compara un escenario con la diferencia entre calcular la comunidad original y
+	 * calcularla con los cambios aplicados.
+	 */
+	private void comprobar(ResultadoEscenario resultado, Path comunidadArchivo, Consumer<Comunidad> cambios)
+			throws IOException {
+		Comunidad antes = leer(temporal.resolve("comunidad.txt"));
+		calculadora.calcularCuotas(antes, antes.getGastos());
+		Comunidad despues = leer(comunidadArchivo);
+		cambios.accept(despues);
+		calculadora.calcularCuotas(despues, despues.getGastos());
+
+		Map<String, BigDecimal> anteriores = totalesPorPropietario(antes);
+		Map<String, BigDecimal> diferencias = new TreeMap<>();
+		totalesPorPropietario(despues).forEach((codigo, total) -> {
+			BigDecimal diferencia = total.subtract(anteriores.getOrDefault(codigo, BigDecimal.ZERO));
+			if (diferencia.signum() != 0) {
+				diferencias.put(codigo, diferencia);
+			}
+		});
+		assertFalse(diferencias.isEmpty());
+
+		Map<String, BigDecimal> simuladas = new TreeMap<>();
+		resultado.getPropietarios().forEach(fila -> simuladas.put(fila.getCodigo(), fila.getDiferencia()));
+		assertEquals(diferencias.keySet(), simuladas.keySet(), resultado.getNombre());
+		diferencias.forEach((codigo, diferencia) -> assertEquals(0, diferencia.compareTo(simuladas.get(codigo)),
+			resultado.getNombre() + ": propietario " + codigo));
+
+		BigDecimal diferenciaTotal = suma(despues.getGastos()).subtract(suma(antes.getGastos()));
+		assertEquals(0, diferenciaTotal.compareTo(resultado.getTotal().getDiferencia()), resultado.getNombre());
+	}
+
+	private Comunidad leer(Path comunidadArchivo) throws IOException {
+		try (InputStream comunidad = Files.newInputStream(comunidadArchivo);
+			 InputStream gastos = Files.newInputStream(temporal.resolve("gastos.txt"))) {
+			return comunidadService.parsearArchivos(comunidad, gastos);
+		}
+	}
+
+	private static Escenario escenario(String nombre, CambioEscenario... cambios) {
+		Escenario escenario = new Escenario();
+		escenario.setNombre(nombre);
+		escenario.setCambios(List.of(cambios));
+		return escenario;
+	}
+
+	private static Gasto gasto(Comunidad comunidad, String id) {
+		return comunidad.getGastos().stream().filter(gasto -> gasto.getId().equals(id)).findFirst().orElseThrow();
+	}
+
+	private static Zona zona(Comunidad comunidad, String id) {
+		return comunidad.getZonas().stream().filter(zona -> zona.getId().equals(id)).findFirst().orElseThrow();
+	}
+
+	private static Map<String, BigDecimal> totalesPorPropietario(Comunidad comunidad) {
+		Map<String, BigDecimal> totales = new HashMap<>();
+		for (Propiedad propiedad : comunidad.getPropiedades()) {
+			if (propiedad.getCuotas() != null && propiedad.getPropietario() != null) {
+				for (BigDecimal cuota : propiedad.getCuotas().values()) {
+					totales.merge(propiedad.getPropietario().getCodigo(), cuota, BigDecimal::add);
+				}
+			}
+		}
+		return totales;
+	}
+
+	private static Map<String, Map<Zona, BigDecimal>> cuotasPorPropiedad(Comunidad comunidad) {
+		Map<String, Map<Zona, BigDecimal>> cuotas = new HashMap<>();
+		for (Propiedad propiedad : comunidad.getPropiedades()) {
+			cuotas.put(propiedad.getCodigo(), propiedad.getCuotas() != null ? new HashMap<>(propiedad.getCuotas()) : null);
+		}
+		return cuotas;
+	}
+
+	private static BigDecimal suma(List<Gasto> gastos) {
+		return gastos.stream().map(Gasto::getImporte).reduce(BigDecimal.ZERO, BigDecimal::add);
+	}
+}
@@ -0,0 +1,286 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.ClaveOrdenacion;
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.CuotasPropietarios;
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.Gasto;
+import net.elpuig.comunidad.model.IndiceZonas;
+import net.elpuig.comunidad.model.Propiedad;
+import net.elpuig.comunidad.model.Propietario;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import net.elpuig.comunidad.model.Zona;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalculadoraCuotasTest {
+
+	private final FileParserNio parser = new FileParserNio(StandardCharsets.UTF_8);
+	private final CalculadoraCuotas calculadora = new CalculadoraCuotas();
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void centimosSumanElTotalDeCadaZona() throws IOException {
+		for (Path directorio : List.of(Path.of("archivos"), generar(3_000))) {
+			Comunidad comunidad = leer(directorio);
+			calculadora.calcularCuotas(comunidad, comunidad.getGastos(), MotorCalculo.CENTIMOS);
+			calculadora.generarResumen(comunidad, comunidad.getGastos());
+			assertFalse(comunidad.getTotalesPorZona().isEmpty());
+			comunidad.getTotalesPorZona().forEach((zona, total) ->
+				assertEquals(0, total.compareTo(sumaZona(comunidad, zona)), () -> "Zona " + zona.getId()));
+		}
+	}
+
+	@Test
+	void centimosPorMayorRestoCalculadosAMano() throws IOException {
+		Path directorio = temporal.resolve("mayor-resto");
+		Files.createDirectories(directorio);
+		Files.writeString(directorio.resolve("comunidad.txt"), """
+			#Comunidad
+			R;Restos;Barcelona
+
+			#Zona
+			A;Iguales;P
+			B;Empate;P
+			C;Mayor resto;P
+
+			#Propiedad
+			P;P1;50;01;A-1,B-2,C-1;Piso;-
+			P;P2;50;01;A-1,B-2,C-3;Piso;-
+			P;P3;50;01;A-1,B-2,C-3;Piso;-
+			P;P4;50;01;B-1;Piso;-
+
+			#Propietario
+			01;Ana;Barcelona;ana@correo.net
+			""");
+		Files.writeString(directorio.resolve("gastos.txt"), """
+			#Presupuesto 2024
+			G1;Iguales;1.00;A
+			G2;Empate;1.00;B
+			G3;Mayor resto;1.00;C
+			""");
+		CalculadoraCuotas paralela = new CalculadoraCuotas();
+		ReflectionTestUtils.setField(paralela, "umbralParalelo", 1);
+
+		List<List<BigDecimal>> anteriores = new ArrayList<>();
+		for (int vuelta = 0; vuelta < 5; vuelta++) {
+			Comunidad comunidad = leer(directorio);
+			(vuelta % 2 == 0 ? calculadora : paralela).calcularCuotas(comunidad, comunidad.getGastos(), MotorCalculo.CENTIMOS);
+
+			// 100 céntimos entre tres pesos iguales: 33 y resto 1 cada uno; el céntimo sobrante va a P1
+			assertEquals(List.of("0.34", "0.33", "0.33"), cuotas(comunidad, "A"));
+			// Entre 2, 2, 2 y 1: 28 (resto 4) tres veces y 14 (resto 2); los dos céntimos sobrantes
+			// van a las dos primeras de las tres con el mismo resto
+			assertEquals(List.of("0.29", "0.29", "0.28", "0.14"), cuotas(comunidad, "B"));
+			// Entre 1, 3 y 3: 14 (resto 2) y 42 (resto 6) dos veces; los sobrantes van a los mayores
+			// restos aunque P1 esté antes
+			assertEquals(List.of("0.14", "0.43", "0.43"), cuotas(comunidad, "C"));
+
+			// El mismo resultado en cada cálculo, secuencial o paralelo
+			List<BigDecimal> todas = comunidad.getPropiedades().stream()
+				.flatMap(propiedad -> comunidad.getZonas().stream().map(zona -> propiedad.getCuotas().get(zona)))
+				.toList();
+			anteriores.forEach(anterior -> assertEquals(anterior, todas));
+			anteriores.add(todas);
+		}
+	}
+
+	@Test
+	void paraleloIgualQueSecuencial() throws IOException {
+		// Zonas de unos 50.000 miembros: el reparto proporcional se divide en varios tramos
+		Path directorio = generar(100_000);
+		CalculadoraCuotas secuencial = new CalculadoraCuotas();
+		ReflectionTestUtils.setField(secuencial, "umbralParalelo", 0);
+		CalculadoraCuotas paralela = new CalculadoraCuotas();
+		ReflectionTestUtils.setField(paralela, "umbralParalelo", 1);
+		for (MotorCalculo motor : MotorCalculo.values()) {
+			Comunidad esperada = leer(directorio);
+			secuencial.calcularCuotas(esperada, esperada.getGastos(), motor);
+			Comunidad calculada = leer(directorio);
+			paralela.calcularCuotas(calculada, calculada.getGastos(), motor);
+
+			for (int i = 0; i < esperada.getPropiedades().size(); i++) {
+				Propiedad propiedad = calculada.getPropiedades().get(i);
+				assertTrue(Objects.equals(esperada.getPropiedades().get(i).getCuotas(), propiedad.getCuotas()),
+					() -> motor + ": propiedad " + propiedad.getCodigo());
+			}
+			assertTrue(esperada.equals(calculada), motor.toString());
+		}
+	}
+
+	@Test
+	void recalcularZonasIgualQueCalcularDeNuevo() throws IOException {
+		Path directorio = generar(2_000);
+		for (MotorCalculo motor : MotorCalculo.values()) {
+			Comunidad comunidad = leer(directorio);
+			DerivadosComunidad derivados = new DerivadosComunidad(comunidad);
+			derivados.setIndiceZonas(calculadora.calcularCuotas(comunidad, comunidad.getGastos(), motor));
+			calculadora.generarResumen(comunidad, comunidad.getGastos());
+			SnapshotComunidad snapshot = publicar(derivados, 1);
+			Zona primera = comunidad.getZonas().get(0);
+			Zona segunda = comunidad.getZonas().get(1);
+
+			// Alta de un gasto en la primera zona
+			List<Gasto> gastos = new ArrayList<>(comunidad.getGastos());
+			gastos.add(gasto("NUEVO", new BigDecimal("1234.57"), primera));
+			snapshot = recalcular(snapshot, gastos, List.of(primera), motor, directorio);
+
+			// Cambio de importe y de zona de un gasto
+			gastos = new ArrayList<>(snapshot.getComunidad().getGastos());
+			Gasto modificado = gastos.get(0);
+			gastos.set(0, gasto(modificado.getId(), new BigDecimal("99.99"), segunda));
+			snapshot = recalcular(snapshot, gastos, List.of(modificado.getZona(), segunda), motor, directorio);
+
+			// Baja de un gasto
+			gastos = new ArrayList<>(snapshot.getComunidad().getGastos());
+			Gasto eliminado = gastos.remove(1);
+			recalcular(snapshot, gastos, List.of(eliminado.getZona()), motor, directorio);
+		}
+	}
+
+	@Test
+	void recalcularZonasSoloConservaLasOrdenacionesQueNoDependenDeLosGastos() throws IOException {
+		Comunidad comunidad = leer(generar(200));
+		DerivadosComunidad derivados = new DerivadosComunidad(comunidad);
+		derivados.setIndiceZonas(calculadora.calcularCuotas(comunidad, comunidad.getGastos()));
+		calculadora.generarResumen(comunidad, comunidad.getGastos());
+		int[] metros = {2, 0, 1};
+		derivados.getOrdenaciones().put(ClaveOrdenacion.fija("propiedades:metros"), metros);
+		derivados.getOrdenaciones().put(ClaveOrdenacion.porGastos("propiedades:total"), new int[] {1, 2, 0});
+
+		List<Gasto> gastos = new ArrayList<>(comunidad.getGastos());
+		Gasto eliminado = gastos.remove(0);
+		DerivadosComunidad recalculada = calculadora.recalcularZonas(publicar(derivados, 1), gastos,
+			List.of(eliminado.getZona()));
+
+		assertEquals(Map.of(ClaveOrdenacion.fija("propiedades:metros"), metros), recalculada.getOrdenaciones());
+	}
+
+	/**
+	 * Recalcula las zonas cambiadas y comprueba que el resultado es el de calcular desde cero
+	 * la comunidad leída de nuevo con los mismos gastos.
+	 */
+	private SnapshotComunidad recalcular(SnapshotComunidad anterior, List<Gasto> gastos, List<Zona> zonas,
+	                                     MotorCalculo motor, Path directorio) throws IOException {
+		DerivadosComunidad derivados = calculadora.recalcularZonas(anterior,
+			Collections.unmodifiableList(gastos), zonas, motor);
+		Comunidad recalculada = derivados.getComunidad();
+
+		Comunidad completa = leer(directorio);
+		List<Gasto> gastosCompleta = new ArrayList<>();
+		for (Gasto gasto : gastos) {
+			Zona zona = completa.getZonas().stream()
+				.filter(z -> z.getId().equals(gasto.getZona().getId())).findFirst().orElseThrow();
+			Gasto copia = gasto(gasto.getId(), gasto.getImporte(), zona);
+			copia.setDescripcion(gasto.getDescripcion());
+			gastosCompleta.add(copia);
+		}
+		completa.setGastos(gastosCompleta);
+		calculadora.calcularCuotas(completa, gastosCompleta, motor);
+		calculadora.generarResumen(completa, gastosCompleta);
+
+		// Sin assertEquals ni assertSame: el mensaje de error usaría los toString, que se recorren
+		// entre propiedades y propietarios sin fin
+		assertTrue(completa.equals(recalculada));
+		assertEquals(CuotasPropietarios.calcular(completa).getPorPropietario(),
+			derivados.getCuotasPropietarios().getPorPropietario());
+		assertNotSame(anterior.getComunidad(), recalculada);
+
+		// Cada propiedad apunta al propietario vigente y cada propietario a sus propiedades vigentes
+		for (Propiedad propiedad : recalculada.getPropiedades()) {
+			if (propiedad.getPropietario() != null) {
+				int posicion = Collections.binarySearch(recalculada.getPropietarios(), propiedad.getPropietario(),
+					Comparator.comparing(Propietario::getCodigo));
+				assertTrue(recalculada.getPropietarios().get(posicion) == propiedad.getPropietario(),
+					() -> "Propiedad " + propiedad.getCodigo());
+			}
+		}
+		for (Propietario propietario : recalculada.getPropietarios()) {
+			propietario.getPropiedades().forEach(propiedad -> assertTrue(propietario == propiedad.getPropietario(),
+				() -> "Propiedad " + propiedad.getCodigo() + " de " + propietario.getCodigo()));
+		}
+		// El índice de zonas apunta a las propiedades de la lista nueva
+		IndiceZonas indice = derivados.getIndiceZonas();
+		for (IndiceZonas.MiembrosZona miembros : indice.todas()) {
+			for (int i = 0; i < miembros.size(); i++) {
+				assertTrue(recalculada.getPropiedades().get(miembros.posicion(i)) == miembros.propiedad(i),
+					"Índice de la zona " + miembros.getZona().getId());
+			}
+		}
+		return publicar(derivados, anterior.getVersion() + 1);
+	}
+
+	private static SnapshotComunidad publicar(DerivadosComunidad derivados, long version) {
+		Comunidad comunidad = derivados.getComunidad();
+		return new SnapshotComunidad(comunidad.getId(), version, comunidad, derivados, 0, Instant.now());
+	}
+
+	private static Gasto gasto(String id, BigDecimal importe, Zona zona) {
+		Gasto gasto = new Gasto();
+		gasto.setId(id);
+		gasto.setDescripcion("Gasto " + id);
+		gasto.setImporte(importe);
+		gasto.setZona(zona);
+		return gasto;
+	}
+
+	private Path generar(int propiedades) throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setPropiedades(propiedades);
+		configuracion.setPropietarios(propiedades / 4);
+		configuracion.setZonas(6);
+		configuracion.setZonasPorPropiedad(3);
+		Path directorio = temporal.resolve("generada-" + propiedades);
+		new GeneradorArchivos(configuracion).escribir(directorio);
+		return directorio;
+	}
+
+	private Comunidad leer(Path directorio) throws IOException {
+		Path comunidad = directorio.resolve("comunidad.txt");
+		Path gastos = directorio.resolve("gastos.txt");
+		if (directorio.equals(Path.of("archivos"))) {
+			comunidad = directorio.resolve("Comunidad.txt");
+			gastos = directorio.resolve("Gastos.txt");
+		}
+		Comunidad leida = parser.parseComunidad(comunidad);
+		leida.setGastos(parser.parseGastos(gastos, leida));
+		return leida;
+	}
+
+	/** Cuotas de las propiedades que participan en la zona, en el orden del archivo */
+	private static List<String> cuotas(Comunidad comunidad, String zonaId) {
+		Zona zona = comunidad.getZonas().stream().filter(z -> z.getId().equals(zonaId)).findFirst().orElseThrow();
+		return comunidad.getPropiedades().stream()
+			.filter(propiedad -> propiedad.getCuotas().containsKey(zona))
+			.map(propiedad -> propiedad.getCuotas().get(zona).toPlainString())
+			.toList();
+	}
+
+	private static BigDecimal sumaZona(Comunidad comunidad, Zona zona) {
+		BigDecimal suma = BigDecimal.ZERO;
+		for (Propiedad propiedad : comunidad.getPropiedades()) {
+			Map<Zona, BigDecimal> cuotas = propiedad.getCuotas();
+			if (cuotas != null && cuotas.containsKey(zona)) {
+				suma = suma.add(cuotas.get(zona));
+			}
+		}
+		return suma;
+	}
+}
@@ -0,0 +1,85 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.service.AlmacenSnapshots;
+import net.elpuig.comunidad.service.RegistroComunidades;
+import net.elpuig.comunidad.service.ResumenesCartera;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Comunidades calculadas y servicios conectados a mano para los tests que publican varias
+ * versiones en un registro sin levantar el contexto de Spring. Es código de pruebas, como
+ * {@link GeneradorArchivos}.
+ *
+ * Las comunidades se leen de texto con el parser NIO, como al subir los archivos, y se
+ * calculan con el motor indicado; por defecto, el de la aplicación ({@link MotorCalculo#BIG_DECIMAL}).
+ */
+public final class ComunidadesPrueba {
+
+    private final FileParserNio parser = new FileParserNio(StandardCharsets.UTF_8);
+    private final CalculadoraCuotas calculadora = new CalculadoraCuotas();
+    private final Path directorio;
+    private final MotorCalculo motor;
+
+    /**
+     * @param directorio Directorio temporal donde escribir los archivos leídos
+     */
+    public ComunidadesPrueba(Path directorio) {
+        this(directorio, MotorCalculo.BIG_DECIMAL);
+    }
+
+    /**
+     * @param directorio Directorio temporal donde escribir los archivos leídos
+     * @param motor Motor con que se calculan las cuotas
+     */
+    public ComunidadesPrueba(Path directorio, MotorCalculo motor) {
+        this.directorio = directorio;
+        this.motor = motor;
+    }
+
+    /**
+     * Lee una comunidad y su presupuesto y calcula sus cuotas y su resumen, lista para publicar.
+     *
+     * @param textoComunidad Contenido del archivo de comunidad
+     * @param textoGastos Contenido del archivo de gastos, con la cabecera del año si la tiene
+     */
+    public DerivadosComunidad derivados(String textoComunidad, String textoGastos) throws IOException {
+        Path archivoComunidad = directorio.resolve("comunidad.txt");
+        Path archivoGastos = directorio.resolve("gastos.txt");
+        Files.writeString(archivoComunidad, textoComunidad);
+        Files.writeString(archivoGastos, textoGastos);
+        Comunidad comunidad = parser.parseComunidad(archivoComunidad);
+        FileParser.Presupuesto presupuesto = parser.parsePresupuesto(archivoGastos, comunidad);
+        comunidad.setGastos(presupuesto.gastos());
+        comunidad.setAnioPresupuesto(presupuesto.anio());
+        DerivadosComunidad derivados = new DerivadosComunidad(comunidad);
+        derivados.setIndiceZonas(calculadora.calcularCuotas(comunidad, comunidad.getGastos(), motor));
+        calculadora.generarResumen(comunidad, comunidad.getGastos());
+        return derivados;
+    }
+
+    /**
+     * Almacén de snapshots en el directorio indicado; con "" no guarda nada en disco.
+     */
+    public static AlmacenSnapshots almacen(String directorio) {
+        AlmacenSnapshots almacen = new AlmacenSnapshots();
+        ReflectionTestUtils.setField(almacen, "snapshotBinario", new SnapshotBinario());
+        ReflectionTestUtils.setField(almacen, "directorio", directorio);
+        return almacen;
+    }
+
+    /**
+     * Resúmenes de la cartera del registro y de las comunidades guardadas en el almacén.
+     */
+    public static ResumenesCartera resumenes(RegistroComunidades registro, AlmacenSnapshots almacen) {
+        ResumenesCartera resumenes = new ResumenesCartera();
+        ReflectionTestUtils.setField(resumenes, "registro", registro);
+        ReflectionTestUtils.setField(resumenes, "almacenSnapshots", almacen);
+        return resumenes;
+    }
+}
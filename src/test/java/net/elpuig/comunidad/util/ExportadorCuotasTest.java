@@ -0,0 +1,115 @@
+package net.elpuig.comunidad.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.DerivadosComunidad;
+import net.elpuig.comunidad.model.SnapshotComunidad;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * El CSV tiene una columna por zona en el orden de la comunidad, con 0.00 donde no hay cuota,
+ * y el NDJSON un objeto por línea solo con las zonas en que participa cada fila.
+ */
+class ExportadorCuotasTest {
+
+	private static final String COMUNIDAD = """
+		#Comunidad
+		X1;Exportación;Barcelona
+
+		#Zona
+		A;Escalera;P
+		B;Garaje;I
+
+		#Propiedad
+		P;P1;80;01;A-60,B-1;Piso;-
+		P;P2;70;01;A-40;Piso;-
+		G;G1;12;02;B-1;A;S
+
+		#Propietario
+		01;Ana;Barcelona;ana@correo.net
+		02;Bar "El Puig";Barcelona;bar@correo.net
+		""";
+
+	private static final String GASTOS = """
+		#Presupuesto 2024
+		G1;Limpieza;100;A
+		G2;Puerta;30;B
+		""";
+
+	private final ExportadorCuotas exportador = new ExportadorCuotas();
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@TempDir
+	Path temporal;
+
+	private SnapshotComunidad snapshot;
+
+	@BeforeEach
+	void calcular() throws IOException {
+		DerivadosComunidad derivados = new ComunidadesPrueba(temporal).derivados(COMUNIDAD, GASTOS);
+		Comunidad comunidad = derivados.getComunidad();
+		snapshot = new SnapshotComunidad(comunidad.getId(), 1, comunidad, derivados, 0, Instant.now());
+	}
+
+	@Test
+	void propiedadesEnCsv() throws IOException {
+		assertEquals(List.of(
+			"codigo;tipo;propietario;A;B;total",
+			"P1;P;01;60.00;15.00;75.00",
+			"P2;P;01;40.00;0.00;40.00",
+			"G1;G;02;0.00;15.00;15.00"), lineas(exportar(true, FormatoExportacion.CSV)));
+	}
+
+	@Test
+	void propietariosEnCsv() throws IOException {
+		// El nombre con comillas va entre comillas, dobladas
+		assertEquals(List.of(
+			"codigo;nombre;propiedades;A;B;total",
+			"01;Ana;2;100.00;15.00;115.00",
+			"02;\"Bar \"\"El Puig\"\"\";1;0.00;15.00;15.00"), lineas(exportar(false, FormatoExportacion.CSV)));
+	}
+
+	@Test
+	void ndjsonSoloConLasZonasDeCadaFila() throws IOException {
+		List<String> lineas = lineas(exportar(true, FormatoExportacion.NDJSON));
+		assertEquals(3, lineas.size());
+
+		JsonNode p2 = mapper.readTree(lineas.get(1));
+		assertEquals("P2", p2.get("codigo").asText());
+		assertEquals("01", p2.get("propietario").asText());
+		assertEquals(0, p2.get("cuotas").get("A").decimalValue().compareTo(new BigDecimal("40")));
+		assertFalse(p2.get("cuotas").has("B"));
+		assertEquals(0, p2.get("total").decimalValue().compareTo(new BigDecimal("40")));
+
+		JsonNode bar = mapper.readTree(lineas(exportar(false, FormatoExportacion.NDJSON)).get(1));
+		assertEquals("Bar \"El Puig\"", bar.get("nombre").asText());
+		assertEquals(1, bar.get("propiedades").asInt());
+	}
+
+	private String exportar(boolean propiedades, FormatoExportacion formato) throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		if (propiedades) {
+			exportador.exportarPropiedades(snapshot.getComunidad(), formato, salida);
+		} else {
+			exportador.exportarPropietarios(snapshot, formato, salida);
+		}
+		return salida.toString(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> lineas(String texto) {
+		assertTrue(texto.endsWith("\n"));
+		return texto.lines().toList();
+	}
+}
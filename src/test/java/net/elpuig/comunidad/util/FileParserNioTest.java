@@ -0,0 +1,171 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.Gasto;
+import net.elpuig.comunidad.model.Propiedad;
+import net.elpuig.comunidad.model.Propietario;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * El parser NIO tiene que construir los mismos objetos que el parser clásico, tanto leyendo
+ * de un flujo como de un fichero, y con cualquier fin de línea. Los dos aceptan importes con
+ * fracciones de céntimo, que solo el motor de céntimos rechaza al repartir.
+ */
+class FileParserNioTest {
+
+	private final FileParser clasico = new FileParser();
+	private final FileParserNio nio = new FileParserNio(StandardCharsets.UTF_8);
+
+	@Test
+	void archivosDeEjemplo() throws IOException {
+		comparar(Files.readAllBytes(Path.of("archivos/Comunidad.txt")), Files.readAllBytes(Path.of("archivos/Gastos.txt")));
+		comparar(Files.readAllBytes(Path.of("archivos/Comundad2.txt")), Files.readAllBytes(Path.of("archivos/Gastos2.txt")));
+	}
+
+	@Test
+	void archivosGenerados(@TempDir Path directorio) throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setPropiedades(2000);
+		configuracion.setPropietarios(500);
+		configuracion.setZonasPorPropiedad(3);
+		new GeneradorArchivos(configuracion).escribir(directorio);
+		byte[] comunidad = Files.readAllBytes(directorio.resolve("comunidad.txt"));
+		byte[] gastos = Files.readAllBytes(directorio.resolve("gastos.txt"));
+		comparar(comunidad, gastos);
+		compararFicheros(directorio.resolve("comunidad.txt"), directorio.resolve("gastos.txt"));
+	}
+
+	@Test
+	void tramosEnParalelo(@TempDir Path directorio) throws IOException {
+		// Con el umbral a 1 hasta los archivos pequeños se reparten en tramos paralelos
+		ReflectionTestUtils.setField(nio, "umbralParalelo", 1);
+		comparar(Files.readAllBytes(Path.of("archivos/Comunidad.txt")), Files.readAllBytes(Path.of("archivos/Gastos.txt")));
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setPropiedades(50_000);
+		configuracion.setPropietarios(5_000);
+		configuracion.setZonasPorPropiedad(3);
+		new GeneradorArchivos(configuracion).escribir(directorio);
+		compararFicheros(directorio.resolve("comunidad.txt"), directorio.resolve("gastos.txt"));
+	}
+
+	@Test
+	void finesDeLineaWindowsYRetornoSolo(@TempDir Path directorio) throws IOException {
+		byte[] comunidad = Files.readAllBytes(Path.of("archivos/Comunidad.txt"));
+		byte[] gastos = Files.readAllBytes(Path.of("archivos/Gastos.txt"));
+		for (String fin : List.of("\r\n", "\r")) {
+			byte[] comunidadConvertida = convertir(comunidad, fin);
+			byte[] gastosConvertidos = convertir(gastos, fin);
+			comparar(comunidadConvertida, gastosConvertidos);
+			Path ficheroComunidad = Files.write(directorio.resolve("comunidad.txt"), comunidadConvertida);
+			Path ficheroGastos = Files.write(directorio.resolve("gastos.txt"), gastosConvertidos);
+			compararFicheros(ficheroComunidad, ficheroGastos);
+		}
+	}
+
+	@Test
+	void anioDeLaCabecera() throws IOException {
+		byte[] comunidad = Files.readAllBytes(Path.of("archivos/Comunidad.txt"));
+		String gastos = new String(Files.readAllBytes(Path.of("archivos/Gastos.txt")), StandardCharsets.UTF_8);
+		String lineas = gastos.substring(gastos.indexOf('\n') + 1);
+		Map<String, Integer> cabeceras = new LinkedHashMap<>();
+		cabeceras.put("#Presupuesto 2024", 2024);
+		cabeceras.put("#Pressupost any 2009", 2009);
+		cabeceras.put("#Presupuesto\t2010 revisado 2011", 2010);
+		cabeceras.put("#Presupuesto", null);
+		cabeceras.put("#Presupuesto 2024-2025", null);
+		cabeceras.put("#Presupuesto anual", null);
+		cabeceras.put("#Presupuesto 0", null);
+		Comunidad leida = nio.parseComunidad(new ByteArrayInputStream(comunidad));
+		for (Map.Entry<String, Integer> cabecera : cabeceras.entrySet()) {
+			byte[] archivo = (cabecera.getKey() + "\n" + lineas).getBytes(StandardCharsets.UTF_8);
+			FileParser.Presupuesto presupuesto = nio.parsePresupuesto(new ByteArrayInputStream(archivo), leida, ProgresoProcesado.NINGUNO);
+			assertEquals(cabecera.getValue(), presupuesto.anio(), cabecera.getKey());
+			assertFalse(presupuesto.gastos().isEmpty());
+			comparar(comunidad, archivo);
+		}
+		assertNull(leida.getAnioPresupuesto());
+	}
+
+	@Test
+	void importesConFraccionesDeCentimo() throws IOException {
+		byte[] comunidad = Files.readAllBytes(Path.of("archivos/Comunidad.txt"));
+		String gastos = new String(Files.readAllBytes(Path.of("archivos/Gastos.txt")), StandardCharsets.UTF_8);
+		Comunidad leida = nio.parseComunidad(new ByteArrayInputStream(comunidad));
+		String zona = leida.getZonas().get(0).getId();
+		byte[] fraccion = (gastos + "\nX01;Fracción;10.005;" + zona + "\n").getBytes(StandardCharsets.UTF_8);
+		// Los dos parsers los aceptan tal cual, como siempre
+		comparar(comunidad, fraccion);
+
+		leida.setGastos(nio.parsePresupuesto(new ByteArrayInputStream(fraccion), leida, ProgresoProcesado.NINGUNO).gastos());
+		Gasto gasto = leida.getGastos().stream().filter(g -> g.getId().equals("X01")).findFirst().orElseThrow();
+		assertEquals("10.005", gasto.getImporte().toPlainString());
+
+		// El motor BigDecimal los reparte; el de céntimos no redondea el total de la zona, sino que falla
+		CalculadoraCuotas calculadora = new CalculadoraCuotas();
+		calculadora.calcularCuotas(leida, leida.getGastos(), MotorCalculo.BIG_DECIMAL);
+		IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+			() -> calculadora.calcularCuotas(leida, leida.getGastos(), MotorCalculo.CENTIMOS));
+		assertTrue(error.getMessage().contains("más de dos decimales"), error.getMessage());
+	}
+
+	private void comparar(byte[] comunidad, byte[] gastos) throws IOException {
+		Comunidad esperada = clasico.parseComunidad(new ByteArrayInputStream(comunidad));
+		FileParser.Presupuesto presupuestoEsperado = clasico.parsePresupuesto(new ByteArrayInputStream(gastos), esperada, ProgresoProcesado.NINGUNO);
+		Comunidad leida = nio.parseComunidad(new ByteArrayInputStream(comunidad));
+		FileParser.Presupuesto presupuestoLeido = nio.parsePresupuesto(new ByteArrayInputStream(gastos), leida, ProgresoProcesado.NINGUNO);
+		assertEquals(presupuestoEsperado.anio(), presupuestoLeido.anio());
+		assertIguales(esperada, presupuestoEsperado.gastos(), leida, presupuestoLeido.gastos());
+	}
+
+	private void compararFicheros(Path comunidad, Path gastos) throws IOException {
+		Comunidad esperada = clasico.parseComunidad(Files.newInputStream(comunidad));
+		FileParser.Presupuesto presupuestoEsperado = clasico.parsePresupuesto(Files.newInputStream(gastos), esperada, ProgresoProcesado.NINGUNO);
+		Comunidad leida = nio.parseComunidad(comunidad);
+		FileParser.Presupuesto presupuestoLeido = nio.parsePresupuesto(gastos, leida);
+		assertEquals(presupuestoEsperado.anio(), presupuestoLeido.anio());
+		assertIguales(esperada, presupuestoEsperado.gastos(), leida, presupuestoLeido.gastos());
+	}
+
+	/**
+	 * Compara los modelos completos y, como las igualdades excluyen las referencias entre
+	 * propiedades y propietarios, también esas referencias.
+	 */
+	static void assertIguales(Comunidad esperada, List<Gasto> gastosEsperados, Comunidad leida, List<Gasto> gastosLeidos) {
+		assertFalse(esperada.getPropiedades().isEmpty());
+		assertEquals(gastosEsperados, gastosLeidos);
+		assertEquals(esperada, leida);
+		for (int i = 0; i < esperada.getPropiedades().size(); i++) {
+			Propiedad propiedad = leida.getPropiedades().get(i);
+			assertEquals(esperada.getPropiedades().get(i).getPropietario(), propiedad.getPropietario());
+			if (propiedad.getPropietario() != null) {
+				assertTrue(propiedad.getPropietario().getPropiedades().contains(propiedad));
+			}
+		}
+		for (int i = 0; i < esperada.getPropietarios().size(); i++) {
+			Propietario propietario = leida.getPropietarios().get(i);
+			assertEquals(codigos(esperada.getPropietarios().get(i)), codigos(propietario));
+			propietario.getPropiedades().forEach(propiedad -> assertSame(propietario, propiedad.getPropietario()));
+		}
+	}
+
+	static byte[] convertir(byte[] contenido, String fin) {
+		return new String(contenido, StandardCharsets.UTF_8).replace("\r\n", "\n").replace("\n", fin)
+			.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> codigos(Propietario propietario) {
+		return propietario.getPropiedades().stream().map(Propiedad::getCodigo).toList();
+	}
+}
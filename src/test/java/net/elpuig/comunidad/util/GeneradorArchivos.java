@@ -0,0 +1,290 @@
+package net.elpuig.comunidad.util;
+
+import lombok.Data;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Generador de archivos de comunidad y de gastos sintéticos, con el mismo formato que
+ * los de {@code archivos/}, para los tests, las pruebas de carga y los benchmarks. Es código de
+ * pruebas: no se incluye en el war, y el módulo de benchmarks lo recibe en el jar de tests.
+ *
+ * Mezcla zonas de reparto proporcional e igualitario, locales, pisos y garajes, propiedades
+ * que participan en varias zonas ({@code E-15,C-20}) y propietarios con muchas propiedades:
+ * el reparto de propiedades entre propietarios se controla con un sesgo (0 = uniforme).
+ * Las líneas se escriben a medida que se generan, sin guardar nada en memoria, por lo que
+ * el tamaño de los archivos no está limitado por el heap. Con la misma configuración y
+ * semilla se generan siempre los mismos archivos.
+ *
+ * Se puede ejecutar sin el resto de la aplicación:
+ * {@code java -cp target/test-classes net.elpuig.comunidad.util.GeneradorArchivos salida=/tmp/edificio propiedades=1000000}
+ */
+public final class GeneradorArchivos {
+
+    private static final int TAM_BUFFER = 64 * 1024;
+
+    private static final String[] NOMBRES_ZONA = {"Escalera", "Garaje", "Zona Común"};
+    private static final String[] ACTIVIDADES = {"Banca", "Seguros", "Alimentación", "Farmacia", "Restauración"};
+    private static final String[] INFO_PISO = {"HH", "HNH", "VH", "VNH"};
+    private static final String[] NOMBRES = {"Laura", "Jorge", "Maria", "Miguel", "Nuria", "Ricardo", "Paula", "Juan"};
+    private static final String[] APELLIDOS = {"Martínez", "Salas", "Gutierrez", "Palacios", "Mas", "Torres", "Cabos"};
+    private static final String[] DIRECCIONES = {"Barcelona (Barcelona)", "Sabadell (Barcelona)",
+        "Terrassa (Barcelona)", "Badalona (Barcelona)", "Alcorcón (Madrid)"};
+    /** Categorías de gasto: prefijo del código y descripción */
+    private static final String[][] CATEGORIAS = {
+        {"LI", "Limpieza"}, {"L", "Luz"}, {"A", "Agua"}, {"AS", "Seguro"}, {"OB", "Obras"},
+        {"JA", "Jardinero"}, {"AN", "Antena"}, {"MA", "Mantenimiento"}
+    };
+
+    /**
+     * Parámetros de la generación. Los valores por defecto corresponden aproximadamente
+     * a los archivos de ejemplo.
+     */
+    @Data
+    public static class Configuracion {
+        private String comunidadId = "01";
+        private String nombre = "Sintética";
+        private String poblacion = "Barcelona";
+        private int propiedades = 20;
+        private int propietarios = 15;
+        private int zonas = 3;
+        /** Número de zonas en que participa cada propiedad (como máximo, el de zonas) */
+        private int zonasPorPropiedad = 2;
+        /** Concentración de propiedades en pocos propietarios: 0 = uniforme, 2 = muy concentrada */
+        private double sesgo = 1.0;
+        /** Proporción de locales y de garajes; el resto son pisos */
+        private double proporcionLocales = 0.15;
+        private double proporcionGarajes = 0.35;
+        private int gastos = 14;
+        private int anio = 2008;
+        private long semilla = 42;
+    }
+
+    private final Configuracion configuracion;
+
+    public GeneradorArchivos(Configuracion configuracion) {
+        if (configuracion.getPropiedades() < 0 || configuracion.getGastos() < 0) {
+            throw new IllegalArgumentException("El número de propiedades y de gastos no puede ser negativo");
+        }
+        if (configuracion.getZonas() < 1 || configuracion.getPropietarios() < 1) {
+            throw new IllegalArgumentException("Debe haber al menos una zona y un propietario");
+        }
+        if (configuracion.getSesgo() < 0) {
+            throw new IllegalArgumentException("El sesgo no puede ser negativo");
+        }
+        this.configuracion = configuracion;
+    }
+
+    /**
+     * Escribe el archivo de comunidad: #Comunidad, #Zona, #Propiedad y #Propietario.
+     * El stream no se cierra.
+     *
+     * @param salida Stream donde escribir, en UTF-8
+     * @throws IOException Si hay un error al escribir
+     */
+    public void escribirComunidad(OutputStream salida) throws IOException {
+        SplittableRandom random = new SplittableRandom(configuracion.getSemilla());
+        Writer out = escritor(salida);
+        int zonas = configuracion.getZonas();
+        int propietarios = configuracion.getPropietarios();
+        int ancho = Math.max(2, String.valueOf(propietarios).length());
+
+        out.write("#Comunidad\n");
+        linea(out, configuracion.getComunidadId(), configuracion.getNombre(), configuracion.getPoblacion());
+
+        out.write("\n#Zona\n");
+        for (int z = 0; z < zonas; z++) {
+            String nombre = z < NOMBRES_ZONA.length ? NOMBRES_ZONA[z] : "Zona " + z;
+            // Escalera proporcional, garaje y zona común igualitarias, el resto al azar
+            char tipo = z == 0 ? 'P' : z < NOMBRES_ZONA.length ? 'I' : random.nextBoolean() ? 'P' : 'I';
+            linea(out, idZona(z), nombre, String.valueOf(tipo));
+        }
+
+        out.write("\n#Propiedad\n");
+        int porPropiedad = Math.max(1, Math.min(configuracion.getZonasPorPropiedad(), zonas));
+        double exponente = 1 + configuracion.getSesgo();
+        for (int p = 0; p < configuracion.getPropiedades(); p++) {
+            double tipoAzar = random.nextDouble();
+            String tipo = tipoAzar < configuracion.getProporcionGarajes() ? "G"
+                : tipoAzar < configuracion.getProporcionGarajes() + configuracion.getProporcionLocales() ? "L" : "P";
+            int metros = "G".equals(tipo) ? 10 + random.nextInt(8) : 50 + random.nextInt(120);
+            // Los primeros códigos de propietario acumulan más propiedades cuanto mayor es el sesgo
+            int propietario = (int) (propietarios * Math.pow(random.nextDouble(), exponente));
+
+            out.write(tipo);
+            out.write(';');
+            out.write(tipo);
+            out.write(String.valueOf(p + 1));
+            out.write(';');
+            out.write(String.valueOf(metros));
+            out.write(';');
+            out.write(codigo(propietario, ancho));
+            out.write(';');
+            escribirPorcentajes(out, random, tipo, metros, porPropiedad);
+            out.write(';');
+            if ("G".equals(tipo)) {
+                out.write(random.nextBoolean() ? "A" : "C");
+                out.write(random.nextBoolean() ? ";S" : ";N");
+            } else if ("L".equals(tipo)) {
+                out.write("Local " + (p + 1));
+                out.write(';');
+                out.write(ACTIVIDADES[random.nextInt(ACTIVIDADES.length)]);
+            } else {
+                out.write(INFO_PISO[random.nextInt(INFO_PISO.length)]);
+                out.write(';');
+                out.write(String.valueOf(1 + random.nextInt(5)));
+            }
+            out.write('\n');
+        }
+
+        out.write("\n#Propietario\n");
+        for (int o = 0; o < propietarios; o++) {
+            String nombre = NOMBRES[o % NOMBRES.length] + " " + APELLIDOS[(o / NOMBRES.length) % APELLIDOS.length];
+            String direccion = DIRECCIONES[random.nextInt(DIRECCIONES.length)];
+            linea(out, codigo(o, ancho), nombre, direccion, "p" + codigo(o, ancho) + "@correo.net");
+        }
+        out.flush();
+    }
+
+    /**
+     * Escribe las zonas de una propiedad: los garajes empiezan por la zona de garaje y el
+     * resto por la escalera; las demás se eligen seguidas a partir de una zona al azar.
+     */
+    private void escribirPorcentajes(Writer out, SplittableRandom random, String tipo, int metros,
+                                     int porPropiedad) throws IOException {
+        int zonas = configuracion.getZonas();
+        int primera = "G".equals(tipo) && zonas > 1 ? 1 : 0;
+        porcentaje(out, primera, metros, random);
+        int inicio = random.nextInt(zonas);
+        for (int j = 0, escritas = 1; escritas < porPropiedad; j++) {
+            int zona = (inicio + j) % zonas;
+            if (zona != primera) {
+                out.write(',');
+                porcentaje(out, zona, metros, random);
+                escritas++;
+            }
+        }
+    }
+
+    private void porcentaje(Writer out, int zona, int metros, SplittableRandom random) throws IOException {
+        out.write(idZona(zona));
+        out.write('-');
+        out.write(String.valueOf(Math.max(1, metros / 10 + random.nextInt(5))));
+    }
+
+    /**
+     * Escribe el archivo de gastos (#Presupuesto con el año configurado). Cada gasto se
+     * imputa a una zona al azar. El stream no se cierra.
+     *
+     * @param salida Stream donde escribir, en UTF-8
+     * @throws IOException Si hay un error al escribir
+     */
+    public void escribirGastos(OutputStream salida) throws IOException {
+        SplittableRandom random = new SplittableRandom(configuracion.getSemilla() ^ 0x5DEECE66DL);
+        Writer out = escritor(salida);
+        out.write("#Presupuesto " + configuracion.getAnio() + "\n");
+        for (int g = 0; g < configuracion.getGastos(); g++) {
+            String[] categoria = CATEGORIAS[random.nextInt(CATEGORIAS.length)];
+            int zona = random.nextInt(configuracion.getZonas());
+            String zonaNombre = zona < NOMBRES_ZONA.length ? NOMBRES_ZONA[zona] : "Zona " + zona;
+            long centimos = 1000 + random.nextLong(500_000);
+            linea(out, categoria[0] + String.format(Locale.ROOT, "%04d", g + 1), categoria[1] + " " + zonaNombre,
+                centimos / 100 + "." + String.format(Locale.ROOT, "%02d", centimos % 100), idZona(zona));
+        }
+        out.flush();
+    }
+
+    /**
+     * Escribe la pareja de archivos en un directorio como {@code comunidad.txt} y
+     * {@code gastos.txt}, los nombres que esperan la subida y el procesado en lote.
+     *
+     * @param directorio Directorio de salida; se crea si no existe
+     * @throws IOException Si hay un error al escribir
+     */
+    public void escribir(Path directorio) throws IOException {
+        Files.createDirectories(directorio);
+        try (OutputStream comunidad = Files.newOutputStream(directorio.resolve("comunidad.txt"))) {
+            escribirComunidad(comunidad);
+        }
+        try (OutputStream gastos = Files.newOutputStream(directorio.resolve("gastos.txt"))) {
+            escribirGastos(gastos);
+        }
+    }
+
+    private static Writer escritor(OutputStream salida) {
+        return new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), TAM_BUFFER);
+    }
+
+    private static void linea(Writer out, String... campos) throws IOException {
+        for (int i = 0; i < campos.length; i++) {
+            if (i > 0) {
+                out.write(';');
+            }
+            out.write(campos[i]);
+        }
+        out.write('\n');
+    }
+
+    /** Las tres primeras zonas usan los códigos de los ejemplos (E, G, C) */
+    private static String idZona(int zona) {
+        return switch (zona) {
+            case 0 -> "E";
+            case 1 -> "G";
+            case 2 -> "C";
+            default -> "Z" + zona;
+        };
+    }
+
+    private static String codigo(int numero, int ancho) {
+        String codigo = String.valueOf(numero + 1);
+        return codigo.length() >= ancho ? codigo : "0".repeat(ancho - codigo.length()) + codigo;
+    }
+
+    /**
+     * Genera una pareja de archivos desde la línea de comandos. Los parámetros se indican
+     * como {@code clave=valor} con los nombres de {@link Configuracion}, más {@code salida}
+     * (directorio, obligatorio).
+     */
+    public static void main(String[] args) throws IOException {
+        Configuracion configuracion = new Configuracion();
+        Path salida = null;
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                throw new IllegalArgumentException("Parámetro no válido: " + arg + " (se espera clave=valor)");
+            }
+            String clave = arg.substring(0, igual);
+            String valor = arg.substring(igual + 1);
+            switch (clave) {
+                case "salida" -> salida = Paths.get(valor);
+                case "comunidadId" -> configuracion.setComunidadId(valor);
+                case "nombre" -> configuracion.setNombre(valor);
+                case "poblacion" -> configuracion.setPoblacion(valor);
+                case "propiedades" -> configuracion.setPropiedades(Integer.parseInt(valor));
+                case "propietarios" -> configuracion.setPropietarios(Integer.parseInt(valor));
+                case "zonas" -> configuracion.setZonas(Integer.parseInt(valor));
+                case "zonasPorPropiedad" -> configuracion.setZonasPorPropiedad(Integer.parseInt(valor));
+                case "sesgo" -> configuracion.setSesgo(Double.parseDouble(valor));
+                case "proporcionLocales" -> configuracion.setProporcionLocales(Double.parseDouble(valor));
+                case "proporcionGarajes" -> configuracion.setProporcionGarajes(Double.parseDouble(valor));
+                case "gastos" -> configuracion.setGastos(Integer.parseInt(valor));
+                case "anio" -> configuracion.setAnio(Integer.parseInt(valor));
+                case "semilla" -> configuracion.setSemilla(Long.parseLong(valor));
+                default -> throw new IllegalArgumentException("Parámetro desconocido: " + clave);
+            }
+        }
+        if (salida == null) {
+            throw new IllegalArgumentException("Debe indicar el directorio de salida (salida=...)");
+        }
+        new GeneradorArchivos(configuracion).escribir(salida);
+    }
+}
@@ -0,0 +1,119 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.PresupuestoAnual;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * El historial devuelve el último registro de cada año tal como se escribió, descarta lo que
+ * sigue al último registro completo si el archivo se cortó a mitad de uno, y al reescribirlo
+ * solo conserva los presupuestos indicados.
+ */
+class HistorialBinarioTest {
+
+	private final HistorialBinario historial = new HistorialBinario();
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void leeLoQueSeHaAnadido() throws IOException {
+		Path fichero = temporal.resolve("A" + HistorialBinario.EXTENSION);
+		long longitud = historial.anadir(presupuesto(2023, 1, 6800), fichero, -1);
+		longitud = historial.anadir(presupuesto(2024, 2, 7667), fichero, longitud);
+		longitud = historial.anadir(presupuesto(2024, 3, 9000), fichero, longitud);
+
+		HistorialBinario.Contenido contenido = historial.leer(fichero, "A");
+		assertFalse(contenido.danado());
+		assertEquals(3, contenido.registros());
+		assertEquals(longitud, contenido.longitudValida());
+		assertEquals(Files.size(fichero), longitud);
+		// El último registro de 2024 sustituye al anterior
+		assertEquals(2, contenido.presupuestos().size());
+		assertIguales(presupuesto(2023, 1, 6800), contenido.presupuestos().get(0));
+		assertIguales(presupuesto(2024, 3, 9000), contenido.presupuestos().get(1));
+	}
+
+	@Test
+	void descartaElRegistroCortado() throws IOException {
+		Path fichero = temporal.resolve("A" + HistorialBinario.EXTENSION);
+		long completo = historial.anadir(presupuesto(2023, 1, 6800), fichero, -1);
+		long longitud = historial.anadir(presupuesto(2024, 2, 7667), fichero, completo);
+		// La aplicación se detuvo a mitad del segundo registro
+		byte[] bytes = Files.readAllBytes(fichero);
+		Files.write(fichero, Arrays.copyOf(bytes, (int) (completo + (longitud - completo) / 2)));
+
+		HistorialBinario.Contenido contenido = historial.leer(fichero, "A");
+		assertTrue(contenido.danado());
+		assertEquals(1, contenido.registros());
+		assertEquals(completo, contenido.longitudValida());
+		assertEquals(List.of(2023), contenido.presupuestos().stream().map(PresupuestoAnual::getAnio).toList());
+
+		// Al añadir desde la longitud válida se pisa lo que quedaba del registro cortado
+		historial.anadir(presupuesto(2024, 3, 9000), fichero, contenido.longitudValida());
+		contenido = historial.leer(fichero, "A");
+		assertFalse(contenido.danado());
+		assertEquals(2, contenido.registros());
+		assertIguales(presupuesto(2024, 3, 9000), contenido.presupuestos().get(1));
+	}
+
+	@Test
+	void reescribirSoloConservaLosIndicados() throws IOException {
+		Path fichero = temporal.resolve("A" + HistorialBinario.EXTENSION);
+		long longitud = -1;
+		for (int version = 1; version <= 5; version++) {
+			longitud = historial.anadir(presupuesto(2024, version, 7000 + version), fichero, longitud);
+		}
+		longitud = historial.reescribir(historial.leer(fichero, "A").presupuestos(), fichero);
+
+		HistorialBinario.Contenido contenido = historial.leer(fichero, "A");
+		assertEquals(1, contenido.registros());
+		assertEquals(longitud, Files.size(fichero));
+		assertIguales(presupuesto(2024, 5, 7005), contenido.presupuestos().get(0));
+	}
+
+	/** Presupuesto de dos propiedades y dos propietarios; P1 y el propietario 01 cuestan lo indicado */
+	private static PresupuestoAnual presupuesto(int anio, long version, long centimos) {
+		return new PresupuestoAnual("A", anio, version, Instant.ofEpochMilli(1_700_000_000_000L + version), 3,
+			BigDecimal.valueOf(centimos + 5200, 2),
+			new String[] {"E", "J"}, new String[] {"Escalera", "Jardín"},
+			new BigDecimal[] {BigDecimal.valueOf(centimos, 2), new BigDecimal("52.00")},
+			new String[] {"P1", "P10", "P2"}, new long[] {centimos, 0, 5200},
+			new String[] {"01", "02"}, new String[] {"Ana Pons", null}, new long[] {centimos, 5200});
+	}
+
+	private static void assertIguales(PresupuestoAnual esperado, PresupuestoAnual leido) {
+		assertEquals(esperado.getComunidad(), leido.getComunidad());
+		assertEquals(esperado.getAnio(), leido.getAnio());
+		assertEquals(esperado.getVersion(), leido.getVersion());
+		assertEquals(esperado.getRegistrado(), leido.getRegistrado());
+		assertEquals(esperado.getNumeroGastos(), leido.getNumeroGastos());
+		assertEquals(esperado.getTotalGeneral(), leido.getTotalGeneral());
+		assertEquals(esperado.numeroZonas(), leido.numeroZonas());
+		for (int i = 0; i < esperado.numeroZonas(); i++) {
+			assertEquals(esperado.zona(i), leido.zona(i));
+			assertEquals(esperado.nombreZona(i), leido.nombreZona(i));
+			assertEquals(esperado.totalZona(i), leido.totalZona(i));
+		}
+		assertEquals(esperado.numeroPropiedades(), leido.numeroPropiedades());
+		for (int i = 0; i < esperado.numeroPropiedades(); i++) {
+			assertEquals(esperado.codigoPropiedad(i), leido.codigoPropiedad(i));
+			assertEquals(esperado.centimosPropiedad(i), leido.centimosPropiedad(i));
+		}
+		assertEquals(esperado.numeroPropietarios(), leido.numeroPropietarios());
+		for (int i = 0; i < esperado.numeroPropietarios(); i++) {
+			assertEquals(esperado.codigoPropietario(i), leido.codigoPropietario(i));
+			assertEquals(esperado.nombrePropietario(i), leido.nombrePropietario(i));
+			assertEquals(esperado.centimosPropietario(i), leido.centimosPropietario(i));
+		}
+	}
+}
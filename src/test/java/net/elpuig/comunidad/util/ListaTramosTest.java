@@ -0,0 +1,37 @@
+package net.elpuig.comunidad.util;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Una versión con cambios tiene los elementos nuevos en sus posiciones y la original no cambia.
+ */
+class ListaTramosTest {
+
+	@Test
+	void conCambiosNoModificaLaOriginal() {
+		int size = 3 * ListaTramos.TAMANO_TRAMO + 17;
+		List<Integer> original = IntStream.range(0, size).boxed().toList();
+		ListaTramos<Integer> lista = ListaTramos.de(original);
+		assertEquals(original, lista);
+		assertSame(lista, ListaTramos.de(lista));
+
+		int ultima = size - 1;
+		ListaTramos<Integer> cambiada = lista.con(Map.of(0, -1, ListaTramos.TAMANO_TRAMO, -2, ultima, -3));
+
+		List<Integer> esperada = new ArrayList<>(original);
+		esperada.set(0, -1);
+		esperada.set(ListaTramos.TAMANO_TRAMO, -2);
+		esperada.set(ultima, -3);
+		assertEquals(esperada, cambiada);
+		assertEquals(original, lista);
+		assertSame(lista, lista.con(Map.of()));
+		assertThrows(IndexOutOfBoundsException.class, () -> lista.con(Map.of(size, 0)));
+		assertThrows(UnsupportedOperationException.class, () -> cambiada.set(1, 0));
+	}
+}
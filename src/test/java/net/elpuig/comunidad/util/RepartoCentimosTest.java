@@ -0,0 +1,78 @@
+package net.elpuig.comunidad.util;
+
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cuando la suma de los pesos es tan grande que resto * n no cabe en un long, el reparto por
+ * umbral da las mismas cuotas que las claves empaquetadas. Multiplicar todos los pesos por la
+ * misma constante no cambia las cuotas ni el orden de los restos, así que se comparan los dos
+ * caminos con los mismos pesos escalados.
+ */
+class RepartoCentimosTest {
+
+	private final RepartoCentimos reparto = new RepartoCentimos();
+
+	@Test
+	void sinClavesEmpaquetadasRepartePorMayorRestoYPosicion() {
+		// 100 entre 2, 2, 2 y 1: 28 (resto 4) tres veces y 14 (resto 2); los dos céntimos
+		// sobrantes van a las dos primeras de las tres empatadas
+		long[] pesos = {2, 2, 2, 1};
+		assertArrayEquals(new long[] {29, 29, 28, 14}, repartir(100, pesos));
+		assertArrayEquals(new long[] {29, 29, 28, 14}, repartir(100, escalar(pesos)));
+
+		// 100 entre 1, 3 y 3: los céntimos van a los mayores restos aunque no sean los primeros
+		pesos = new long[] {1, 3, 3};
+		assertArrayEquals(new long[] {14, 43, 43}, repartir(100, escalar(pesos)));
+	}
+
+	@Test
+	void sinClavesEmpaquetadasIgualQueConClaves() {
+		Random aleatorio = new Random(7);
+		for (int prueba = 0; prueba < 50; prueba++) {
+			int n = 1 + aleatorio.nextInt(500);
+			long[] pesos = new long[n];
+			for (int i = 0; i < n; i++) {
+				// Pocos valores distintos para que haya muchos empates
+				pesos[i] = 1 + aleatorio.nextInt(5);
+			}
+			long total = aleatorio.nextInt(1_000_000) - 1_000;
+			long[] conClaves = repartir(total, pesos);
+			long[] sinClaves = repartir(total, escalar(pesos));
+			assertArrayEquals(conClaves, sinClaves, "prueba " + prueba);
+			assertEquals(total, Arrays.stream(sinClaves).sum());
+		}
+	}
+
+	@Test
+	void zonaGrandeSinClavesEmpaquetadas() {
+		int n = 199_999;
+		long[] pesos = new long[n];
+		for (int i = 0; i < n; i++) {
+			pesos[i] = 1 + i % 3;
+		}
+		long total = 12_345_678_901L;
+		long inicio = System.nanoTime();
+		long[] sinClaves = repartir(total, escalar(pesos));
+		long duracion = System.nanoTime() - inicio;
+		assertArrayEquals(repartir(total, pesos), sinClaves);
+		assertEquals(total, Arrays.stream(sinClaves).sum());
+		assertTrue(duracion < 5_000_000_000L, "reparto de " + n + " propiedades: " + duracion / 1_000_000 + " ms");
+	}
+
+	private long[] repartir(long total, long[] pesos) {
+		long totalPesos = Arrays.stream(pesos).sum();
+		return Arrays.copyOf(reparto.repartirProporcional(total, pesos, pesos.length, totalPesos), pesos.length);
+	}
+
+	/** Escala los pesos para que la suma pase de Long.MAX_VALUE / n sin desbordar */
+	private static long[] escalar(long[] pesos) {
+		long totalPesos = Arrays.stream(pesos).sum();
+		long factor = Long.MAX_VALUE / totalPesos / 2;
+		assertTrue(totalPesos * factor > Long.MAX_VALUE / pesos.length || pesos.length < 3);
+		return Arrays.stream(pesos).map(peso -> peso * factor).toArray();
+	}
+}
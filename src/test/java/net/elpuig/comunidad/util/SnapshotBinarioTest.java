@@ -0,0 +1,95 @@
+package net.elpuig.comunidad.util;
+
+import net.elpuig.comunidad.model.Comunidad;
+import net.elpuig.comunidad.model.FilaComunidad;
+import net.elpuig.comunidad.model.Zona;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Un snapshot tiene que devolver la misma comunidad que se escribió, y cualquier byte cambiado
+ * en el fichero tiene que detectarse al leerlo entero.
+ */
+class SnapshotBinarioTest {
+
+	private final FileParserNio parser = new FileParserNio(StandardCharsets.UTF_8);
+	private final CalculadoraCuotas calculadora = new CalculadoraCuotas();
+	private final SnapshotBinario snapshotBinario = new SnapshotBinario();
+
+	@TempDir
+	Path temporal;
+
+	@Test
+	void idaYVuelta() throws IOException {
+		GeneradorArchivos.Configuracion configuracion = new GeneradorArchivos.Configuracion();
+		configuracion.setPropiedades(3_000);
+		configuracion.setPropietarios(700);
+		configuracion.setZonasPorPropiedad(3);
+		Path generada = temporal.resolve("generada");
+		new GeneradorArchivos(configuracion).escribir(generada);
+
+		for (MotorCalculo motor : MotorCalculo.values()) {
+			comprobarIdaYVuelta(calcular(Path.of("archivos/Comunidad.txt"), Path.of("archivos/Gastos.txt"), motor), 7);
+			comprobarIdaYVuelta(calcular(generada.resolve("comunidad.txt"), generada.resolve("gastos.txt"), motor), 1);
+		}
+	}
+
+	@Test
+	void rechazaUnByteCambiado() throws IOException {
+		Comunidad comunidad = calcular(Path.of("archivos/Comunidad.txt"), Path.of("archivos/Gastos.txt"), MotorCalculo.CENTIMOS);
+		Path fichero = temporal.resolve("comunidad" + SnapshotBinario.EXTENSION);
+		snapshotBinario.escribir(comunidad, 3, fichero);
+		byte[] original = Files.readAllBytes(fichero);
+
+		Path danado = temporal.resolve("danado" + SnapshotBinario.EXTENSION);
+		for (int i = 0; i < original.length; i++) {
+			byte[] cambiado = original.clone();
+			cambiado[i] ^= 0x01;
+			Files.write(danado, cambiado);
+			int posicion = i;
+			assertThrows(IllegalArgumentException.class, () -> snapshotBinario.leerContenido(danado),
+				() -> "Byte " + posicion + " de " + original.length);
+		}
+	}
+
+	private void comprobarIdaYVuelta(Comunidad comunidad, long version) throws IOException {
+		comunidad.setAnioPresupuesto(2026);
+		Path fichero = temporal.resolve(comunidad.getId() + SnapshotBinario.EXTENSION);
+		snapshotBinario.escribir(comunidad, version, fichero);
+
+		SnapshotBinario.Contenido contenido = snapshotBinario.leerContenido(fichero);
+		// Sin assertEquals: el mensaje de error usaría los toString, que se recorren entre
+		// propiedades y propietarios sin fin
+		assertTrue(comunidad.equals(contenido.comunidad()), "Comunidad " + comunidad.getId());
+		FileParserNioTest.assertIguales(comunidad, comunidad.getGastos(), contenido.comunidad(), contenido.comunidad().getGastos());
+
+		FilaComunidad ficha = contenido.ficha();
+		assertEquals(comunidad.getId(), ficha.getId());
+		assertEquals(version, ficha.getVersion());
+		assertEquals(2026, ficha.getAnioPresupuesto());
+		assertEquals(comunidad.getPropiedades().size(), ficha.getPropiedades());
+		assertEquals(comunidad.getPropietarios().size(), ficha.getPropietarios());
+		assertEquals(comunidad.getGastos().size(), ficha.getGastos());
+		assertEquals(0, comunidad.getTotalGeneral().compareTo(ficha.getTotalGeneral()));
+		for (Map.Entry<Zona, BigDecimal> total : comunidad.getTotalesPorZona().entrySet()) {
+			assertEquals(0, total.getValue().compareTo(ficha.getTotalesPorZona().get(total.getKey().getId())));
+		}
+		assertEquals(ficha, snapshotBinario.leerFicha(fichero));
+	}
+
+	private Comunidad calcular(Path archivoComunidad, Path archivoGastos, MotorCalculo motor) throws IOException {
+		Comunidad comunidad = parser.parseComunidad(archivoComunidad);
+		comunidad.setGastos(parser.parseGastos(archivoGastos, comunidad));
+		calculadora.calcularCuotas(comunidad, comunidad.getGastos(), motor);
+		calculadora.generarResumen(comunidad, comunidad.getGastos());
+		return comunidad;
+	}
+}